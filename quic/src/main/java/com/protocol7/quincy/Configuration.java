@@ -1,6 +1,8 @@
 package com.protocol7.quincy;
 
+import com.protocol7.quincy.memory.MemoryBudget;
 import com.protocol7.quincy.protocol.Version;
+import com.protocol7.quincy.streams.StreamScheduling;
 import com.protocol7.quincy.tls.extensions.TransportParameters;
 
 public class Configuration {
@@ -17,6 +19,16 @@ public class Configuration {
   private final int initialMaxStreamDataBidiRemote;
   private final int initialMaxStreamDataUni;
   private final int maxAckDelay;
+  private final boolean gso;
+  private final int maxConnections;
+  private final int retryHandshakeThreshold;
+  private final int retryHandshakeCpuThreshold;
+  private final int retryUnvalidatedBytesThreshold;
+  private final StreamScheduling streamScheduling;
+  private final int maxStreamReceiveWindow;
+  private final int maxConnectionReceiveWindow;
+  private final MemoryBudget memoryBudget;
+  private final double maxStreamsUpdateFraction;
 
   public Configuration(
       final Version version,
@@ -30,7 +42,17 @@ public class Configuration {
       final boolean disableMigration,
       final int initialMaxStreamDataBidiRemote,
       final int initialMaxStreamDataUni,
-      final int maxAckDelay) {
+      final int maxAckDelay,
+      final boolean gso,
+      final int maxConnections,
+      final int retryHandshakeThreshold,
+      final int retryHandshakeCpuThreshold,
+      final int retryUnvalidatedBytesThreshold,
+      final StreamScheduling streamScheduling,
+      final int maxStreamReceiveWindow,
+      final int maxConnectionReceiveWindow,
+      final MemoryBudget memoryBudget,
+      final double maxStreamsUpdateFraction) {
     this.version = version;
     this.initialMaxStreamDataBidiLocal = initialMaxStreamDataBidiLocal;
     this.initialMaxData = initialMaxData;
@@ -43,6 +65,16 @@ public class Configuration {
     this.initialMaxStreamDataBidiRemote = initialMaxStreamDataBidiRemote;
     this.initialMaxStreamDataUni = initialMaxStreamDataUni;
     this.maxAckDelay = maxAckDelay;
+    this.gso = gso;
+    this.maxConnections = maxConnections;
+    this.retryHandshakeThreshold = retryHandshakeThreshold;
+    this.retryHandshakeCpuThreshold = retryHandshakeCpuThreshold;
+    this.retryUnvalidatedBytesThreshold = retryUnvalidatedBytesThreshold;
+    this.streamScheduling = streamScheduling;
+    this.maxStreamReceiveWindow = maxStreamReceiveWindow;
+    this.maxConnectionReceiveWindow = maxConnectionReceiveWindow;
+    this.memoryBudget = memoryBudget;
+    this.maxStreamsUpdateFraction = maxStreamsUpdateFraction;
   }
 
   public Version getVersion() {
@@ -93,6 +125,53 @@ public class Configuration {
     return maxAckDelay;
   }
 
+  public boolean isGso() {
+    return gso;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /** Number of in-flight handshakes above which new connections must validate using Retry. */
+  public int getRetryHandshakeThreshold() {
+    return retryHandshakeThreshold;
+  }
+
+  /** Handshake processing time, in ms per second, above which Retry is required. */
+  public int getRetryHandshakeCpuThreshold() {
+    return retryHandshakeCpuThreshold;
+  }
+
+  /** Bytes per second received from unvalidated peers above which Retry is required. */
+  public int getRetryUnvalidatedBytesThreshold() {
+    return retryUnvalidatedBytesThreshold;
+  }
+
+  public StreamScheduling getStreamScheduling() {
+    return streamScheduling;
+  }
+
+  /** Ceiling for auto-tuning the receive window of a stream, in bytes. */
+  public int getMaxStreamReceiveWindow() {
+    return maxStreamReceiveWindow;
+  }
+
+  /** Ceiling for auto-tuning the receive window of a connection, in bytes. */
+  public int getMaxConnectionReceiveWindow() {
+    return maxConnectionReceiveWindow;
+  }
+
+  /** Budget for the memory held in stream data buffers, shared by all connections. */
+  public MemoryBudget getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /** Fraction of the initial stream limits closed before the limits are extended. */
+  public double getMaxStreamsUpdateFraction() {
+    return maxStreamsUpdateFraction;
+  }
+
   public TransportParameters toTransportParameters() {
     return TransportParameters.newBuilder()
         .withInitialMaxStreamDataBidiLocal(initialMaxStreamDataBidiLocal)
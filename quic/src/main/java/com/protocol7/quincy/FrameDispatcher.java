@@ -0,0 +1,122 @@
+package com.protocol7.quincy;
+
+import static java.util.Objects.requireNonNull;
+
+import com.protocol7.quincy.connection.State;
+import com.protocol7.quincy.protocol.frames.AckFrame;
+import com.protocol7.quincy.protocol.frames.ConnectionCloseFrame;
+import com.protocol7.quincy.protocol.frames.Frame;
+import com.protocol7.quincy.protocol.frames.FrameType;
+import com.protocol7.quincy.protocol.frames.MaxDataFrame;
+import com.protocol7.quincy.protocol.frames.MaxStreamDataFrame;
+import com.protocol7.quincy.protocol.frames.MaxStreamsFrame;
+import com.protocol7.quincy.protocol.frames.NewToken;
+import com.protocol7.quincy.protocol.frames.ResetStreamFrame;
+import com.protocol7.quincy.protocol.frames.StreamFrame;
+import com.protocol7.quincy.protocol.frames.StreamsBlockedFrame;
+import com.protocol7.quincy.protocol.packets.FullPacket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Walks the frames of a packet once, switching on the frame type to the typed callbacks of the
+ * handlers registered for it. Dispatching stops once a handler has closed the connection.
+ */
+public class FrameDispatcher {
+
+  private final FrameHandler[] handlers;
+  // by frame type ordinal
+  private final FrameHandler[][] handlersByType;
+
+  public FrameDispatcher(final List<FrameHandler> handlers) {
+    this.handlers = handlers.toArray(new FrameHandler[0]);
+
+    final FrameType[] types = FrameType.values();
+    this.handlersByType = new FrameHandler[types.length][];
+    for (final FrameType type : types) {
+      final List<FrameHandler> registered = new ArrayList<>();
+      for (final FrameHandler handler : handlers) {
+        if (handler.getFrameTypes().contains(type)) {
+          registered.add(handler);
+        }
+      }
+      handlersByType[type.ordinal()] = registered.toArray(new FrameHandler[0]);
+    }
+  }
+
+  public void dispatch(final FullPacket packet, final PipelineContext ctx) {
+    requireNonNull(packet);
+    requireNonNull(ctx);
+
+    // indexed, to not allocate an iterator per packet
+    final List<Frame> frames = packet.getPayload().getFrames();
+    for (int i = 0; i < frames.size(); i++) {
+      if (ctx.getState() == State.Closed) {
+        return;
+      }
+      dispatch(frames.get(i), packet, ctx);
+    }
+
+    for (final FrameHandler handler : handlers) {
+      handler.afterFrames(packet, ctx);
+    }
+  }
+
+  private void dispatch(final Frame frame, final FullPacket packet, final PipelineContext ctx) {
+    final FrameHandler[] registered = handlersByType[frame.getType().ordinal()];
+    if (registered.length == 0) {
+      return;
+    }
+
+    switch (frame.getType()) {
+      case STREAM:
+        for (final FrameHandler handler : registered) {
+          handler.onStreamFrame((StreamFrame) frame, packet, ctx);
+        }
+        break;
+      case RESET_STREAM:
+        for (final FrameHandler handler : registered) {
+          handler.onResetStreamFrame((ResetStreamFrame) frame, packet, ctx);
+        }
+        break;
+      case ACK:
+        for (final FrameHandler handler : registered) {
+          handler.onAckFrame((AckFrame) frame, packet, ctx);
+        }
+        break;
+      case MAX_DATA:
+        for (final FrameHandler handler : registered) {
+          handler.onMaxDataFrame((MaxDataFrame) frame, packet, ctx);
+        }
+        break;
+      case MAX_STREAM_DATA:
+        for (final FrameHandler handler : registered) {
+          handler.onMaxStreamDataFrame((MaxStreamDataFrame) frame, packet, ctx);
+        }
+        break;
+      case MAX_STREAMS:
+        for (final FrameHandler handler : registered) {
+          handler.onMaxStreamsFrame((MaxStreamsFrame) frame, packet, ctx);
+        }
+        break;
+      case STREAMS_BLOCKED:
+        for (final FrameHandler handler : registered) {
+          handler.onStreamsBlockedFrame((StreamsBlockedFrame) frame, packet, ctx);
+        }
+        break;
+      case CONNECTION_CLOSE:
+        for (final FrameHandler handler : registered) {
+          handler.onConnectionCloseFrame((ConnectionCloseFrame) frame, packet, ctx);
+        }
+        break;
+      case NEW_TOKEN:
+        for (final FrameHandler handler : registered) {
+          handler.onNewToken((NewToken) frame, packet, ctx);
+        }
+        break;
+      default:
+        // no typed callback
+        break;
+    }
+  }
+}
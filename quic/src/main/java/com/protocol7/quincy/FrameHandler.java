@@ -0,0 +1,55 @@
+package com.protocol7.quincy;
+
+import com.protocol7.quincy.protocol.frames.AckFrame;
+import com.protocol7.quincy.protocol.frames.ConnectionCloseFrame;
+import com.protocol7.quincy.protocol.frames.FrameType;
+import com.protocol7.quincy.protocol.frames.MaxDataFrame;
+import com.protocol7.quincy.protocol.frames.MaxStreamDataFrame;
+import com.protocol7.quincy.protocol.frames.MaxStreamsFrame;
+import com.protocol7.quincy.protocol.frames.NewToken;
+import com.protocol7.quincy.protocol.frames.ResetStreamFrame;
+import com.protocol7.quincy.protocol.frames.StreamFrame;
+import com.protocol7.quincy.protocol.frames.StreamsBlockedFrame;
+import com.protocol7.quincy.protocol.packets.FullPacket;
+import java.util.Set;
+
+/**
+ * Handles the frames of received packets. Once the inbound handlers are done with a packet, its
+ * frames are walked once by the {@link FrameDispatcher}, and each frame is passed to the handlers
+ * registered for its type, in pipeline order.
+ */
+public interface FrameHandler {
+
+  /** Returns the frame types dispatched to the handler. */
+  Set<FrameType> getFrameTypes();
+
+  default void onStreamFrame(
+      final StreamFrame frame, final FullPacket packet, final PipelineContext ctx) {}
+
+  default void onResetStreamFrame(
+      final ResetStreamFrame frame, final FullPacket packet, final PipelineContext ctx) {}
+
+  default void onAckFrame(
+      final AckFrame frame, final FullPacket packet, final PipelineContext ctx) {}
+
+  default void onMaxDataFrame(
+      final MaxDataFrame frame, final FullPacket packet, final PipelineContext ctx) {}
+
+  default void onMaxStreamDataFrame(
+      final MaxStreamDataFrame frame, final FullPacket packet, final PipelineContext ctx) {}
+
+  default void onMaxStreamsFrame(
+      final MaxStreamsFrame frame, final FullPacket packet, final PipelineContext ctx) {}
+
+  default void onStreamsBlockedFrame(
+      final StreamsBlockedFrame frame, final FullPacket packet, final PipelineContext ctx) {}
+
+  default void onConnectionCloseFrame(
+      final ConnectionCloseFrame frame, final FullPacket packet, final PipelineContext ctx) {}
+
+  default void onNewToken(
+      final NewToken frame, final FullPacket packet, final PipelineContext ctx) {}
+
+  /** Called once all frames of the packet have been dispatched. */
+  default void afterFrames(final FullPacket packet, final PipelineContext ctx) {}
+}
@@ -10,135 +10,145 @@ import com.protocol7.quincy.protocol.frames.FrameType;
 import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.protocol.packets.Packet;
 import java.net.InetSocketAddress;
-import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Passes received packets through the inbound handlers and the frame handlers, and sent packets
+ * through the outbound handlers. The handler chains are built once, and each direction reuses a
+ * single context, so that dispatching a packet to the handlers does not allocate, whatever the
+ * handlers themselves allocate. A packet sent or received while another is passing in the same
+ * direction, e.g. sent by an outbound handler, gets its own context.
+ */
 public class Pipeline {
 
-  private final List<InboundHandler> inboundHandlers;
-  private final List<OutboundHandler> outboundHandlers;
+  private final InboundHandler[] inboundHandlers;
+  private final FrameDispatcher frameDispatcher;
+  private final OutboundHandler[] outboundHandlers;
+
+  private final InboundContext inboundContext = new InboundContext();
+  private final OutboundContext outboundContext = new OutboundContext();
 
   public Pipeline(
       final List<InboundHandler> inboundHandlers, final List<OutboundHandler> outboundHandlers) {
-    this.inboundHandlers = inboundHandlers;
-    this.outboundHandlers = outboundHandlers;
+    this(inboundHandlers, List.of(), outboundHandlers);
+  }
+
+  /**
+   * The frames of each received packet are dispatched to the frame handlers once the packet has
+   * passed all inbound handlers.
+   */
+  public Pipeline(
+      final List<InboundHandler> inboundHandlers,
+      final List<FrameHandler> frameHandlers,
+      final List<OutboundHandler> outboundHandlers) {
+    this.inboundHandlers = inboundHandlers.toArray(new InboundHandler[0]);
+    this.frameDispatcher = new FrameDispatcher(frameHandlers);
+    this.outboundHandlers = outboundHandlers.toArray(new OutboundHandler[0]);
   }
 
   public void onPacket(final Connection connection, final Packet packet) {
-    final Iterator<InboundHandler> iter = inboundHandlers.iterator();
-
-    final PipelineContext ctx =
-        new PipelineContext() {
-          @Override
-          public void next(final Packet newPacket) {
-            if (iter.hasNext()) {
-              final InboundHandler handler = iter.next();
-              handler.onReceivePacket(newPacket, this);
-            }
-          }
-
-          @Override
-          public Version getVersion() {
-            return connection.getVersion();
-          }
-
-          @Override
-          public InetSocketAddress getPeerAddress() {
-            return connection.getPeerAddress();
-          }
-
-          @Override
-          public State getState() {
-            return connection.getState();
-          }
-
-          @Override
-          public void setState(final State state) {
-            ((InternalConnection) connection).setState(state);
-          }
-
-          @Override
-          public Packet sendPacket(final Packet p) {
-            return connection.sendPacket(p);
-          }
-
-          @Override
-          public FullPacket send(final Frame... frames) {
-            return connection.send(frames);
-          }
-
-          @Override
-          public void closeConnection(
-              final TransportError error, final FrameType frameType, final String msg) {
-            connection.close(error, frameType, msg);
-          }
-        };
-
-    if (iter.hasNext()) {
-      final InboundHandler handler = iter.next();
-      handler.onReceivePacket(packet, ctx);
+    final InboundContext ctx = inboundContext.inUse ? new InboundContext() : inboundContext;
+    ctx.start(connection);
+    try {
+      ctx.next(packet);
+    } finally {
+      ctx.reset();
     }
   }
 
   public Packet send(final Connection connection, final Packet packet) {
-    final Iterator<OutboundHandler> iter = outboundHandlers.iterator();
-    final AtomicReference<Packet> processedPacket = new AtomicReference<>();
-
-    final PipelineContext ctx =
-        new PipelineContext() {
-          @Override
-          public void next(final Packet newPacket) {
-            if (iter.hasNext()) {
-              final OutboundHandler handler = iter.next();
-              handler.beforeSendPacket(newPacket, this);
-            } else {
-              processedPacket.set(newPacket);
-            }
-          }
-
-          @Override
-          public Version getVersion() {
-            return connection.getVersion();
-          }
-
-          @Override
-          public InetSocketAddress getPeerAddress() {
-            return connection.getPeerAddress();
-          }
-
-          @Override
-          public State getState() {
-            return connection.getState();
-          }
-
-          @Override
-          public void setState(final State state) {
-            ((InternalConnection) connection).setState(state);
-          }
-
-          @Override
-          public Packet sendPacket(final Packet p) {
-            return connection.sendPacket(p);
-          }
-
-          @Override
-          public FullPacket send(final Frame... frames) {
-            return connection.send(frames);
-          }
-
-          @Override
-          public void closeConnection(
-              final TransportError error, final FrameType frameType, final String msg) {
-            connection.close(error, frameType, msg);
-          }
-        };
-
-    if (iter.hasNext()) {
-      final OutboundHandler handler = iter.next();
-      handler.beforeSendPacket(packet, ctx);
+    final OutboundContext ctx = outboundContext.inUse ? new OutboundContext() : outboundContext;
+    ctx.start(connection);
+    try {
+      ctx.next(packet);
+      return ctx.processedPacket;
+    } finally {
+      ctx.reset();
+    }
+  }
+
+  private class InboundContext extends Context {
+    @Override
+    public void next(final Packet newPacket) {
+      if (index < inboundHandlers.length) {
+        final InboundHandler handler = inboundHandlers[index++];
+        handler.onReceivePacket(newPacket, this);
+      } else if (newPacket instanceof FullPacket) {
+        frameDispatcher.dispatch((FullPacket) newPacket, this);
+      }
+    }
+  }
+
+  private class OutboundContext extends Context {
+    Packet processedPacket;
+
+    @Override
+    public void next(final Packet newPacket) {
+      if (index < outboundHandlers.length) {
+        final OutboundHandler handler = outboundHandlers[index++];
+        handler.beforeSendPacket(newPacket, this);
+      } else {
+        processedPacket = newPacket;
+      }
+    }
+
+    @Override
+    void reset() {
+      super.reset();
+      processedPacket = null;
+    }
+  }
+
+  private abstract static class Context implements PipelineContext {
+    Connection connection;
+    int index;
+    boolean inUse;
+
+    void start(final Connection connection) {
+      this.connection = connection;
+      this.inUse = true;
     }
 
-    return processedPacket.get();
+    void reset() {
+      connection = null;
+      index = 0;
+      inUse = false;
+    }
+
+    @Override
+    public Version getVersion() {
+      return connection.getVersion();
+    }
+
+    @Override
+    public InetSocketAddress getPeerAddress() {
+      return connection.getPeerAddress();
+    }
+
+    @Override
+    public State getState() {
+      return connection.getState();
+    }
+
+    @Override
+    public void setState(final State state) {
+      ((InternalConnection) connection).setState(state);
+    }
+
+    @Override
+    public Packet sendPacket(final Packet p) {
+      return connection.sendPacket(p);
+    }
+
+    @Override
+    public FullPacket send(final Frame... frames) {
+      return connection.send(frames);
+    }
+
+    @Override
+    public void closeConnection(
+        final TransportError error, final FrameType frameType, final String msg) {
+      connection.close(error, frameType, msg);
+    }
   }
 }
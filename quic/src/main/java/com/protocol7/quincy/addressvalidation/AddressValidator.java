@@ -0,0 +1,99 @@
+package com.protocol7.quincy.addressvalidation;
+
+import static java.util.Objects.requireNonNull;
+
+import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.Version;
+import com.protocol7.quincy.protocol.frames.NewToken;
+import com.protocol7.quincy.protocol.packets.HalfParsedInitialPacket;
+import com.protocol7.quincy.protocol.packets.HalfParsedPacket;
+import com.protocol7.quincy.protocol.packets.RetryPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Stateless address validation of packets for unknown connections, run before any connection state
+ * is allocated. Only Initial packets may create a connection. When Retry is required, Initial
+ * packets without a valid retry token are answered with a Retry.
+ */
+public class AddressValidator {
+
+  private final RetryToken retryToken;
+  private final long retryTtlMs;
+  private final RetryToken newToken;
+  private final long newTokenTtlMs;
+  private final Supplier<ConnectionId> connectionIdGenerator;
+
+  /**
+   * Tokens from NEW_TOKEN frames are used on later connections, and therefore typically have a
+   * longer TTL than tokens from Retry packets.
+   */
+  public AddressValidator(
+      final RetryToken retryToken,
+      final long retryTtl,
+      final RetryToken newToken,
+      final long newTokenTtl,
+      final TimeUnit timeUnit,
+      final Supplier<ConnectionId> connectionIdGenerator) {
+    this.retryToken = requireNonNull(retryToken);
+    this.retryTtlMs = timeUnit.toMillis(retryTtl);
+    this.newToken = requireNonNull(newToken);
+    this.newTokenTtlMs = timeUnit.toMillis(newTokenTtl);
+    this.connectionIdGenerator = requireNonNull(connectionIdGenerator);
+  }
+
+  /** Returns true for Initial packets, the only packets allowed to create a connection. */
+  public boolean isInitial(final HalfParsedPacket<?> halfParsed) {
+    return halfParsed instanceof HalfParsedInitialPacket
+        && halfParsed.getConnectionId().isPresent();
+  }
+
+  public boolean isValid(
+      final HalfParsedPacket<?> halfParsed, final InetSocketAddress peerAddress) {
+    requireNonNull(halfParsed);
+    requireNonNull(peerAddress);
+
+    if (isInitial(halfParsed)) {
+      final Optional<byte[]> token = ((HalfParsedInitialPacket) halfParsed).getToken();
+
+      if (token.isPresent()) {
+        final InetAddress address = peerAddress.getAddress();
+
+        return retryToken.validate(token.get(), address, retryTtlMs, TimeUnit.MILLISECONDS)
+            || newToken.validate(token.get(), address, newTokenTtlMs, TimeUnit.MILLISECONDS);
+      }
+    }
+    return false;
+  }
+
+  /** Returns the Retry to send in response to the packet, if it is an Initial packet. */
+  public Optional<RetryPacket> retry(
+      final HalfParsedPacket<?> halfParsed, final InetSocketAddress peerAddress) {
+    requireNonNull(halfParsed);
+    requireNonNull(peerAddress);
+
+    if (isInitial(halfParsed) && halfParsed.getVersion().isPresent()) {
+      final HalfParsedInitialPacket initialPacket = (HalfParsedInitialPacket) halfParsed;
+      final Version version = initialPacket.getVersion().get();
+
+      final byte[] token = retryToken.create(peerAddress.getAddress());
+
+      return Optional.of(
+          new RetryPacket(
+              version,
+              initialPacket.getSourceConnectionId(),
+              Optional.of(connectionIdGenerator.get()),
+              initialPacket.getConnectionId().get(),
+              token));
+    }
+    return Optional.empty();
+  }
+
+  /** Returns a NEW_TOKEN frame for a validated peer, letting it skip Retry on later connections. */
+  public NewToken newToken(final InetSocketAddress peerAddress) {
+    return new NewToken(newToken.create(peerAddress.getAddress()));
+  }
+}
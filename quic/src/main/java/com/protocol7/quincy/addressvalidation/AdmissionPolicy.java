@@ -0,0 +1,95 @@
+package com.protocol7.quincy.addressvalidation;
+
+import static java.util.Objects.requireNonNull;
+
+import com.protocol7.quincy.Configuration;
+import com.protocol7.quincy.utils.Ticker;
+import io.netty.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether new connections must validate their address using Retry. Retry costs the client a
+ * round trip, so it's only required while the server is under handshake pressure: too many
+ * in-flight handshakes, too much time spent processing handshakes or too many bytes received from
+ * unvalidated peers, the latter two measured per second.
+ *
+ * <p>Confined to the event loop of the channel, like the connections it tracks.
+ */
+public class AdmissionPolicy {
+
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final int handshakeThreshold;
+  private final long handshakeCpuThresholdNanos;
+  private final long unvalidatedBytesThreshold;
+  private final Ticker ticker;
+
+  private int handshakes;
+  private long windowStart;
+  private long handshakeCpuNanos;
+  private long unvalidatedBytes;
+
+  public AdmissionPolicy(final Configuration configuration, final Ticker ticker) {
+    this(
+        configuration.getRetryHandshakeThreshold(),
+        configuration.getRetryHandshakeCpuThreshold(),
+        configuration.getRetryUnvalidatedBytesThreshold(),
+        ticker);
+  }
+
+  public AdmissionPolicy(
+      final int handshakeThreshold,
+      final int handshakeCpuThresholdMs,
+      final int unvalidatedBytesThreshold,
+      final Ticker ticker) {
+    this.handshakeThreshold = handshakeThreshold;
+    this.handshakeCpuThresholdNanos = TimeUnit.MILLISECONDS.toNanos(handshakeCpuThresholdMs);
+    this.unvalidatedBytesThreshold = unvalidatedBytesThreshold;
+    this.ticker = requireNonNull(ticker);
+    this.windowStart = ticker.nanoTime();
+  }
+
+  public boolean requireRetry() {
+    roll();
+
+    return handshakes >= handshakeThreshold
+        || handshakeCpuNanos >= handshakeCpuThresholdNanos
+        || unvalidatedBytes >= unvalidatedBytesThreshold;
+  }
+
+  /** Tracks a handshake as in-flight until the future completes. */
+  public void onHandshake(final Future<Void> handshakeFuture) {
+    handshakes++;
+    handshakeFuture.addListener(f -> handshakes--);
+  }
+
+  /** Runs the handshake processing, accounting for the time spent. */
+  public void measureHandshake(final Runnable handshake) {
+    final long start = ticker.nanoTime();
+    try {
+      handshake.run();
+    } finally {
+      final long end = ticker.nanoTime();
+      roll();
+      handshakeCpuNanos += end - start;
+    }
+  }
+
+  public void onUnvalidatedBytes(final int bytes) {
+    roll();
+    unvalidatedBytes += bytes;
+  }
+
+  public int getHandshakes() {
+    return handshakes;
+  }
+
+  private void roll() {
+    final long now = ticker.nanoTime();
+    if (now - windowStart >= WINDOW_NANOS) {
+      windowStart = now;
+      handshakeCpuNanos = 0;
+      unvalidatedBytes = 0;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.protocol7.quincy.addressvalidation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.packets.FullPacket;
+import com.protocol7.quincy.protocol.packets.Packet;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.function.Consumer;
+
+/**
+ * Limits the bytes sent to a peer to three times the bytes received from it, until its address is
+ * validated. Packets exceeding the limit are queued, in order, and released as more bytes are
+ * received or once the address is validated.
+ *
+ * <p>Confined to the event loop of the connection.
+ */
+public class AmplificationLimit {
+
+  public static final int FACTOR = 3;
+
+  // first byte, version, connection ID lengths and IDs, token length, length and packet number
+  private static final int MAX_HEADER_LENGTH = 1 + 4 + 1 + 2 * ConnectionId.LENGTH + 1 + 4 + 4;
+
+  private final Queue<Packet> blocked = new ArrayDeque<>();
+
+  private long received;
+  private long sent;
+  private boolean validated;
+
+  /** An upper bound of the encoded length of the packet. */
+  public static int maxLength(final Packet packet) {
+    if (packet instanceof FullPacket) {
+      return ((FullPacket) packet).getPayload().calculateLength() + MAX_HEADER_LENGTH;
+    } else {
+      return MAX_HEADER_LENGTH;
+    }
+  }
+
+  public void onReceived(final int bytes, final Consumer<Packet> sender) {
+    checkArgument(bytes >= 0);
+
+    received += bytes;
+    release(sender);
+  }
+
+  public void validate(final Consumer<Packet> sender) {
+    validated = true;
+    release(sender);
+  }
+
+  public boolean isValidated() {
+    return validated;
+  }
+
+  /** Sends the packet if within the limit, otherwise queues it. */
+  public void send(final Packet packet, final Consumer<Packet> sender) {
+    if (blocked.isEmpty() && trySend(packet, sender)) {
+      return;
+    }
+    blocked.add(packet);
+  }
+
+  /** Drops queued packets, e.g. when the connection is closed. */
+  public void clear() {
+    blocked.clear();
+  }
+
+  public long getReceived() {
+    return received;
+  }
+
+  public long getSent() {
+    return sent;
+  }
+
+  public int getBlocked() {
+    return blocked.size();
+  }
+
+  private void release(final Consumer<Packet> sender) {
+    while (!blocked.isEmpty() && trySend(blocked.peek(), sender)) {
+      blocked.remove();
+    }
+  }
+
+  private boolean trySend(final Packet packet, final Consumer<Packet> sender) {
+    final int length = maxLength(packet);
+    if (!validated && sent + length > received * FACTOR) {
+      return false;
+    }
+
+    sent += length;
+    sender.accept(packet);
+    return true;
+  }
+}
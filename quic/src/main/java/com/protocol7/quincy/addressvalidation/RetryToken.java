@@ -1,91 +1,170 @@
 package com.protocol7.quincy.addressvalidation;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
-import com.protocol7.quincy.Varint;
-import com.protocol7.quincy.tls.CryptoEquals;
-import com.protocol7.quincy.utils.Bytes;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import com.google.common.primitives.Longs;
+import com.protocol7.quincy.tls.HKDF;
 import java.net.InetAddress;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
-import javax.crypto.Mac;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+/**
+ * Address validation tokens, sealed with AES-GCM using the peer address as associated data.
+ *
+ * <p>Token keys are derived from the server private key, one per rotation period, so that all
+ * servers sharing the private key can validate each others tokens. Tokens sealed with a key up to
+ * the grace period old are still accepted.
+ *
+ * <p>Token layout: key ID (1 byte), nonce (12 bytes), sealed issue time in milliseconds (8 + 16
+ * bytes).
+ */
 public class RetryToken {
 
-  private static final String HMAC_SHA512 = "HmacSHA512";
+  private static final int KEY_LENGTH = 16;
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_LENGTH = 16;
+  private static final int TOKEN_LENGTH = 1 + NONCE_LENGTH + 8 + TAG_LENGTH;
 
-  private final PrivateKey key;
+  private static final byte[] SALT = "quincy address validation".getBytes(StandardCharsets.UTF_8);
+
+  private static final SecureRandom random = new SecureRandom();
+
+  private static final ThreadLocal<Cipher> ciphers =
+      ThreadLocal.withInitial(
+          () -> {
+            try {
+              return Cipher.getInstance("AES/GCM/NoPadding", "SunJCE");
+            } catch (final GeneralSecurityException shouldNeverHappen) {
+              throw new RuntimeException(shouldNeverHappen);
+            }
+          });
+
+  private final byte[] secret;
+  private final String purpose;
+  private final long rotationMs;
+  private final long graceEpochs;
+  private final Clock clock;
+  private final Map<Long, SecretKeySpec> keys = new ConcurrentHashMap<>();
 
   public RetryToken(final PrivateKey key) {
-    this.key = requireNonNull(key);
+    this(key, "retry", 1, 1, TimeUnit.HOURS, Clock.systemUTC());
   }
 
-  public byte[] create(final InetAddress address, final long ttl) {
-    requireNonNull(address);
-
-    final byte[] addressBytes = address.getAddress();
-    final ByteBuf bb = Unpooled.buffer();
-    bb.writeByte(addressBytes.length);
-    bb.writeBytes(addressBytes);
-    Varint.write(ttl, bb);
+  /**
+   * Tokens are only valid for the purpose they were created for, e.g. tokens from Retry packets
+   * can't be used as tokens from NEW_TOKEN frames.
+   */
+  public RetryToken(
+      final PrivateKey key,
+      final String purpose,
+      final long rotationPeriod,
+      final long gracePeriod,
+      final TimeUnit unit,
+      final Clock clock) {
+    requireNonNull(key);
+    checkArgument(rotationPeriod > 0);
+    checkArgument(gracePeriod >= 0);
+
+    this.secret = HKDF.extract(SALT, key.getEncoded());
+    this.purpose = requireNonNull(purpose);
+    this.rotationMs = unit.toMillis(rotationPeriod);
+    this.graceEpochs = (unit.toMillis(gracePeriod) + rotationMs - 1) / rotationMs;
+    this.clock = requireNonNull(clock);
+
+    // the key ID is the lowest byte of the epoch
+    checkArgument(graceEpochs < 256, "Grace period must be shorter than 256 rotation periods");
+  }
 
-    final byte[] data = Bytes.peekToArray(bb);
+  public byte[] create(final InetAddress address) {
+    requireNonNull(address);
 
-    bb.writeBytes(hmac(data));
+    final long now = clock.millis();
+    final long epoch = now / rotationMs;
 
-    return Bytes.drainToArray(bb);
-  }
+    final byte[] nonce = new byte[NONCE_LENGTH];
+    random.nextBytes(nonce);
 
-  private byte[] hmac(final byte[] data) {
     try {
-      final Mac hmac = Mac.getInstance(HMAC_SHA512);
-      final SecretKeySpec keySpec = new SecretKeySpec(key.getEncoded(), HMAC_SHA512);
-      hmac.init(keySpec);
-      return hmac.doFinal(data);
-    } catch (final NoSuchAlgorithmException | InvalidKeyException e) {
-      throw new RuntimeException("Retry token HMAC generation failed", e);
+      final Cipher cipher = ciphers.get();
+      cipher.init(Cipher.ENCRYPT_MODE, key(epoch), new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+      cipher.updateAAD(address.getAddress());
+
+      final ByteBuffer token = ByteBuffer.allocate(TOKEN_LENGTH);
+      token.put((byte) epoch);
+      token.put(nonce);
+      cipher.doFinal(ByteBuffer.wrap(Longs.toByteArray(now)), token);
+      return token.array();
+    } catch (final GeneralSecurityException e) {
+      throw new RuntimeException("Token sealing failed", e);
     }
   }
 
-  public boolean validate(final byte[] token, final InetAddress address, final long maxTtl) {
+  /** Validates the token was issued to the address no longer than the TTL ago. */
+  public boolean validate(
+      final byte[] token, final InetAddress address, final long ttl, final TimeUnit unit) {
     requireNonNull(token);
     requireNonNull(address);
 
-    boolean success = true;
+    if (token.length != TOKEN_LENGTH) {
+      return false;
+    }
 
-    final ByteBuf bb = Unpooled.wrappedBuffer(token);
-    try {
-      final int addressLen = bb.readByte();
-      final byte[] addressBytes = new byte[addressLen];
-      bb.readBytes(addressBytes);
+    final long now = clock.millis();
+    final long currentEpoch = now / rotationMs;
 
-      if (!CryptoEquals.isEqual(addressBytes, address.getAddress())) {
-        success = false;
-      }
+    // the latest epoch matching the key ID, only keys within the grace period are accepted
+    final long epoch = currentEpoch - ((currentEpoch - token[0]) & 0xFF);
+    if (currentEpoch - epoch > graceEpochs) {
+      return false;
+    }
 
-      final long ttl = Varint.readAsLong(bb);
-      if (ttl < maxTtl) {
-        success = false;
-      }
+    final long issued;
+    try {
+      final Cipher cipher = ciphers.get();
+      cipher.init(
+          Cipher.DECRYPT_MODE,
+          key(epoch),
+          new GCMParameterSpec(TAG_LENGTH * 8, token, 1, NONCE_LENGTH));
+      cipher.updateAAD(address.getAddress());
+
+      issued =
+          Longs.fromByteArray(
+              cipher.doFinal(token, 1 + NONCE_LENGTH, TOKEN_LENGTH - 1 - NONCE_LENGTH));
+    } catch (final AEADBadTagException e) {
+      // forged, corrupt or for another address
+      return false;
+    } catch (final GeneralSecurityException e) {
+      throw new RuntimeException("Token opening failed", e);
+    }
 
-      final byte[] data = new byte[bb.readerIndex()];
-      bb.getBytes(0, data);
+    return issued <= now && now - issued <= unit.toMillis(ttl);
+  }
 
-      final byte[] actualHmac = Bytes.drainToArray(bb);
-      final byte[] expectedHmac = hmac(data);
+  private SecretKeySpec key(final long epoch) {
+    final SecretKeySpec key = keys.get(epoch);
+    if (key != null) {
+      return key;
+    }
 
-      if (!CryptoEquals.isEqual(expectedHmac, actualHmac)) {
-        success = false;
-      }
+    // rotated, forget keys outside of the grace period
+    keys.keySet().removeIf(e -> e < epoch - graceEpochs);
 
-      return success;
-    } catch (final IndexOutOfBoundsException | NegativeArraySizeException e) {
-      // invalid token
-      return false;
-    }
+    return keys.computeIfAbsent(
+        epoch,
+        e ->
+            new SecretKeySpec(
+                HKDF.expandLabel(secret, purpose, Longs.toByteArray(e), KEY_LENGTH), "AES"));
   }
 }
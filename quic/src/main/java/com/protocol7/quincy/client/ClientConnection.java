@@ -26,6 +26,7 @@ import com.protocol7.quincy.protocol.packets.Packet;
 import com.protocol7.quincy.protocol.packets.ShortPacket;
 import com.protocol7.quincy.reliability.AckDelay;
 import com.protocol7.quincy.reliability.PacketBufferManager;
+import com.protocol7.quincy.reliability.RttEstimator;
 import com.protocol7.quincy.streams.DefaultStreamManager;
 import com.protocol7.quincy.streams.Stream;
 import com.protocol7.quincy.streams.StreamListener;
@@ -37,13 +38,15 @@ import com.protocol7.quincy.tls.EncryptionLevel;
 import com.protocol7.quincy.tls.aead.AEAD;
 import com.protocol7.quincy.utils.Ticker;
 import io.netty.util.Timer;
+import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseNotifier;
 import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import org.slf4j.MDC;
 
 public class ClientConnection implements InternalConnection {
@@ -54,16 +57,18 @@ public class ClientConnection implements InternalConnection {
   private final PacketSender packetSender;
 
   private final Version version;
-  private final AtomicReference<Long> sendPacketNumber = new AtomicReference<>(0L);
+  private long sendPacketNumber = 0;
   private final PacketBufferManager packetBuffer;
   private final ClientStateMachine stateMachine;
-  private Optional<byte[]> token = Optional.empty();
+  private Optional<byte[]> token;
 
   private final StreamManager streamManager;
   private final ClientTlsManager tlsManager;
   private final Pipeline pipeline;
   private final InetSocketAddress peerAddress;
   private final Timer timer;
+  private final EventExecutor executor;
+  private final FlowControlHandler flowControlHandler;
 
   public ClientConnection(
       final Configuration configuration,
@@ -71,20 +76,41 @@ public class ClientConnection implements InternalConnection {
       final StreamListener streamListener,
       final PacketSender packetSender,
       final FlowControlHandler flowControlHandler,
+      final RttEstimator rttEstimator,
       final InetSocketAddress peerAddress,
       final CertificateValidator certificateValidator,
-      final Timer timer) {
+      final Timer timer,
+      final EventExecutor executor,
+      final TokenCache tokenCache) {
     this.version = configuration.getVersion();
+    this.flowControlHandler = flowControlHandler;
+    this.executor = executor;
     this.remoteConnectionId = initialRemoteConnectionId;
     this.packetSender = packetSender;
     this.peerAddress = peerAddress;
-    this.streamManager = new DefaultStreamManager(this, streamListener);
+    this.token = tokenCache.take(peerAddress);
+    this.streamManager =
+        new DefaultStreamManager(
+            this,
+            flowControlHandler,
+            streamListener,
+            configuration.getMaxStreamReceiveWindow(),
+            executor,
+            configuration.getStreamScheduling().newScheduler(),
+            configuration.getMemoryBudget(),
+            true);
 
     final Ticker ticker = Ticker.systemTicker();
 
     this.packetBuffer =
         new PacketBufferManager(
-            new AckDelay(configuration.getAckDelayExponent(), ticker), this, timer, ticker);
+            new AckDelay(configuration.getAckDelayExponent(), ticker),
+            this,
+            timer,
+            ticker,
+            executor,
+            rttEstimator,
+            configuration.getMemoryBudget());
     this.tlsManager =
         new ClientTlsManager(
             remoteConnectionId, configuration.toTransportParameters(), certificateValidator);
@@ -96,12 +122,12 @@ public class ClientConnection implements InternalConnection {
 
     this.pipeline =
         new Pipeline(
+            List.of(logger, tlsManager, packetBuffer, terminationManager),
             List.of(
-                logger,
-                tlsManager,
                 packetBuffer,
-                streamManager,
                 flowControlHandler,
+                streamManager,
+                new NewTokenHandler(tokenCache),
                 terminationManager),
             List.of(packetBuffer, logger));
 
@@ -114,6 +140,11 @@ public class ClientConnection implements InternalConnection {
   }
 
   public void handshake(final Promise promise) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> handshake(promise));
+      return;
+    }
+
     MDC.put("actor", "client");
     tlsManager.handshake(getState(), this, stateMachine::setState, promise);
   }
@@ -187,12 +218,15 @@ public class ClientConnection implements InternalConnection {
   }
 
   private void sendPacketUnbuffered(final Packet packet) {
-    packetSender
-        .send(packet, getAEAD(getEncryptionLevel(packet)))
-        .awaitUninterruptibly(); // TODO fix
+    packetSender.send(packet, getAEAD(getEncryptionLevel(packet)));
   }
 
   public void onPacket(final Packet packet) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> onPacket(packet));
+      return;
+    }
+
     if (packet.getDestinationConnectionId().isPresent()) {
       lastDestConnectionIdLength = packet.getDestinationConnectionId().get().getLength();
     } else {
@@ -220,19 +254,42 @@ public class ClientConnection implements InternalConnection {
   }
 
   private long nextSendPacketNumber() {
-    return sendPacketNumber.updateAndGet(packetNumber -> PacketNumber.next(packetNumber));
+    sendPacketNumber = PacketNumber.next(sendPacketNumber);
+    return sendPacketNumber;
   }
 
   public void resetSendPacketNumber() {
-    sendPacketNumber.set(0L);
+    sendPacketNumber = 0;
+  }
+
+  public Future<Stream> openStream() {
+    return openStream(true);
+  }
+
+  public Future<Stream> openUnidirectionalStream() {
+    return openStream(false);
   }
 
-  public Stream openStream() {
-    return streamManager.openStream(true, true);
+  private Future<Stream> openStream(final boolean bidirectional) {
+    if (!executor.inEventLoop()) {
+      final Promise<Stream> promise = executor.newPromise();
+      executor.execute(() -> openStream(bidirectional).addListener(new PromiseNotifier<>(promise)));
+      return promise;
+    }
+
+    try {
+      return executor.newSucceededFuture(streamManager.openStream(bidirectional));
+    } catch (final RuntimeException e) {
+      return executor.newFailedFuture(e);
+    }
   }
 
   public Future<Void> close(
       final TransportError error, final FrameType frameType, final String msg) {
+    if (!executor.inEventLoop()) {
+      return inEventLoop(() -> close(error, frameType, msg));
+    }
+
     stateMachine.closeImmediate(new ConnectionCloseFrame(error.getValue(), frameType, msg));
 
     return closeInternal();
@@ -244,18 +301,33 @@ public class ClientConnection implements InternalConnection {
   }
 
   public Future<Void> close() {
+    if (!executor.inEventLoop()) {
+      return inEventLoop(this::close);
+    }
+
     stateMachine.closeImmediate();
 
     return closeInternal();
   }
 
   public void closeByPeer() {
-    closeInternal().awaitUninterruptibly(); // TODO fis
+    closeInternal();
+  }
+
+  private Future<Void> inEventLoop(final Supplier<Future<Void>> task) {
+    final Promise<Void> promise = executor.newPromise();
+    executor.execute(() -> task.get().addListener(new PromiseNotifier<>(promise)));
+    return promise;
   }
 
   private Future<Void> closeInternal() {
     timer.stop();
 
+    // return the buffered memory to the memory budget
+    packetBuffer.release();
+    streamManager.release();
+    flowControlHandler.release();
+
     return packetSender.destroy();
   }
 
@@ -0,0 +1,30 @@
+package com.protocol7.quincy.client;
+
+import static java.util.Objects.requireNonNull;
+
+import com.protocol7.quincy.FrameHandler;
+import com.protocol7.quincy.PipelineContext;
+import com.protocol7.quincy.protocol.frames.FrameType;
+import com.protocol7.quincy.protocol.frames.NewToken;
+import com.protocol7.quincy.protocol.packets.FullPacket;
+import java.util.EnumSet;
+import java.util.Set;
+
+public class NewTokenHandler implements FrameHandler {
+
+  private final TokenCache tokenCache;
+
+  public NewTokenHandler(final TokenCache tokenCache) {
+    this.tokenCache = requireNonNull(tokenCache);
+  }
+
+  @Override
+  public Set<FrameType> getFrameTypes() {
+    return EnumSet.of(FrameType.NEW_TOKEN);
+  }
+
+  @Override
+  public void onNewToken(final NewToken frame, final FullPacket packet, final PipelineContext ctx) {
+    tokenCache.put(ctx.getPeerAddress(), frame.getToken());
+  }
+}
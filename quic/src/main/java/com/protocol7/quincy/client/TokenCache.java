@@ -0,0 +1,49 @@
+package com.protocol7.quincy.client;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Tokens received in NEW_TOKEN frames, per server, used in the first Initial packet of the next
+ * connection to the server. Tokens are only used once. Bounded, evicting the least recently used
+ * server. Shared between connections and therefore thread safe.
+ */
+public class TokenCache {
+
+  public static final int DEFAULT_CAPACITY = 256;
+
+  private final Map<InetSocketAddress, byte[]> tokens;
+
+  public TokenCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public TokenCache(final int capacity) {
+    checkArgument(capacity > 0);
+
+    this.tokens =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(final Map.Entry<InetSocketAddress, byte[]> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  public synchronized void put(final InetSocketAddress server, final byte[] token) {
+    tokens.put(requireNonNull(server), requireNonNull(token));
+  }
+
+  public synchronized Optional<byte[]> take(final InetSocketAddress server) {
+    return Optional.ofNullable(tokens.remove(requireNonNull(server)));
+  }
+
+  public synchronized int size() {
+    return tokens.size();
+  }
+}
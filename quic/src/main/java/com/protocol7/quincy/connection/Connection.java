@@ -33,7 +33,14 @@ public interface Connection extends FrameSender {
 
   InetSocketAddress getPeerAddress();
 
-  Stream openStream();
+  /** Opens a bidirectional stream, on the event loop of the connection. */
+  Future<Stream> openStream();
+
+  /**
+   * Opens a send-only stream, e.g. for one-way pushes not expecting a response, on the event loop
+   * of the connection.
+   */
+  Future<Stream> openUnidirectionalStream();
 
   State getState();
 }
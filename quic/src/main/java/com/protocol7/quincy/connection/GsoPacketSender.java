@@ -0,0 +1,142 @@
+package com.protocol7.quincy.connection;
+
+import com.protocol7.quincy.protocol.packets.Packet;
+import com.protocol7.quincy.tls.aead.AEAD;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.SegmentedDatagramPacket;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseNotifier;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Packet sender batching the packets sent during one event loop iteration into a single {@link
+ * SegmentedDatagramPacket}, letting the kernel split them using UDP_SEGMENT.
+ */
+public class GsoPacketSender implements PacketSender {
+
+  private final Logger log = LoggerFactory.getLogger(GsoPacketSender.class);
+
+  public static boolean isSupported(final Channel channel) {
+    return channel instanceof EpollDatagramChannel && SegmentedDatagramPacket.isSupported();
+  }
+
+  private final Channel channel;
+  private final EventLoop eventLoop;
+  private final InetSocketAddress peerAddress;
+  private final SegmentBuffer segments;
+
+  // completed once the batch holding their packet is written
+  private final List<Promise<Void>> batchPromises = new ArrayList<>();
+
+  private boolean flushScheduled;
+  private boolean gsoFailed;
+
+  public GsoPacketSender(final Channel channel, final InetSocketAddress peerAddress) {
+    this.channel = channel;
+    this.eventLoop = channel.eventLoop();
+    this.peerAddress = peerAddress;
+    this.segments = new SegmentBuffer(channel.alloc());
+  }
+
+  @Override
+  public Future<Void> send(final Packet packet, final AEAD aead) {
+    final ByteBuf bb = channel.alloc().directBuffer();
+    packet.write(bb, aead);
+
+    final Promise<Void> promise = channel.newPromise();
+    if (eventLoop.inEventLoop()) {
+      append(bb, promise);
+    } else {
+      eventLoop.execute(() -> append(bb, promise));
+    }
+    return promise;
+  }
+
+  private void append(final ByteBuf bb, final Promise<Void> promise) {
+    if (gsoFailed) {
+      channel
+          .writeAndFlush(new DatagramPacket(bb, peerAddress))
+          .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE)
+          .addListener(new PromiseNotifier<>(promise));
+      return;
+    }
+
+    if (!segments.add(bb)) {
+      flush();
+      segments.add(bb);
+    }
+    batchPromises.add(promise);
+
+    if (!flushScheduled) {
+      flushScheduled = true;
+      eventLoop.execute(
+          () -> {
+            flushScheduled = false;
+            flush();
+          });
+    }
+  }
+
+  private void flush() {
+    if (segments.isEmpty()) {
+      return;
+    }
+
+    final int segmentSize = segments.getSegmentSize();
+    final boolean segmented = segments.getSegments() > 1;
+    final ByteBuf bb = segments.drain();
+    final List<Promise<Void>> promises = new ArrayList<>(batchPromises);
+    batchPromises.clear();
+
+    final ChannelFuture future;
+    if (segmented) {
+      future =
+          channel
+              .writeAndFlush(new SegmentedDatagramPacket(bb, segmentSize, peerAddress))
+              .addListener(
+                  f -> {
+                    if (!f.isSuccess() && !gsoFailed) {
+                      log.warn("GSO send failed, falling back to single datagrams", f.cause());
+                      gsoFailed = true;
+                    }
+                  });
+    } else {
+      future = channel.writeAndFlush(new DatagramPacket(bb, peerAddress));
+    }
+
+    // lost packets are retransmitted, but the failure must not go unnoticed
+    future
+        .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE)
+        .addListener(
+            f -> {
+              for (final Promise<Void> promise : promises) {
+                if (f.isSuccess()) {
+                  promise.trySuccess(null);
+                } else {
+                  promise.tryFailure(f.cause());
+                }
+              }
+            });
+  }
+
+  @Override
+  public Future<Void> destroy() {
+    if (eventLoop.inEventLoop()) {
+      flush();
+    } else {
+      eventLoop.execute(this::flush);
+    }
+    return channel.close();
+  }
+}
@@ -5,6 +5,8 @@ import com.protocol7.quincy.tls.aead.AEAD;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.socket.DatagramPacket;
 import io.netty.util.concurrent.Future;
 import java.net.InetSocketAddress;
@@ -14,6 +16,8 @@ public class NettyPacketSender implements PacketSender {
   private final Channel channel;
   private final InetSocketAddress peerAddress;
 
+  private boolean flushScheduled;
+
   public NettyPacketSender(final Channel channel, final InetSocketAddress peerAddress) {
     this.channel = channel;
     this.peerAddress = peerAddress;
@@ -24,11 +28,33 @@ public class NettyPacketSender implements PacketSender {
     final ByteBuf bb = Unpooled.buffer();
     packet.write(bb, aead);
 
-    return channel.writeAndFlush(new DatagramPacket(bb, peerAddress));
+    final DatagramPacket datagram = new DatagramPacket(bb, peerAddress);
+    final ChannelFuture future;
+    if (channel.eventLoop().inEventLoop()) {
+      // packets written while processing a batch of reads share a single flush
+      future = channel.write(datagram);
+      if (!flushScheduled) {
+        flushScheduled = true;
+        channel
+            .eventLoop()
+            .execute(
+                () -> {
+                  flushScheduled = false;
+                  channel.flush();
+                });
+      }
+    } else {
+      future = channel.writeAndFlush(datagram);
+    }
+    // lost packets are retransmitted, but the failure must not go unnoticed
+    return future.addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
   }
 
   @Override
   public Future<Void> destroy() {
+    if (channel.eventLoop().inEventLoop()) {
+      channel.flush();
+    }
     return channel.close();
   }
 }
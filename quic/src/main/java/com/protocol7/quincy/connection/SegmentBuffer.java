@@ -0,0 +1,78 @@
+package com.protocol7.quincy.connection;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * Collects encoded packets into one contiguous buffer of equal-sized segments, as required by UDP
+ * generic segmentation offload. Only the last segment may be shorter than the segment size.
+ */
+public class SegmentBuffer {
+
+  public static final int MAX_SEGMENTS = 64;
+  public static final int MAX_SIZE = 65507;
+
+  private final ByteBufAllocator allocator;
+
+  private ByteBuf buffer;
+  private int segmentSize;
+  private int segments;
+  private boolean sealed;
+
+  public SegmentBuffer(final ByteBufAllocator allocator) {
+    this.allocator = allocator;
+  }
+
+  /**
+   * Appends a packet as the next segment. Returns false, without consuming the packet, when the
+   * packet can not be part of the current buffer. The buffer must then be drained before retrying.
+   */
+  public boolean add(final ByteBuf packet) {
+    final int length = packet.readableBytes();
+    checkArgument(length > 0 && length <= MAX_SIZE);
+
+    if (buffer == null) {
+      buffer = allocator.directBuffer(Math.min(length * MAX_SEGMENTS, MAX_SIZE));
+      segmentSize = length;
+    } else if (sealed
+        || length > segmentSize
+        || segments == MAX_SEGMENTS
+        || buffer.readableBytes() + length > MAX_SIZE) {
+      return false;
+    }
+
+    buffer.writeBytes(packet);
+    packet.release();
+    segments++;
+
+    if (length < segmentSize) {
+      sealed = true;
+    }
+    return true;
+  }
+
+  public boolean isEmpty() {
+    return buffer == null;
+  }
+
+  public int getSegmentSize() {
+    return segmentSize;
+  }
+
+  public int getSegments() {
+    return segments;
+  }
+
+  public ByteBuf drain() {
+    final ByteBuf drained = buffer;
+
+    buffer = null;
+    segmentSize = 0;
+    segments = 0;
+    sealed = false;
+
+    return drained;
+  }
+}
@@ -1,7 +1,13 @@
 package com.protocol7.quincy.flowcontrol;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
 import com.google.common.annotations.VisibleForTesting;
+import com.protocol7.quincy.Configuration;
+import com.protocol7.quincy.FrameSender;
 import com.protocol7.quincy.PipelineContext;
+import com.protocol7.quincy.memory.MemoryBudget;
 import com.protocol7.quincy.protocol.StreamId;
 import com.protocol7.quincy.protocol.TransportError;
 import com.protocol7.quincy.protocol.frames.DataBlockedFrame;
@@ -10,33 +16,141 @@ import com.protocol7.quincy.protocol.frames.FrameType;
 import com.protocol7.quincy.protocol.frames.MaxDataFrame;
 import com.protocol7.quincy.protocol.frames.MaxStreamDataFrame;
 import com.protocol7.quincy.protocol.frames.MaxStreamsFrame;
+import com.protocol7.quincy.protocol.frames.ResetStreamFrame;
 import com.protocol7.quincy.protocol.frames.StreamDataBlockedFrame;
 import com.protocol7.quincy.protocol.frames.StreamFrame;
 import com.protocol7.quincy.protocol.frames.StreamsBlockedFrame;
 import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.protocol.packets.Packet;
+import com.protocol7.quincy.reliability.RttEstimator;
+import com.protocol7.quincy.utils.Ticker;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Flow control for both directions of a connection. Receive credit is only issued as the
+ * application consumes data, with the receive windows auto-tuned from the RTT and consumption rate.
+ *
+ * <p>Stream limit credit is released as streams are closed and reclaimed, and advertised in batches
+ * once a fraction of the initial stream limit can be extended.
+ */
 public class DefaultFlowControlHandler implements FlowControlHandler {
 
+  // the connection window is kept larger than any stream window, for a stream to not be blocked by
+  // the connection when the application is reading from that single stream
+  private static final double CONNECTION_WINDOW_MULTIPLIER = 1.5;
+
+  public static final double DEFAULT_MAX_STREAMS_UPDATE_FRACTION = 0.25;
+
+  private static final Set<FrameType> FRAME_TYPES =
+      EnumSet.of(
+          FrameType.STREAM,
+          FrameType.RESET_STREAM,
+          FrameType.MAX_DATA,
+          FrameType.MAX_STREAM_DATA,
+          FrameType.MAX_STREAMS,
+          FrameType.STREAMS_BLOCKED);
+
   private final FlowControlCounter receiveCounter;
   private final FlowControlCounter sendCounter;
-  private final AtomicBoolean connectionBlocked = new AtomicBoolean(false);
+  private boolean connectionBlocked = false;
   private final Set<Long> blockedStreams = new HashSet<>();
+  private boolean uniStreamsBlocked = false;
+  private boolean bidiStreamsBlocked = false;
 
+  private final long uniStreamsUpdateThreshold;
+  private final long bidiStreamsUpdateThreshold;
+  private long closedUniStreams = 0;
+  private long closedBidiStreams = 0;
+
+  private final long streamMaxBytes;
+  private final long maxStreamWindow;
+  private final RttEstimator rttEstimator;
+  private final Ticker ticker;
+  private final ReceiveWindow connectionWindow;
+  private final LongObjectMap<ReceiveWindow> streamWindows = new LongObjectHashMap<>();
+  // stream windows are bounded by the connection window, which reserves memory for them
+  private final MemoryBudget streamWindowBudget = MemoryBudget.unlimited();
+
+  /** Fixed size receive windows, without auto-tuning. */
   public DefaultFlowControlHandler(
       final long connectionMaxBytes,
       final long streamMaxBytes,
       final long maxUniStreams,
       final long maxBidiStreams) {
+    this(
+        connectionMaxBytes,
+        streamMaxBytes,
+        maxUniStreams,
+        maxBidiStreams,
+        connectionMaxBytes,
+        streamMaxBytes,
+        DEFAULT_MAX_STREAMS_UPDATE_FRACTION,
+        new RttEstimator(),
+        Ticker.systemTicker(),
+        MemoryBudget.unlimited());
+  }
+
+  public DefaultFlowControlHandler(
+      final Configuration configuration, final RttEstimator rttEstimator, final Ticker ticker) {
+    this(
+        configuration.getInitialMaxData(),
+        configuration.getInitialMaxStreamDataUni(),
+        configuration.getInitialMaxUniStreams(),
+        configuration.getInitialMaxBidiStreams(),
+        configuration.getMaxConnectionReceiveWindow(),
+        configuration.getMaxStreamReceiveWindow(),
+        configuration.getMaxStreamsUpdateFraction(),
+        rttEstimator,
+        ticker,
+        configuration.getMemoryBudget());
+  }
+
+  /**
+   * Receive windows start at the initial max bytes and are auto-tuned up to the max window sizes.
+   * The connection window, bounding the data buffered for all streams, reserves from the memory
+   * budget. The stream limits are extended once the fraction of the initial limits has been closed.
+   */
+  public DefaultFlowControlHandler(
+      final long connectionMaxBytes,
+      final long streamMaxBytes,
+      final long maxUniStreams,
+      final long maxBidiStreams,
+      final long maxConnectionWindow,
+      final long maxStreamWindow,
+      final double maxStreamsUpdateFraction,
+      final RttEstimator rttEstimator,
+      final Ticker ticker,
+      final MemoryBudget memoryBudget) {
+    checkArgument(maxStreamsUpdateFraction >= 0 && maxStreamsUpdateFraction <= 1);
+
     receiveCounter =
         new FlowControlCounter(connectionMaxBytes, streamMaxBytes, maxUniStreams, maxBidiStreams);
     sendCounter =
         new FlowControlCounter(connectionMaxBytes, streamMaxBytes, maxUniStreams, maxBidiStreams);
+
+    this.uniStreamsUpdateThreshold = updateThreshold(maxUniStreams, maxStreamsUpdateFraction);
+    this.bidiStreamsUpdateThreshold = updateThreshold(maxBidiStreams, maxStreamsUpdateFraction);
+    this.streamMaxBytes = streamMaxBytes;
+    this.maxStreamWindow = Math.max(streamMaxBytes, maxStreamWindow);
+    this.rttEstimator = requireNonNull(rttEstimator);
+    this.ticker = requireNonNull(ticker);
+    this.connectionWindow =
+        new ReceiveWindow(
+            connectionMaxBytes,
+            Math.max(connectionMaxBytes, maxConnectionWindow),
+            rttEstimator,
+            ticker,
+            memoryBudget);
+  }
+
+  private static long updateThreshold(final long maxStreams, final double fraction) {
+    return Math.max(1, (long) (maxStreams * fraction));
   }
 
   @Override
@@ -47,9 +161,12 @@ public class DefaultFlowControlHandler implements FlowControlHandler {
         if (frame.getType() == FrameType.STREAM) {
           final StreamFrame sf = (StreamFrame) frame;
 
-          if (!tryConsume(sf.getStreamId(), sf.getOffset() + sf.getData().length, ctx)) {
+          if (!tryConsume(sf.getStreamId(), sf.getOffset() + sf.getLength(), ctx)) {
             throw new IllegalStateException("Stream or connection blocked");
           }
+          if (sf.isFin()) {
+            sendCounter.closeStream(sf.getStreamId());
+          }
         }
       }
     }
@@ -57,8 +174,98 @@ public class DefaultFlowControlHandler implements FlowControlHandler {
     ctx.next(packet);
   }
 
+  @Override
+  public long sendCredit(final long sid, final long offset, final FrameSender sender) {
+    final long credit = sendCounter.credit(sid);
+
+    if (credit == 0) {
+      // fails, sending blocked frames
+      tryConsume(sid, offset + 1, sender);
+    }
+    return credit;
+  }
+
+  @Override
+  public void onConsumed(final long sid, final long bytes, final FrameSender sender) {
+    if (bytes == 0) {
+      return;
+    }
+
+    final List<Frame> frames = new ArrayList<>(2);
+
+    // no more credit is needed once the final size of the stream is known
+    if (receiveCounter.isOpen(sid)) {
+      ReceiveWindow streamWindow = streamWindows.get(sid);
+      if (streamWindow == null) {
+        streamWindow =
+            new ReceiveWindow(
+                streamMaxBytes, maxStreamWindow, rttEstimator, ticker, streamWindowBudget);
+        streamWindows.put(sid, streamWindow);
+      }
+
+      final long newMax = streamWindow.onConsumed(bytes);
+      if (newMax != -1) {
+        receiveCounter.setStreamMaxBytes(sid, newMax);
+        frames.add(new MaxStreamDataFrame(sid, newMax));
+
+        connectionWindow.ensureSize((long) (streamWindow.getSize() * CONNECTION_WINDOW_MULTIPLIER));
+      }
+    }
+
+    final long newMax = connectionWindow.onConsumed(bytes);
+    if (newMax != -1) {
+      receiveCounter.setConnectionMaxBytes(newMax);
+      frames.add(new MaxDataFrame(newMax));
+    }
+
+    if (!frames.isEmpty()) {
+      sender.send(frames.toArray(new Frame[0]));
+    }
+  }
+
+  @Override
+  public void onStreamClosed(final long sid, final FrameSender sender) {
+    if (!receiveCounter.wasOpened(sid)) {
+      // never counted against the stream limit of the peer
+      return;
+    }
+    receiveCounter.closeStream(sid);
+    removeStreamWindow(sid);
+
+    final boolean bidi = StreamId.isBidirectional(sid);
+    if (bidi) {
+      closedBidiStreams++;
+    } else {
+      closedUniStreams++;
+    }
+    maybeSendMaxStreams(bidi, false, sender);
+  }
+
+  private void maybeSendMaxStreams(
+      final boolean bidi, final boolean force, final FrameSender sender) {
+    final long closed = bidi ? closedBidiStreams : closedUniStreams;
+    final long threshold = bidi ? bidiStreamsUpdateThreshold : uniStreamsUpdateThreshold;
+    if (closed == 0 || (!force && closed < threshold)) {
+      return;
+    }
+
+    final long newMax = receiveCounter.getMaxStreams(bidi) + closed;
+    receiveCounter.setMaxStreams(newMax, bidi);
+    if (bidi) {
+      closedBidiStreams = 0;
+    } else {
+      closedUniStreams = 0;
+    }
+    sender.send(new MaxStreamsFrame(newMax, bidi));
+  }
+
+  @Override
+  public void release() {
+    connectionWindow.release();
+  }
+
   @VisibleForTesting
-  protected boolean tryConsume(final long sid, final long offset, final PipelineContext ctx) {
+  protected boolean tryConsume(final long sid, final long offset, final FrameSender ctx) {
     final TryConsumeResult result = sendCounter.tryConsume(sid, offset);
 
     if (result.isSuccess()) {
@@ -66,13 +273,18 @@ public class DefaultFlowControlHandler implements FlowControlHandler {
     } else {
       final List<Frame> frames = new ArrayList<>();
       final boolean bidi = StreamId.isBidirectional(sid);
-      if (result.getStreams() == result.getMaxStreams()) {
+      if (result.getStreams() == result.getMaxStreams()
+          && !(bidi ? bidiStreamsBlocked : uniStreamsBlocked)) {
         frames.add(new StreamsBlockedFrame(result.getMaxStreams(), bidi));
+        if (bidi) {
+          bidiStreamsBlocked = true;
+        } else {
+          uniStreamsBlocked = true;
+        }
       }
-      if (result.getConnectionOffset() > result.getConnectionMaxBytes()
-          && !connectionBlocked.get()) {
+      if (result.getConnectionOffset() > result.getConnectionMaxBytes() && !connectionBlocked) {
         frames.add(new DataBlockedFrame(result.getConnectionMaxBytes()));
-        connectionBlocked.set(true);
+        connectionBlocked = true;
       }
       if (result.getStreamOffset() > result.getStreamMaxBytes() && !blockedStreams.contains(sid)) {
         frames.add(new StreamDataBlockedFrame(sid, result.getStreamMaxBytes()));
@@ -85,60 +297,98 @@ public class DefaultFlowControlHandler implements FlowControlHandler {
     }
   }
 
-  public void onReceivePacket(final Packet packet, final PipelineContext ctx) {
-    if (packet instanceof FullPacket) {
-      final FullPacket fp = (FullPacket) packet;
-      // listen for flow control frames
-      for (final Frame frame : fp.getPayload().getFrames()) {
-        if (frame.getType() == FrameType.MAX_STREAM_DATA) {
-          final MaxStreamDataFrame msd = (MaxStreamDataFrame) frame;
-          sendCounter.setStreamMaxBytes(msd.getStreamId(), msd.getMaxStreamData());
-          blockedStreams.remove(msd.getStreamId());
-        } else if (frame.getType() == FrameType.MAX_DATA) {
-          final MaxDataFrame mdf = (MaxDataFrame) frame;
-          sendCounter.setConnectionMaxBytes(mdf.getMaxData());
-          connectionBlocked.set(false);
-        } else if (frame.getType() == FrameType.STREAM) {
-          final StreamFrame sf = (StreamFrame) frame;
-          final long sid = sf.getStreamId();
-          final TryConsumeResult result =
-              receiveCounter.tryConsume(sid, sf.getOffset() + sf.getData().length);
-
-          if (result.isSuccess()) {
-            final List<Frame> frames = new ArrayList<>();
-            if (1.0 * result.getConnectionOffset() / result.getConnectionMaxBytes() > 0.5) {
-              final long newMax = receiveCounter.increaseConnectionMax();
-              frames.add(new MaxDataFrame(newMax));
-            }
-            if (1.0 * result.getStreamOffset() / result.getStreamMaxBytes() > 0.5) {
-              final long newMax = receiveCounter.increaseStreamMax(sid);
-              frames.add(new MaxStreamDataFrame(sid, newMax));
-            }
-            // TODO right place?. stream not yet closed
-            if (sf.isFin()) {
-              final boolean bidi = StreamId.isBidirectional(sid);
-              final long newMax = receiveCounter.increaseMaxStreams(bidi);
-              frames.add(new MaxStreamsFrame(newMax, bidi));
-            }
-            if (!frames.isEmpty()) {
-              ctx.send(frames.toArray(new Frame[0]));
-            }
-          } else {
-            if (result.getStreams() == result.getMaxStreams()) {
-              ctx.closeConnection(
-                  TransportError.STREAM_LIMIT_ERROR, FrameType.STREAM, "Stream limit error");
-            } else {
-              ctx.closeConnection(
-                  TransportError.FLOW_CONTROL_ERROR, FrameType.STREAM, "Flow control error");
-            }
-          }
-        } else if (frame.getType() == FrameType.MAX_STREAMS) {
-          final MaxStreamsFrame msf = (MaxStreamsFrame) frame;
-          sendCounter.setMaxStreams(msf.getMaxStreams(), msf.isBidi());
-        }
+  @Override
+  public Set<FrameType> getFrameTypes() {
+    return FRAME_TYPES;
+  }
+
+  @Override
+  public void onMaxStreamDataFrame(
+      final MaxStreamDataFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    sendCounter.setStreamMaxBytes(frame.getStreamId(), frame.getMaxStreamData());
+    blockedStreams.remove(frame.getStreamId());
+  }
+
+  @Override
+  public void onMaxDataFrame(
+      final MaxDataFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    sendCounter.setConnectionMaxBytes(frame.getMaxData());
+    connectionBlocked = false;
+  }
+
+  @Override
+  public void onStreamFrame(
+      final StreamFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    final long sid = frame.getStreamId();
+    final TryConsumeResult result =
+        receiveCounter.tryConsume(sid, frame.getOffset() + frame.getLength());
+
+    if (result.isSuccess()) {
+      // credit is issued as the data is consumed, not when received
+      if (frame.isFin()) {
+        // final size known, no more credit needed for the stream. The stream limit credit is
+        // released once the stream is reclaimed
+        removeStreamWindow(sid);
+        receiveCounter.closeStream(sid);
+      }
+    } else {
+      if (result.getStreams() == result.getMaxStreams()) {
+        ctx.closeConnection(
+            TransportError.STREAM_LIMIT_ERROR, FrameType.STREAM, "Stream limit error");
+      } else {
+        ctx.closeConnection(
+            TransportError.FLOW_CONTROL_ERROR, FrameType.STREAM, "Flow control error");
       }
     }
+  }
 
-    ctx.next(packet);
+  @Override
+  public void onResetStreamFrame(
+      final ResetStreamFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    onReset(frame.getStreamId(), frame.getOffset(), ctx);
+  }
+
+  @Override
+  public void onMaxStreamsFrame(
+      final MaxStreamsFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    sendCounter.setMaxStreams(frame.getMaxStreams(), frame.isBidi());
+    if (frame.isBidi()) {
+      bidiStreamsBlocked = false;
+    } else {
+      uniStreamsBlocked = false;
+    }
+  }
+
+  @Override
+  public void onStreamsBlockedFrame(
+      final StreamsBlockedFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    // the peer is waiting to open streams, don't hold back released credit
+    maybeSendMaxStreams(frame.isBidi(), true, ctx);
+  }
+
+  private ReceiveWindow removeStreamWindow(final long sid) {
+    final ReceiveWindow streamWindow = streamWindows.remove(sid);
+    if (streamWindow != null) {
+      streamWindow.release();
+    }
+    return streamWindow;
+  }
+
+  private void onReset(final long sid, final long finalOffset, final FrameSender sender) {
+    if (!receiveCounter.isOpen(sid)) {
+      return;
+    }
+
+    // data not consumed by the application is discarded, consume it for the connection
+    final ReceiveWindow streamWindow = removeStreamWindow(sid);
+    final long consumed = streamWindow != null ? streamWindow.getConsumed() : 0;
+    receiveCounter.resetStream(sid, finalOffset);
+    receiveCounter.closeStream(sid);
+
+    final long newMax = connectionWindow.onConsumed(Math.max(0, finalOffset - consumed));
+    if (newMax != -1) {
+      receiveCounter.setConnectionMaxBytes(newMax);
+      sender.send(new MaxDataFrame(newMax));
+    }
   }
 }
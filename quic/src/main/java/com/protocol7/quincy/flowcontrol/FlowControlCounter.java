@@ -4,67 +4,100 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static java.lang.Math.max;
 
 import com.protocol7.quincy.protocol.StreamId;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
-
+import com.protocol7.quincy.streams.OpenedStreamIds;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+
+/**
+ * Flow control accounting for one direction of a connection. The connection offset is kept as a
+ * running total, so that consuming is constant time regardless of the number of streams.
+ *
+ * <p>Confined to the event loop of the connection.
+ */
 public class FlowControlCounter {
 
-  // TODO make sure max bytes does not grow forever
-
-  private final AtomicLong connectionMaxBytes;
+  private long connectionMaxBytes;
   private final long defaultStreamMaxBytes;
-  private final AtomicLong maxUniStreams;
-  private final AtomicLong maxBidiStreams;
-  private final AtomicLong uniStreams;
-  private final AtomicLong bidiStreams;
+  private long maxUniStreams;
+  private long maxBidiStreams;
+  private long uniStreams;
+  private long bidiStreams;
 
   private class StreamCounter {
     public boolean finished = false;
-    public final AtomicLong maxOffset = new AtomicLong(defaultStreamMaxBytes);
-    public final AtomicLong offset = new AtomicLong(0);
+    public long maxOffset = defaultStreamMaxBytes;
+    public long offset = 0;
   }
 
-  // TODO this will grow forever. Consider how we can garbage collect finished streams while not
-  // recreating them on out-of-order packets
-  private final Map<Long, StreamCounter> streams = new ConcurrentHashMap<>();
+  private final LongObjectMap<StreamCounter> streams = new LongObjectHashMap<>();
+  private final OpenedStreamIds opened = new OpenedStreamIds();
+  // bytes consumed by all streams, including closed ones
+  private long connectionOffset = 0;
 
   public FlowControlCounter(
       final long connectionMaxBytes,
       final long streamMaxBytes,
       final long maxUniStreams,
       final long maxBidiStreams) {
-    this.connectionMaxBytes = new AtomicLong(connectionMaxBytes);
+    this.connectionMaxBytes = connectionMaxBytes;
     this.defaultStreamMaxBytes = streamMaxBytes;
-    this.maxUniStreams = new AtomicLong(maxUniStreams);
-    this.maxBidiStreams = new AtomicLong(maxBidiStreams);
-    this.uniStreams = new AtomicLong(0);
-    this.bidiStreams = new AtomicLong(0);
+    this.maxUniStreams = maxUniStreams;
+    this.maxBidiStreams = maxBidiStreams;
   }
 
-  private long calculateConnectionOffset() {
-    return streams.values().stream().mapToLong(c -> c.offset.get()).sum();
+  /** Returns true if the stream has been opened and not yet closed. */
+  public boolean isOpen(final long sid) {
+    return streams.containsKey(sid);
+  }
+
+  /** Returns true if the stream has been opened, even if since closed. */
+  public boolean wasOpened(final long sid) {
+    return opened.isOpened(sid);
+  }
+
+  private boolean isClosed(final long sid) {
+    return !streams.containsKey(sid) && opened.isOpened(sid);
+  }
+
+  /** Returns null if the stream is closed. */
+  private StreamCounter getOrCreate(final long sid) {
+    StreamCounter stream = streams.get(sid);
+    if (stream == null && opened.open(sid)) {
+      stream = new StreamCounter();
+      streams.put(sid, stream);
+    }
+    return stream;
   }
 
-  // remove need to syncronize
-  public synchronized TryConsumeResult tryConsume(final long sid, final long offset) {
-    checkArgument(offset > 0);
+  public TryConsumeResult tryConsume(final long sid, final long offset) {
+    checkArgument(offset >= 0);
 
     final boolean bidi = StreamId.isBidirectional(sid);
+
+    if (isClosed(sid)) {
+      // late retransmit for a closed stream, nothing to consume
+      return new TryConsumeResult(
+          true,
+          connectionOffset,
+          connectionMaxBytes,
+          0,
+          defaultStreamMaxBytes,
+          bidi ? maxBidiStreams : maxUniStreams,
+          bidi ? bidiStreams : uniStreams);
+    }
+
     // first check if we can successfully consume
-    final StreamCounter stream =
-        streams.computeIfAbsent(
-            sid,
-            ignored -> {
-              if ((bidi && (bidiStreams.get() == maxBidiStreams.get()))
-                  || (!bidi && (uniStreams.get() == maxUniStreams.get()))) {
-                return null;
-              }
-              final long streams =
-                  bidi ? bidiStreams.incrementAndGet() : uniStreams.incrementAndGet();
-              System.out.println(uniStreams.get());
-              return new StreamCounter();
-            });
+    StreamCounter stream = streams.get(sid);
+    if (stream == null
+        && !((bidi && (bidiStreams == maxBidiStreams))
+            || (!bidi && (uniStreams == maxUniStreams)))) {
+      if (bidi) {
+        bidiStreams++;
+      } else {
+        uniStreams++;
+      }
+      stream = getOrCreate(sid);
+    }
 
     if (stream == null) {
       return new TryConsumeResult(
@@ -73,14 +106,13 @@ public class FlowControlCounter {
           0,
           0,
           0,
-          bidi ? maxBidiStreams.get() : maxUniStreams.get(),
-          bidi ? bidiStreams.get() : uniStreams.get());
+          bidi ? maxBidiStreams : maxUniStreams,
+          bidi ? bidiStreams : uniStreams);
     }
-    final long streamMax = stream.maxOffset.get();
-    final AtomicLong streamConsumed = stream.offset;
-    final long connOffset = calculateConnectionOffset();
+    final long streamMax = stream.maxOffset;
+    final long connOffset = connectionOffset;
 
-    final long streamDelta = offset - streamConsumed.get();
+    final long streamDelta = offset - stream.offset;
 
     final long resultingConnOffset;
     final long resultingStreamOffset;
@@ -89,80 +121,94 @@ public class FlowControlCounter {
       // out of order, always successful
       success = true;
       resultingConnOffset = connOffset;
-      resultingStreamOffset = streamConsumed.get();
+      resultingStreamOffset = stream.offset;
     } else if (streamDelta > 0 && stream.finished) {
       // trying to increase offset for finished stream, bail
       throw new IllegalStateException("Stream finished");
-    } else if (offset > streamMax || connOffset + streamDelta > connectionMaxBytes.get()) {
+    } else if (offset > streamMax || connOffset + streamDelta > connectionMaxBytes) {
       success = false;
       resultingConnOffset = connOffset + streamDelta;
       resultingStreamOffset = offset;
     } else {
       success = true;
-      streamConsumed.updateAndGet(current -> max(current, offset));
-      resultingConnOffset = connOffset + streamDelta;
-      resultingStreamOffset = streamConsumed.get();
+      stream.offset = max(stream.offset, offset);
+      connectionOffset += streamDelta;
+      resultingConnOffset = connectionOffset;
+      resultingStreamOffset = stream.offset;
     }
 
     return new TryConsumeResult(
         success,
         resultingConnOffset,
-        connectionMaxBytes.get(),
+        connectionMaxBytes,
         resultingStreamOffset,
         streamMax,
-        bidi ? maxBidiStreams.get() : maxUniStreams.get(),
-        bidi ? bidiStreams.get() : uniStreams.get());
+        bidi ? maxBidiStreams : maxUniStreams,
+        bidi ? bidiStreams : uniStreams);
+  }
+
+  /** Returns the number of bytes that can be consumed by the stream beyond its current offset. */
+  public long credit(final long sid) {
+    final StreamCounter stream = streams.get(sid);
+    if (stream == null) {
+      final boolean bidi = StreamId.isBidirectional(sid);
+      if ((bidi && (bidiStreams == maxBidiStreams)) || (!bidi && (uniStreams == maxUniStreams))) {
+        return 0;
+      }
+    }
+
+    final long streamCredit =
+        stream != null ? stream.maxOffset - stream.offset : defaultStreamMaxBytes;
+    final long connectionCredit = connectionMaxBytes - connectionOffset;
+
+    return Math.max(0, Math.min(streamCredit, connectionCredit));
   }
 
   public void resetStream(final long sid, final long finalOffset) {
-    final StreamCounter stream = streams.computeIfAbsent(sid, ignored -> new StreamCounter());
-    stream.offset.updateAndGet(current -> max(current, finalOffset));
-    stream.finished = true;
+    final StreamCounter stream = getOrCreate(sid);
+    if (stream != null) {
+      if (finalOffset > stream.offset) {
+        connectionOffset += finalOffset - stream.offset;
+        stream.offset = finalOffset;
+      }
+      stream.finished = true;
+    }
+  }
+
+  /**
+   * Forgets the stream once its final size has been consumed. Returns false if the stream was
+   * already closed.
+   */
+  public boolean closeStream(final long sid) {
+    return streams.remove(sid) != null;
   }
 
   public void setConnectionMaxBytes(final long connectionMaxBytes) {
     checkArgument(connectionMaxBytes > 0);
 
-    this.connectionMaxBytes.updateAndGet(current -> max(connectionMaxBytes, current));
+    this.connectionMaxBytes = max(connectionMaxBytes, this.connectionMaxBytes);
   }
 
   public void setMaxStreams(final long maxStreams, final boolean bidi) {
     checkArgument(maxStreams > 0);
 
     if (!bidi) {
-      this.maxUniStreams.updateAndGet(current -> max(maxStreams, current));
+      this.maxUniStreams = max(maxStreams, this.maxUniStreams);
     } else {
-      this.maxBidiStreams.updateAndGet(current -> max(maxStreams, current));
+      this.maxBidiStreams = max(maxStreams, this.maxBidiStreams);
     }
   }
 
-  public long increaseStreamMax(final long sid) {
-    final StreamCounter stream = streams.computeIfAbsent(sid, ignored -> new StreamCounter());
-    final AtomicLong streamMax = stream.maxOffset;
-
-    // double
-    return streamMax.addAndGet(streamMax.get());
-  }
-
-  public long increaseConnectionMax() {
-    // double
-    return connectionMaxBytes.addAndGet(connectionMaxBytes.get());
-  }
-
-  public long increaseMaxStreams(final boolean bidi) {
-    if (!bidi) {
-      return maxUniStreams.incrementAndGet();
-    } else {
-      return maxBidiStreams.incrementAndGet();
-    }
+  public long getMaxStreams(final boolean bidi) {
+    return bidi ? maxBidiStreams : maxUniStreams;
   }
 
   public void setStreamMaxBytes(final long sid, final long streamMaxBytes) {
     checkArgument(streamMaxBytes > 0);
 
-    final StreamCounter stream = streams.computeIfAbsent(sid, ignored -> new StreamCounter());
-    final AtomicLong streamMax = stream.maxOffset;
-
-    streamMax.updateAndGet(current -> max(streamMaxBytes, current));
+    final StreamCounter stream = getOrCreate(sid);
+    if (stream != null) {
+      stream.maxOffset = max(streamMaxBytes, stream.maxOffset);
+    }
   }
 }
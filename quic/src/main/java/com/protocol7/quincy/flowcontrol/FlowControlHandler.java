@@ -1,6 +1,29 @@
 package com.protocol7.quincy.flowcontrol;
 
-import com.protocol7.quincy.InboundHandler;
+import com.protocol7.quincy.FrameHandler;
+import com.protocol7.quincy.FrameSender;
 import com.protocol7.quincy.OutboundHandler;
 
-public interface FlowControlHandler extends InboundHandler, OutboundHandler {}
+public interface FlowControlHandler extends FrameHandler, OutboundHandler {
+
+  /**
+   * Returns the number of bytes the stream can send beyond the offset. When out of credit, the peer
+   * is informed that the stream or connection is blocked.
+   */
+  long sendCredit(long streamId, long offset, FrameSender sender);
+
+  /**
+   * Called as the application consumes received stream data, extending the receive windows of the
+   * stream and connection as needed.
+   */
+  void onConsumed(long streamId, long bytes, FrameSender sender);
+
+  /**
+   * Called once a stream is closed in both directions and reclaimed, releasing its stream limit
+   * credit to the peer.
+   */
+  void onStreamClosed(long streamId, FrameSender sender);
+
+  /** Returns reserved memory to the memory budget once the connection is closed. */
+  void release();
+}
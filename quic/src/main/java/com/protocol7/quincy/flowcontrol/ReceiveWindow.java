@@ -0,0 +1,168 @@
+package com.protocol7.quincy.flowcontrol;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import com.protocol7.quincy.memory.MemoryBudget;
+import com.protocol7.quincy.memory.MemoryBudget.Subsystem;
+import com.protocol7.quincy.reliability.RttEstimator;
+import com.protocol7.quincy.utils.Ticker;
+
+/**
+ * Receive window of a stream or connection, extended as the application consumes data, so that the
+ * peer can never have more than the window size buffered at the receiver.
+ *
+ * <p>The window size is auto-tuned similar to TCP receive buffer autotuning: if the application
+ * consumes data at a rate where the window would be drained within a few round trips, the window is
+ * limiting throughput and is doubled, up to the max size.
+ *
+ * <p>The window size is reserved from the memory budget. The window only grows while the budget
+ * allows, and is halved on each update while the budget is under pressure.
+ *
+ * <p>Confined to the event loop of the connection.
+ */
+public class ReceiveWindow {
+
+  // window updates are sent once a quarter of the window has been consumed
+  private static final double UPDATE_THRESHOLD = 0.25;
+
+  // under memory pressure, windows are not shrunk below this size, or the initial size if smaller
+  private static final long MIN_SIZE = 8 * 1024;
+
+  private final long minSize;
+  private final long maxSize;
+  private final RttEstimator rttEstimator;
+  private final Ticker ticker;
+  private final MemoryBudget memoryBudget;
+
+  private long size;
+  private long consumed = 0;
+  private long maxOffset;
+  private long epochStart;
+  private long epochOffset = 0;
+  private boolean released = false;
+
+  /** Without reserving from a memory budget. */
+  public ReceiveWindow(
+      final long size, final long maxSize, final RttEstimator rttEstimator, final Ticker ticker) {
+    this(size, maxSize, rttEstimator, ticker, MemoryBudget.unlimited());
+  }
+
+  public ReceiveWindow(
+      final long size,
+      final long maxSize,
+      final RttEstimator rttEstimator,
+      final Ticker ticker,
+      final MemoryBudget memoryBudget) {
+    checkArgument(size > 0);
+    checkArgument(maxSize >= size);
+
+    this.size = size;
+    this.minSize = Math.min(size, MIN_SIZE);
+    this.maxSize = maxSize;
+    this.maxOffset = size;
+    this.rttEstimator = requireNonNull(rttEstimator);
+    this.ticker = requireNonNull(ticker);
+    this.memoryBudget = requireNonNull(memoryBudget);
+    this.epochStart = ticker.nanoTime();
+
+    // the initial window is already promised to the peer
+    memoryBudget.reserve(Subsystem.ReceiveBuffers, size);
+  }
+
+  /**
+   * Consumes the bytes, returning the new max offset to advertise to the peer or -1 if the current
+   * one is still sufficient.
+   */
+  public long onConsumed(final long bytes) {
+    checkArgument(bytes >= 0);
+
+    consumed += bytes;
+
+    if (maxOffset - consumed > size * (1 - UPDATE_THRESHOLD)) {
+      return -1;
+    }
+
+    if (memoryBudget.isUnderPressure()) {
+      shrink();
+    } else {
+      autoTune();
+    }
+
+    // credit already advertised can't be taken back, a shrunk window takes effect gradually
+    if (consumed + size <= maxOffset) {
+      return -1;
+    }
+    maxOffset = consumed + size;
+    return maxOffset;
+  }
+
+  private void autoTune() {
+    final long epochBytes = consumed - epochOffset;
+    final long rtt = rttEstimator.getSmoothedRtt();
+    if (epochBytes <= size / 2 || !rttEstimator.hasSample()) {
+      // too little consumed, or no RTT measured yet, to tell the drain rate
+      return;
+    }
+
+    final long now = ticker.nanoTime();
+    // at the consumption rate of this epoch the window lasts less than four round trips
+    if (now - epochStart < 4.0 * rtt * epochBytes / size) {
+      resize(Math.min(2 * size, maxSize));
+    }
+    startEpoch(now);
+  }
+
+  private void shrink() {
+    resize(Math.max(size / 2, minSize));
+    startEpoch(ticker.nanoTime());
+  }
+
+  private void resize(final long newSize) {
+    if (released) {
+      return;
+    }
+
+    if (newSize > size) {
+      if (memoryBudget.tryReserve(Subsystem.ReceiveBuffers, newSize - size)) {
+        size = newSize;
+      }
+    } else if (newSize < size) {
+      memoryBudget.unreserve(Subsystem.ReceiveBuffers, size - newSize);
+      size = newSize;
+    }
+  }
+
+  private void startEpoch(final long now) {
+    epochStart = now;
+    epochOffset = consumed;
+  }
+
+  /** Grows the window to at least the size, e.g. for the connection to keep up with its streams. */
+  public void ensureSize(final long atLeast) {
+    if (atLeast > size) {
+      resize(Math.min(atLeast, maxSize));
+      startEpoch(ticker.nanoTime());
+    }
+  }
+
+  /** Returns the reserved memory to the budget, e.g. when the connection is closed. */
+  public void release() {
+    if (!released) {
+      released = true;
+      memoryBudget.unreserve(Subsystem.ReceiveBuffers, size);
+    }
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getConsumed() {
+    return consumed;
+  }
+
+  public long getMaxOffset() {
+    return maxOffset;
+  }
+}
@@ -0,0 +1,120 @@
+package com.protocol7.quincy.memory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Accounts for the memory held in stream data buffers across connections: received data waiting to
+ * be read, sent data waiting to be acknowledged and writes waiting to be sent.
+ *
+ * <p>Buffers account the bytes they hold as used. Receive windows reserve memory before advertising
+ * it as credit to peers, growing only while the budget allows and shrinking under memory pressure.
+ * A subsystem commits the larger of its reserved and used bytes, as used bytes are normally within
+ * a reservation. The limit is soft, concurrent reservations might slightly exceed it.
+ *
+ * <p>Thread safe, shared by all connections.
+ */
+public class MemoryBudget {
+
+  public enum Subsystem {
+    ReceiveBuffers,
+    RetransmitBuffers,
+    PendingWrites
+  }
+
+  // above this fraction of the limit committed, the budget is under pressure
+  private static final double PRESSURE_THRESHOLD = 0.75;
+
+  private static final MemoryBudget GLOBAL = new MemoryBudget(Runtime.getRuntime().maxMemory() / 4);
+
+  /** The process-wide budget, limited to a quarter of the max heap size. */
+  public static MemoryBudget global() {
+    return GLOBAL;
+  }
+
+  public static MemoryBudget unlimited() {
+    return new MemoryBudget(Long.MAX_VALUE);
+  }
+
+  private final long limit;
+  private final AtomicLongArray reserved = new AtomicLongArray(Subsystem.values().length);
+  private final AtomicLongArray used = new AtomicLongArray(Subsystem.values().length);
+
+  public MemoryBudget(final long limit) {
+    checkArgument(limit > 0);
+
+    this.limit = limit;
+  }
+
+  /** Reserves the bytes regardless of the limit, e.g. for credit already promised to a peer. */
+  public void reserve(final Subsystem subsystem, final long bytes) {
+    checkArgument(bytes >= 0);
+
+    reserved.addAndGet(subsystem.ordinal(), bytes);
+  }
+
+  /** Reserves the bytes if within the limit, returns false otherwise. */
+  public boolean tryReserve(final Subsystem subsystem, final long bytes) {
+    checkArgument(bytes >= 0);
+
+    if (bytes > limit - getCommitted()) {
+      return false;
+    }
+    reserved.addAndGet(subsystem.ordinal(), bytes);
+    return true;
+  }
+
+  public void unreserve(final Subsystem subsystem, final long bytes) {
+    checkArgument(bytes >= 0);
+
+    reserved.addAndGet(subsystem.ordinal(), -bytes);
+  }
+
+  public void allocate(final Subsystem subsystem, final long bytes) {
+    used.addAndGet(subsystem.ordinal(), bytes);
+  }
+
+  public void free(final Subsystem subsystem, final long bytes) {
+    used.addAndGet(subsystem.ordinal(), -bytes);
+  }
+
+  public boolean isUnderPressure() {
+    return getCommitted() > limit * PRESSURE_THRESHOLD;
+  }
+
+  public long getCommitted() {
+    long committed = 0;
+    for (int i = 0; i < reserved.length(); i++) {
+      committed += Math.max(reserved.get(i), used.get(i));
+    }
+    return committed;
+  }
+
+  public long getLimit() {
+    return limit;
+  }
+
+  public long getReserved(final Subsystem subsystem) {
+    return reserved.get(subsystem.ordinal());
+  }
+
+  public long getUsed(final Subsystem subsystem) {
+    return used.get(subsystem.ordinal());
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("MemoryBudget{limit=").append(limit);
+    for (final Subsystem subsystem : Subsystem.values()) {
+      sb.append(", ")
+          .append(subsystem)
+          .append("={reserved=")
+          .append(getReserved(subsystem))
+          .append(", used=")
+          .append(getUsed(subsystem))
+          .append('}');
+    }
+    return sb.append('}').toString();
+  }
+}
@@ -0,0 +1,24 @@
+package com.protocol7.quincy.netty;
+
+import com.protocol7.quincy.Configuration;
+import com.protocol7.quincy.connection.GsoPacketSender;
+import com.protocol7.quincy.connection.NettyPacketSender;
+import com.protocol7.quincy.connection.PacketSender;
+import io.netty.channel.Channel;
+import java.net.InetSocketAddress;
+
+final class PacketSenders {
+
+  private PacketSenders() {}
+
+  static PacketSender create(
+      final Configuration configuration,
+      final Channel channel,
+      final InetSocketAddress peerAddress) {
+    if (configuration.isGso() && GsoPacketSender.isSupported(channel)) {
+      return new GsoPacketSender(channel, peerAddress);
+    } else {
+      return new NettyPacketSender(channel, peerAddress);
+    }
+  }
+}
@@ -3,12 +3,16 @@ package com.protocol7.quincy.netty;
 import static java.util.Objects.requireNonNull;
 
 import com.protocol7.quincy.Configuration;
+import com.protocol7.quincy.flowcontrol.DefaultFlowControlHandler;
+import com.protocol7.quincy.memory.MemoryBudget;
 import com.protocol7.quincy.protocol.Version;
+import com.protocol7.quincy.streams.StreamScheduling;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.DatagramChannel;
 import java.security.PrivateKey;
 import java.util.List;
+import java.util.Optional;
 
 public class QuicBuilder {
 
@@ -24,6 +28,17 @@ public class QuicBuilder {
   private int initialMaxStreamDataBidiRemote = 32768;
   private int initialMaxStreamDataUni = 32768;
   private int maxAckDelay = 100; // TODO verify
+  private boolean gso = false;
+  private int maxConnections = 10000;
+  private int retryHandshakeThreshold = 1000;
+  private int retryHandshakeCpuThreshold = 500;
+  private int retryUnvalidatedBytesThreshold = 10 * 1024 * 1024;
+  private StreamScheduling streamScheduling = StreamScheduling.RoundRobin;
+  private int maxStreamReceiveWindow = 6 * 1024 * 1024;
+  private int maxConnectionReceiveWindow = 15 * 1024 * 1024;
+  private MemoryBudget memoryBudget = MemoryBudget.global();
+  private double maxStreamsUpdateFraction =
+      DefaultFlowControlHandler.DEFAULT_MAX_STREAMS_UPDATE_FRACTION;
 
   private List<byte[]> certificates;
   private PrivateKey privateKey;
@@ -88,6 +103,64 @@ public class QuicBuilder {
     return this;
   }
 
+  public QuicBuilder withGso(final boolean gso) {
+    this.gso = gso;
+    return this;
+  }
+
+  public QuicBuilder withMaxConnections(final int maxConnections) {
+    this.maxConnections = maxConnections;
+    return this;
+  }
+
+  /**
+   * Thresholds above which new connections must validate their address using Retry: the number of
+   * in-flight handshakes, handshake processing time in ms per second and bytes per second received
+   * from unvalidated peers. Use zero thresholds to always require Retry.
+   */
+  public QuicBuilder withRetryThresholds(
+      final int handshakes, final int handshakeCpu, final int unvalidatedBytes) {
+    this.retryHandshakeThreshold = handshakes;
+    this.retryHandshakeCpuThreshold = handshakeCpu;
+    this.retryUnvalidatedBytesThreshold = unvalidatedBytes;
+    return this;
+  }
+
+  /** How writes on multiple streams share the connection. */
+  public QuicBuilder withStreamScheduling(final StreamScheduling streamScheduling) {
+    this.streamScheduling = requireNonNull(streamScheduling);
+    return this;
+  }
+
+  /**
+   * Ceilings for auto-tuning the receive windows of streams and connections. Receive windows start
+   * at the initial max data and grow as the application consumes data faster than the window allows
+   * for.
+   */
+  public QuicBuilder withMaxReceiveWindows(final int stream, final int connection) {
+    this.maxStreamReceiveWindow = stream;
+    this.maxConnectionReceiveWindow = connection;
+    return this;
+  }
+
+  /**
+   * Budget for the memory held in stream data buffers, shared by all connections using it. Defaults
+   * to the process-wide budget.
+   */
+  public QuicBuilder withMemoryBudget(final MemoryBudget memoryBudget) {
+    this.memoryBudget = requireNonNull(memoryBudget);
+    return this;
+  }
+
+  /**
+   * Fraction of the initial stream limits that has to be closed before the limits are extended,
+   * batching the updates sent to the peer.
+   */
+  public QuicBuilder withMaxStreamsUpdateFraction(final double maxStreamsUpdateFraction) {
+    this.maxStreamsUpdateFraction = maxStreamsUpdateFraction;
+    return this;
+  }
+
   public QuicBuilder withCertificates(final List<byte[]> certificates) {
     this.certificates = certificates;
     return this;
@@ -111,18 +184,72 @@ public class QuicBuilder {
         disableMigration,
         initialMaxStreamDataBidiRemote,
         initialMaxStreamDataUni,
-        maxAckDelay);
+        maxAckDelay,
+        gso,
+        maxConnections,
+        retryHandshakeThreshold,
+        retryHandshakeCpuThreshold,
+        retryUnvalidatedBytesThreshold,
+        streamScheduling,
+        maxStreamReceiveWindow,
+        maxConnectionReceiveWindow,
+        memoryBudget,
+        maxStreamsUpdateFraction);
   }
 
   public ChannelHandler serverChannelInitializer(final ChannelHandler handler) {
     requireNonNull(certificates);
     requireNonNull(privateKey);
 
-    return new QuicServerInitializer(configuration(), handler, certificates, privateKey);
+    return new QuicServerInitializer(
+        configuration(), handler, certificates, privateKey, Optional.empty(), Optional.empty());
+  }
+
+  /**
+   * Streams are exposed as child channels of the datagram channel, with the stream handler added to
+   * the pipeline of streams opened by the peer.
+   */
+  public ChannelHandler serverChannelInitializer(
+      final ChannelHandler handler, final ChannelHandler streamHandler) {
+    requireNonNull(certificates);
+    requireNonNull(privateKey);
+
+    return new QuicServerInitializer(
+        configuration(),
+        handler,
+        certificates,
+        privateKey,
+        Optional.empty(),
+        Optional.of(streamHandler));
+  }
+
+  public ReusePortServer reusePortServer(final ChannelHandler handler, final int workers) {
+    requireNonNull(certificates);
+    requireNonNull(privateKey);
+
+    return new ReusePortServer(
+        new QuicServerInitializer(
+            configuration(),
+            handler,
+            certificates,
+            privateKey,
+            Optional.of(new ServerWorkers(workers)),
+            Optional.empty()),
+        workers);
   }
 
   public ChannelInitializer<DatagramChannel> clientChannelInitializer(
       final ChannelHandler handler) {
-    return new QuicClientInitializer(configuration(), handler);
+    return new QuicClientInitializer(configuration(), handler, Optional.empty());
+  }
+
+  /**
+   * Streams are exposed as child channels of the datagram channel, with the stream handler added to
+   * the pipeline of streams opened by the peer. Streams are opened with {@link
+   * QuicClientHandler#openStreamChannel(ChannelHandler)}.
+   */
+  public ChannelInitializer<DatagramChannel> clientChannelInitializer(
+      final ChannelHandler handler, final ChannelHandler streamHandler) {
+    return new QuicClientInitializer(configuration(), handler, Optional.of(streamHandler));
   }
 }
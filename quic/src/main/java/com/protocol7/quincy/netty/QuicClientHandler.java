@@ -1,26 +1,34 @@
 package com.protocol7.quincy.netty;
 
+import static com.google.common.base.Preconditions.checkState;
+
 import com.protocol7.quincy.Configuration;
 import com.protocol7.quincy.client.ClientConnection;
-import com.protocol7.quincy.connection.NettyPacketSender;
+import com.protocol7.quincy.client.TokenCache;
 import com.protocol7.quincy.flowcontrol.DefaultFlowControlHandler;
 import com.protocol7.quincy.protocol.ConnectionId;
 import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.protocol.packets.HalfParsedPacket;
 import com.protocol7.quincy.protocol.packets.Packet;
+import com.protocol7.quincy.reliability.RttEstimator;
 import com.protocol7.quincy.streams.Stream;
 import com.protocol7.quincy.streams.StreamListener;
 import com.protocol7.quincy.tls.NoopCertificateValidator;
-import com.protocol7.quincy.utils.Bytes;
+import com.protocol7.quincy.utils.Ticker;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.socket.DatagramPacket;
 import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timer;
+import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.Promise;
 import java.net.InetSocketAddress;
+import java.util.Optional;
 import org.slf4j.MDC;
 
 public class QuicClientHandler extends ChannelDuplexHandler {
@@ -28,12 +36,20 @@ public class QuicClientHandler extends ChannelDuplexHandler {
   private ChannelHandlerContext ctx;
   private ClientConnection connection;
   private final Configuration configuration;
+  private final TokenCache tokenCache;
+  private final Optional<ChannelHandler> streamHandler;
+  private Optional<QuicMultiplexCodec> multiplexCodec = Optional.empty();
   private final Timer timer = new HashedWheelTimer();
 
   private final StreamListener streamListener =
       new StreamListener() {
         @Override
         public void onData(final Stream stream, final byte[] data, final boolean finished) {
+          onData(stream, Unpooled.wrappedBuffer(data), finished);
+        }
+
+        @Override
+        public void onData(final Stream stream, final ByteBuf data, final boolean finished) {
           ctx.fireChannelRead(
               QuicPacket.of(
                   connection.getLocalConnectionId().get(),
@@ -43,29 +59,85 @@ public class QuicClientHandler extends ChannelDuplexHandler {
         }
       };
 
-  public QuicClientHandler(final Configuration configuration) {
+  public QuicClientHandler(
+      final Configuration configuration,
+      final TokenCache tokenCache,
+      final Optional<ChannelHandler> streamHandler) {
     this.configuration = configuration;
+    this.tokenCache = tokenCache;
+    this.streamHandler = streamHandler;
   }
 
   @Override
   public void handlerAdded(final ChannelHandlerContext ctx) {
     this.ctx = ctx;
+    this.multiplexCodec =
+        streamHandler.map(handler -> new QuicMultiplexCodec(ctx.channel(), handler));
+  }
+
+  /**
+   * Opens a bidirectional stream as a child channel, with the handler added to its pipeline.
+   * Requires a stream handler, for the streams opened by the server.
+   */
+  public Future<QuicStreamChannel> openStreamChannel(final ChannelHandler handler) {
+    return openStreamChannel(handler, true);
+  }
+
+  /**
+   * Opens a send-only stream as a child channel, with the handler added to its pipeline. Requires a
+   * stream handler, for the streams opened by the server.
+   */
+  public Future<QuicStreamChannel> openUnidirectionalStreamChannel(final ChannelHandler handler) {
+    return openStreamChannel(handler, false);
+  }
+
+  private Future<QuicStreamChannel> openStreamChannel(
+      final ChannelHandler handler, final boolean bidirectional) {
+    checkState(multiplexCodec.isPresent(), "Stream channels require a stream handler");
+
+    final Promise<QuicStreamChannel> promise = ctx.executor().newPromise();
+    final Future<Stream> stream =
+        bidirectional ? connection.openStream() : connection.openUnidirectionalStream();
+    stream.addListener(
+        (Future<Stream> opened) -> {
+          if (!opened.isSuccess()) {
+            promise.tryFailure(opened.cause());
+            return;
+          }
+          try {
+            final ChannelFuture future =
+                multiplexCodec.get().newStreamChannel(opened.getNow(), handler);
+            future.addListener(
+                f -> {
+                  if (f.isSuccess()) {
+                    promise.trySuccess((QuicStreamChannel) future.channel());
+                  } else {
+                    promise.tryFailure(f.cause());
+                  }
+                });
+          } catch (final RuntimeException e) {
+            promise.tryFailure(e);
+          }
+        });
+    return promise;
   }
 
   @Override
   public void channelActive(final ChannelHandlerContext ctx) {
+    final RttEstimator rttEstimator = new RttEstimator();
     final ClientConnection connection =
         new ClientConnection(
             configuration,
             ConnectionId.random(),
-            streamListener,
-            new NettyPacketSender(ctx.channel(), remoteAddress()),
-            new DefaultFlowControlHandler(
-                configuration.getInitialMaxData(), configuration.getInitialMaxStreamDataUni(),
-                configuration.getInitialMaxUniStreams(), configuration.getInitialMaxBidiStreams()),
+            multiplexCodec.<StreamListener>map(codec -> codec).orElse(streamListener),
+            PacketSenders.create(configuration, ctx.channel(), remoteAddress()),
+            new DefaultFlowControlHandler(configuration, rttEstimator, Ticker.systemTicker()),
+            rttEstimator,
             (InetSocketAddress) ctx.channel().remoteAddress(),
             new NoopCertificateValidator(), // cert validation disabled
-            timer);
+            timer,
+            ctx.executor(),
+            tokenCache);
 
     final Promise<Void> handshakePromise = ctx.newPromise();
 
@@ -115,9 +187,16 @@ public class QuicClientHandler extends ChannelDuplexHandler {
       final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
     if (msg instanceof QuicPacket) {
       final QuicPacket qp = (QuicPacket) msg;
-      final byte[] data = Bytes.drainToArray(qp.content());
-
-      connection.openStream().write(data, true);
+      connection
+          .openStream()
+          .addListener(
+              (Future<Stream> f) -> {
+                if (f.isSuccess()) {
+                  f.getNow().write(qp.content(), true);
+                } else {
+                  qp.content().release();
+                }
+              });
     } else {
       ctx.write(msg, promise);
     }
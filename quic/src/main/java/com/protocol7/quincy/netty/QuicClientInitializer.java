@@ -1,25 +1,33 @@
 package com.protocol7.quincy.netty;
 
 import com.protocol7.quincy.Configuration;
+import com.protocol7.quincy.client.TokenCache;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.DatagramChannel;
+import java.util.Optional;
 
 public class QuicClientInitializer extends ChannelInitializer<DatagramChannel> {
 
   private final Configuration configuration;
   private final ChannelHandler handler;
+  private final Optional<ChannelHandler> streamHandler;
+  private final TokenCache tokenCache = new TokenCache();
 
-  public QuicClientInitializer(final Configuration configuration, final ChannelHandler handler) {
+  public QuicClientInitializer(
+      final Configuration configuration,
+      final ChannelHandler handler,
+      final Optional<ChannelHandler> streamHandler) {
     this.configuration = configuration;
     this.handler = handler;
+    this.streamHandler = streamHandler;
   }
 
   @Override
   protected void initChannel(final DatagramChannel ch) {
     final ChannelPipeline pipeline = ch.pipeline();
-    pipeline.addLast(new QuicClientHandler(configuration));
+    pipeline.addLast(new QuicClientHandler(configuration, tokenCache, streamHandler));
     pipeline.addLast(handler);
   }
 }
@@ -0,0 +1,116 @@
+package com.protocol7.quincy.netty;
+
+import static java.util.Objects.requireNonNull;
+
+import com.protocol7.quincy.streams.Stream;
+import com.protocol7.quincy.streams.StreamListener;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exposes each QUIC stream as a child {@link QuicStreamChannel} of the datagram channel, modelled
+ * on {@code Http2MultiplexCodec}. Streams opened by the peer get a child channel with the stream
+ * handler added to its pipeline, as their first data is received.
+ *
+ * <p>Used as the stream listener of the connections on the channel, and confined to its event loop.
+ */
+public class QuicMultiplexCodec implements StreamListener {
+
+  private final Channel parent;
+  private final ChannelHandler streamHandler;
+  // kept until the stream is done receiving, for late data to not open a new child channel
+  private final Map<Stream, QuicStreamChannel> channels = new HashMap<>();
+
+  public QuicMultiplexCodec(final Channel parent, final ChannelHandler streamHandler) {
+    this.parent = requireNonNull(parent);
+    this.streamHandler = requireNonNull(streamHandler);
+
+    parent.closeFuture().addListener(f -> closeAll());
+  }
+
+  /** Creates a child channel for the stream, e.g. one opened locally, with the handler added. */
+  public ChannelFuture newStreamChannel(final Stream stream, final ChannelHandler handler) {
+    final QuicStreamChannel channel = new QuicStreamChannel(parent, stream, this::onClosed);
+    channel.pipeline().addLast(handler);
+    channels.put(stream, channel);
+
+    final ChannelFuture future = parent.eventLoop().register(channel);
+    future.addListener(
+        f -> {
+          if (!f.isSuccess()) {
+            if (channel.isRegistered()) {
+              channel.close();
+            } else {
+              channel.unsafe().closeForcibly();
+            }
+          }
+        });
+    return future;
+  }
+
+  @Override
+  public void onData(final Stream stream, final byte[] data, final boolean finished) {
+    onData(stream, Unpooled.wrappedBuffer(data), finished);
+  }
+
+  @Override
+  public void onData(final Stream stream, final ByteBuf data, final boolean finished) {
+    QuicStreamChannel channel = channels.get(stream);
+    if (channel == null) {
+      // opened by the peer
+      channel = (QuicStreamChannel) newStreamChannel(stream, streamHandler).channel();
+    }
+
+    channel.fireChildRead(data, finished);
+    removeIfDone(channel);
+  }
+
+  @Override
+  public boolean defersConsumption() {
+    return true;
+  }
+
+  @Override
+  public void onWritabilityChanged(final Stream stream, final boolean writable) {
+    final QuicStreamChannel channel = channels.get(stream);
+    if (channel != null) {
+      channel.writabilityChanged(writable);
+    }
+  }
+
+  @Override
+  public void onReset(final Stream stream, final int applicationErrorCode) {
+    final QuicStreamChannel channel = channels.get(stream);
+    if (channel != null) {
+      channel.streamReset();
+      removeIfDone(channel);
+    }
+  }
+
+  private void onClosed(final QuicStreamChannel channel) {
+    removeIfDone(channel);
+  }
+
+  private void removeIfDone(final QuicStreamChannel channel) {
+    if (!channel.isOpen() && channel.isInputDone()) {
+      channels.remove(channel.stream());
+    }
+  }
+
+  private void closeAll() {
+    for (final QuicStreamChannel channel : new ArrayList<>(channels.values())) {
+      channel.unsafe().closeForcibly();
+    }
+    channels.clear();
+  }
+
+  int size() {
+    return channels.size();
+  }
+}
@@ -1,75 +1,233 @@
 package com.protocol7.quincy.netty;
 
 import com.protocol7.quincy.Configuration;
-import com.protocol7.quincy.connection.Connection;
-import com.protocol7.quincy.connection.NettyPacketSender;
+import com.protocol7.quincy.addressvalidation.AddressValidator;
+import com.protocol7.quincy.addressvalidation.AdmissionPolicy;
+import com.protocol7.quincy.addressvalidation.RetryToken;
+import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.packets.Packet;
 import com.protocol7.quincy.server.Connections;
 import com.protocol7.quincy.server.PacketRouter;
+import com.protocol7.quincy.server.ServerConnection;
 import com.protocol7.quincy.streams.Stream;
 import com.protocol7.quincy.streams.StreamListener;
-import com.protocol7.quincy.utils.Bytes;
+import com.protocol7.quincy.utils.Ticker;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.socket.DatagramPacket;
 import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timer;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.PromiseNotifier;
 import java.security.PrivateKey;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class QuicServerHandler extends ChannelDuplexHandler {
 
+  private final Logger log = LoggerFactory.getLogger(QuicServerHandler.class);
+
   private final Timer timer = new HashedWheelTimer();
-  private final StreamListener streamListener =
+  // without a stream handler, received data is discarded, its credit returned as it is delivered
+  private final StreamListener defaultStreamListener =
       new StreamListener() {
         @Override
         public void onData(final Stream stream, final byte[] data, final boolean finished) {
-          System.out.println("onData " + new String(data));
+          log.debug("Discarding {} bytes on stream {}", data.length, stream.getId());
+        }
 
-          //              ctx.fireChannelRead(
-          //                      new QuicPacket(
-          //                              stream.getId().getValue(), Unpooled.wrappedBuffer(data),
-          // remoteAddress()));
+        @Override
+        public void onData(final Stream stream, final ByteBuf data, final boolean finished) {
+          log.debug("Discarding {} bytes on stream {}", data.readableBytes(), stream.getId());
+          data.release();
         }
       };
 
-  private final Connections connections;
-  private final PacketRouter router;
+  private final Configuration configuration;
+  private final ServerWorkers workers;
+  private final List<byte[]> certificates;
+  private final PrivateKey privateKey;
+  private final Optional<ChannelHandler> streamHandler;
+  private final Map<Optional<ConnectionId>, List<DatagramPacket>> batch = new LinkedHashMap<>();
+
+  private Connections connections;
+  private PacketRouter router;
+  private ChannelHandlerContext ctx;
+  private int worker;
 
   public QuicServerHandler(
       final Configuration configuration,
       final List<byte[]> certificates,
-      final PrivateKey privateKey) {
-    this.connections = new Connections(configuration, certificates, privateKey, timer);
-    this.router = new PacketRouter(configuration.getVersion(), connections, streamListener);
+      final PrivateKey privateKey,
+      final ServerWorkers workers,
+      final Optional<ChannelHandler> streamHandler) {
+    this.configuration = configuration;
+    this.workers = workers;
+    this.certificates = certificates;
+    this.privateKey = privateKey;
+    this.streamHandler = streamHandler;
+  }
+
+  @Override
+  public void handlerAdded(final ChannelHandlerContext ctx) {
+    this.ctx = ctx;
+
+    // with a stream handler, streams are exposed as child channels
+    final StreamListener streamListener =
+        streamHandler
+            .<StreamListener>map(handler -> new QuicMultiplexCodec(ctx.channel(), handler))
+            .orElse(defaultStreamListener);
+
+    // connections are confined to the event loop of the channel
+    this.connections =
+        new Connections(
+            configuration,
+            certificates,
+            privateKey,
+            () -> workers.newConnectionId(worker),
+            timer,
+            ctx.executor());
+    this.router =
+        new PacketRouter(
+            configuration.getVersion(),
+            connections,
+            new AddressValidator(
+                new RetryToken(privateKey),
+                30,
+                new RetryToken(privateKey, "new token", 1, 24, TimeUnit.HOURS, Clock.systemUTC()),
+                24 * 60,
+                TimeUnit.MINUTES,
+                () -> workers.newConnectionId(worker)),
+            new AdmissionPolicy(configuration, Ticker.systemTicker()),
+            streamListener);
+    this.worker = workers.register(this);
   }
 
   @Override
   public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
     if (msg instanceof DatagramPacket) {
       final DatagramPacket datagram = (DatagramPacket) msg;
+
+      final Optional<ConnectionId> connId;
+      try {
+        connId =
+            Packet.parse(datagram.content().duplicate(), ConnectionId.LENGTH).getConnectionId();
+      } catch (final RuntimeException e) {
+        datagram.release();
+        ctx.fireExceptionCaught(e);
+        return;
+      }
+
+      final QuicServerHandler owner = owner(connId);
+      if (owner != this) {
+        // received on the wrong socket, e.g. after a NAT rebinding
+        owner.ctx.executor().execute(() -> owner.route(datagram));
+        return;
+      }
+
+      // processed per connection once the read batch is complete
+      batch.computeIfAbsent(connId, k -> new ArrayList<>()).add(datagram);
+    } else {
+      ctx.fireChannelRead(msg);
+    }
+  }
+
+  @Override
+  public void channelReadComplete(final ChannelHandlerContext ctx) {
+    router.beginBatch();
+    try {
+      for (final List<DatagramPacket> datagrams : batch.values()) {
+        for (final DatagramPacket datagram : datagrams) {
+          routeInBatch(datagram);
+        }
+      }
+    } finally {
+      batch.clear();
+      router.endBatch();
+    }
+
+    ctx.fireChannelReadComplete();
+  }
+
+  private void route(final DatagramPacket datagram) {
+    router.beginBatch();
+    try {
+      routeInBatch(datagram);
+    } finally {
+      router.endBatch();
+    }
+  }
+
+  private void routeInBatch(final DatagramPacket datagram) {
+    try {
       router.route(
           datagram.content(),
-          new NettyPacketSender(ctx.channel(), datagram.sender()),
+          PacketSenders.create(configuration, ctx.channel(), datagram.sender()),
           datagram.sender());
+    } catch (final RuntimeException e) {
+      ctx.fireExceptionCaught(e);
+    } finally {
+      datagram.release();
+    }
+  }
+
+  private void write(final ConnectionId connId, final ByteBuf data, final ChannelPromise promise) {
+    final Optional<ServerConnection> connection = connections.get(connId);
 
+    if (connection.isPresent()) {
+      connection
+          .get()
+          .openStream()
+          .addListener(
+              (Future<Stream> f) -> {
+                if (f.isSuccess()) {
+                  f.getNow()
+                      .write(data, true)
+                      .addListener(new PromiseNotifier<Void, Future<Void>>(promise));
+                } else {
+                  data.release();
+                  promise.setFailure(f.cause());
+                }
+              });
     } else {
-      ctx.fireChannelRead(msg);
+      data.release();
+      promise.setFailure(new IllegalStateException("Unknown connection " + connId));
     }
   }
 
+  private QuicServerHandler owner(final Optional<ConnectionId> connId) {
+    if (connId.isPresent()) {
+      final QuicServerHandler owner = workers.get(workers.owner(connId.get()));
+      if (owner != null) {
+        return owner;
+      }
+    }
+    return this;
+  }
+
   @Override
   public void write(
       final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
     if (msg instanceof QuicPacket) {
       final QuicPacket qp = (QuicPacket) msg;
-      final byte[] data = Bytes.drainToArray(qp.content());
-
-      final Optional<Connection> connection = connections.get(qp.getLocalConnectionId());
+      final ByteBuf data = qp.content();
 
-      if (connection.isPresent()) {
-        connection.get().openStream().write(data, true);
+      final ConnectionId connId = qp.getLocalConnectionId();
+      final QuicServerHandler owner = owner(Optional.of(connId));
+      if (owner == this) {
+        write(connId, data, promise);
+      } else {
+        owner.ctx.executor().execute(() -> owner.write(connId, data, promise));
       }
     } else {
       ctx.write(msg, promise);
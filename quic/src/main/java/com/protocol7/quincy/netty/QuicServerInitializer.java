@@ -4,32 +4,59 @@ import com.protocol7.quincy.Configuration;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
 import io.netty.channel.socket.DatagramChannel;
 import java.security.PrivateKey;
 import java.util.List;
+import java.util.Optional;
 
 public class QuicServerInitializer extends ChannelInitializer<DatagramChannel> {
 
+  private static final int MAX_DATAGRAMS_PER_READ = 64;
+
   private final Configuration configuration;
   private final ChannelHandler handler;
   private final List<byte[]> certificates;
   private final PrivateKey privateKey;
+  private final Optional<ServerWorkers> workers;
+  private final Optional<ChannelHandler> streamHandler;
 
   public QuicServerInitializer(
       final Configuration configuration,
       final ChannelHandler handler,
       final List<byte[]> certificates,
-      final PrivateKey privateKey) {
+      final PrivateKey privateKey,
+      final Optional<ServerWorkers> workers,
+      final Optional<ChannelHandler> streamHandler) {
     this.configuration = configuration;
     this.handler = handler;
     this.certificates = certificates;
     this.privateKey = privateKey;
+    this.workers = workers;
+    this.streamHandler = streamHandler;
   }
 
   @Override
   protected void initChannel(final DatagramChannel ch) {
+    if (ch instanceof EpollDatagramChannel) {
+      // read up to MAX_DATAGRAMS_PER_READ datagrams per syscall using recvmmsg
+      final int maxPacketSize = configuration.getMaxPacketSize();
+      ch.config().setOption(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, maxPacketSize);
+      ch.config()
+          .setRecvByteBufAllocator(
+              new FixedRecvByteBufAllocator(maxPacketSize * MAX_DATAGRAMS_PER_READ));
+    }
+
     final ChannelPipeline pipeline = ch.pipeline();
-    pipeline.addLast(new QuicServerHandler(configuration, certificates, privateKey));
+    pipeline.addLast(
+        new QuicServerHandler(
+            configuration,
+            certificates,
+            privateKey,
+            workers.orElseGet(() -> new ServerWorkers(1)),
+            streamHandler));
     pipeline.addLast(handler);
   }
 }
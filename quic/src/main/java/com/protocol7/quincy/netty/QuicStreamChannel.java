@@ -0,0 +1,664 @@
+package com.protocol7.quincy.netty;
+
+import static java.util.Objects.requireNonNull;
+
+import com.protocol7.quincy.streams.Stream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelId;
+import io.netty.channel.ChannelMetadata;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelProgressivePromise;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelConfig;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.DefaultChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.RecvByteBufAllocator.Handle;
+import io.netty.channel.VoidChannelPromise;
+import io.netty.channel.socket.ChannelInputShutdownEvent;
+import io.netty.util.DefaultAttributeMap;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Child channel of a QUIC stream, created by {@link QuicMultiplexCodec}. Received stream data is
+ * read as {@link ByteBuf}s, and {@link ByteBuf}s written to the channel are sent on the stream.
+ *
+ * <p>Receive credit is returned to the peer as the pipeline reads the data, so with auto read
+ * disabled the peer is held back until {@link #read()} is called. The channel is unwritable while
+ * the stream is blocked by the stream or connection flow control window.
+ *
+ * <p>A {@link ChannelInputShutdownEvent} is fired once the peer has finished the stream. Closing
+ * the channel finishes the sending side of the stream, unless already shut down.
+ *
+ * <p>Shares the event loop of the parent channel, which the connections of the stream are confined
+ * to.
+ */
+public class QuicStreamChannel extends DefaultAttributeMap implements Channel {
+
+  private static final Logger log = LoggerFactory.getLogger(QuicStreamChannel.class);
+
+  private static final ChannelMetadata METADATA = new ChannelMetadata(false, 16);
+
+  private enum ReadStatus {
+    // no read in progress or requested
+    IDLE,
+    IN_PROGRESS,
+    // another read requested while one is in progress
+    REQUESTED
+  }
+
+  private final Channel parent;
+  private final Stream stream;
+  private final Consumer<QuicStreamChannel> onClosed;
+  private final ChannelId id = DefaultChannelId.newInstance();
+  private final ChannelConfig config = new DefaultChannelConfig(this);
+  private final StreamChannelUnsafe unsafe = new StreamChannelUnsafe();
+  private final ChannelPipeline pipeline = new DefaultChannelPipeline(this) {};
+  private final ChannelPromise closePromise = pipeline.newPromise();
+  private final Queue<Object> inboundBuffer = new ArrayDeque<>(4);
+
+  private volatile boolean registered = false;
+  private volatile boolean writable;
+  private ReadStatus readStatus = ReadStatus.IDLE;
+  private boolean inputDone;
+  private boolean outputShutdown = false;
+
+  QuicStreamChannel(
+      final Channel parent, final Stream stream, final Consumer<QuicStreamChannel> onClosed) {
+    this.parent = requireNonNull(parent);
+    this.stream = requireNonNull(stream);
+    this.onClosed = requireNonNull(onClosed);
+    this.writable = stream.isWritable();
+    this.inputDone = !stream.getStreamType().canReceive();
+  }
+
+  public Stream stream() {
+    return stream;
+  }
+
+  /** Finishes the sending side of the stream, while still reading from it. */
+  public ChannelFuture shutdownOutput() {
+    final ChannelPromise promise = newPromise();
+    if (eventLoop().inEventLoop()) {
+      shutdownOutput(promise);
+    } else {
+      eventLoop().execute(() -> shutdownOutput(promise));
+    }
+    return promise;
+  }
+
+  private void shutdownOutput(final ChannelPromise promise) {
+    if (outputShutdown) {
+      promise.setSuccess();
+      return;
+    }
+    notify(finishOutput(), promise);
+  }
+
+  private Future<Void> finishOutput() {
+    outputShutdown = true;
+    return stream.write(Unpooled.EMPTY_BUFFER, true);
+  }
+
+  private static void notify(final Future<Void> future, final ChannelPromise promise) {
+    future.addListener(
+        f -> {
+          if (f.isSuccess()) {
+            promise.trySuccess();
+          } else {
+            promise.tryFailure(f.cause());
+          }
+        });
+  }
+
+  /** Returns true once no more data will be received on the stream. */
+  boolean isInputDone() {
+    return inputDone;
+  }
+
+  /** Receives stream data, read by the pipeline as soon as a read is requested. */
+  void fireChildRead(final ByteBuf data, final boolean finished) {
+    inputDone |= finished;
+
+    if (!isActive()) {
+      // nobody is going to read the data, the peer must still not be blocked by it
+      discard(data);
+      return;
+    }
+
+    if (data.isReadable()) {
+      inboundBuffer.add(data);
+    } else {
+      data.release();
+    }
+    if (finished) {
+      inboundBuffer.add(ChannelInputShutdownEvent.INSTANCE);
+    }
+
+    if (readStatus != ReadStatus.IDLE) {
+      unsafe.doBeginRead();
+    }
+  }
+
+  void streamReset() {
+    inputDone = true;
+
+    // the connection window already accounts for the data of a reset stream
+    Object msg;
+    while ((msg = inboundBuffer.poll()) != null) {
+      ReferenceCountUtil.release(msg);
+    }
+    unsafe.closeForcibly();
+  }
+
+  void writabilityChanged(final boolean writable) {
+    if (writable != this.writable && isActive()) {
+      this.writable = writable;
+      pipeline.fireChannelWritabilityChanged();
+    }
+  }
+
+  private void discard(final Object msg) {
+    if (msg instanceof ByteBuf) {
+      stream.consumed(((ByteBuf) msg).readableBytes());
+    }
+    ReferenceCountUtil.release(msg);
+  }
+
+  @Override
+  public ChannelId id() {
+    return id;
+  }
+
+  @Override
+  public EventLoop eventLoop() {
+    return parent.eventLoop();
+  }
+
+  @Override
+  public Channel parent() {
+    return parent;
+  }
+
+  @Override
+  public ChannelConfig config() {
+    return config;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !closePromise.isDone();
+  }
+
+  @Override
+  public boolean isRegistered() {
+    return registered;
+  }
+
+  @Override
+  public boolean isActive() {
+    return isOpen();
+  }
+
+  @Override
+  public ChannelMetadata metadata() {
+    return METADATA;
+  }
+
+  @Override
+  public SocketAddress localAddress() {
+    return parent.localAddress();
+  }
+
+  @Override
+  public SocketAddress remoteAddress() {
+    return parent.remoteAddress();
+  }
+
+  @Override
+  public ChannelFuture closeFuture() {
+    return closePromise;
+  }
+
+  @Override
+  public boolean isWritable() {
+    return writable;
+  }
+
+  @Override
+  public long bytesBeforeUnwritable() {
+    // the flow control credit of the stream is not known up front
+    return writable ? config.getWriteBufferHighWaterMark() : 0;
+  }
+
+  @Override
+  public long bytesBeforeWritable() {
+    return writable ? 0 : config.getWriteBufferLowWaterMark();
+  }
+
+  @Override
+  public Unsafe unsafe() {
+    return unsafe;
+  }
+
+  @Override
+  public ChannelPipeline pipeline() {
+    return pipeline;
+  }
+
+  @Override
+  public ByteBufAllocator alloc() {
+    return config.getAllocator();
+  }
+
+  @Override
+  public Channel read() {
+    pipeline.read();
+    return this;
+  }
+
+  @Override
+  public Channel flush() {
+    pipeline.flush();
+    return this;
+  }
+
+  @Override
+  public ChannelFuture bind(final SocketAddress localAddress) {
+    return pipeline.bind(localAddress);
+  }
+
+  @Override
+  public ChannelFuture connect(final SocketAddress remoteAddress) {
+    return pipeline.connect(remoteAddress);
+  }
+
+  @Override
+  public ChannelFuture connect(
+      final SocketAddress remoteAddress, final SocketAddress localAddress) {
+    return pipeline.connect(remoteAddress, localAddress);
+  }
+
+  @Override
+  public ChannelFuture disconnect() {
+    return pipeline.disconnect();
+  }
+
+  @Override
+  public ChannelFuture close() {
+    return pipeline.close();
+  }
+
+  @Override
+  public ChannelFuture deregister() {
+    return pipeline.deregister();
+  }
+
+  @Override
+  public ChannelFuture bind(final SocketAddress localAddress, final ChannelPromise promise) {
+    return pipeline.bind(localAddress, promise);
+  }
+
+  @Override
+  public ChannelFuture connect(final SocketAddress remoteAddress, final ChannelPromise promise) {
+    return pipeline.connect(remoteAddress, promise);
+  }
+
+  @Override
+  public ChannelFuture connect(
+      final SocketAddress remoteAddress,
+      final SocketAddress localAddress,
+      final ChannelPromise promise) {
+    return pipeline.connect(remoteAddress, localAddress, promise);
+  }
+
+  @Override
+  public ChannelFuture disconnect(final ChannelPromise promise) {
+    return pipeline.disconnect(promise);
+  }
+
+  @Override
+  public ChannelFuture close(final ChannelPromise promise) {
+    return pipeline.close(promise);
+  }
+
+  @Override
+  public ChannelFuture deregister(final ChannelPromise promise) {
+    return pipeline.deregister(promise);
+  }
+
+  @Override
+  public ChannelFuture write(final Object msg) {
+    return pipeline.write(msg);
+  }
+
+  @Override
+  public ChannelFuture write(final Object msg, final ChannelPromise promise) {
+    return pipeline.write(msg, promise);
+  }
+
+  @Override
+  public ChannelFuture writeAndFlush(final Object msg, final ChannelPromise promise) {
+    return pipeline.writeAndFlush(msg, promise);
+  }
+
+  @Override
+  public ChannelFuture writeAndFlush(final Object msg) {
+    return pipeline.writeAndFlush(msg);
+  }
+
+  @Override
+  public ChannelPromise newPromise() {
+    return pipeline.newPromise();
+  }
+
+  @Override
+  public ChannelProgressivePromise newProgressivePromise() {
+    return pipeline.newProgressivePromise();
+  }
+
+  @Override
+  public ChannelFuture newSucceededFuture() {
+    return pipeline.newSucceededFuture();
+  }
+
+  @Override
+  public ChannelFuture newFailedFuture(final Throwable cause) {
+    return pipeline.newFailedFuture(cause);
+  }
+
+  @Override
+  public ChannelPromise voidPromise() {
+    return pipeline.voidPromise();
+  }
+
+  @Override
+  public int hashCode() {
+    return id.hashCode();
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    return this == o;
+  }
+
+  @Override
+  public int compareTo(final Channel o) {
+    if (this == o) {
+      return 0;
+    }
+    return id.compareTo(o.id());
+  }
+
+  @Override
+  public String toString() {
+    return parent + "(QUIC stream " + stream.getId() + ')';
+  }
+
+  private final class StreamChannelUnsafe implements Unsafe {
+
+    private final VoidChannelPromise unsafeVoidPromise =
+        new VoidChannelPromise(QuicStreamChannel.this, false);
+
+    private Handle recvHandle;
+    private boolean closeInitiated = false;
+    // set once all data has been read from a stream that can't be written to
+    private boolean readEOS = false;
+
+    @Override
+    public Handle recvBufAllocHandle() {
+      if (recvHandle == null) {
+        recvHandle = config.getRecvByteBufAllocator().newHandle();
+        recvHandle.reset(config);
+      }
+      return recvHandle;
+    }
+
+    @Override
+    public SocketAddress localAddress() {
+      return parent.unsafe().localAddress();
+    }
+
+    @Override
+    public SocketAddress remoteAddress() {
+      return parent.unsafe().remoteAddress();
+    }
+
+    @Override
+    public void register(final EventLoop eventLoop, final ChannelPromise promise) {
+      if (!promise.setUncancellable()) {
+        return;
+      }
+      if (registered) {
+        throw new UnsupportedOperationException("Re-register is not supported");
+      }
+
+      registered = true;
+      promise.setSuccess();
+
+      pipeline.fireChannelRegistered();
+      if (isActive()) {
+        pipeline.fireChannelActive();
+      }
+    }
+
+    @Override
+    public void bind(final SocketAddress localAddress, final ChannelPromise promise) {
+      if (promise.setUncancellable()) {
+        promise.setFailure(new UnsupportedOperationException());
+      }
+    }
+
+    @Override
+    public void connect(
+        final SocketAddress remoteAddress,
+        final SocketAddress localAddress,
+        final ChannelPromise promise) {
+      if (promise.setUncancellable()) {
+        promise.setFailure(new UnsupportedOperationException());
+      }
+    }
+
+    @Override
+    public void disconnect(final ChannelPromise promise) {
+      close(promise);
+    }
+
+    @Override
+    public void close(final ChannelPromise promise) {
+      if (!promise.setUncancellable()) {
+        return;
+      }
+      if (closeInitiated) {
+        if (closePromise.isDone()) {
+          promise.setSuccess();
+        } else if (!promise.isVoid()) {
+          closePromise.addListener(f -> promise.setSuccess());
+        }
+        return;
+      }
+      closeInitiated = true;
+
+      final boolean wasActive = isActive();
+
+      // unread data must not hold back the peer
+      Object msg;
+      while ((msg = inboundBuffer.poll()) != null) {
+        discard(msg);
+      }
+
+      if (!outputShutdown && stream.getStreamType().canSend()) {
+        // fails if already finished or reset
+        finishOutput();
+      }
+
+      closePromise.setSuccess();
+      promise.setSuccess();
+      onClosed.accept(QuicStreamChannel.this);
+
+      fireChannelInactiveAndDeregister(voidPromise(), wasActive);
+    }
+
+    @Override
+    public void closeForcibly() {
+      close(voidPromise());
+    }
+
+    @Override
+    public void deregister(final ChannelPromise promise) {
+      fireChannelInactiveAndDeregister(promise, false);
+    }
+
+    private void fireChannelInactiveAndDeregister(
+        final ChannelPromise promise, final boolean fireChannelInactive) {
+      if (!promise.setUncancellable()) {
+        return;
+      }
+
+      if (!registered) {
+        promise.setSuccess();
+        return;
+      }
+
+      // fired later, for the handler currently invoked to complete before being notified
+      invokeLater(
+          () -> {
+            if (fireChannelInactive) {
+              pipeline.fireChannelInactive();
+            }
+            if (registered) {
+              registered = false;
+              pipeline.fireChannelUnregistered();
+            }
+            promise.trySuccess();
+          });
+    }
+
+    private void invokeLater(final Runnable task) {
+      try {
+        eventLoop().execute(task);
+      } catch (final RejectedExecutionException e) {
+        log.warn("Can't invoke task later as the event loop rejected it", e);
+      }
+    }
+
+    @Override
+    public void beginRead() {
+      if (!isActive()) {
+        return;
+      }
+      switch (readStatus) {
+        case IDLE:
+          readStatus = ReadStatus.IN_PROGRESS;
+          doBeginRead();
+          break;
+        case IN_PROGRESS:
+          readStatus = ReadStatus.REQUESTED;
+          break;
+        default:
+          break;
+      }
+    }
+
+    private void doBeginRead() {
+      if (inboundBuffer.isEmpty()) {
+        if (readEOS) {
+          closeForcibly();
+        }
+        return;
+      }
+
+      final Handle allocHandle = recvBufAllocHandle();
+      allocHandle.reset(config);
+      do {
+        doRead(inboundBuffer.poll(), allocHandle);
+      } while (!inboundBuffer.isEmpty() && allocHandle.continueReading());
+
+      notifyReadComplete(allocHandle);
+    }
+
+    private void doRead(final Object msg, final Handle allocHandle) {
+      if (msg instanceof ByteBuf) {
+        final int bytes = ((ByteBuf) msg).readableBytes();
+        allocHandle.attemptedBytesRead(bytes);
+        allocHandle.lastBytesRead(bytes);
+        allocHandle.incMessagesRead(1);
+
+        pipeline.fireChannelRead(msg);
+
+        // read by the pipeline, the peer can send more
+        stream.consumed(bytes);
+      } else {
+        pipeline.fireUserEventTriggered(msg);
+        readEOS = !stream.getStreamType().canSend();
+      }
+    }
+
+    private void notifyReadComplete(final Handle allocHandle) {
+      if (readStatus == ReadStatus.REQUESTED) {
+        readStatus = ReadStatus.IN_PROGRESS;
+      } else {
+        readStatus = ReadStatus.IDLE;
+      }
+      allocHandle.readComplete();
+      pipeline.fireChannelReadComplete();
+
+      if (readEOS) {
+        closeForcibly();
+      }
+    }
+
+    @Override
+    public void write(final Object msg, final ChannelPromise promise) {
+      if (!promise.setUncancellable()) {
+        ReferenceCountUtil.release(msg);
+        return;
+      }
+
+      if (!isActive() || outputShutdown) {
+        ReferenceCountUtil.release(msg);
+        promise.setFailure(new ClosedChannelException());
+        return;
+      }
+
+      if (!(msg instanceof ByteBuf)) {
+        ReferenceCountUtil.release(msg);
+        promise.setFailure(new IllegalArgumentException("Message must be a ByteBuf: " + msg));
+        return;
+      }
+
+      QuicStreamChannel.notify(stream.write((ByteBuf) msg, false), promise);
+    }
+
+    @Override
+    public void flush() {
+      // writes are sent by the connection as soon as flow control allows
+    }
+
+    @Override
+    public ChannelPromise voidPromise() {
+      return unsafeVoidPromise;
+    }
+
+    @Override
+    public ChannelOutboundBuffer outboundBuffer() {
+      // writes are queued by the stream
+      return null;
+    }
+  }
+}
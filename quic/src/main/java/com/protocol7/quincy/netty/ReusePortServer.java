@@ -0,0 +1,40 @@
+package com.protocol7.quincy.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.unix.UnixChannelOption;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binds one epoll datagram channel per worker to the same address using SO_REUSEPORT. Channels are
+ * registered round-robin on the event loop group, so with as many workers as event loops each loop
+ * owns one socket and the connections created on it.
+ */
+public class ReusePortServer {
+
+  private final QuicServerInitializer initializer;
+  private final int workers;
+
+  public ReusePortServer(final QuicServerInitializer initializer, final int workers) {
+    this.initializer = initializer;
+    this.workers = workers;
+  }
+
+  public List<ChannelFuture> bind(final EventLoopGroup group, final SocketAddress address) {
+    final Bootstrap b = new Bootstrap();
+    b.group(group);
+    b.channel(EpollDatagramChannel.class);
+    b.option(UnixChannelOption.SO_REUSEPORT, true);
+    b.handler(initializer);
+
+    final List<ChannelFuture> futures = new ArrayList<>();
+    for (int i = 0; i < workers; i++) {
+      futures.add(b.bind(address));
+    }
+    return futures;
+  }
+}
@@ -0,0 +1,56 @@
+package com.protocol7.quincy.netty;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.utils.Rnd;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Server handlers sharing one port using SO_REUSEPORT. Connection IDs issued by a worker, for Retry
+ * and for every connection it accepts, carry the worker index in their first byte, so packets can
+ * be steered to the worker owning the connection. The first packets of a client carry a connection
+ * ID chosen by the client, which steers them to an arbitrary but stable worker.
+ */
+public class ServerWorkers {
+
+  private static final int MAX_WORKERS = 256;
+
+  private final AtomicReferenceArray<QuicServerHandler> workers;
+  private int registered;
+
+  public ServerWorkers(final int count) {
+    checkArgument(count > 0 && count <= MAX_WORKERS);
+
+    this.workers = new AtomicReferenceArray<>(count);
+  }
+
+  public synchronized int register(final QuicServerHandler handler) {
+    checkState(registered < workers.length(), "All workers already registered");
+
+    workers.set(registered, handler);
+    return registered++;
+  }
+
+  public QuicServerHandler get(final int index) {
+    return workers.get(index);
+  }
+
+  public int size() {
+    return workers.length();
+  }
+
+  public int owner(final ConnectionId connectionId) {
+    return (connectionId.asBytes()[0] & 0xFF) % workers.length();
+  }
+
+  public ConnectionId newConnectionId(final int worker) {
+    checkArgument(worker >= 0 && worker < workers.length());
+
+    final byte[] id = new byte[ConnectionId.LENGTH];
+    Rnd.rndBytes(id);
+    id[0] = (byte) worker;
+    return new ConnectionId(id);
+  }
+}
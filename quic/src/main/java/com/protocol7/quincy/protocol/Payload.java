@@ -54,9 +54,12 @@ public class Payload {
   }
 
   public Payload addFrame(final Frame frame) {
-    final List<Frame> newFrames = new ArrayList<>(frames);
-    newFrames.add(frame);
-    return new Payload(newFrames);
+    requireNonNull(frame);
+
+    // copied once into an immutable list, which the constructor then keeps as is
+    final Frame[] newFrames = frames.toArray(new Frame[frames.size() + 1]);
+    newFrames[frames.size()] = frame;
+    return new Payload(List.of(newFrames));
   }
 
   public int calculateLength() {
@@ -3,8 +3,14 @@ package com.protocol7.quincy.protocol.frames;
 import com.protocol7.quincy.Varint;
 import com.protocol7.quincy.protocol.StreamId;
 import io.netty.buffer.ByteBuf;
-import java.util.Arrays;
-
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Stream data is held as a buffer, parsed frames slice the received payload and sent frames carry
+ * the application buffers, avoiding copies. Frames being sent own their data, which is released
+ * once the frame has been acknowledged.
+ */
 public class StreamFrame extends Frame {
 
   public static StreamFrame parse(final ByteBuf bb) {
@@ -29,18 +35,20 @@ public class StreamFrame extends Frame {
       length = bb.readableBytes();
     }
 
-    final byte[] data = new byte[length];
-    bb.readBytes(data);
-
-    return new StreamFrame(streamId, offset, fin, data);
+    return new StreamFrame(streamId, offset, fin, bb.readSlice(length));
   }
 
   private final long streamId;
   private final long offset;
   private final boolean fin;
-  private final byte[] data;
+  private final ByteBuf data;
 
   public StreamFrame(final long streamId, final long offset, final boolean fin, final byte[] data) {
+    this(streamId, offset, fin, Unpooled.wrappedBuffer(data));
+  }
+
+  public StreamFrame(
+      final long streamId, final long offset, final boolean fin, final ByteBuf data) {
     super(FrameType.STREAM);
     this.streamId = StreamId.validate(streamId);
     this.offset = offset;
@@ -60,10 +68,23 @@ public class StreamFrame extends Frame {
     return fin;
   }
 
+  /** Returns a copy of the data. */
   public byte[] getData() {
+    return ByteBufUtil.getBytes(data);
+  }
+
+  public ByteBuf content() {
     return data;
   }
 
+  public int getLength() {
+    return data.readableBytes();
+  }
+
+  public void release() {
+    data.release();
+  }
+
   @Override
   public void write(final ByteBuf bb) {
     byte type = getType().getType();
@@ -82,9 +103,9 @@ public class StreamFrame extends Frame {
       Varint.write(offset, bb);
     }
 
-    Varint.write(data.length, bb);
+    Varint.write(data.readableBytes(), bb);
 
-    bb.writeBytes(data);
+    bb.writeBytes(data, data.readerIndex(), data.readableBytes());
   }
 
   @Override
@@ -97,7 +118,7 @@ public class StreamFrame extends Frame {
     if (offset != that.offset) return false;
     if (fin != that.fin) return false;
     if (streamId != that.streamId) return false;
-    return Arrays.equals(data, that.data);
+    return data.equals(that.data);
   }
 
   @Override
@@ -105,7 +126,7 @@ public class StreamFrame extends Frame {
     int result = Long.hashCode(streamId);
     result = 31 * result + (int) (offset ^ (offset >>> 32));
     result = 31 * result + (fin ? 1 : 0);
-    result = 31 * result + Arrays.hashCode(data);
+    result = 31 * result + data.hashCode();
     return result;
   }
 
@@ -119,7 +140,7 @@ public class StreamFrame extends Frame {
         + ", fin="
         + fin
         + ", data="
-        + Arrays.toString(data)
+        + (data.refCnt() > 0 ? ByteBufUtil.hexDump(data) : "released")
         + '}';
   }
 }
@@ -0,0 +1,12 @@
+package com.protocol7.quincy.protocol.packets;
+
+import com.protocol7.quincy.protocol.ConnectionId;
+import java.util.Optional;
+
+/** Initial packet with the unprotected header parsed, but the payload not yet decrypted. */
+public interface HalfParsedInitialPacket extends HalfParsedPacket<InitialPacket> {
+
+  Optional<ConnectionId> getSourceConnectionId();
+
+  Optional<byte[]> getToken();
+}
@@ -40,7 +40,7 @@ public class InitialPacket extends LongHeaderPacket {
         destConnectionId, srcConnectionId, version, packetNumber, new Payload(frames), token);
   }
 
-  public static HalfParsedPacket<InitialPacket> parse(final ByteBuf bb) {
+  public static HalfParsedInitialPacket parse(final ByteBuf bb) {
     final int bbOffset = bb.readerIndex();
 
     final byte firstByte = bb.readByte(); // TODO validate
@@ -63,7 +63,7 @@ public class InitialPacket extends LongHeaderPacket {
       token = Optional.empty();
     }
 
-    return new HalfParsedPacket<>() {
+    return new HalfParsedInitialPacket() {
       @Override
       public Optional<Version> getVersion() {
         return Optional.of(version);
@@ -74,6 +74,16 @@ public class InitialPacket extends LongHeaderPacket {
         return destConnId;
       }
 
+      @Override
+      public Optional<ConnectionId> getSourceConnectionId() {
+        return srcConnId;
+      }
+
+      @Override
+      public Optional<byte[]> getToken() {
+        return token;
+      }
+
       @Override
       public InitialPacket complete(final AEADProvider aeadProvider) {
         final int length = Varint.readAsInt(bb);
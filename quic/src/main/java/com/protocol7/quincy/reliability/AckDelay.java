@@ -1,6 +1,7 @@
 package com.protocol7.quincy.reliability;
 
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
 
 import com.protocol7.quincy.utils.Ticker;
 import java.util.concurrent.TimeUnit;
@@ -19,6 +20,11 @@ public class AckDelay {
     return Math.max(unit.toMicros(delay) / ackDelayMultiplier, 0);
   }
 
+  /** Decodes the ack delay of a received ACK frame, in nanoseconds. */
+  public long toNanos(final long ackDelay) {
+    return MICROSECONDS.toNanos(ackDelay * ackDelayMultiplier);
+  }
+
   public long time() {
     return ticker.nanoTime();
   }
@@ -3,14 +3,14 @@ package com.protocol7.quincy.reliability;
 import static com.protocol7.quincy.protocol.packets.Packet.getEncryptionLevel;
 import static java.util.Objects.requireNonNull;
 
-import com.google.common.collect.Queues;
 import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.tls.EncryptionLevel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
 
 public class AckQueue {
 
@@ -45,9 +45,9 @@ public class AckQueue {
     }
   }
 
-  private final BlockingQueue<Entry> initialAckQueue = Queues.newArrayBlockingQueue(1000);
-  private final BlockingQueue<Entry> handshakeAckQueue = Queues.newArrayBlockingQueue(1000);
-  private final BlockingQueue<Entry> ackQueue = Queues.newArrayBlockingQueue(1000);
+  private final Queue<Entry> initialAckQueue = new ArrayDeque<>();
+  private final Queue<Entry> handshakeAckQueue = new ArrayDeque<>();
+  private final Queue<Entry> ackQueue = new ArrayDeque<>();
 
   public void add(final FullPacket packet, final long time) {
     requireNonNull(packet);
@@ -56,14 +56,14 @@ public class AckQueue {
   }
 
   public Collection<Entry> drain(final EncryptionLevel level) {
-    final BlockingQueue<Entry> queue = getQueue(level);
+    final Queue<Entry> queue = getQueue(level);
 
-    final List<Entry> pns = new ArrayList<>(queue.size());
-    queue.drainTo(pns);
+    final List<Entry> pns = new ArrayList<>(queue);
+    queue.clear();
     return pns;
   }
 
-  private BlockingQueue<Entry> getQueue(final EncryptionLevel level) {
+  private Queue<Entry> getQueue(final EncryptionLevel level) {
     if (level == EncryptionLevel.Initial) {
       return initialAckQueue;
     } else if (level == EncryptionLevel.Handshake) {
@@ -3,38 +3,74 @@ package com.protocol7.quincy.reliability;
 import static com.protocol7.quincy.utils.Pair.of;
 import static java.util.Objects.requireNonNull;
 
+import com.protocol7.quincy.memory.MemoryBudget;
+import com.protocol7.quincy.memory.MemoryBudget.Subsystem;
 import com.protocol7.quincy.protocol.frames.Frame;
+import com.protocol7.quincy.protocol.frames.StreamFrame;
 import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.utils.Pair;
 import com.protocol7.quincy.utils.Ticker;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class PacketBuffer {
 
-  private final ConcurrentMap<Long, Pair<List<Frame>, Long>> buffer = new ConcurrentHashMap<>();
+  private final Map<Long, Pair<List<Frame>, Long>> buffer = new HashMap<>();
   private final Ticker ticker;
+  private final MemoryBudget memoryBudget;
 
   public PacketBuffer(final Ticker ticker) {
+    this(ticker, MemoryBudget.unlimited());
+  }
+
+  /** Buffered stream data is accounted as used in the memory budget. */
+  public PacketBuffer(final Ticker ticker, final MemoryBudget memoryBudget) {
     this.ticker = requireNonNull(ticker);
+    this.memoryBudget = requireNonNull(memoryBudget);
   }
 
   public void put(final FullPacket packet) {
     requireNonNull(packet);
-    buffer.put(packet.getPacketNumber(), of(packet.getPayload().getFrames(), ticker.nanoTime()));
+    final List<Frame> frames = packet.getPayload().getFrames();
+    buffer.put(packet.getPacketNumber(), of(frames, ticker.nanoTime()));
+    memoryBudget.allocate(Subsystem.RetransmitBuffers, streamBytes(frames));
   }
 
+  /** Removes all packets, as acknowledged. */
   public void clear() {
+    buffer.values().forEach(entry -> release(entry.getFirst()));
     buffer.clear();
   }
 
+  /** Removes the packet, as acknowledged. */
   public boolean remove(final long packetNumber) {
-    return buffer.remove(packetNumber) != null;
+    final Pair<List<Frame>, Long> removed = buffer.remove(packetNumber);
+    if (removed != null) {
+      release(removed.getFirst());
+      return true;
+    }
+    return false;
+  }
+
+  private void release(final List<Frame> frames) {
+    memoryBudget.free(Subsystem.RetransmitBuffers, streamBytes(frames));
+    for (final Frame frame : frames) {
+      if (frame instanceof StreamFrame) {
+        ((StreamFrame) frame).release();
+      }
+    }
+  }
+
+  /** Returns the time the packet was sent, if not yet acknowledged. */
+  public Optional<Long> getSentTime(final long packetNumber) {
+    final Pair<List<Frame>, Long> entry = buffer.get(packetNumber);
+    return entry != null ? Optional.of(entry.getSecond()) : Optional.empty();
   }
 
   public boolean contains(final long packetNumber) {
@@ -55,7 +91,11 @@ public class PacketBuffer {
             .filter(entry -> entry.getValue().getSecond() < since)
             .collect(Collectors.toUnmodifiableList());
 
-    toDrain.forEach(entry -> remove(entry.getKey()));
+    // ownership of the frames passes to the caller, for resending
+    for (final Entry<Long, Pair<List<Frame>, Long>> entry : toDrain) {
+      buffer.remove(entry.getKey());
+      memoryBudget.free(Subsystem.RetransmitBuffers, streamBytes(entry.getValue().getFirst()));
+    }
 
     return toDrain
         .stream()
@@ -63,6 +103,16 @@ public class PacketBuffer {
         .collect(Collectors.toUnmodifiableList());
   }
 
+  private static long streamBytes(final List<Frame> frames) {
+    long bytes = 0;
+    for (final Frame frame : frames) {
+      if (frame instanceof StreamFrame) {
+        bytes += ((StreamFrame) frame).getLength();
+      }
+    }
+    return bytes;
+  }
+
   @Override
   public String toString() {
     return "PacketBuffer{" + buffer + '}';
@@ -6,13 +6,16 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.protocol7.quincy.FrameHandler;
 import com.protocol7.quincy.FrameSender;
 import com.protocol7.quincy.InboundHandler;
 import com.protocol7.quincy.OutboundHandler;
 import com.protocol7.quincy.PipelineContext;
+import com.protocol7.quincy.memory.MemoryBudget;
 import com.protocol7.quincy.protocol.frames.AckBlock;
 import com.protocol7.quincy.protocol.frames.AckFrame;
 import com.protocol7.quincy.protocol.frames.Frame;
+import com.protocol7.quincy.protocol.frames.FrameType;
 import com.protocol7.quincy.protocol.packets.*;
 import com.protocol7.quincy.reliability.AckQueue.Entry;
 import com.protocol7.quincy.tls.EncryptionLevel;
@@ -21,17 +24,20 @@ import com.protocol7.quincy.utils.Ticker;
 import io.netty.util.Timeout;
 import io.netty.util.Timer;
 import io.netty.util.TimerTask;
+import io.netty.util.concurrent.EventExecutor;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class PacketBufferManager implements InboundHandler, OutboundHandler {
+public class PacketBufferManager implements InboundHandler, FrameHandler, OutboundHandler {
 
   private static final long RESEND_DELAY = 10;
 
@@ -41,27 +47,36 @@ public class PacketBufferManager implements InboundHandler, OutboundHandler {
   private final PacketBuffer handshakeBuffer;
   private final PacketBuffer buffer;
   private final AckQueue ackQueue = new AckQueue();
-  private final AtomicReference<Long> largestAcked = new AtomicReference<>(0L);
+  private long largestAcked = 0;
   private final AckDelay ackDelay;
   private final FrameSender frameSender;
+  private final Ticker ticker;
+  private final RttEstimator rttEstimator;
+  private final Set<EncryptionLevel> pendingAckFlushes = EnumSet.noneOf(EncryptionLevel.class);
+  private boolean batching;
 
   public PacketBufferManager(
       final AckDelay ackDelay,
       final FrameSender frameSender,
       final Timer timer,
-      final Ticker ticker) {
+      final Ticker ticker,
+      final EventExecutor executor,
+      final RttEstimator rttEstimator,
+      final MemoryBudget memoryBudget) {
     this.ackDelay = requireNonNull(ackDelay);
     this.frameSender = frameSender;
+    this.ticker = requireNonNull(ticker);
+    this.rttEstimator = requireNonNull(rttEstimator);
 
-    initialBuffer = new PacketBuffer(ticker);
-    handshakeBuffer = new PacketBuffer(ticker);
-    buffer = new PacketBuffer(ticker);
+    initialBuffer = new PacketBuffer(ticker, memoryBudget);
+    handshakeBuffer = new PacketBuffer(ticker, memoryBudget);
+    buffer = new PacketBuffer(ticker, memoryBudget);
 
     final TimerTask task =
         new TimerTask() {
           @Override
           public void run(final Timeout timeout) {
-            resend();
+            executor.execute(PacketBufferManager.this::resend);
             timeout.timer().newTimeout(this, RESEND_DELAY, MILLISECONDS);
           }
         };
@@ -76,6 +91,26 @@ public class PacketBufferManager implements InboundHandler, OutboundHandler {
     toResend.stream().forEach(frameSender::send);
   }
 
+  /** Drops all unacknowledged packets, once the connection is closed. */
+  public void release() {
+    initialBuffer.clear();
+    handshakeBuffer.clear();
+    buffer.clear();
+  }
+
+  public void beginBatch() {
+    batching = true;
+  }
+
+  public void endBatch(final FrameSender sender) {
+    batching = false;
+
+    for (final EncryptionLevel level : pendingAckFlushes) {
+      flushAcks(level, sender);
+    }
+    pendingAckFlushes.clear();
+  }
+
   @Override
   public void beforeSendPacket(final Packet packet, final PipelineContext ctx) {
     requireNonNull(packet);
@@ -129,12 +164,15 @@ public class PacketBufferManager implements InboundHandler, OutboundHandler {
       ackQueue.add(fp, ackDelay.time());
       log.debug("Acked packet {}", fp.getPacketNumber());
 
-      handleAcks(packet);
-
       if (shouldFlush(packet)) {
-        log.debug("Directly acking packet");
         final EncryptionLevel level = getEncryptionLevel(packet);
-        flushAcks(level, ctx);
+        if (batching) {
+          // acks are flushed once at the end of the batch, unless piggybacked before that
+          pendingAckFlushes.add(level);
+        } else {
+          log.debug("Directly acking packet");
+          flushAcks(level, ctx);
+        }
       }
     }
 
@@ -151,21 +189,27 @@ public class PacketBufferManager implements InboundHandler, OutboundHandler {
     }
   }
 
-  private void handleAcks(final Packet packet) {
-    if (packet instanceof FullPacket) {
-      final EncryptionLevel level = getEncryptionLevel(packet);
-
-      ((FullPacket) packet)
-          .getPayload()
-          .getFrames()
-          .stream()
-          .filter(frame -> frame instanceof AckFrame)
-          .forEach(frame -> handleAcks((AckFrame) frame, level));
-    }
+  @Override
+  public Set<FrameType> getFrameTypes() {
+    return EnumSet.of(FrameType.ACK);
+  }
+
+  @Override
+  public void onAckFrame(final AckFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    handleAcks(frame, getEncryptionLevel(packet));
   }
 
   private void handleAcks(final AckFrame frame, final EncryptionLevel level) {
+    // sample the RTT if the largest acknowledged packet is newly acknowledged
+    final long largest =
+        frame.getBlocks().stream().mapToLong(AckBlock::getLargest).max().orElse(-1);
+    final Optional<Long> sentTime = bufferFor(level).getSentTime(largest);
+
     frame.getBlocks().forEach(b -> handleAcks(b, level));
+
+    sentTime.ifPresent(
+        sent ->
+            rttEstimator.onSample(ticker.nanoTime() - sent, ackDelay.toNanos(frame.getAckDelay())));
   }
 
   private void handleAcks(final AckBlock block, final EncryptionLevel level) {
@@ -175,18 +219,22 @@ public class PacketBufferManager implements InboundHandler, OutboundHandler {
     for (long pn = smallest; pn <= largest; pn++) {
       if (ack(pn, level)) {
         log.debug("Acked packet {} at level {}", pn, level);
-        largestAcked.getAndAccumulate(pn, Math::max);
+        largestAcked = Math.max(largestAcked, pn);
       }
     }
   }
 
   private boolean ack(final long pn, final EncryptionLevel level) {
+    return bufferFor(level).remove(pn);
+  }
+
+  private PacketBuffer bufferFor(final EncryptionLevel level) {
     if (level == EncryptionLevel.Initial) {
-      return initialBuffer.remove(pn);
+      return initialBuffer;
     } else if (level == EncryptionLevel.Handshake) {
-      return handshakeBuffer.remove(pn);
+      return handshakeBuffer;
     } else {
-      return buffer.remove(pn);
+      return buffer;
     }
   }
 
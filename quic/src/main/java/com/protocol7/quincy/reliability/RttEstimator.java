@@ -0,0 +1,62 @@
+package com.protocol7.quincy.reliability;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Round trip time estimation from acknowledged packets, as specified in RFC 9002. The smoothed RTT
+ * is zero until the first sample.
+ *
+ * <p>Confined to the event loop of the connection.
+ */
+public class RttEstimator {
+
+  private boolean sampled = false;
+  private long latestRtt = 0;
+  private long minRtt = 0;
+  private long smoothedRtt = 0;
+  private long rttVar = 0;
+
+  /** Samples are in nanoseconds, the ack delay as reported by the peer. */
+  public void onSample(final long rtt, final long ackDelay) {
+    checkArgument(rtt >= 0);
+    checkArgument(ackDelay >= 0);
+
+    latestRtt = rtt;
+
+    if (!sampled) {
+      sampled = true;
+      minRtt = rtt;
+      smoothedRtt = rtt;
+      rttVar = rtt / 2;
+      return;
+    }
+
+    minRtt = Math.min(minRtt, rtt);
+
+    // only subtract the ack delay if the result is still plausible
+    final long adjustedRtt = rtt - ackDelay >= minRtt ? rtt - ackDelay : rtt;
+
+    rttVar = (3 * rttVar + Math.abs(smoothedRtt - adjustedRtt)) / 4;
+    smoothedRtt = (7 * smoothedRtt + adjustedRtt) / 8;
+  }
+
+  public boolean hasSample() {
+    return sampled;
+  }
+
+  public long getLatestRtt() {
+    return latestRtt;
+  }
+
+  public long getMinRtt() {
+    return minRtt;
+  }
+
+  public long getSmoothedRtt() {
+    return smoothedRtt;
+  }
+
+  public long getRttVar() {
+    return rttVar;
+  }
+}
@@ -1,21 +1,36 @@
 package com.protocol7.quincy.server;
 
+import static com.google.common.base.Preconditions.checkState;
+
 import com.protocol7.quincy.Configuration;
-import com.protocol7.quincy.connection.Connection;
 import com.protocol7.quincy.connection.PacketSender;
+import com.protocol7.quincy.connection.State;
 import com.protocol7.quincy.flowcontrol.DefaultFlowControlHandler;
 import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.reliability.RttEstimator;
 import com.protocol7.quincy.streams.StreamListener;
+import com.protocol7.quincy.utils.Ticker;
 import io.netty.util.Timer;
+import io.netty.util.concurrent.EventExecutor;
 import java.net.InetSocketAddress;
 import java.security.PrivateKey;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * The connections served by a channel. Like the connections themselves, this is confined to the
+ * event loop of the channel, including the gauges.
+ *
+ * <p>Each connection is given a connection ID of our own, which the client switches to after our
+ * first packet. Until the connection is closed, it can also be found by the connection ID the
+ * client chose for its first packets, as retransmitted Initial packets still carry it.
+ */
 public class Connections {
 
   private final Logger log = LoggerFactory.getLogger(Connections.class);
@@ -23,54 +38,105 @@ public class Connections {
   private final Configuration configuration;
   private final List<byte[]> certificates;
   private final PrivateKey privateKey;
-  private final Map<ConnectionId, ServerConnection> connections = new ConcurrentHashMap<>();
+  private final Supplier<ConnectionId> connectionIds;
+  private final Map<ConnectionId, ServerConnection> connections = new HashMap<>();
+  private final Map<ConnectionId, ServerConnection> initialConnectionIds = new HashMap<>();
   private final Timer timer;
+  private final EventExecutor executor;
 
   public Connections(
       final Configuration configuration,
       final List<byte[]> certificates,
       final PrivateKey privateKey,
-      final Timer timer) {
+      final Supplier<ConnectionId> connectionIds,
+      final Timer timer,
+      final EventExecutor executor) {
     this.configuration = configuration;
     this.certificates = certificates;
     this.privateKey = privateKey;
+    this.connectionIds = connectionIds;
     this.timer = timer;
+    this.executor = executor;
   }
 
-  public ServerConnection get(
-      final Optional<ConnectionId> connIdOpt,
+  /**
+   * Creates a connection for the connection ID chosen by the client. Returns empty when the new
+   * connection would exceed the maximum number of connections.
+   */
+  public Optional<ServerConnection> create(
+      final ConnectionId initialConnId,
       final StreamListener streamHandler,
       final PacketSender packetSender,
       final InetSocketAddress peerAddress) {
+    checkState(!get(initialConnId).isPresent(), "Connection already exists");
 
-    final ConnectionId connId = connIdOpt.get();
-
-    ServerConnection conn = connections.get(connId);
-    if (conn == null) {
-      log.debug("Creating new server connection for {}", connId);
-      conn =
-          new ServerConnection(
-              configuration,
-              connId,
-              streamHandler,
-              packetSender,
-              certificates,
-              privateKey,
-              new DefaultFlowControlHandler(
-                  configuration.getInitialMaxData(), configuration.getInitialMaxStreamDataUni(),
-                  configuration.getInitialMaxUniStreams(),
-                      configuration.getInitialMaxBidiStreams()),
-              peerAddress,
-              timer);
-      final ServerConnection existingConn = connections.putIfAbsent(connId, conn);
-      if (existingConn != null) {
-        conn = existingConn;
-      }
+    if (connections.size() >= configuration.getMaxConnections()) {
+      log.debug("Rejecting connection for {}, connection limit reached", initialConnId);
+      return Optional.empty();
+    }
+
+    final ConnectionId connId = connectionIds.get();
+    log.debug("Creating new server connection {} for {}", connId, initialConnId);
+    final RttEstimator rttEstimator = new RttEstimator();
+    final ServerConnection conn =
+        new ServerConnection(
+            configuration,
+            connId,
+            initialConnId,
+            streamHandler,
+            packetSender,
+            certificates,
+            privateKey,
+            new DefaultFlowControlHandler(configuration, rttEstimator, Ticker.systemTicker()),
+            rttEstimator,
+            peerAddress,
+            timer,
+            executor);
+    connections.put(connId, conn);
+    initialConnectionIds.put(initialConnId, conn);
+
+    conn.closeFuture().addListener(future -> remove(connId, initialConnId, conn));
+
+    return Optional.of(conn);
+  }
+
+  private void remove(
+      final ConnectionId connId, final ConnectionId initialConnId, final ServerConnection conn) {
+    initialConnectionIds.remove(initialConnId, conn);
+    if (connections.remove(connId, conn)) {
+      log.debug("Removed server connection for {}", connId);
+    }
+  }
+
+  public Optional<ServerConnection> get(final ConnectionId connId) {
+    final ServerConnection conn = connections.get(connId);
+    if (conn != null) {
+      return Optional.of(conn);
     }
-    return conn;
+    return Optional.ofNullable(initialConnectionIds.get(connId));
+  }
+
+  public int getLive() {
+    return connections.size();
+  }
+
+  public int getHandshaking() {
+    return count(State.Started, State.BeforeReady);
   }
 
-  public Optional<Connection> get(final ConnectionId connId) {
-    return Optional.ofNullable(connections.get(connId));
+  public int getDraining() {
+    return count(State.Closing, State.Closed);
+  }
+
+  private int count(final State... states) {
+    final Set<State> matching = Set.of(states);
+
+    int count = 0;
+    for (final ServerConnection conn : connections.values()) {
+      if (matching.contains(conn.getState())) {
+        count++;
+      }
+    }
+    return count;
   }
 }
@@ -1,40 +1,61 @@
 package com.protocol7.quincy.server;
 
+import com.protocol7.quincy.addressvalidation.AddressValidator;
+import com.protocol7.quincy.addressvalidation.AdmissionPolicy;
 import com.protocol7.quincy.connection.PacketSender;
+import com.protocol7.quincy.connection.State;
 import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.PacketNumber;
+import com.protocol7.quincy.protocol.TransportError;
 import com.protocol7.quincy.protocol.Version;
+import com.protocol7.quincy.protocol.frames.ConnectionCloseFrame;
+import com.protocol7.quincy.protocol.frames.FrameType;
 import com.protocol7.quincy.protocol.packets.FullPacket;
+import com.protocol7.quincy.protocol.packets.HalfParsedInitialPacket;
 import com.protocol7.quincy.protocol.packets.HalfParsedPacket;
+import com.protocol7.quincy.protocol.packets.InitialPacket;
 import com.protocol7.quincy.protocol.packets.Packet;
+import com.protocol7.quincy.protocol.packets.RetryPacket;
 import com.protocol7.quincy.protocol.packets.VersionNegotiationPacket;
 import com.protocol7.quincy.streams.StreamListener;
+import com.protocol7.quincy.tls.aead.InitialAEAD;
 import io.netty.buffer.ByteBuf;
 import java.net.InetSocketAddress;
+import java.util.LinkedHashSet;
 import java.util.Optional;
+import java.util.Set;
 import org.slf4j.MDC;
 
 public class PacketRouter {
 
   private final Version version;
   private final Connections connections;
+  private final AddressValidator addressValidator;
+  private final AdmissionPolicy admissionPolicy;
   private final StreamListener listener;
+  private final Set<ServerConnection> batch = new LinkedHashSet<>();
+  private boolean batching;
 
   public PacketRouter(
-      final Version version, final Connections connections, final StreamListener listener) {
+      final Version version,
+      final Connections connections,
+      final AddressValidator addressValidator,
+      final AdmissionPolicy admissionPolicy,
+      final StreamListener listener) {
     this.version = version;
     this.connections = connections;
+    this.addressValidator = addressValidator;
+    this.admissionPolicy = admissionPolicy;
     this.listener = listener;
   }
 
-  private boolean validateVersion(
-      final HalfParsedPacket<?> halfParsed,
-      final PacketSender sender,
-      final Optional<ConnectionId> srcConnId) {
+  private boolean validateVersion(final HalfParsedPacket<?> halfParsed, final PacketSender sender) {
 
     if (halfParsed.getVersion().isPresent()) {
       if (halfParsed.getVersion().get() != version) {
         final VersionNegotiationPacket verNeg =
-            new VersionNegotiationPacket(halfParsed.getConnectionId(), srcConnId, version);
+            new VersionNegotiationPacket(
+                halfParsed.getConnectionId(), halfParsed.getConnectionId(), version);
         sender.send(verNeg, null); // TODO remove null
         return false;
       }
@@ -42,35 +63,137 @@ public class PacketRouter {
     return true;
   }
 
+  public void beginBatch() {
+    batching = true;
+  }
+
+  public void endBatch() {
+    batching = false;
+
+    for (final ServerConnection conn : batch) {
+      conn.endBatch();
+    }
+    batch.clear();
+  }
+
   public void route(
       final ByteBuf bb, final PacketSender sender, final InetSocketAddress peerAddress) {
+    final int datagramSize = bb.readableBytes();
+    boolean received = false;
 
     while (bb.isReadable()) {
       final HalfParsedPacket<?> halfParsed = Packet.parse(bb, ConnectionId.LENGTH);
 
-      final ServerConnection conn =
-          connections.get(
-              halfParsed.getConnectionId(),
-              listener,
-              sender,
-              peerAddress); // TODO fix for when connId is omitted
+      if (!validateVersion(halfParsed, sender)) {
+        // skip rest of datagram
+        break;
+      }
+
+      final Optional<ServerConnection> connOpt =
+          connection(halfParsed, sender, peerAddress, datagramSize);
+      if (!connOpt.isPresent()) {
+        // skip rest of datagram
+        break;
+      }
+      final ServerConnection conn = connOpt.get();
+
+      if (!received) {
+        // credit the datagram once, towards the amplification limit of the first connection
+        conn.onReceived(datagramSize);
+        received = true;
+      }
+
+      final Packet packet = halfParsed.complete(conn::getAEAD);
 
-      if (validateVersion(halfParsed, sender, conn.getLocalConnectionId())) {
-        final Packet packet = halfParsed.complete(conn::getAEAD);
+      MDC.put("actor", "server");
+      if (packet instanceof FullPacket) {
+        MDC.put("packetnumber", Long.toString(((FullPacket) packet).getPacketNumber()));
+      }
+      if (packet.getDestinationConnectionId().isPresent()) {
+        MDC.put("connectionid", packet.getDestinationConnectionId().get().toString());
+      }
 
-        MDC.put("actor", "server");
-        if (packet instanceof FullPacket) {
-          MDC.put("packetnumber", Long.toString(((FullPacket) packet).getPacketNumber()));
-        }
-        if (packet.getDestinationConnectionId().isPresent()) {
-          MDC.put("connectionid", packet.getDestinationConnectionId().get().toString());
-        }
+      if (batching && batch.add(conn)) {
+        conn.beginBatch();
+      }
 
+      if (conn.getState() == State.Ready) {
         conn.onPacket(packet);
       } else {
-        // skip rest of datagram
-        break;
+        admissionPolicy.measureHandshake(() -> conn.onPacket(packet));
+      }
+    }
+  }
+
+  private Optional<ServerConnection> connection(
+      final HalfParsedPacket<?> halfParsed,
+      final PacketSender sender,
+      final InetSocketAddress peerAddress,
+      final int datagramSize) {
+    final Optional<ConnectionId> connId = halfParsed.getConnectionId();
+    if (connId.isPresent()) {
+      final Optional<ServerConnection> conn = connections.get(connId.get());
+      if (conn.isPresent()) {
+        return conn;
+      }
+    }
+
+    // only allocate connection state for Initial packets, address validated if under pressure
+    final Optional<ServerConnection> conn;
+    if (addressValidator.isValid(halfParsed, peerAddress)) {
+      conn = connections.create(connId.get(), listener, sender, peerAddress);
+      conn.ifPresent(ServerConnection::validateAddress);
+    } else if (addressValidator.isInitial(halfParsed) && !admissionPolicy.requireRetry()) {
+      conn = connections.create(connId.get(), listener, sender, peerAddress);
+      if (conn.isPresent()) {
+        admissionPolicy.onUnvalidatedBytes(datagramSize);
+      }
+    } else {
+      final Optional<RetryPacket> retry = addressValidator.retry(halfParsed, peerAddress);
+      if (retry.isPresent()) {
+        sender.send(retry.get(), null); // TODO remove null
       }
+      return Optional.empty();
+    }
+
+    if (!conn.isPresent()) {
+      refuse(halfParsed, sender);
+    } else {
+      final ServerConnection created = conn.get();
+      admissionPolicy.onHandshake(created.handshakeFuture());
+
+      created
+          .handshakeFuture()
+          .addListener(
+              future -> {
+                if (future.isSuccess()) {
+                  // let the client skip Retry on its next connection
+                  created.send(addressValidator.newToken(peerAddress));
+                }
+              });
     }
+    return conn;
+  }
+
+  /** Tells the client the connection limit is reached, rather than letting it retransmit. */
+  private void refuse(final HalfParsedPacket<?> halfParsed, final PacketSender sender) {
+    if (!(halfParsed instanceof HalfParsedInitialPacket)) {
+      return;
+    }
+    final HalfParsedInitialPacket initial = (HalfParsedInitialPacket) halfParsed;
+    final ConnectionId connId = initial.getConnectionId().get();
+
+    final InitialPacket close =
+        InitialPacket.create(
+            initial.getSourceConnectionId(),
+            Optional.of(connId),
+            PacketNumber.MIN,
+            version,
+            Optional.empty(),
+            new ConnectionCloseFrame(
+                TransportError.SERVER_BUSY.getValue(),
+                FrameType.PADDING,
+                "Connection limit reached"));
+    sender.send(close, InitialAEAD.create(connId.asBytes(), false));
   }
 }
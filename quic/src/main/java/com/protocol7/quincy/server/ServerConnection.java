@@ -4,8 +4,7 @@ import static java.util.Optional.empty;
 
 import com.protocol7.quincy.Configuration;
 import com.protocol7.quincy.Pipeline;
-import com.protocol7.quincy.addressvalidation.RetryToken;
-import com.protocol7.quincy.addressvalidation.ServerRetryHandler;
+import com.protocol7.quincy.addressvalidation.AmplificationLimit;
 import com.protocol7.quincy.connection.InternalConnection;
 import com.protocol7.quincy.connection.PacketSender;
 import com.protocol7.quincy.connection.State;
@@ -22,6 +21,7 @@ import com.protocol7.quincy.protocol.packets.Packet;
 import com.protocol7.quincy.protocol.packets.ShortPacket;
 import com.protocol7.quincy.reliability.AckDelay;
 import com.protocol7.quincy.reliability.PacketBufferManager;
+import com.protocol7.quincy.reliability.RttEstimator;
 import com.protocol7.quincy.streams.DefaultStreamManager;
 import com.protocol7.quincy.streams.Stream;
 import com.protocol7.quincy.streams.StreamListener;
@@ -33,13 +33,16 @@ import com.protocol7.quincy.tls.aead.AEAD;
 import com.protocol7.quincy.tls.extensions.TransportParameters;
 import com.protocol7.quincy.utils.Ticker;
 import io.netty.util.Timer;
+import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseNotifier;
 import java.net.InetSocketAddress;
 import java.security.PrivateKey;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 public class ServerConnection implements InternalConnection {
 
@@ -47,38 +50,66 @@ public class ServerConnection implements InternalConnection {
   private final Optional<ConnectionId> localConnectionId;
   private final PacketSender packetSender;
   private final Version version;
-  private final AtomicReference<Long> sendPacketNumber = new AtomicReference<>(PacketNumber.MIN);
+  private long sendPacketNumber = PacketNumber.MIN;
   private final ServerStateMachine stateMachine;
 
   private final ServerTLSManager tlsManager;
   private final Pipeline pipeline;
   private final InetSocketAddress peerAddress;
   private final StreamManager streamManager;
+  private final PacketBufferManager packetBuffer;
+  private final EventExecutor executor;
+  private final FlowControlHandler flowControlHandler;
+  private final Promise<Void> closeFuture;
+  private final Promise<Void> handshakeFuture;
+  private final AmplificationLimit amplificationLimit = new AmplificationLimit();
 
   public ServerConnection(
       final Configuration configuration,
       final ConnectionId localConnectionId,
+      final ConnectionId initialConnectionId,
       final StreamListener streamListener,
       final PacketSender packetSender,
       final List<byte[]> certificates,
       final PrivateKey privateKey,
       final FlowControlHandler flowControlHandler,
+      final RttEstimator rttEstimator,
       final InetSocketAddress peerAddress,
-      final Timer timer) {
+      final Timer timer,
+      final EventExecutor executor) {
     this.version = configuration.getVersion();
+    this.flowControlHandler = flowControlHandler;
+    this.executor = executor;
+    this.closeFuture = executor.newPromise();
+    this.handshakeFuture = executor.newPromise();
     this.packetSender = packetSender;
     this.peerAddress = peerAddress;
     final TransportParameters transportParameters = configuration.toTransportParameters();
 
-    this.streamManager = new DefaultStreamManager(this, streamListener);
+    this.streamManager =
+        new DefaultStreamManager(
+            this,
+            flowControlHandler,
+            streamListener,
+            configuration.getMaxStreamReceiveWindow(),
+            executor,
+            configuration.getStreamScheduling().newScheduler(),
+            configuration.getMemoryBudget(),
+            false);
 
     final Ticker ticker = Ticker.systemTicker();
 
-    final PacketBufferManager packetBuffer =
+    this.packetBuffer =
         new PacketBufferManager(
-            new AckDelay(configuration.getAckDelayExponent(), ticker), this, timer, ticker);
+            new AckDelay(configuration.getAckDelayExponent(), ticker),
+            this,
+            timer,
+            ticker,
+            executor,
+            rttEstimator,
+            configuration.getMemoryBudget());
     this.tlsManager =
-        new ServerTLSManager(localConnectionId, transportParameters, privateKey, certificates);
+        new ServerTLSManager(initialConnectionId, transportParameters, privateKey, certificates);
 
     final LoggingHandler logger = new LoggingHandler(false);
 
@@ -87,19 +118,16 @@ public class ServerConnection implements InternalConnection {
 
     this.pipeline =
         new Pipeline(
-            List.of(
-                logger,
-                new ServerRetryHandler(new RetryToken(privateKey), 30, TimeUnit.MINUTES),
-                tlsManager,
-                packetBuffer,
-                streamManager,
-                flowControlHandler,
-                terminationManager),
+            List.of(logger, tlsManager, packetBuffer, terminationManager),
+            List.of(packetBuffer, flowControlHandler, streamManager, terminationManager),
             List.of(flowControlHandler, packetBuffer, logger));
 
     this.localConnectionId = Optional.of(localConnectionId);
 
     this.stateMachine = new ServerStateMachine(this);
+
+    // bound the lifetime of connections never reaching the termination manager
+    terminationManager.start();
   }
 
   public Optional<ConnectionId> getRemoteConnectionId() {
@@ -150,16 +178,68 @@ public class ServerConnection implements InternalConnection {
   }
 
   private void sendPacketUnbuffered(final Packet packet) {
-    packetSender
-        .send(packet, getAEAD(Packet.getEncryptionLevel(packet)))
-        .awaitUninterruptibly(); // TODO fix
+    amplificationLimit.send(packet, this::write);
+  }
+
+  private void write(final Packet packet) {
+    packetSender.send(packet, getAEAD(Packet.getEncryptionLevel(packet)));
+  }
+
+  /** Accounts for a datagram received from the peer, releasing packets blocked on the limit. */
+  public void onReceived(final int bytes) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> onReceived(bytes));
+      return;
+    }
+
+    amplificationLimit.onReceived(bytes, this::write);
+  }
+
+  /** Lifts the amplification limit, the peer has proven it owns its address. */
+  public void validateAddress() {
+    if (!executor.inEventLoop()) {
+      executor.execute(this::validateAddress);
+      return;
+    }
+
+    amplificationLimit.validate(this::write);
+  }
+
+  public boolean isAddressValidated() {
+    return amplificationLimit.isValidated();
   }
 
   public void onPacket(final Packet packet) {
-    // with incorrect conn ID
-    stateMachine.processPacket(packet);
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> onPacket(packet));
+      return;
+    }
+
+    try {
+      if (packet instanceof HandshakePacket && !amplificationLimit.isValidated()) {
+        // only the peer owning the address can decrypt our Initial packets
+        validateAddress();
+      }
+
+      // with incorrect conn ID
+      stateMachine.processPacket(packet);
+
+      pipeline.onPacket(this, packet);
+    } catch (final RuntimeException e) {
+      if (getState() != State.Ready) {
+        // failed handshake
+        onClosed();
+      }
+      throw e;
+    }
+  }
 
-    pipeline.onPacket(this, packet);
+  public void beginBatch() {
+    packetBuffer.beginBatch();
+  }
+
+  public void endBatch() {
+    packetBuffer.endBatch(this);
   }
 
   @Override
@@ -168,7 +248,8 @@ public class ServerConnection implements InternalConnection {
   }
 
   private long nextSendPacketNumber() {
-    return sendPacketNumber.updateAndGet(packetNumber -> PacketNumber.next(packetNumber));
+    sendPacketNumber = PacketNumber.next(sendPacketNumber);
+    return sendPacketNumber;
   }
 
   public State getState() {
@@ -177,17 +258,43 @@ public class ServerConnection implements InternalConnection {
 
   public void setState(final State state) {
     stateMachine.setState(state);
+
+    if (state == State.Ready) {
+      handshakeFuture.trySuccess(null);
+    }
   }
 
   public Future<Void> close(
       final TransportError error, final FrameType frameType, final String msg) {
+    if (!executor.inEventLoop()) {
+      return inEventLoop(() -> close(error, frameType, msg));
+    }
+
     stateMachine.closeImmediate(new ConnectionCloseFrame(error.getValue(), frameType, msg));
 
-    return packetSender.destroy();
+    return closed();
   }
 
-  public Stream openStream() {
-    return streamManager.openStream(false, true);
+  public Future<Stream> openStream() {
+    return openStream(true);
+  }
+
+  public Future<Stream> openUnidirectionalStream() {
+    return openStream(false);
+  }
+
+  private Future<Stream> openStream(final boolean bidirectional) {
+    if (!executor.inEventLoop()) {
+      final Promise<Stream> promise = executor.newPromise();
+      executor.execute(() -> openStream(bidirectional).addListener(new PromiseNotifier<>(promise)));
+      return promise;
+    }
+
+    try {
+      return executor.newSucceededFuture(streamManager.openStream(bidirectional));
+    } catch (final RuntimeException e) {
+      return executor.newFailedFuture(e);
+    }
   }
 
   @Override
@@ -196,12 +303,58 @@ public class ServerConnection implements InternalConnection {
   }
 
   public Future<Void> close() {
+    if (!executor.inEventLoop()) {
+      return inEventLoop(this::close);
+    }
+
     stateMachine.closeImmediate();
 
-    return packetSender.destroy();
+    return closed();
   }
 
   public void closeByPeer() {
-    packetSender.destroy().awaitUninterruptibly(); // TOOD fix
+    closed();
+  }
+
+  /** Completed once the connection is closed, by either peer, idle timeout or failed handshake. */
+  public Future<Void> closeFuture() {
+    return closeFuture;
+  }
+
+  /** Completed once the handshake is done, failed if the connection is closed before. */
+  public Future<Void> handshakeFuture() {
+    return handshakeFuture;
+  }
+
+  // the packet sender writes to the channel shared by all connections of the server, which must
+  // stay open. Packets already sent are flushed as usual
+  private Future<Void> closed() {
+    onClosed();
+    return closeFuture;
+  }
+
+  private void onClosed() {
+    amplificationLimit.clear();
+    releaseBuffers();
+    handshakeFuture.tryFailure(new IllegalStateException("Connection closed"));
+    closeFuture.trySuccess(null);
+  }
+
+  private void releaseBuffers() {
+    if (!executor.inEventLoop()) {
+      executor.execute(this::releaseBuffers);
+      return;
+    }
+
+    // return the buffered memory to the memory budget
+    packetBuffer.release();
+    streamManager.release();
+    flowControlHandler.release();
+  }
+
+  private Future<Void> inEventLoop(final Supplier<Future<Void>> task) {
+    final Promise<Void> promise = executor.newPromise();
+    executor.execute(() -> task.get().addListener(new PromiseNotifier<>(promise)));
+    return promise;
   }
 }
@@ -24,16 +24,12 @@ public class ServerStateMachine {
     this.connection = connection;
   }
 
-  public synchronized void processPacket(final Packet packet) {
+  public void processPacket(final Packet packet) {
     // TODO check version
     if (state == State.Started) {
       if (packet instanceof InitialPacket) {
-        final InitialPacket initialPacket = (InitialPacket) packet;
-
-        if (initialPacket.getToken().isPresent()) {
-          if (packet.getSourceConnectionId().isPresent()) {
-            connection.setRemoteConnectionId(packet.getSourceConnectionId().get());
-          }
+        if (packet.getSourceConnectionId().isPresent()) {
+          connection.setRemoteConnectionId(packet.getSourceConnectionId().get());
         }
       }
     }
@@ -0,0 +1,128 @@
+package com.protocol7.quincy.streams;
+
+import static java.util.Objects.requireNonNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exposes streams as blocking {@link InputStream}s and {@link OutputStream}s, for applications
+ * using a thread per stream. Each stream opened by the peer is handed to the handler on the
+ * executor, e.g. one starting a virtual thread per task, and finished once the handler returns.
+ * Receive credit is returned to the peer as the data is read.
+ *
+ * <p>Input streams are forgotten once finished, reset, closed by the application or as the
+ * connection is closed. Data received after the application closed the input stream is discarded.
+ */
+public class BlockingStreamListener implements StreamListener {
+
+  @FunctionalInterface
+  public interface Handler {
+    void handle(Stream stream, InputStream in, OutputStream out) throws IOException;
+  }
+
+  private final Logger log = LoggerFactory.getLogger(BlockingStreamListener.class);
+
+  private final Executor executor;
+  private final Handler handler;
+  private final Map<Stream, StreamInputStream> inputs = new ConcurrentHashMap<>();
+  // forgotten along with the stream, once the connection has closed it
+  private final Set<Stream> closedInputs =
+      Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
+  public BlockingStreamListener(final Executor executor, final Handler handler) {
+    this.executor = requireNonNull(executor);
+    this.handler = requireNonNull(handler);
+  }
+
+  /**
+   * Returns the input stream of a stream opened locally. Must be called before writing to the
+   * stream, for the response to not be handed to the handler.
+   */
+  public StreamInputStream inputStream(final Stream stream) {
+    return inputs.computeIfAbsent(stream, s -> new StreamInputStream(s, () -> onClose(s)));
+  }
+
+  private void onClose(final Stream stream) {
+    closedInputs.add(stream);
+    inputs.remove(stream);
+  }
+
+  @Override
+  public void onData(final Stream stream, final byte[] data, final boolean finished) {
+    onData(stream, Unpooled.wrappedBuffer(data), finished);
+  }
+
+  @Override
+  public void onData(final Stream stream, final ByteBuf data, final boolean finished) {
+    StreamInputStream in = inputs.get(stream);
+    if (in == null) {
+      if (closedInputs.contains(stream)) {
+        final int length = data.readableBytes();
+        data.release();
+        if (length > 0) {
+          stream.consumed(length);
+        }
+        return;
+      }
+
+      // opened by the peer
+      in = inputStream(stream);
+      dispatch(stream, in);
+    }
+
+    if (finished) {
+      inputs.remove(stream);
+    }
+    in.onData(data, finished);
+  }
+
+  @Override
+  public boolean defersConsumption() {
+    return true;
+  }
+
+  @Override
+  public void onReset(final Stream stream, final int applicationErrorCode) {
+    final StreamInputStream in = inputs.remove(stream);
+    if (in != null) {
+      in.onReset(applicationErrorCode);
+    }
+  }
+
+  @Override
+  public void onConnectionClosed(final Stream stream) {
+    closedInputs.remove(stream);
+    final StreamInputStream in = inputs.remove(stream);
+    if (in != null) {
+      in.onConnectionClosed();
+    }
+  }
+
+  private void dispatch(final Stream stream, final StreamInputStream in) {
+    executor.execute(
+        () -> {
+          try (in;
+              final OutputStream out = new StreamOutputStream(stream)) {
+            handler.handle(stream, in, out);
+          } catch (final IOException | RuntimeException e) {
+            log.warn("Stream handler failed for stream {}", stream.getId(), e);
+          }
+        });
+  }
+
+  int size() {
+    return inputs.size();
+  }
+}
@@ -1,36 +1,87 @@
 package com.protocol7.quincy.streams;
 
+import static java.util.Objects.requireNonNull;
+
 import com.protocol7.quincy.FrameSender;
+import com.protocol7.quincy.flowcontrol.FlowControlHandler;
+import com.protocol7.quincy.memory.MemoryBudget;
+import com.protocol7.quincy.memory.MemoryBudget.Subsystem;
 import com.protocol7.quincy.protocol.StreamId;
 import com.protocol7.quincy.protocol.frames.Frame;
 import com.protocol7.quincy.protocol.frames.ResetStreamFrame;
 import com.protocol7.quincy.protocol.frames.StreamFrame;
 import com.protocol7.quincy.protocol.packets.FullPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseNotifier;
+import java.util.ArrayDeque;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Queue;
+import java.util.function.Consumer;
 
 public class DefaultStream implements Stream {
 
+  // stream data per packet, leaving room for headers and acks within a 1200 byte packet
+  public static final int MAX_FRAME_DATA = 1100;
+
+  private static class PendingWrite {
+    private final ByteBuf data;
+    private final boolean finish;
+    private final Promise<Void> promise;
+    private int position;
+
+    private PendingWrite(final ByteBuf data, final boolean finish, final Promise<Void> promise) {
+      this.data = data;
+      this.finish = finish;
+      this.promise = promise;
+    }
+  }
+
   private final long id;
   private final FrameSender sender;
+  private final FlowControlHandler flowControlHandler;
   private final StreamListener listener;
-  private final AtomicLong offset = new AtomicLong(0);
   private final StreamType streamType;
+  private final EventExecutor executor;
+  private long offset = 0;
   private final SendStateMachine sendStateMachine = new SendStateMachine();
   private final ReceiveStateMachine receiveStateMachine = new ReceiveStateMachine();
-  private final ReceivedDataBuffer receivedDataBuffer = new ReceivedDataBuffer();
-  private final AtomicBoolean seenFinish = new AtomicBoolean(false);
+  private final ReceivedDataBuffer receivedDataBuffer;
+  private boolean finishDelivered = false;
+  private final Queue<PendingWrite> pendingWrites = new ArrayDeque<>();
+  private boolean finishQueued = false;
+  private final Consumer<DefaultStream> onWritable;
+  private StreamPriority priority = StreamPriority.DEFAULT;
+  private boolean scheduled = false;
+  private boolean writable = true;
+  private final MemoryBudget memoryBudget;
 
+  /**
+   * Writes are handed to onWritable, which decides when the stream gets to send them. Received data
+   * and queued writes are accounted as used in the memory budget.
+   */
   public DefaultStream(
       final long id,
       final FrameSender sender,
+      final FlowControlHandler flowControlHandler,
       final StreamListener listener,
-      final StreamType streamType) {
+      final StreamType streamType,
+      final long maxStreamData,
+      final EventExecutor executor,
+      final Consumer<DefaultStream> onWritable,
+      final MemoryBudget memoryBudget) {
     this.id = StreamId.validate(id);
     this.sender = sender;
+    this.flowControlHandler = flowControlHandler;
     this.listener = listener;
     this.streamType = streamType;
+    this.receivedDataBuffer = new ReceivedDataBuffer(maxStreamData, memoryBudget);
+    this.executor = executor;
+    this.onWritable = requireNonNull(onWritable);
+    this.memoryBudget = memoryBudget;
   }
 
   public long getId() {
@@ -41,28 +92,188 @@ public class DefaultStream implements Stream {
     return streamType;
   }
 
-  public void write(final byte[] b, final boolean finish) {
-    canWrite();
+  public StreamPriority getPriority() {
+    return priority;
+  }
 
-    final long frameOffset = offset.getAndAdd(b.length);
-    final StreamFrame sf = new StreamFrame(id, frameOffset, finish, b);
-    final FullPacket p = sender.send(sf);
+  /** Applies from the next frame sent on the stream. */
+  public void setPriority(final StreamPriority priority) {
+    requireNonNull(priority);
 
-    sendStateMachine.onStream(p.getPacketNumber(), finish);
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> setPriority(priority));
+      return;
+    }
+
+    this.priority = priority;
   }
 
-  public void reset(final int applicationErrorCode) {
-    canReset();
+  boolean isScheduled() {
+    return scheduled;
+  }
+
+  void setScheduled(final boolean scheduled) {
+    this.scheduled = scheduled;
+  }
+
+  public Future<Void> write(final byte[] b, final boolean finish) {
+    return write(Unpooled.wrappedBuffer(b), finish);
+  }
+
+  public Future<Void> write(final ByteBuf b, final boolean finish) {
+    requireNonNull(b);
+
+    if (!executor.inEventLoop()) {
+      // queue to the connection's event loop, errors surface through the future
+      final Promise<Void> promise = executor.newPromise();
+      executor.execute(
+          () -> {
+            try {
+              write(b, finish).addListener(new PromiseNotifier<>(promise));
+            } catch (final RuntimeException e) {
+              promise.tryFailure(e);
+            }
+          });
+      return promise;
+    }
+
+    try {
+      canWrite();
+    } catch (final IllegalStateException e) {
+      b.release();
+      return executor.newFailedFuture(e);
+    }
 
-    final Frame frame = new ResetStreamFrame(id, applicationErrorCode, offset.get());
+    final Promise<Void> promise = executor.newPromise();
+    pendingWrites.add(new PendingWrite(b, finish, promise));
+    memoryBudget.allocate(Subsystem.PendingWrites, b.readableBytes());
+    finishQueued = finish;
+
+    onWritable.accept(this);
+
+    return promise;
+  }
+
+  /**
+   * Sends queued writes in packet sized frames, as far as flow control allows. Writes are completed
+   * once all their data has been sent.
+   */
+  public void flush() {
+    while (sendFrame() != -1) {
+      // until done or blocked
+    }
+  }
+
+  /**
+   * Sends the next frame of queued data. Returns the number of bytes sent, or -1 if no frame could
+   * be sent as the stream has no queued writes or is blocked by flow control.
+   */
+  public int sendFrame() {
+    if (pendingWrites.isEmpty()) {
+      return -1;
+    }
+
+    final PendingWrite write = pendingWrites.peek();
+
+    final int remaining = write.data.readableBytes() - write.position;
+    int length = Math.min(remaining, MAX_FRAME_DATA);
+    // an empty first frame still opens the stream, which might be blocked by the stream limit
+    if (length > 0 || offset == 0) {
+      final long credit = flowControlHandler.sendCredit(id, offset, sender);
+      if (credit == 0) {
+        // blocked, resumed once the peer extends the credit
+        setWritable(false);
+        return -1;
+      }
+      length = (int) Math.min(length, credit);
+    }
+
+    final boolean last = length == remaining;
+    final boolean finish = last && write.finish;
+    // the frame owns a slice of the data, released once acknowledged
+    final ByteBuf data =
+        write.data.retainedSlice(write.data.readerIndex() + write.position, length);
+
+    try {
+      final FullPacket p = sender.send(new StreamFrame(id, offset, finish, data));
+      sendStateMachine.onStream(p.getPacketNumber(), finish);
+    } catch (final RuntimeException e) {
+      data.release();
+      failPendingWrites(e);
+      return -1;
+    }
+
+    offset += length;
+    write.position += length;
+    setWritable(true);
+    memoryBudget.free(Subsystem.PendingWrites, length);
+
+    if (last) {
+      pendingWrites.remove();
+      write.data.release();
+      write.promise.trySuccess(null);
+    }
+    return length;
+  }
+
+  private void setWritable(final boolean writable) {
+    if (this.writable != writable) {
+      this.writable = writable;
+      listener.onWritabilityChanged(this, writable);
+    }
+  }
+
+  public boolean isWritable() {
+    return writable;
+  }
+
+  public boolean hasPendingWrites() {
+    return !pendingWrites.isEmpty();
+  }
+
+  private void failPendingWrites(final Throwable cause) {
+    for (final PendingWrite write : pendingWrites) {
+      memoryBudget.free(Subsystem.PendingWrites, write.data.readableBytes() - write.position);
+      write.data.release();
+      write.promise.tryFailure(cause);
+    }
+    pendingWrites.clear();
+  }
+
+  public Future<Void> reset(final int applicationErrorCode) {
+    if (!executor.inEventLoop()) {
+      // queue to the connection's event loop, errors surface through the future
+      final Promise<Void> promise = executor.newPromise();
+      executor.execute(
+          () -> {
+            try {
+              reset(applicationErrorCode).addListener(new PromiseNotifier<>(promise));
+            } catch (final RuntimeException e) {
+              promise.tryFailure(e);
+            }
+          });
+      return promise;
+    }
+
+    try {
+      canReset();
+    } catch (final IllegalStateException e) {
+      return executor.newFailedFuture(e);
+    }
+
+    failPendingWrites(new IllegalStateException("Stream reset"));
+
+    final Frame frame = new ResetStreamFrame(id, applicationErrorCode, offset);
 
     final FullPacket p = sender.send(frame);
 
     sendStateMachine.onReset(p.getPacketNumber());
+
+    return executor.newSucceededFuture(null);
   }
 
   private void canWrite() {
-    if (!streamType.canSend() || !sendStateMachine.canSend()) {
+    if (!streamType.canSend() || !sendStateMachine.canSend() || finishQueued) {
       throw new IllegalStateException();
     }
   }
@@ -73,31 +284,94 @@ public class DefaultStream implements Stream {
     }
   }
 
-  public void onData(final long offset, final boolean finish, final byte[] b) {
-    if (finish) {
-      seenFinish.set(true);
+  public ReceivedDataBuffer.Result onData(final long offset, final boolean finish, final byte[] b) {
+    return onData(offset, finish, Unpooled.wrappedBuffer(b));
+  }
+
+  /**
+   * Takes ownership of the data, passing it on to the listener without copying. The data is
+   * rejected if it exceeds the stream receive window or violates the final size.
+   */
+  public ReceivedDataBuffer.Result onData(
+      final long offset, final boolean finish, final ByteBuf b) {
+    if (receiveStateMachine.isDone()) {
+      // late retransmit, or data after a reset
+      b.release();
+      return ReceivedDataBuffer.Result.Accepted;
+    }
+
+    final ReceivedDataBuffer.Result result = receivedDataBuffer.onData(b, offset, finish);
+    if (result != ReceivedDataBuffer.Result.Accepted) {
+      return result;
+    }
+    receiveStateMachine.onStream(finish);
+
+    final Optional<ByteBuf> data = receivedDataBuffer.read();
+    if (data.isPresent()) {
+      deliver(data.get());
+    } else if (receivedDataBuffer.isDone() && !finishDelivered) {
+      // empty frame finishing the stream
+      deliver(Unpooled.EMPTY_BUFFER);
+    }
+    return ReceivedDataBuffer.Result.Accepted;
+  }
+
+  private void deliver(final ByteBuf data) {
+    final boolean done = receivedDataBuffer.isDone();
+    finishDelivered = done;
+    if (done) {
+      receiveStateMachine.onAllDataRecvd();
+      receiveStateMachine.onAllData();
     }
 
-    receivedDataBuffer.onData(b, offset, finish);
+    if (!listener.defersConsumption()) {
+      // handed to the application, the data no longer counts against the receive window
+      flowControlHandler.onConsumed(id, data.readableBytes(), sender);
+    }
 
-    while (receivedDataBuffer.hasMore()) {
-      final Optional<byte[]> data = receivedDataBuffer.read();
+    listener.onData(this, data, done);
+  }
 
-      listener.onData(this, data.get(), receivedDataBuffer.isDone() && seenFinish.get());
+  public void consumed(final long bytes) {
+    if (!executor.inEventLoop()) {
+      executor.execute(() -> consumed(bytes));
+      return;
     }
 
-    receiveStateMachine.onStream(finish);
+    flowControlHandler.onConsumed(id, bytes, sender);
   }
 
   public void onReset(final int applicationErrorCode, final long offset) {
+    if (receiveStateMachine.isDone()) {
+      return;
+    }
+    receivedDataBuffer.release();
     receiveStateMachine.onReset();
     receiveStateMachine.onAppReadReset();
+
+    listener.onReset(this, applicationErrorCode);
+  }
+
+  /** Releases received and queued data, once the connection is closed. */
+  public void release() {
+    receivedDataBuffer.release();
+    failPendingWrites(new IllegalStateException("Connection closed"));
+    listener.onConnectionClosed(this);
   }
 
   public void onAck(final long pn) {
     sendStateMachine.onAck(pn);
   }
 
+  /**
+   * Returns true once both directions are done and the stream can be forgotten. Frames still in
+   * flight are retransmitted by the connection, without the stream.
+   */
+  public boolean isClosed() {
+    return (!streamType.canSend() || sendStateMachine.isDone())
+        && (!streamType.canReceive() || receiveStateMachine.isDone());
+  }
+
   public boolean isFinished() {
     return !sendStateMachine.canSend() || !receiveStateMachine.canReceive();
   }
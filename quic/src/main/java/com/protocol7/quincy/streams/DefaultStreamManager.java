@@ -5,54 +5,150 @@ import static java.util.Objects.requireNonNull;
 import com.protocol7.quincy.FrameSender;
 import com.protocol7.quincy.PipelineContext;
 import com.protocol7.quincy.connection.State;
+import com.protocol7.quincy.flowcontrol.FlowControlHandler;
+import com.protocol7.quincy.memory.MemoryBudget;
+import com.protocol7.quincy.protocol.TransportError;
 import com.protocol7.quincy.protocol.frames.AckBlock;
 import com.protocol7.quincy.protocol.frames.AckFrame;
-import com.protocol7.quincy.protocol.frames.Frame;
+import com.protocol7.quincy.protocol.frames.FrameType;
+import com.protocol7.quincy.protocol.frames.MaxDataFrame;
+import com.protocol7.quincy.protocol.frames.MaxStreamDataFrame;
+import com.protocol7.quincy.protocol.frames.MaxStreamsFrame;
 import com.protocol7.quincy.protocol.frames.ResetStreamFrame;
 import com.protocol7.quincy.protocol.frames.StreamFrame;
-import com.protocol7.quincy.protocol.packets.Packet;
+import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.protocol.packets.ShortPacket;
+import io.netty.util.concurrent.EventExecutor;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class DefaultStreamManager implements StreamManager {
 
+  private static final Set<FrameType> FRAME_TYPES =
+      EnumSet.of(
+          FrameType.STREAM,
+          FrameType.RESET_STREAM,
+          FrameType.ACK,
+          FrameType.MAX_DATA,
+          FrameType.MAX_STREAM_DATA,
+          FrameType.MAX_STREAMS);
+
   private final Streams streams;
   private final StreamListener listener;
+  private boolean creditExtended = false;
 
-  public DefaultStreamManager(final FrameSender frameSender, final StreamListener listener) {
-    this.streams = new Streams(requireNonNull(frameSender));
+  public DefaultStreamManager(
+      final FrameSender frameSender,
+      final FlowControlHandler flowControlHandler,
+      final StreamListener listener,
+      final long maxStreamData,
+      final EventExecutor executor,
+      final StreamScheduler scheduler,
+      final MemoryBudget memoryBudget,
+      final boolean client) {
+    this.streams =
+        new Streams(
+            requireNonNull(frameSender),
+            requireNonNull(flowControlHandler),
+            maxStreamData,
+            requireNonNull(executor),
+            requireNonNull(scheduler),
+            requireNonNull(memoryBudget),
+            client);
     this.listener = requireNonNull(listener);
   }
 
   @Override
-  public void onReceivePacket(final Packet packet, final PipelineContext ctx) {
-    requireNonNull(packet);
-    requireNonNull(ctx);
+  public Set<FrameType> getFrameTypes() {
+    return FRAME_TYPES;
+  }
+
+  @Override
+  public void onStreamFrame(
+      final StreamFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    if (!(packet instanceof ShortPacket)) {
+      return;
+    }
+    if (ctx.getState() != State.Ready) {
+      throw new IllegalStateException("Stream frames can only be handled in ready state");
+    }
+    if (!streams.canReceive(frame.getStreamId())) {
+      ctx.closeConnection(
+          TransportError.STREAM_STATE_ERROR, FrameType.STREAM, "Stream not receivable");
+      return;
+    }
+
+    final DefaultStream stream = streams.getOrCreate(frame.getStreamId(), listener);
+    if (stream == null) {
+      // closed stream
+      return;
+    }
+
+    final ReceivedDataBuffer.Result result =
+        stream.onData(frame.getOffset(), frame.isFin(), frame.content().retainedDuplicate());
+    if (result == ReceivedDataBuffer.Result.ExceedsWindow) {
+      ctx.closeConnection(
+          TransportError.FLOW_CONTROL_ERROR, FrameType.STREAM, "Flow control error");
+      return;
+    } else if (result == ReceivedDataBuffer.Result.InvalidFinalSize) {
+      ctx.closeConnection(TransportError.FINAL_OFFSET_ERROR, FrameType.STREAM, "Final size error");
+      return;
+    }
+    streams.closeIfDone(stream);
+  }
+
+  @Override
+  public void onResetStreamFrame(
+      final ResetStreamFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    if (!(packet instanceof ShortPacket)) {
+      return;
+    }
+    if (!streams.canReceive(frame.getStreamId())) {
+      ctx.closeConnection(
+          TransportError.STREAM_STATE_ERROR, FrameType.RESET_STREAM, "Stream not receivable");
+      return;
+    }
 
+    final DefaultStream stream = streams.getOrCreate(frame.getStreamId(), listener);
+    if (stream != null) {
+      stream.onReset(frame.getApplicationErrorCode(), frame.getOffset());
+      streams.closeIfDone(stream);
+    }
+  }
+
+  @Override
+  public void onAckFrame(final AckFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    // stream frames are only sent in short packets, with their own packet number space
     if (packet instanceof ShortPacket) {
-      final ShortPacket sp = (ShortPacket) packet;
-      for (final Frame frame : sp.getPayload().getFrames()) {
-        if (frame instanceof StreamFrame) {
-          if (ctx.getState() != State.Ready) {
-            throw new IllegalStateException("Stream frames can only be handled in ready state");
-          }
-
-          final StreamFrame sf = (StreamFrame) frame;
-
-          final DefaultStream stream = streams.getOrCreate(sf.getStreamId(), listener);
-
-          stream.onData(sf.getOffset(), sf.isFin(), sf.getData());
-        } else if (frame instanceof ResetStreamFrame) {
-          final ResetStreamFrame rsf = (ResetStreamFrame) frame;
-          final DefaultStream stream = streams.getOrCreate(rsf.getStreamId(), listener);
-          stream.onReset(rsf.getApplicationErrorCode(), rsf.getOffset());
-        } else if (frame instanceof AckFrame) {
-          final AckFrame af = (AckFrame) frame;
-          af.getBlocks().stream().forEach(this::handleAcks);
-        }
-      }
+      frame.getBlocks().forEach(this::handleAcks);
     }
+  }
 
-    ctx.next(packet);
+  @Override
+  public void onMaxDataFrame(
+      final MaxDataFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    creditExtended = true;
+  }
+
+  @Override
+  public void onMaxStreamDataFrame(
+      final MaxStreamDataFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    creditExtended = true;
+  }
+
+  @Override
+  public void onMaxStreamsFrame(
+      final MaxStreamsFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    creditExtended = true;
+  }
+
+  @Override
+  public void afterFrames(final FullPacket packet, final PipelineContext ctx) {
+    if (creditExtended) {
+      // the flow control handler, dispatched to before, has applied the new credit
+      creditExtended = false;
+      streams.flush();
+    }
   }
 
   private void handleAcks(final AckBlock block) {
@@ -65,7 +161,12 @@ public class DefaultStreamManager implements StreamManager {
   }
 
   @Override
-  public Stream openStream(final boolean client, final boolean bidirectional) {
-    return streams.openStream(client, bidirectional, listener);
+  public void release() {
+    streams.release();
+  }
+
+  @Override
+  public Stream openStream(final boolean bidirectional) {
+    return streams.openStream(bidirectional, listener);
   }
 }
@@ -0,0 +1,71 @@
+package com.protocol7.quincy.streams;
+
+import static java.util.Objects.requireNonNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
+
+/**
+ * Publishes the data received on streams through {@link StreamPublisher}s, with receive credit
+ * returned to the peer as the subscriber demands data. Each stream opened by the peer is handed to
+ * the handler, on the event loop, e.g. to subscribe to it and reply through a {@link
+ * StreamSubscriber}.
+ */
+public class FlowStreamListener implements StreamListener {
+
+  private final BiConsumer<Stream, Flow.Publisher<ByteBuf>> handler;
+  private final Map<Stream, StreamPublisher> publishers = new ConcurrentHashMap<>();
+
+  public FlowStreamListener(final BiConsumer<Stream, Flow.Publisher<ByteBuf>> handler) {
+    this.handler = requireNonNull(handler);
+  }
+
+  /**
+   * Returns the publisher of a stream opened locally. Must be called before writing to the stream,
+   * for the response to not be handed to the handler.
+   */
+  public StreamPublisher publisher(final Stream stream) {
+    return publishers.computeIfAbsent(stream, StreamPublisher::new);
+  }
+
+  @Override
+  public void onData(final Stream stream, final byte[] data, final boolean finished) {
+    onData(stream, Unpooled.wrappedBuffer(data), finished);
+  }
+
+  @Override
+  public void onData(final Stream stream, final ByteBuf data, final boolean finished) {
+    StreamPublisher publisher = publishers.get(stream);
+    if (publisher == null) {
+      // opened by the peer
+      publisher = publisher(stream);
+      handler.accept(stream, publisher);
+    }
+
+    if (finished) {
+      publishers.remove(stream);
+    }
+    publisher.onData(data, finished);
+  }
+
+  @Override
+  public boolean defersConsumption() {
+    return true;
+  }
+
+  @Override
+  public void onReset(final Stream stream, final int applicationErrorCode) {
+    final StreamPublisher publisher = publishers.remove(stream);
+    if (publisher != null) {
+      publisher.onReset(applicationErrorCode);
+    }
+  }
+
+  int size() {
+    return publishers.size();
+  }
+}
@@ -0,0 +1,66 @@
+package com.protocol7.quincy.streams;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import com.protocol7.quincy.protocol.StreamId;
+
+/**
+ * Tracks which stream IDs have been opened, without keeping state per stream, so that closed
+ * streams can be forgotten while late frames for them are still recognized. Per stream type, it
+ * keeps the highest opened ID and the ranges of lower IDs skipped by the peer, which are yet to be
+ * opened.
+ */
+public class OpenedStreamIds {
+
+  private static final int TYPES = 4;
+
+  private final long[] maxIds = new long[TYPES];
+  private final RangeSet<Long>[] unopened;
+
+  @SuppressWarnings("unchecked")
+  public OpenedStreamIds() {
+    unopened = new RangeSet[TYPES];
+    for (int type = 0; type < TYPES; type++) {
+      maxIds[type] = -1;
+      unopened[type] = TreeRangeSet.create();
+    }
+  }
+
+  /** Marks the stream as opened. Returns false if it was already opened before. */
+  public boolean open(final long sid) {
+    StreamId.validate(sid);
+
+    final int type = type(sid);
+    final long maxId = maxIds[type];
+    if (sid > maxId) {
+      final long first = maxId == -1 ? type : maxId + TYPES;
+      if (sid > first) {
+        unopened[type].add(Range.closed(first, sid - TYPES));
+      }
+      maxIds[type] = sid;
+      return true;
+    } else if (unopened[type].contains(sid)) {
+      unopened[type].remove(Range.singleton(sid));
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /** Returns the ID following the highest opened ID of the type. */
+  public long next(final boolean client, final boolean bidirectional) {
+    final int type = (client ? 0 : 1) | (bidirectional ? 0 : 0b10);
+    final long maxId = maxIds[type];
+    return maxId == -1 ? type : maxId + TYPES;
+  }
+
+  public boolean isOpened(final long sid) {
+    final int type = type(sid);
+    return sid <= maxIds[type] && !unopened[type].contains(sid);
+  }
+
+  private static int type(final long sid) {
+    return (int) (sid & 0b11);
+  }
+}
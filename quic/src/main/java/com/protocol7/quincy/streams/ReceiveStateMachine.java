@@ -25,6 +25,14 @@ public class ReceiveStateMachine {
     }
   }
 
+  public void onAllDataRecvd() {
+    if (state == SizeKnown) {
+      state = DataRecvd;
+    } else {
+      throw new IllegalStateException();
+    }
+  }
+
   public void onReset() {
     if (state == Recv || state == SizeKnown || state == DataRecvd) {
       state = ResetRecvd;
@@ -53,6 +61,11 @@ public class ReceiveStateMachine {
     return state == Recv;
   }
 
+  /** Returns true once all data or the reset has been passed on to the application. */
+  public boolean isDone() {
+    return state == DataRead || state == ResetRead;
+  }
+
   public boolean canReset() {
     return state == Recv || state == SizeKnown || state == DataRecvd;
   }
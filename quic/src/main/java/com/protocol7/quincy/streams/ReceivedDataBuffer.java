@@ -1,38 +1,169 @@
 package com.protocol7.quincy.streams;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import com.protocol7.quincy.memory.MemoryBudget;
+import com.protocol7.quincy.memory.MemoryBudget.Subsystem;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
 
-// TODO optimize
+/**
+ * Reassembles received stream data. Buffered segments never overlap, duplicate and overlapping
+ * ranges are trimmed to the parts not already buffered or read. Contiguous segments are read as a
+ * single composite buffer, without copying.
+ *
+ * <p>Data is only buffered up to the stream receive window beyond the read offset, the peer is not
+ * allowed to send more.
+ */
 public class ReceivedDataBuffer {
 
-  private final TreeMap<Long, byte[]> buffer = new TreeMap<>();
-  private long largestOffset = 0;
+  public enum Result {
+    Accepted,
+    // the peer sent more than the receive window allows
+    ExceedsWindow,
+    // the peer changed the final size, or sent data beyond it
+    InvalidFinalSize
+  }
+
+  private final TreeMap<Long, ByteBuf> segments = new TreeMap<>();
+  private final long maxBytes;
+  private long finalOffset = -1;
+  // the end of the highest range received, buffered or already read
+  private long maxReceivedOffset = 0;
   private long readOffset = 0;
+  private long bufferedBytes = 0;
+  private final MemoryBudget memoryBudget;
+
+  public ReceivedDataBuffer(final long maxBytes) {
+    this(maxBytes, MemoryBudget.unlimited());
+  }
 
-  public void onData(final byte[] data, final long offset, final boolean finish) {
-    buffer.put(offset, data);
+  /** Buffered bytes are accounted as used in the memory budget. */
+  public ReceivedDataBuffer(final long maxBytes, final MemoryBudget memoryBudget) {
+    checkArgument(maxBytes > 0);
+
+    this.maxBytes = maxBytes;
+    this.memoryBudget = requireNonNull(memoryBudget);
+  }
+
+  /**
+   * Buffers the data, taking ownership of the buffer. The data is released without buffering if it
+   * exceeds the receive window or violates the final size of the stream.
+   */
+  public Result onData(final ByteBuf data, final long offset, final boolean finish) {
+    final long end = offset + data.readableBytes();
+
+    if (end > readOffset + maxBytes) {
+      data.release();
+      return Result.ExceedsWindow;
+    }
+    if ((finish && finalOffset != -1 && finalOffset != end)
+        || (finish && end < maxReceivedOffset)
+        || (finalOffset != -1 && end > finalOffset)) {
+      data.release();
+      return Result.InvalidFinalSize;
+    }
     if (finish) {
-      this.largestOffset = offset;
+      finalOffset = end;
+    }
+    maxReceivedOffset = Math.max(maxReceivedOffset, end);
+
+    long position = Math.max(offset, readOffset);
+    if (position >= end) {
+      // already read
+      data.release();
+      return Result.Accepted;
+    }
+
+    // fill the gaps between the already buffered segments overlapping the data
+    final Long floor = segments.floorKey(position);
+    final Map<Long, ByteBuf> overlapping =
+        segments.subMap(floor != null ? floor : position, true, end, false);
+
+    final TreeMap<Long, ByteBuf> gaps = new TreeMap<>();
+    for (final Map.Entry<Long, ByteBuf> segment : overlapping.entrySet()) {
+      final long segmentStart = segment.getKey();
+      if (segmentStart > position) {
+        gaps.put(position, slice(data, offset, position, segmentStart));
+      }
+      position = Math.max(position, segmentStart + segment.getValue().readableBytes());
+    }
+    if (position < end) {
+      gaps.put(position, slice(data, offset, position, end));
+    }
+
+    long gapBytes = 0;
+    for (final ByteBuf gap : gaps.values()) {
+      gapBytes += gap.readableBytes();
     }
+    segments.putAll(gaps);
+    onBuffered(gapBytes);
+    data.release();
+
+    return Result.Accepted;
   }
 
-  public boolean hasMore() {
-    return buffer.get(readOffset) != null;
+  private ByteBuf slice(final ByteBuf data, final long offset, final long from, final long to) {
+    return data.retainedSlice(data.readerIndex() + (int) (from - offset), (int) (to - from));
   }
 
-  public Optional<byte[]> read() {
-    final byte[] b = buffer.get(readOffset);
+  public boolean hasMore() {
+    return !segments.isEmpty() && segments.firstKey() == readOffset;
+  }
 
-    if (b != null) {
-      readOffset += b.length;
-      return Optional.of(b);
-    } else {
+  /** Reads all contiguous data at the read offset. The caller must release the returned buffer. */
+  public Optional<ByteBuf> read() {
+    if (!hasMore()) {
       return Optional.empty();
     }
+
+    final ByteBuf first = segments.remove(readOffset);
+    readOffset += first.readableBytes();
+    onBuffered(-first.readableBytes());
+
+    if (!hasMore()) {
+      return Optional.of(first);
+    }
+
+    final CompositeByteBuf composite = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+    composite.addComponent(true, first);
+    while (hasMore()) {
+      final ByteBuf segment = segments.remove(readOffset);
+      readOffset += segment.readableBytes();
+      onBuffered(-segment.readableBytes());
+      composite.addComponent(true, segment);
+    }
+    return Optional.of(composite);
   }
 
   public boolean isDone() {
-    return readOffset > largestOffset;
+    return readOffset == finalOffset;
+  }
+
+  public long getReadOffset() {
+    return readOffset;
+  }
+
+  public long getBufferedBytes() {
+    return bufferedBytes;
+  }
+
+  /** Releases all buffered data, e.g. when the stream is reset. */
+  public void release() {
+    for (final ByteBuf segment : segments.values()) {
+      segment.release();
+    }
+    segments.clear();
+    onBuffered(-bufferedBytes);
+  }
+
+  private void onBuffered(final long bytes) {
+    bufferedBytes += bytes;
+    memoryBudget.allocate(Subsystem.ReceiveBuffers, bytes);
   }
 }
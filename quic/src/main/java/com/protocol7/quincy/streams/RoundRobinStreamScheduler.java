@@ -0,0 +1,22 @@
+package com.protocol7.quincy.streams;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+public class RoundRobinStreamScheduler implements StreamScheduler {
+
+  private final Queue<DefaultStream> streams = new ArrayDeque<>();
+
+  @Override
+  public void schedule(final DefaultStream stream) {
+    streams.add(stream);
+  }
+
+  @Override
+  public DefaultStream poll() {
+    return streams.poll();
+  }
+
+  @Override
+  public void onSent(final DefaultStream stream, final int bytes) {}
+}
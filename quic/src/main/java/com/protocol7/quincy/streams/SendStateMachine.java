@@ -2,10 +2,9 @@ package com.protocol7.quincy.streams;
 
 import static com.protocol7.quincy.streams.SendStateMachine.SendStreamState.*;
 
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class SendStateMachine {
 
@@ -23,8 +22,7 @@ public class SendStateMachine {
   }
 
   private SendStreamState state = Open;
-  private final Set<Long> outstandingStreamPackets =
-      Collections.newSetFromMap(new ConcurrentHashMap<>());
+  private final Set<Long> outstandingStreamPackets = new HashSet<>();
   private Optional<Long> outstandingResetPacket = Optional.empty();
 
   public void onStream(final long pn, final boolean fin) {
@@ -53,12 +51,10 @@ public class SendStateMachine {
 
     if (state == DataSent && outstandingStreamPackets.isEmpty()) {
       state = DataRecvd;
-    } else if (state == ResetSent) {
-      if (outstandingResetPacket.isPresent() && outstandingResetPacket.get().equals(pn)) {
-        state = ResetRecvd;
-      } else {
-        throw new IllegalStateException();
-      }
+    } else if (state == ResetSent
+        && outstandingResetPacket.isPresent()
+        && outstandingResetPacket.get().equals(pn)) {
+      state = ResetRecvd;
     }
   }
 
@@ -66,6 +62,14 @@ public class SendStateMachine {
     return state == Open || state == Send;
   }
 
+  /**
+   * Returns true once the final frame, with data or a reset, has been sent. Any retransmissions are
+   * handled by the connection.
+   */
+  public boolean isDone() {
+    return state != Open && state != Send;
+  }
+
   public boolean canReset() {
     return state == Open || state == Send || state == DataSent;
   }
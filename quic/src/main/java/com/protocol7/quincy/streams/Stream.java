@@ -1,14 +1,49 @@
 package com.protocol7.quincy.streams;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.Future;
+
 public interface Stream {
 
   long getId();
 
   StreamType getStreamType();
 
-  void write(final byte[] b, boolean finish);
+  /**
+   * Queues the data for sending. Large writes are split into multiple frames, sent as flow control
+   * allows. The returned future completes once all data has been sent.
+   */
+  Future<Void> write(final byte[] b, boolean finish);
+
+  /**
+   * Queues the data for sending, without copying. The stream takes ownership of the buffer and
+   * releases it once all data has been acknowledged. Composite buffers are sent as is, without
+   * merging their components.
+   */
+  Future<Void> write(final ByteBuf data, boolean finish);
+
+  /**
+   * Returns receive credit to the peer for data read by the application, for listeners deferring
+   * consumption.
+   */
+  void consumed(long bytes);
+
+  /** Returns false while queued writes are blocked by the stream or connection window. */
+  boolean isWritable();
+
+  StreamPriority getPriority();
+
+  /**
+   * Sets the priority used to schedule the stream's writes with those of other streams on the
+   * connection.
+   */
+  void setPriority(StreamPriority priority);
 
-  void reset(int applicationErrorCode);
+  /**
+   * Resets the stream, failing queued writes. The returned future completes once the reset has been
+   * sent.
+   */
+  Future<Void> reset(int applicationErrorCode);
 
   boolean isFinished();
 }
@@ -0,0 +1,219 @@
+package com.protocol7.quincy.streams;
+
+import static java.util.Objects.requireNonNull;
+
+import io.netty.buffer.ByteBuf;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking view of the data received on a stream. Reads park until data arrives, and receive credit
+ * is returned to the peer as each received buffer has been read, so the peer can only send as fast
+ * as the application reads. Requires a listener deferring consumption, see {@link
+ * BlockingStreamListener}.
+ *
+ * <p>Parks on a {@link Lock}, rather than a monitor, to not pin virtual threads. Must not be read
+ * on the event loop of the connection.
+ */
+public class StreamInputStream extends InputStream {
+
+  private final Stream stream;
+  private final Runnable onClose;
+
+  private final Lock lock = new ReentrantLock();
+  private final Condition readable = lock.newCondition();
+  private final Queue<ByteBuf> buffers = new ArrayDeque<>();
+  // read from the buffer at the head of the queue, but not yet returned as credit
+  private long unconsumed = 0;
+  private boolean finished = false;
+  private boolean closed = false;
+  private IOException failure;
+
+  private final byte[] single = new byte[1];
+
+  public StreamInputStream(final Stream stream) {
+    this(stream, () -> {});
+  }
+
+  /** onClose is run once the input stream is closed by the application. */
+  public StreamInputStream(final Stream stream, final Runnable onClose) {
+    this.stream = requireNonNull(stream);
+    this.onClose = requireNonNull(onClose);
+  }
+
+  public Stream stream() {
+    return stream;
+  }
+
+  /** Queues data received on the stream, waking up a parked reader. Takes ownership of the data. */
+  public void onData(final ByteBuf data, final boolean finished) {
+    final int length = data.readableBytes();
+    final boolean discard;
+    lock.lock();
+    try {
+      discard = closed || failure != null;
+      if (!discard && length > 0) {
+        buffers.add(data);
+      }
+      this.finished |= finished;
+      readable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    if (discard || length == 0) {
+      data.release();
+      if (length > 0) {
+        stream.consumed(length);
+      }
+    }
+  }
+
+  /**
+   * Fails parked and later reads. Unread data is released, without returning credit as it is
+   * already accounted for by the reset.
+   */
+  public void onReset(final int applicationErrorCode) {
+    fail(new IOException("Stream reset by peer, error code " + applicationErrorCode));
+  }
+
+  /** Fails parked and later reads. Unread data is released, the connection being gone. */
+  public void onConnectionClosed() {
+    fail(new IOException("Connection closed"));
+  }
+
+  private void fail(final IOException failure) {
+    lock.lock();
+    try {
+      this.failure = failure;
+      releaseBuffers();
+      unconsumed = 0;
+      readable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    final int read = read(single, 0, 1);
+    return read == -1 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (len == 0) {
+      return 0;
+    }
+
+    final int read;
+    long consumed = 0;
+    lock.lock();
+    try {
+      ByteBuf buf;
+      while ((buf = buffers.peek()) == null) {
+        ensureOpen();
+        if (finished) {
+          return -1;
+        }
+        await();
+      }
+      ensureOpen();
+
+      read = Math.min(len, buf.readableBytes());
+      buf.readBytes(b, off, read);
+      unconsumed += read;
+
+      if (!buf.isReadable()) {
+        buffers.remove().release();
+        consumed = unconsumed;
+        unconsumed = 0;
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (consumed > 0) {
+      stream.consumed(consumed);
+    }
+    return read;
+  }
+
+  @Override
+  public int available() throws IOException {
+    lock.lock();
+    try {
+      ensureOpen();
+      int available = 0;
+      for (final ByteBuf buf : buffers) {
+        available += buf.readableBytes();
+      }
+      return available;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Discards unread and later received data, returning its credit to the peer. */
+  @Override
+  public void close() {
+    long consumed = 0;
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+
+      if (failure == null) {
+        consumed = unconsumed;
+        for (final ByteBuf buf : buffers) {
+          consumed += buf.readableBytes();
+        }
+      }
+      releaseBuffers();
+      unconsumed = 0;
+      readable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    if (consumed > 0) {
+      stream.consumed(consumed);
+    }
+    onClose.run();
+  }
+
+  private void ensureOpen() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  private void await() throws InterruptedIOException {
+    try {
+      readable.await();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  private void releaseBuffers() {
+    ByteBuf buf;
+    while ((buf = buffers.poll()) != null) {
+      buf.release();
+    }
+  }
+}
@@ -1,5 +1,43 @@
 package com.protocol7.quincy.streams;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
 public interface StreamListener {
   void onData(Stream stream, byte[] data, boolean finished);
+
+  /**
+   * Receives data without copying. The listener takes ownership of the buffer and must release it.
+   * By default, copies the data to {@link #onData(Stream, byte[], boolean)}.
+   */
+  default void onData(final Stream stream, final ByteBuf data, final boolean finished) {
+    try {
+      onData(stream, ByteBufUtil.getBytes(data), finished);
+    } finally {
+      data.release();
+    }
+  }
+
+  /**
+   * Returns true if the listener returns the receive credit itself, by calling {@link
+   * Stream#consumed(long)} once the application has read the data. By default, credit is returned
+   * as the data is delivered to the listener.
+   */
+  default boolean defersConsumption() {
+    return false;
+  }
+
+  /**
+   * Called as the stream gets blocked by the stream or connection flow control window, and once it
+   * can send again.
+   */
+  default void onWritabilityChanged(final Stream stream, final boolean writable) {}
+
+  /** Called once the peer has reset the stream, no more data will be delivered. */
+  default void onReset(final Stream stream, final int applicationErrorCode) {}
+
+  /**
+   * Called for each stream still open as the connection is closed, no more data will be delivered.
+   */
+  default void onConnectionClosed(final Stream stream) {}
 }
@@ -1,8 +1,12 @@
 package com.protocol7.quincy.streams;
 
-import com.protocol7.quincy.InboundHandler;
+import com.protocol7.quincy.FrameHandler;
 
-public interface StreamManager extends InboundHandler {
+public interface StreamManager extends FrameHandler {
 
-  Stream openStream(boolean client, boolean bidirectional);
+  /** Opens a stream, unidirectional streams are send-only. */
+  Stream openStream(boolean bidirectional);
+
+  /** Releases the buffered data of all streams, once the connection is closed. */
+  void release();
 }
@@ -0,0 +1,168 @@
+package com.protocol7.quincy.streams;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking view for writing to a stream. Writes are queued on the stream and park while more than
+ * the max unsent bytes are waiting to be sent, e.g. as the stream is blocked by flow control, and
+ * flushing parks until all written data has been sent. Closing finishes the stream.
+ *
+ * <p>Each write is queued separately, wrap in a {@link java.io.BufferedOutputStream} for small
+ * writes. Parks on a {@link Lock}, rather than a monitor, to not pin virtual threads. Must not be
+ * written on the event loop of the connection.
+ */
+public class StreamOutputStream extends OutputStream {
+
+  public static final long DEFAULT_MAX_UNSENT_BYTES = 64 * 1024;
+
+  private final Stream stream;
+  private final long maxUnsentBytes;
+
+  private final Lock lock = new ReentrantLock();
+  private final Condition sent = lock.newCondition();
+  private long unsentBytes = 0;
+  private boolean closed = false;
+  private IOException failure;
+
+  public StreamOutputStream(final Stream stream) {
+    this(stream, DEFAULT_MAX_UNSENT_BYTES);
+  }
+
+  public StreamOutputStream(final Stream stream, final long maxUnsentBytes) {
+    checkArgument(maxUnsentBytes > 0);
+
+    this.stream = requireNonNull(stream);
+    this.maxUnsentBytes = maxUnsentBytes;
+  }
+
+  public Stream stream() {
+    return stream;
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (len == 0) {
+      return;
+    }
+
+    lock.lock();
+    try {
+      ensureOpen();
+      // a single write larger than the max is let through once all previous data is sent
+      while (unsentBytes > 0 && unsentBytes + len > maxUnsentBytes) {
+        await();
+        ensureOpen();
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    send(Unpooled.copiedBuffer(b, off, len), false);
+  }
+
+  /** Parks until all written data has been sent. */
+  @Override
+  public void flush() throws IOException {
+    lock.lock();
+    try {
+      awaitSent();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Finishes the stream, parking until all written data has been sent. */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    } finally {
+      lock.unlock();
+    }
+
+    if (stream.getStreamType().canSend()) {
+      send(Unpooled.EMPTY_BUFFER, true);
+    }
+
+    lock.lock();
+    try {
+      awaitSent();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void send(final ByteBuf data, final boolean finish) {
+    final int length = data.readableBytes();
+
+    lock.lock();
+    try {
+      unsentBytes += length;
+    } finally {
+      lock.unlock();
+    }
+
+    stream.write(data, finish).addListener(f -> onSent(length, f.cause()));
+  }
+
+  private void onSent(final long length, final Throwable cause) {
+    lock.lock();
+    try {
+      unsentBytes -= length;
+      if (cause != null && failure == null) {
+        failure = new IOException("Failed to write to stream", cause);
+      }
+      sent.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void awaitSent() throws IOException {
+    while (unsentBytes > 0 && failure == null) {
+      await();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  private void await() throws InterruptedIOException {
+    try {
+      sent.await();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package com.protocol7.quincy.streams;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Objects;
+
+/**
+ * Stream priority, as used by the stream schedulers. Urgency and incremental follow the extensible
+ * priorities of RFC 9218, urgency 0 being the most urgent. The weight is used by weighted fair
+ * queuing, streams get bandwidth in proportion to their weight.
+ */
+public class StreamPriority {
+
+  public static final int MAX_URGENCY = 7;
+  public static final int DEFAULT_URGENCY = 3;
+  public static final int MIN_WEIGHT = 1;
+  public static final int MAX_WEIGHT = 256;
+  public static final int DEFAULT_WEIGHT = 16;
+
+  public static final StreamPriority DEFAULT =
+      new StreamPriority(DEFAULT_URGENCY, false, DEFAULT_WEIGHT);
+
+  public static StreamPriority of(final int urgency, final boolean incremental) {
+    return new StreamPriority(urgency, incremental, DEFAULT_WEIGHT);
+  }
+
+  public static StreamPriority weighted(final int weight) {
+    return new StreamPriority(DEFAULT_URGENCY, false, weight);
+  }
+
+  private final int urgency;
+  private final boolean incremental;
+  private final int weight;
+
+  public StreamPriority(final int urgency, final boolean incremental, final int weight) {
+    checkArgument(urgency >= 0 && urgency <= MAX_URGENCY, "Invalid urgency");
+    checkArgument(weight >= MIN_WEIGHT && weight <= MAX_WEIGHT, "Invalid weight");
+
+    this.urgency = urgency;
+    this.incremental = incremental;
+    this.weight = weight;
+  }
+
+  public int getUrgency() {
+    return urgency;
+  }
+
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    final StreamPriority that = (StreamPriority) o;
+    return urgency == that.urgency && incremental == that.incremental && weight == that.weight;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(urgency, incremental, weight);
+  }
+
+  @Override
+  public String toString() {
+    return "StreamPriority{"
+        + "urgency="
+        + urgency
+        + ", incremental="
+        + incremental
+        + ", weight="
+        + weight
+        + '}';
+  }
+}
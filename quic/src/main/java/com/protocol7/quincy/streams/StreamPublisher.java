@@ -0,0 +1,169 @@
+package com.protocol7.quincy.streams;
+
+import static java.util.Objects.requireNonNull;
+
+import io.netty.buffer.ByteBuf;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the data received on a stream to a single subscriber. Receive credit is only returned
+ * to the peer as buffers are delivered on demand, so a slow subscriber throttles the peer, and data
+ * queued awaiting demand is bounded by the stream's receive window. Requires a listener deferring
+ * consumption, see {@link FlowStreamListener}.
+ *
+ * <p>Subscribers own the delivered buffers and must release them. The stream finishing completes
+ * the subscriber, a reset by the peer fails it with an {@link IOException}.
+ */
+public class StreamPublisher implements Flow.Publisher<ByteBuf> {
+
+  private static final Flow.Subscription REJECTED =
+      new Flow.Subscription() {
+        @Override
+        public void request(final long n) {}
+
+        @Override
+        public void cancel() {}
+      };
+
+  private final Stream stream;
+
+  private final Queue<ByteBuf> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicReference<Flow.Subscriber<? super ByteBuf>> subscriber =
+      new AtomicReference<>();
+  private final AtomicLong demand = new AtomicLong();
+  // serializes delivery between the event loop and subscriber threads, without locking
+  private final AtomicInteger wip = new AtomicInteger();
+
+  private volatile boolean finished = false;
+  private volatile boolean cancelled = false;
+  private volatile Throwable failure;
+  private volatile boolean reset = false;
+  // only accessed while draining
+  private boolean terminated = false;
+
+  public StreamPublisher(final Stream stream) {
+    this.stream = requireNonNull(stream);
+  }
+
+  public Stream stream() {
+    return stream;
+  }
+
+  @Override
+  public void subscribe(final Flow.Subscriber<? super ByteBuf> subscriber) {
+    requireNonNull(subscriber);
+
+    if (!this.subscriber.compareAndSet(null, subscriber)) {
+      subscriber.onSubscribe(REJECTED);
+      subscriber.onError(new IllegalStateException("Stream already subscribed to"));
+      return;
+    }
+    subscriber.onSubscribe(new StreamSubscription());
+    drain();
+  }
+
+  /** Queues data received on the stream, delivered once demanded. Takes ownership of the data. */
+  public void onData(final ByteBuf data, final boolean finished) {
+    if (data.isReadable()) {
+      queue.add(data);
+    } else {
+      data.release();
+    }
+    if (finished) {
+      this.finished = true;
+    }
+    drain();
+  }
+
+  /**
+   * Fails the subscriber. Undelivered data is released, without returning credit as it is already
+   * accounted for by the reset.
+   */
+  public void onReset(final int applicationErrorCode) {
+    reset = true;
+    failure = new IOException("Stream reset by peer, error code " + applicationErrorCode);
+    drain();
+  }
+
+  private void drain() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+
+    int missed = 1;
+    do {
+      final Flow.Subscriber<? super ByteBuf> s = subscriber.get();
+
+      if (cancelled || reset) {
+        discard(!reset);
+      } else if (terminated) {
+        discard(true);
+      } else if (s != null) {
+        final long requested = demand.get();
+        long delivered = 0;
+        ByteBuf buf;
+        while (delivered != requested && failure == null && (buf = queue.poll()) != null) {
+          final int length = buf.readableBytes();
+          s.onNext(buf);
+          stream.consumed(length);
+          delivered++;
+        }
+        if (delivered > 0 && requested != Long.MAX_VALUE) {
+          demand.addAndGet(-delivered);
+        }
+      }
+
+      if (s != null && !terminated && !cancelled) {
+        final Throwable failure = this.failure;
+        if (failure != null) {
+          terminated = true;
+          discard(!reset);
+          s.onError(failure);
+        } else if (finished && queue.isEmpty()) {
+          terminated = true;
+          s.onComplete();
+        }
+      }
+
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void discard(final boolean returnCredit) {
+    long discarded = 0;
+    ByteBuf buf;
+    while ((buf = queue.poll()) != null) {
+      discarded += buf.readableBytes();
+      buf.release();
+    }
+    if (returnCredit && discarded > 0) {
+      stream.consumed(discarded);
+    }
+  }
+
+  private class StreamSubscription implements Flow.Subscription {
+
+    @Override
+    public void request(final long n) {
+      if (n <= 0) {
+        failure = new IllegalArgumentException("Requested non-positive demand: " + n);
+      } else {
+        demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+      }
+      drain();
+    }
+
+    /** Discards undelivered and later received data, returning its credit to the peer. */
+    @Override
+    public void cancel() {
+      cancelled = true;
+      drain();
+    }
+  }
+}
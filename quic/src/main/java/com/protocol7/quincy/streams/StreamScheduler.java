@@ -0,0 +1,19 @@
+package com.protocol7.quincy.streams;
+
+/**
+ * Decides which stream sends the next frame when multiple streams have queued writes. Streams are
+ * polled one frame at a time and scheduled again while they have more to send.
+ *
+ * <p>Confined to the event loop of the connection.
+ */
+public interface StreamScheduler {
+
+  /** Adds a stream with queued writes. Streams are only added when not already scheduled. */
+  void schedule(DefaultStream stream);
+
+  /** Removes and returns the stream to send the next frame, or null if no stream is scheduled. */
+  DefaultStream poll();
+
+  /** Accounts for the bytes sent by the last polled stream, before it's scheduled again. */
+  void onSent(DefaultStream stream, int bytes);
+}
@@ -0,0 +1,21 @@
+package com.protocol7.quincy.streams;
+
+public enum StreamScheduling {
+  /** Streams take turns sending a frame each. */
+  RoundRobin,
+  /** Streams share bandwidth in proportion to their priority weight. */
+  WeightedFair,
+  /** Most urgent streams first, as by RFC 9218. */
+  Urgency;
+
+  public StreamScheduler newScheduler() {
+    switch (this) {
+      case WeightedFair:
+        return new WeightedFairStreamScheduler();
+      case Urgency:
+        return new UrgencyStreamScheduler();
+      default:
+        return new RoundRobinStreamScheduler();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.protocol7.quincy.streams;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Writes the published buffers to a stream. More buffers are only requested as earlier writes have
+ * been sent, so a stream blocked by flow control holds back the publisher instead of queueing in
+ * the stream. Completion finishes the stream, an error resets it.
+ */
+public class StreamSubscriber implements Flow.Subscriber<ByteBuf> {
+
+  public static final int DEFAULT_MAX_UNSENT_BUFFERS = 4;
+
+  private final Stream stream;
+  private final int maxUnsentBuffers;
+  private final int applicationErrorCode;
+  private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+  private volatile Flow.Subscription subscription;
+
+  public StreamSubscriber(final Stream stream) {
+    this(stream, DEFAULT_MAX_UNSENT_BUFFERS, 0);
+  }
+
+  /**
+   * @param maxUnsentBuffers the number of buffers requested ahead of being sent
+   * @param applicationErrorCode the error code to reset the stream with on errors
+   */
+  public StreamSubscriber(
+      final Stream stream, final int maxUnsentBuffers, final int applicationErrorCode) {
+    checkArgument(maxUnsentBuffers > 0);
+
+    this.stream = requireNonNull(stream);
+    this.maxUnsentBuffers = maxUnsentBuffers;
+    this.applicationErrorCode = applicationErrorCode;
+  }
+
+  /** Completes once the stream is finished, or exceptionally if it could not be written. */
+  public CompletableFuture<Void> completion() {
+    return completion;
+  }
+
+  @Override
+  public void onSubscribe(final Flow.Subscription subscription) {
+    requireNonNull(subscription);
+    if (this.subscription != null) {
+      subscription.cancel();
+      return;
+    }
+    this.subscription = subscription;
+    subscription.request(maxUnsentBuffers);
+  }
+
+  @Override
+  public void onNext(final ByteBuf data) {
+    requireNonNull(data);
+    if (completion.isDone()) {
+      data.release();
+      return;
+    }
+
+    stream
+        .write(data, false)
+        .addListener(
+            f -> {
+              if (f.isSuccess()) {
+                subscription.request(1);
+              } else {
+                subscription.cancel();
+                completion.completeExceptionally(f.cause());
+              }
+            });
+  }
+
+  @Override
+  public void onError(final Throwable t) {
+    requireNonNull(t);
+    // fails if already finished or reset
+    stream.reset(applicationErrorCode);
+    completion.completeExceptionally(t);
+  }
+
+  @Override
+  public void onComplete() {
+    stream
+        .write(Unpooled.EMPTY_BUFFER, true)
+        .addListener(
+            f -> {
+              if (f.isSuccess()) {
+                completion.complete(null);
+              } else {
+                completion.completeExceptionally(f.cause());
+              }
+            });
+  }
+}
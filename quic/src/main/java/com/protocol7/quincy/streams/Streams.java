@@ -1,52 +1,178 @@
 package com.protocol7.quincy.streams;
 
 import com.protocol7.quincy.FrameSender;
+import com.protocol7.quincy.flowcontrol.FlowControlHandler;
+import com.protocol7.quincy.memory.MemoryBudget;
 import com.protocol7.quincy.protocol.StreamId;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import io.netty.util.concurrent.EventExecutor;
+import java.util.Iterator;
 
 public class Streams {
 
   private final FrameSender frameSender;
-  private final Map<Long, DefaultStream> streams = new ConcurrentHashMap<>();
-  private long maxId = 0;
+  private final FlowControlHandler flowControlHandler;
+  private final long maxStreamData;
+  private final EventExecutor executor;
+  private final StreamScheduler scheduler;
+  private final MemoryBudget memoryBudget;
+  private final boolean client;
+  private final LongObjectMap<DefaultStream> streams = new LongObjectHashMap<>();
+  private final OpenedStreamIds opened = new OpenedStreamIds();
+  private boolean sendScheduled = false;
 
-  public Streams(final FrameSender frameSender) {
+  public Streams(
+      final FrameSender frameSender,
+      final FlowControlHandler flowControlHandler,
+      final long maxStreamData,
+      final EventExecutor executor,
+      final StreamScheduler scheduler,
+      final MemoryBudget memoryBudget,
+      final boolean client) {
     this.frameSender = frameSender;
+    this.flowControlHandler = flowControlHandler;
+    this.maxStreamData = maxStreamData;
+    this.executor = executor;
+    this.scheduler = scheduler;
+    this.memoryBudget = memoryBudget;
+    this.client = client;
   }
 
-  public Stream openStream(
-      final boolean client, final boolean bidirectional, final StreamListener handler) {
+  /** Opens a stream, unidirectional streams are send-only. */
+  public Stream openStream(final boolean bidirectional, final StreamListener handler) {
     final StreamType type = bidirectional ? StreamType.Bidirectional : StreamType.Sending;
-    final long streamId = StreamId.next(maxId, client, bidirectional);
-    this.maxId = streamId;
-    final DefaultStream stream = new DefaultStream(streamId, frameSender, handler, type);
+    // unidirectional and bidirectional streams have separate ID spaces
+    final long streamId = opened.next(client, bidirectional);
+    opened.open(streamId);
+    final DefaultStream stream =
+        new DefaultStream(
+            streamId,
+            frameSender,
+            flowControlHandler,
+            handler,
+            type,
+            maxStreamData,
+            executor,
+            this::onWritable,
+            memoryBudget);
     streams.put(streamId, stream);
     return stream;
   }
 
+  /**
+   * Returns false for streams the peer must not send on: send-only streams, and streams initiated
+   * locally that are not yet opened.
+   */
+  public boolean canReceive(final long streamId) {
+    if (StreamId.isClient(streamId) != client) {
+      return true;
+    }
+    return StreamId.isBidirectional(streamId) && opened.isOpened(streamId);
+  }
+
+  /**
+   * Returns null if the stream has been closed, e.g. for late retransmits. Streams are only created
+   * here as opened by the peer, so unidirectional streams are receive-only.
+   */
   public DefaultStream getOrCreate(final long streamId, final StreamListener handler) {
     DefaultStream stream = streams.get(streamId);
-    if (stream == null) {
+    if (stream == null && opened.open(streamId)) {
       stream =
           new DefaultStream(
               streamId,
               frameSender,
+              flowControlHandler,
               handler,
-              StreamId.isBidirectional(streamId)
-                  ? StreamType.Bidirectional
-                  : StreamType.Receiving); // TODO support stream type
-      final DefaultStream existingStream = streams.putIfAbsent(streamId, stream);
-      if (existingStream != null) {
-        stream = existingStream;
-      }
+              StreamId.isBidirectional(streamId) ? StreamType.Bidirectional : StreamType.Receiving,
+              maxStreamData,
+              executor,
+              this::onWritable,
+              memoryBudget);
+      streams.put(streamId, stream);
     }
     return stream;
   }
 
-  public void onAck(final long pn) {
+  /** Resumes sending queued writes, e.g. after the peer extended the flow control credit. */
+  public void flush() {
     for (final DefaultStream stream : streams.values()) {
+      if (stream.hasPendingWrites()) {
+        schedule(stream);
+      }
+    }
+    send();
+  }
+
+  private void onWritable(final DefaultStream stream) {
+    schedule(stream);
+
+    if (!sendScheduled) {
+      // writes made during this event loop iteration are interleaved by the scheduler
+      sendScheduled = true;
+      executor.execute(
+          () -> {
+            sendScheduled = false;
+            send();
+          });
+    }
+  }
+
+  private void schedule(final DefaultStream stream) {
+    if (!stream.isScheduled()) {
+      stream.setScheduled(true);
+      scheduler.schedule(stream);
+    }
+  }
+
+  private void send() {
+    DefaultStream stream;
+    while ((stream = scheduler.poll()) != null) {
+      stream.setScheduled(false);
+
+      final int sent = stream.sendFrame();
+      if (sent != -1) {
+        scheduler.onSent(stream, sent);
+        if (stream.hasPendingWrites()) {
+          schedule(stream);
+        } else {
+          closeIfDone(stream);
+        }
+      }
+    }
+  }
+
+  /** Forgets the stream if both directions are done. */
+  public void closeIfDone(final DefaultStream stream) {
+    if (stream.isClosed()) {
+      streams.remove(stream.getId());
+      flowControlHandler.onStreamClosed(stream.getId(), frameSender);
+    }
+  }
+
+  /** Releases the buffered data of all streams, once the connection is closed. */
+  public void release() {
+    for (final DefaultStream stream : streams.values()) {
+      stream.release();
+    }
+    streams.clear();
+  }
+
+  public void onAck(final long pn) {
+    final Iterator<DefaultStream> iter = streams.values().iterator();
+    while (iter.hasNext()) {
+      final DefaultStream stream = iter.next();
       stream.onAck(pn);
+
+      // also catches streams closed by application threads
+      if (stream.isClosed()) {
+        iter.remove();
+        flowControlHandler.onStreamClosed(stream.getId(), frameSender);
+      }
     }
   }
+
+  public int size() {
+    return streams.size();
+  }
 }
@@ -0,0 +1,53 @@
+package com.protocol7.quincy.streams;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Scheduling by RFC 9218 urgency and incremental flags. Streams of the most urgent level send
+ * first. Within a level, non-incremental streams send one at a time in stream ID order, before the
+ * incremental streams which take turns sending a frame each.
+ */
+public class UrgencyStreamScheduler implements StreamScheduler {
+
+  private static class Level {
+    private final TreeMap<Long, DefaultStream> sequential = new TreeMap<>();
+    private final Queue<DefaultStream> incremental = new ArrayDeque<>();
+  }
+
+  private final Level[] levels = new Level[StreamPriority.MAX_URGENCY + 1];
+
+  public UrgencyStreamScheduler() {
+    for (int i = 0; i < levels.length; i++) {
+      levels[i] = new Level();
+    }
+  }
+
+  @Override
+  public void schedule(final DefaultStream stream) {
+    final StreamPriority priority = stream.getPriority();
+    final Level level = levels[priority.getUrgency()];
+    if (priority.isIncremental()) {
+      level.incremental.add(stream);
+    } else {
+      level.sequential.put(stream.getId(), stream);
+    }
+  }
+
+  @Override
+  public DefaultStream poll() {
+    for (final Level level : levels) {
+      if (!level.sequential.isEmpty()) {
+        return level.sequential.pollFirstEntry().getValue();
+      }
+      if (!level.incremental.isEmpty()) {
+        return level.incremental.poll();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void onSent(final DefaultStream stream, final int bytes) {}
+}
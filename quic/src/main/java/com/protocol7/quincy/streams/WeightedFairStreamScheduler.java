@@ -0,0 +1,64 @@
+package com.protocol7.quincy.streams;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Start time fair queuing. Each scheduled stream has a virtual time, advanced by the bytes it sends
+ * scaled inversely to its weight, and the stream with the lowest virtual time sends next. Streams
+ * becoming active start at the current virtual time, so idle streams don't accumulate credit.
+ */
+public class WeightedFairStreamScheduler implements StreamScheduler {
+
+  private static class Entry {
+    private final DefaultStream stream;
+    private long pseudoTime;
+    private long sequence;
+
+    private Entry(final DefaultStream stream, final long pseudoTime) {
+      this.stream = stream;
+      this.pseudoTime = pseudoTime;
+    }
+  }
+
+  private final PriorityQueue<Entry> queue =
+      new PriorityQueue<>(
+          Comparator.<Entry>comparingLong(e -> e.pseudoTime).thenComparingLong(e -> e.sequence));
+
+  private long virtualTime;
+  private long sequence;
+  private Entry polled;
+
+  @Override
+  public void schedule(final DefaultStream stream) {
+    final Entry entry;
+    if (polled != null && polled.stream == stream) {
+      entry = polled;
+    } else {
+      entry = new Entry(stream, virtualTime);
+    }
+    polled = null;
+
+    // FIFO among streams with the same virtual time
+    entry.sequence = sequence++;
+    queue.add(entry);
+  }
+
+  @Override
+  public DefaultStream poll() {
+    polled = queue.poll();
+    if (polled == null) {
+      return null;
+    }
+    virtualTime = polled.pseudoTime;
+    return polled.stream;
+  }
+
+  @Override
+  public void onSent(final DefaultStream stream, final int bytes) {
+    if (polled != null && polled.stream == stream) {
+      polled.pseudoTime +=
+          (long) bytes * StreamPriority.MAX_WEIGHT / stream.getPriority().getWeight();
+    }
+  }
+}
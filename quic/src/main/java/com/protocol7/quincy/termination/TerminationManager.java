@@ -1,28 +1,29 @@
 package com.protocol7.quincy.termination;
 
+import com.protocol7.quincy.FrameHandler;
 import com.protocol7.quincy.InboundHandler;
 import com.protocol7.quincy.PipelineContext;
 import com.protocol7.quincy.connection.InternalConnection;
 import com.protocol7.quincy.connection.State;
 import com.protocol7.quincy.protocol.TransportError;
 import com.protocol7.quincy.protocol.frames.ConnectionCloseFrame;
-import com.protocol7.quincy.protocol.frames.Frame;
 import com.protocol7.quincy.protocol.frames.FrameType;
 import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.protocol.packets.Packet;
 import io.netty.util.Timeout;
 import io.netty.util.Timer;
 import io.netty.util.TimerTask;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 
-public class TerminationManager implements InboundHandler {
+public class TerminationManager implements InboundHandler, FrameHandler {
 
-  private final AtomicReference<Timeout> timeout = new AtomicReference<>(null);
   private final InternalConnection connection;
   private final Timer timer;
   private final long idleTimeoutMs;
   private final TimerTask idleTask;
+  private Timeout timeout;
 
   public TerminationManager(
       final InternalConnection connection,
@@ -36,33 +37,36 @@ public class TerminationManager implements InboundHandler {
         timeout -> connection.close(TransportError.NO_ERROR, FrameType.PADDING, "Timeout");
   }
 
+  /** Arms the idle timer before any packet has been received. */
+  public void start() {
+    resetIdleTimer();
+  }
+
   @Override
   public void onReceivePacket(final Packet packet, final PipelineContext ctx) {
-    if (packet instanceof FullPacket) {
-      final FullPacket fp = (FullPacket) packet;
-
-      for (final Frame frame : fp.getPayload().getFrames()) {
-        if (frame instanceof ConnectionCloseFrame) {
-          ctx.setState(State.Closing);
-          connection.closeByPeer();
-          ctx.setState(State.Closed);
-        }
-      }
-    }
-
     // reset idle timer on any packet
     resetIdleTimer();
 
     ctx.next(packet);
   }
 
+  @Override
+  public Set<FrameType> getFrameTypes() {
+    return EnumSet.of(FrameType.CONNECTION_CLOSE);
+  }
+
+  @Override
+  public void onConnectionCloseFrame(
+      final ConnectionCloseFrame frame, final FullPacket packet, final PipelineContext ctx) {
+    ctx.setState(State.Closing);
+    connection.closeByPeer();
+    ctx.setState(State.Closed);
+  }
+
   private void resetIdleTimer() {
-    timeout.updateAndGet(
-        timeout -> {
-          if (timeout != null) {
-            timeout.cancel();
-          }
-          return timer.newTimeout(idleTask, idleTimeoutMs, TimeUnit.MILLISECONDS);
-        });
+    if (timeout != null) {
+      timeout.cancel();
+    }
+    timeout = timer.newTimeout(idleTask, idleTimeoutMs, TimeUnit.MILLISECONDS);
   }
 }
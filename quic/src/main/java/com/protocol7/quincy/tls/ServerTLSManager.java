@@ -37,26 +37,24 @@ public class ServerTLSManager implements InboundHandler {
     final State state = ctx.getState();
     if (state == State.Started) {
       if (packet instanceof InitialPacket) {
+        // address validation is done before the connection is created
         final InitialPacket initialPacket = (InitialPacket) packet;
+        final CryptoFrame cf = (CryptoFrame) initialPacket.getPayload().getFrames().get(0);
 
-        if (initialPacket.getToken().isPresent()) {
-          final CryptoFrame cf = (CryptoFrame) initialPacket.getPayload().getFrames().get(0);
+        final ServerTlsSession.ServerHelloAndHandshake shah =
+            tlsSession.handleClientHello(cf.getCryptoData());
 
-          final ServerTlsSession.ServerHelloAndHandshake shah =
-              tlsSession.handleClientHello(cf.getCryptoData());
+        // sent as initial packet
+        ctx.send(new CryptoFrame(0, shah.getServerHello()));
 
-          // sent as initial packet
-          ctx.send(new CryptoFrame(0, shah.getServerHello()));
+        tlsSession.setHandshakeAead(shah.getHandshakeAEAD());
 
-          tlsSession.setHandshakeAead(shah.getHandshakeAEAD());
+        // sent as handshake packet
+        ctx.send(new CryptoFrame(0, shah.getServerHandshake()));
 
-          // sent as handshake packet
-          ctx.send(new CryptoFrame(0, shah.getServerHandshake()));
+        tlsSession.setOneRttAead(shah.getOneRttAEAD());
 
-          tlsSession.setOneRttAead(shah.getOneRttAEAD());
-
-          ctx.setState(State.BeforeReady);
-        }
+        ctx.setState(State.BeforeReady);
       } else {
         throw new IllegalStateException("Unexpected packet in BeforeInitial: " + packet);
       }
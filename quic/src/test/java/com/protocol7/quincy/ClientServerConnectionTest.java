@@ -2,14 +2,17 @@ package com.protocol7.quincy;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import com.protocol7.quincy.client.ClientConnection;
+import com.protocol7.quincy.client.TokenCache;
 import com.protocol7.quincy.connection.InternalConnection;
 import com.protocol7.quincy.connection.PacketSender;
 import com.protocol7.quincy.connection.State;
@@ -17,7 +20,11 @@ import com.protocol7.quincy.flowcontrol.DefaultFlowControlHandler;
 import com.protocol7.quincy.flowcontrol.FlowControlHandler;
 import com.protocol7.quincy.netty.QuicBuilder;
 import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.frames.Frame;
+import com.protocol7.quincy.protocol.frames.StreamFrame;
+import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.protocol.packets.Packet;
+import com.protocol7.quincy.reliability.RttEstimator;
 import com.protocol7.quincy.server.ServerConnection;
 import com.protocol7.quincy.streams.DefaultStream;
 import com.protocol7.quincy.streams.Stream;
@@ -25,6 +32,9 @@ import com.protocol7.quincy.streams.StreamListener;
 import com.protocol7.quincy.tls.KeyUtil;
 import com.protocol7.quincy.tls.NoopCertificateValidator;
 import com.protocol7.quincy.tls.aead.AEAD;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.util.Timer;
 import io.netty.util.concurrent.DefaultEventExecutor;
 import io.netty.util.concurrent.DefaultPromise;
@@ -33,6 +43,9 @@ import io.netty.util.concurrent.GlobalEventExecutor;
 import io.netty.util.concurrent.SucceededFuture;
 import java.security.PrivateKey;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -72,6 +85,16 @@ public class ClientServerConnectionTest {
 
     @Override
     public Future<Void> send(final Packet packet, final AEAD aead) {
+      // the packet is shared rather than serialized, give the peer its own reference to the stream
+      // data as the sender releases it when acknowledged. Heap buffers, left to the GC.
+      if (packet instanceof FullPacket) {
+        for (final Frame frame : ((FullPacket) packet).getPayload().getFrames()) {
+          if (frame instanceof StreamFrame) {
+            ((StreamFrame) frame).content().retain();
+          }
+        }
+      }
+
       executor.execute(() -> peer.onPacket(packet));
 
       return new SucceededFuture(executor, null);
@@ -92,9 +115,12 @@ public class ClientServerConnectionTest {
             clientListener,
             clientSender,
             flowControlHandler,
+            new RttEstimator(),
             TestUtil.getTestAddress(),
             new NoopCertificateValidator(),
-            scheduler);
+            scheduler,
+            new DefaultEventExecutor(),
+            new TokenCache());
 
     final List<byte[]> certificates = KeyUtil.getCertsFromCrt("src/test/resources/server.crt");
     final PrivateKey privateKey = KeyUtil.getPrivateKey("src/test/resources/server.der");
@@ -103,13 +129,19 @@ public class ClientServerConnectionTest {
         new ServerConnection(
             new QuicBuilder().configuration(),
             srcConnectionId,
+            destConnectionId,
             serverListener,
             serverSender,
             certificates,
             privateKey,
             flowControlHandler,
+            new RttEstimator(),
             TestUtil.getTestAddress(),
-            scheduler);
+            scheduler,
+            new DefaultEventExecutor());
+
+    // packets bypass the router, which would account for received bytes
+    serverConnection.validateAddress();
 
     clientSender.setPeer(serverConnection);
     serverSender.setPeer(clientConnection);
@@ -140,16 +172,16 @@ public class ClientServerConnectionTest {
               return null;
             })
         .when(serverListener)
-        .onData(any(), eq(PING), eq(true));
+        .onData(any(), eq(Unpooled.wrappedBuffer(PING)), eq(true));
 
     // send ping
-    final Stream stream = clientConnection.openStream();
+    final Stream stream = clientConnection.openStream().syncUninterruptibly().getNow();
     stream.write(PING, true);
 
     sleep();
 
     // verify we got pong
-    verify(clientListener).onData(any(), eq(PONG), eq(true));
+    verify(clientListener).onData(any(), eq(Unpooled.wrappedBuffer(PONG)), eq(true));
   }
 
   @Test
@@ -160,16 +192,16 @@ public class ClientServerConnectionTest {
     // and verifies that they all arrive in order. The amount of data sent is meant to require flow
     // control.
 
-    final Stream stream = clientConnection.openStream();
+    final Stream stream = clientConnection.openStream().syncUninterruptibly().getNow();
 
     for (int i = 0; i < 100; i++) {
       stream.write(b(i), i == 99);
     }
 
     // wait until all messages have arrived
-    ArgumentCaptor<byte[]> captor = null;
+    ArgumentCaptor<ByteBuf> captor = null;
     for (int i = 0; i < 10; i++) {
-      captor = ArgumentCaptor.forClass(byte[].class);
+      captor = ArgumentCaptor.forClass(ByteBuf.class);
       verify(serverListener, atLeast(0))
           .onData(any(Stream.class), captor.capture(), any(Boolean.class));
 
@@ -183,14 +215,44 @@ public class ClientServerConnectionTest {
       assertEquals(100, captor.getAllValues().size());
 
       for (int i = 0; i < 100; i++) {
-        final byte[] value = captor.getAllValues().get(i);
-        assertArrayEquals(b(i), value);
+        final ByteBuf value = captor.getAllValues().get(i);
+        assertArrayEquals(b(i), ByteBufUtil.getBytes(value));
       }
     } else {
       fail("Timed out");
     }
   }
 
+  @Test
+  public void concurrentStreams() throws InterruptedException {
+    handshake();
+
+    // streams are written from application threads, the writes are queued to the connection's
+    // event loop
+    final int threads = 4;
+    final int streamsPerThread = 5;
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      for (int i = 0; i < threads; i++) {
+        pool.execute(
+            () -> {
+              for (int j = 0; j < streamsPerThread; j++) {
+                clientConnection.openStream().syncUninterruptibly().getNow().write(PING, true);
+              }
+            });
+      }
+      pool.shutdown();
+      assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdownNow();
+    }
+
+    sleep();
+
+    verify(serverListener, times(threads * streamsPerThread))
+        .onData(any(), eq(Unpooled.wrappedBuffer(PING)), eq(true));
+  }
+
   private byte[] b(final int i) {
     final byte[] b = new byte[1000];
     b[0] = (byte) i;
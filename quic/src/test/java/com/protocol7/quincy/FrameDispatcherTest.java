@@ -0,0 +1,87 @@
+package com.protocol7.quincy;
+
+import static java.util.Optional.of;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.protocol7.quincy.connection.State;
+import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.PacketNumber;
+import com.protocol7.quincy.protocol.Payload;
+import com.protocol7.quincy.protocol.frames.AckBlock;
+import com.protocol7.quincy.protocol.frames.AckFrame;
+import com.protocol7.quincy.protocol.frames.Frame;
+import com.protocol7.quincy.protocol.frames.FrameType;
+import com.protocol7.quincy.protocol.frames.MaxDataFrame;
+import com.protocol7.quincy.protocol.frames.PingFrame;
+import com.protocol7.quincy.protocol.frames.StreamFrame;
+import com.protocol7.quincy.protocol.packets.FullPacket;
+import com.protocol7.quincy.protocol.packets.ShortPacket;
+import java.util.EnumSet;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FrameDispatcherTest {
+
+  @Mock FrameHandler streamHandler;
+  @Mock FrameHandler ackHandler;
+  @Mock PipelineContext ctx;
+
+  private FrameDispatcher dispatcher;
+
+  @Before
+  public void setUp() {
+    when(streamHandler.getFrameTypes())
+        .thenReturn(EnumSet.of(FrameType.STREAM, FrameType.MAX_DATA));
+    when(ackHandler.getFrameTypes()).thenReturn(EnumSet.of(FrameType.ACK, FrameType.STREAM));
+
+    dispatcher = new FrameDispatcher(List.of(streamHandler, ackHandler));
+  }
+
+  @Test
+  public void dispatchByType() {
+    final StreamFrame sf = new StreamFrame(0, 0, false, new byte[1]);
+    final AckFrame af = new AckFrame(123, new AckBlock(1, 2));
+    final MaxDataFrame mdf = new MaxDataFrame(1000);
+    final FullPacket packet = p(sf, PingFrame.INSTANCE, af, mdf);
+
+    dispatcher.dispatch(packet, ctx);
+
+    // frames in packet order, handlers in registration order
+    final InOrder inOrder = inOrder(streamHandler, ackHandler);
+    inOrder.verify(streamHandler).onStreamFrame(sf, packet, ctx);
+    inOrder.verify(ackHandler).onStreamFrame(sf, packet, ctx);
+    inOrder.verify(ackHandler).onAckFrame(af, packet, ctx);
+    inOrder.verify(streamHandler).onMaxDataFrame(mdf, packet, ctx);
+    inOrder.verify(streamHandler).afterFrames(packet, ctx);
+    inOrder.verify(ackHandler).afterFrames(packet, ctx);
+
+    // only subscribed types are dispatched
+    verify(streamHandler, never()).onAckFrame(any(), any(), any());
+    verify(ackHandler, never()).onMaxDataFrame(any(), any(), any());
+  }
+
+  @Test
+  public void stopOnClose() {
+    when(ctx.getState()).thenReturn(State.Ready, State.Closed);
+    final AckFrame af = new AckFrame(123, new AckBlock(1, 2));
+
+    dispatcher.dispatch(p(new StreamFrame(0, 0, false, new byte[1]), af), ctx);
+
+    verify(ackHandler, never()).onAckFrame(any(), any(), any());
+    verify(ackHandler, never()).afterFrames(any(), any());
+  }
+
+  private FullPacket p(final Frame... frames) {
+    return new ShortPacket(false, of(ConnectionId.random()), PacketNumber.MIN, new Payload(frames));
+  }
+}
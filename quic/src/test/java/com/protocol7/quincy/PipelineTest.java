@@ -1,16 +1,36 @@
 package com.protocol7.quincy;
 
+import static java.util.Optional.of;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 
 import com.protocol7.quincy.connection.Connection;
+import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.PacketNumber;
+import com.protocol7.quincy.protocol.Payload;
+import com.protocol7.quincy.protocol.frames.FrameType;
+import com.protocol7.quincy.protocol.frames.PingFrame;
+import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.protocol.packets.Packet;
+import com.protocol7.quincy.protocol.packets.ShortPacket;
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
@@ -74,6 +94,24 @@ public class PipelineTest {
     verifyZeroInteractions(handler3);
   }
 
+  @Test
+  public void dispatchFramesAfterInbound() {
+    final InboundHandler handler = spy(new PropagatingInboundHandler());
+    final FrameHandler frameHandler = mock(FrameHandler.class);
+    when(frameHandler.getFrameTypes()).thenReturn(EnumSet.of(FrameType.PING));
+
+    final Pipeline pipeline = new Pipeline(List.of(handler), List.of(frameHandler), List.of());
+    final FullPacket fullPacket =
+        new ShortPacket(
+            false, of(ConnectionId.random()), PacketNumber.MIN, new Payload(PingFrame.INSTANCE));
+
+    pipeline.onPacket(connection, fullPacket);
+
+    final InOrder inOrder = inOrder(handler, frameHandler);
+    inOrder.verify(handler).onReceivePacket(eq(fullPacket), any(PipelineContext.class));
+    inOrder.verify(frameHandler).afterFrames(eq(fullPacket), any(PipelineContext.class));
+  }
+
   @Test
   public void outboundPropagation() {
     final OutboundHandler handler1 = spy(new PropagatingOutboundHandler());
@@ -103,4 +141,53 @@ public class PipelineTest {
     verify(handler2).beforeSendPacket(eq(packet), any(PipelineContext.class));
     verifyZeroInteractions(handler3);
   }
+
+  @Test
+  public void outboundReentrantSend() {
+    final Packet nested = mock(Packet.class);
+    final List<Packet> sent = new ArrayList<>();
+    final Pipeline[] pipeline = new Pipeline[1];
+    final OutboundHandler handler =
+        (p, ctx) -> {
+          if (p == packet) {
+            sent.add(pipeline[0].send(connection, nested));
+          }
+          ctx.next(p);
+        };
+
+    pipeline[0] = new Pipeline(List.of(), List.of(handler, new PropagatingOutboundHandler()));
+
+    assertSame(packet, pipeline[0].send(connection, packet));
+    assertEquals(List.of(nested), sent);
+  }
+
+  @Test
+  public void dispatchDoesNotAllocatePerPacket() {
+    final ThreadMXBean threads = ManagementFactory.getPlatformMXBean(ThreadMXBean.class);
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    assumeTrue(threads.isThreadAllocatedMemoryEnabled());
+
+    final Pipeline pipeline =
+        new Pipeline(
+            List.of(new PropagatingInboundHandler(), new PropagatingInboundHandler()),
+            List.of(new PropagatingOutboundHandler(), new PropagatingOutboundHandler()));
+    final long threadId = Thread.currentThread().getId();
+    final int packets = 10_000;
+
+    for (int i = 0; i < packets; i++) {
+      pipeline.onPacket(connection, packet);
+      pipeline.send(connection, packet);
+    }
+
+    final long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < packets; i++) {
+      pipeline.onPacket(connection, packet);
+      pipeline.send(connection, packet);
+    }
+    final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+    // only the dispatch through the handlers is measured, the handlers here allocate nothing. Allow
+    // for the bookkeeping of the measurement itself, far below one object per packet
+    assertTrue("Allocated " + allocated + " bytes", allocated < packets);
+  }
 }
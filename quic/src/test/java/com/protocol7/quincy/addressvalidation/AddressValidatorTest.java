@@ -0,0 +1,141 @@
+package com.protocol7.quincy.addressvalidation;
+
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.protocol7.quincy.TestUtil;
+import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.PacketNumber;
+import com.protocol7.quincy.protocol.Payload;
+import com.protocol7.quincy.protocol.Version;
+import com.protocol7.quincy.protocol.frames.PaddingFrame;
+import com.protocol7.quincy.protocol.packets.HalfParsedPacket;
+import com.protocol7.quincy.protocol.packets.InitialPacket;
+import com.protocol7.quincy.protocol.packets.Packet;
+import com.protocol7.quincy.protocol.packets.RetryPacket;
+import com.protocol7.quincy.protocol.packets.ShortPacket;
+import com.protocol7.quincy.tls.KeyUtil;
+import com.protocol7.quincy.tls.aead.AEAD;
+import com.protocol7.quincy.tls.aead.TestAEAD;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.net.InetSocketAddress;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AddressValidatorTest {
+
+  private final AEAD aead = TestAEAD.create();
+  private final RetryToken retryToken =
+      new RetryToken(KeyUtil.getPrivateKey("src/test/resources/server.der"));
+  private final ConnectionId newConnectionId = ConnectionId.random();
+  private final RetryToken newToken =
+      new RetryToken(
+          KeyUtil.getPrivateKey("src/test/resources/server.der"),
+          "new token",
+          1,
+          24,
+          TimeUnit.HOURS,
+          Clock.systemUTC());
+  private final AddressValidator validator =
+      new AddressValidator(
+          retryToken, 10000, newToken, 60000, TimeUnit.MILLISECONDS, () -> newConnectionId);
+  private final InetSocketAddress peerAddress = TestUtil.getTestAddress();
+
+  private final ConnectionId destConnId = ConnectionId.random();
+  private final ConnectionId srcConnId = ConnectionId.random();
+
+  @Test
+  public void retry() {
+    final HalfParsedPacket<?> halfParsed = initial(empty());
+
+    assertFalse(validator.isValid(halfParsed, peerAddress));
+
+    final RetryPacket retry = validator.retry(halfParsed, peerAddress).get();
+
+    assertEquals(of(srcConnId), retry.getDestinationConnectionId());
+    assertEquals(of(newConnectionId), retry.getSourceConnectionId());
+    assertEquals(destConnId, retry.getOriginalConnectionId());
+    assertTrue(
+        retryToken.validate(retry.getRetryToken(), peerAddress.getAddress(), 10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void withToken() {
+    final byte[] token = retryToken.create(peerAddress.getAddress());
+
+    assertTrue(validator.isValid(initial(of(token)), peerAddress));
+  }
+
+  @Test
+  public void withExpiredToken() {
+    final RetryToken earlier =
+        new RetryToken(
+            KeyUtil.getPrivateKey("src/test/resources/server.der"),
+            "retry",
+            1,
+            1,
+            TimeUnit.HOURS,
+            Clock.offset(Clock.systemUTC(), Duration.ofSeconds(-20)));
+    final byte[] token = earlier.create(peerAddress.getAddress());
+
+    assertFalse(validator.isValid(initial(of(token)), peerAddress));
+  }
+
+  @Test
+  public void withNewToken() {
+    final byte[] token = validator.newToken(peerAddress).getToken();
+
+    assertTrue(validator.isValid(initial(of(token)), peerAddress));
+    assertFalse(retryToken.validate(token, peerAddress.getAddress(), 10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void withNewTokenForOtherAddress() {
+    final byte[] token = validator.newToken(peerAddress).getToken();
+
+    assertFalse(validator.isValid(initial(of(token)), new InetSocketAddress("127.0.0.2", 4444)));
+  }
+
+  @Test
+  public void withInvalidToken() {
+    final HalfParsedPacket<?> halfParsed = initial(of("this is not a token".getBytes()));
+
+    assertFalse(validator.isValid(halfParsed, peerAddress));
+    assertTrue(validator.retry(halfParsed, peerAddress).isPresent());
+  }
+
+  @Test
+  public void notInitial() {
+    final ShortPacket packet =
+        new ShortPacket(false, of(destConnId), PacketNumber.MIN, new Payload(new PaddingFrame(1)));
+
+    final HalfParsedPacket<?> halfParsed = parse(packet);
+
+    assertFalse(validator.isValid(halfParsed, peerAddress));
+    assertFalse(validator.retry(halfParsed, peerAddress).isPresent());
+  }
+
+  private HalfParsedPacket<?> initial(final Optional<byte[]> token) {
+    return parse(
+        InitialPacket.create(
+            of(destConnId),
+            of(srcConnId),
+            PacketNumber.MIN,
+            Version.DRAFT_18,
+            token,
+            new PaddingFrame(1)));
+  }
+
+  private HalfParsedPacket<?> parse(final Packet packet) {
+    final ByteBuf bb = Unpooled.buffer();
+    packet.write(bb, aead);
+    return Packet.parse(bb, ConnectionId.LENGTH);
+  }
+}
@@ -0,0 +1,74 @@
+package com.protocol7.quincy.addressvalidation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.protocol7.quincy.utils.Ticker;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdmissionPolicyTest {
+
+  private long now = 0;
+  private final Ticker ticker = () -> now;
+  private final AdmissionPolicy policy = new AdmissionPolicy(2, 10, 3000, ticker);
+
+  @Test
+  public void noPressure() {
+    assertFalse(policy.requireRetry());
+  }
+
+  @Test
+  public void alwaysRetry() {
+    assertTrue(new AdmissionPolicy(0, 0, 0, ticker).requireRetry());
+  }
+
+  @Test
+  public void inFlightHandshakes() {
+    final Promise<Void> handshake1 = ImmediateEventExecutor.INSTANCE.newPromise();
+    final Promise<Void> handshake2 = ImmediateEventExecutor.INSTANCE.newPromise();
+
+    policy.onHandshake(handshake1);
+    assertFalse(policy.requireRetry());
+
+    policy.onHandshake(handshake2);
+    assertTrue(policy.requireRetry());
+    assertEquals(2, policy.getHandshakes());
+
+    handshake1.setSuccess(null);
+    assertFalse(policy.requireRetry());
+
+    handshake2.setFailure(new IllegalStateException());
+    assertEquals(0, policy.getHandshakes());
+  }
+
+  @Test
+  public void handshakeCpu() {
+    policy.measureHandshake(() -> now += TimeUnit.MILLISECONDS.toNanos(5));
+    assertFalse(policy.requireRetry());
+
+    policy.measureHandshake(() -> now += TimeUnit.MILLISECONDS.toNanos(5));
+    assertTrue(policy.requireRetry());
+
+    // next window
+    now += TimeUnit.SECONDS.toNanos(1);
+    assertFalse(policy.requireRetry());
+  }
+
+  @Test
+  public void unvalidatedBytes() {
+    policy.onUnvalidatedBytes(1200);
+    policy.onUnvalidatedBytes(1200);
+    assertFalse(policy.requireRetry());
+
+    policy.onUnvalidatedBytes(1200);
+    assertTrue(policy.requireRetry());
+
+    // next window
+    now += TimeUnit.SECONDS.toNanos(1);
+    assertFalse(policy.requireRetry());
+  }
+}
@@ -0,0 +1,112 @@
+package com.protocol7.quincy.addressvalidation;
+
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.Version;
+import com.protocol7.quincy.protocol.frames.PaddingFrame;
+import com.protocol7.quincy.protocol.packets.InitialPacket;
+import com.protocol7.quincy.protocol.packets.Packet;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class AmplificationLimitTest {
+
+  private final AmplificationLimit limit = new AmplificationLimit();
+  private final List<Packet> sent = new ArrayList<>();
+
+  private final Packet packet1 = packet(1, 1000);
+  private final Packet packet2 = packet(2, 1000);
+  private final Packet packet3 = packet(3, 10);
+  private final int length = AmplificationLimit.maxLength(packet1);
+
+  @Test
+  public void withinLimit() {
+    limit.onReceived(length, sent::add);
+
+    limit.send(packet1, sent::add);
+    limit.send(packet2, sent::add);
+
+    assertEquals(List.of(packet1, packet2), sent);
+    assertEquals(2 * length, limit.getSent());
+  }
+
+  @Test
+  public void blocked() {
+    limit.onReceived(length / 2, sent::add);
+
+    limit.send(packet1, sent::add);
+    limit.send(packet2, sent::add);
+
+    assertEquals(List.of(packet1), sent);
+    assertEquals(1, limit.getBlocked());
+  }
+
+  @Test
+  public void releasedOnReceived() {
+    limit.send(packet1, sent::add);
+    limit.send(packet2, sent::add);
+    assertTrue(sent.isEmpty());
+
+    limit.onReceived(length / 2, sent::add);
+    assertEquals(List.of(packet1), sent);
+
+    limit.onReceived(length, sent::add);
+    assertEquals(List.of(packet1, packet2), sent);
+    assertEquals(0, limit.getBlocked());
+  }
+
+  @Test
+  public void keepOrder() {
+    limit.onReceived(length / 3, sent::add);
+
+    limit.send(packet1, sent::add);
+    // small enough to fit, but must not overtake the blocked packet
+    limit.send(packet3, sent::add);
+
+    assertTrue(sent.isEmpty());
+
+    limit.onReceived(length, sent::add);
+    assertEquals(List.of(packet1, packet3), sent);
+  }
+
+  @Test
+  public void releasedOnValidate() {
+    limit.send(packet1, sent::add);
+    limit.send(packet2, sent::add);
+    assertFalse(limit.isValidated());
+
+    limit.validate(sent::add);
+
+    assertTrue(limit.isValidated());
+    assertEquals(List.of(packet1, packet2), sent);
+
+    limit.send(packet3, sent::add);
+    assertEquals(List.of(packet1, packet2, packet3), sent);
+  }
+
+  @Test
+  public void clear() {
+    limit.send(packet1, sent::add);
+
+    limit.clear();
+    limit.validate(sent::add);
+
+    assertTrue(sent.isEmpty());
+  }
+
+  private Packet packet(final long packetNumber, final int padding) {
+    return InitialPacket.create(
+        of(ConnectionId.random()),
+        of(ConnectionId.random()),
+        packetNumber,
+        Version.DRAFT_18,
+        empty(),
+        new PaddingFrame(padding));
+  }
+}
@@ -2,49 +2,106 @@ package com.protocol7.quincy.addressvalidation;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import com.protocol7.quincy.tls.KeyUtil;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.PrivateKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 
 public class RetryTokenTest {
 
+  private final PrivateKey key = KeyUtil.getPrivateKey("src/test/resources/server.der");
+  private final Instant now = Instant.ofEpochMilli(1_000_000_000_000L);
   private RetryToken rt;
   private InetAddress address;
-  private long ttl = System.currentTimeMillis();
 
   @Before
   public void setUp() throws UnknownHostException {
-    final PrivateKey key = KeyUtil.getPrivateKey("src/test/resources/server.der");
-    rt = new RetryToken(key);
+    rt = token(now);
     address = InetAddress.getByName("127.0.0.1");
   }
 
   @Test
   public void roundtrip() {
-    final byte[] token = rt.create(address, ttl + 100);
-    assertTrue(rt.validate(token, address, ttl));
+    final byte[] token = rt.create(address);
+    assertTrue(rt.validate(token, address, 100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void compact() {
+    assertTrue(rt.create(address).length <= 40);
   }
 
   @Test
   public void roundtripFailTtl() {
-    final byte[] token = rt.create(address, ttl - 100);
-    assertFalse(rt.validate(token, address, ttl));
+    final byte[] token = token(now.minusMillis(200)).create(address);
+    assertFalse(rt.validate(token, address, 100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void roundtripFailIssuedInFuture() {
+    final byte[] token = token(now.plusMillis(200)).create(address);
+    assertFalse(rt.validate(token, address, 100, TimeUnit.MILLISECONDS));
   }
 
   @Test
   public void roundtripFailAddress() throws UnknownHostException {
-    final byte[] token = rt.create(address, ttl + 100);
-    assertFalse(rt.validate(token, InetAddress.getByName("127.0.0.2"), ttl));
+    final byte[] token = rt.create(address);
+    assertFalse(rt.validate(token, InetAddress.getByName("127.0.0.2"), 100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void roundtripFailTag() {
+    final byte[] token = rt.create(address);
+    token[token.length - 1]++; // invalidate tag
+    assertFalse(rt.validate(token, address, 100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void invalidToken() {
+    assertFalse(rt.validate("this is not a token".getBytes(), address, 1, TimeUnit.HOURS));
+    assertFalse(rt.validate(new byte[0], address, 1, TimeUnit.HOURS));
   }
 
   @Test
-  public void roundtripFailHmac() {
-    final byte[] token = rt.create(address, ttl + 100);
-    token[token.length - 1]++; // invalidate HMAC
-    assertFalse(rt.validate(token, address, ttl));
+  public void rotationWithinGrace() {
+    final byte[] token = rt.create(address);
+
+    // next rotation period, sealed with the previous key
+    final RetryToken rotated = token(now.plus(Duration.ofMinutes(61)));
+    assertTrue(rotated.validate(token, address, 2, TimeUnit.HOURS));
+  }
+
+  @Test
+  public void rotationBeyondGrace() {
+    final byte[] token = rt.create(address);
+
+    final RetryToken rotated = token(now.plus(Duration.ofHours(3)));
+    assertFalse(rotated.validate(token, address, 4, TimeUnit.HOURS));
+  }
+
+  @Test
+  public void differentKey() {
+    final byte[] token = rt.create(address);
+
+    final PrivateKey otherKey = mock(PrivateKey.class);
+    when(otherKey.getEncoded()).thenReturn("other key".getBytes());
+
+    final RetryToken other =
+        new RetryToken(otherKey, "retry", 1, 1, TimeUnit.HOURS, Clock.fixed(now, ZoneOffset.UTC));
+    assertFalse(other.validate(token, address, 100, TimeUnit.MILLISECONDS));
+  }
+
+  private RetryToken token(final Instant instant) {
+    return new RetryToken(key, "retry", 1, 1, TimeUnit.HOURS, Clock.fixed(instant, ZoneOffset.UTC));
   }
 }
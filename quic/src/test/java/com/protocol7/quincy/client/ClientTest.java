@@ -13,6 +13,7 @@ import com.protocol7.quincy.netty.QuicBuilder;
 import com.protocol7.quincy.protocol.*;
 import com.protocol7.quincy.protocol.frames.*;
 import com.protocol7.quincy.protocol.packets.*;
+import com.protocol7.quincy.reliability.RttEstimator;
 import com.protocol7.quincy.streams.StreamListener;
 import com.protocol7.quincy.tls.KeyUtil;
 import com.protocol7.quincy.tls.NoopCertificateValidator;
@@ -20,6 +21,7 @@ import com.protocol7.quincy.tls.ServerTlsSession;
 import com.protocol7.quincy.tls.ServerTlsSession.ServerHelloAndHandshake;
 import com.protocol7.quincy.tls.aead.InitialAEAD;
 import com.protocol7.quincy.utils.Rnd;
+import io.netty.buffer.Unpooled;
 import io.netty.util.Timer;
 import io.netty.util.concurrent.*;
 import java.security.PrivateKey;
@@ -44,9 +46,10 @@ public class ClientTest {
   private final ConnectionId destConnectionId = ConnectionId.random();
   private final ConnectionId srcConnectionId = ConnectionId.random();
   private long packetNumber = 0;
-  private final long streamId = StreamId.random(true, true);
+  private final long streamId = StreamId.random(false, true);
 
   private final FlowControlHandler flowControlHandler = new MockFlowControlHandler();
+  private final TokenCache tokenCache = new TokenCache();
 
   @Mock private PacketSender packetSender;
   @Mock private StreamListener streamListener;
@@ -66,9 +69,12 @@ public class ClientTest {
             streamListener,
             packetSender,
             flowControlHandler,
+            new RttEstimator(),
             TestUtil.getTestAddress(),
             new NoopCertificateValidator(),
-            scheduler);
+            scheduler,
+            ImmediateEventExecutor.INSTANCE,
+            tokenCache);
 
     final PrivateKey privateKey = KeyUtil.getPrivateKey("src/test/resources/server.der");
     final List<byte[]> serverCert = KeyUtil.getCertsFromCrt("src/test/resources/server.crt");
@@ -181,10 +187,7 @@ public class ClientTest {
 
     connection.onPacket(packet(new StreamFrame(streamId, 0, true, DATA)));
 
-    final ArgumentCaptor<byte[]> dataCaptor = ArgumentCaptor.forClass(byte[].class);
-    verify(streamListener).onData(any(), dataCaptor.capture(), eq(true));
-
-    assertArrayEquals(DATA, dataCaptor.getValue());
+    verify(streamListener).onData(any(), eq(Unpooled.wrappedBuffer(DATA)), eq(true));
 
     // verify ack
     assertAck(4, 3, 3, 3);
@@ -197,8 +200,8 @@ public class ClientTest {
     connection.onPacket(packet(new StreamFrame(streamId, 0, false, DATA)));
     connection.onPacket(packet(new StreamFrame(streamId, DATA.length, true, DATA2)));
 
-    verify(streamListener).onData(any(), eq(DATA), eq(false));
-    verify(streamListener).onData(any(), eq(DATA2), eq(true));
+    verify(streamListener).onData(any(), eq(Unpooled.wrappedBuffer(DATA)), eq(false));
+    verify(streamListener).onData(any(), eq(Unpooled.wrappedBuffer(DATA2)), eq(true));
 
     // verify ack
     assertAck(4, 3, 3, 3);
@@ -213,8 +216,7 @@ public class ClientTest {
     connection.onPacket(packet(new StreamFrame(streamId, DATA.length, true, DATA2)));
     connection.onPacket(packet(new StreamFrame(streamId, 0, false, DATA)));
 
-    verify(streamListener).onData(any(), eq(DATA), eq(false));
-    verify(streamListener).onData(any(), eq(DATA2), eq(true));
+    verify(streamListener).onData(any(), eq(Unpooled.wrappedBuffer(DATA, DATA2)), eq(true));
 
     // verify acks
     assertAck(4, 3, 3, 3);
@@ -241,6 +243,16 @@ public class ClientTest {
     assertAck(4, 3, 3, 3);
   }
 
+  @Test
+  public void newToken() {
+    handshake();
+
+    final byte[] token = Rnd.rndBytes(20);
+    connection.onPacket(packet(new NewToken(token)));
+
+    assertArrayEquals(token, tokenCache.take(TestUtil.getTestAddress()).get());
+  }
+
   @Test
   public void peerCloseConnection() {
     handshake();
@@ -0,0 +1,47 @@
+package com.protocol7.quincy.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import org.junit.Test;
+
+public class TokenCacheTest {
+
+  private final InetSocketAddress server1 = new InetSocketAddress("127.0.0.1", 4444);
+  private final InetSocketAddress server2 = new InetSocketAddress("127.0.0.2", 4444);
+  private final InetSocketAddress server3 = new InetSocketAddress("127.0.0.3", 4444);
+  private final byte[] token = "token".getBytes();
+
+  @Test
+  public void singleUse() {
+    final TokenCache cache = new TokenCache();
+    cache.put(server1, token);
+
+    assertArrayEquals(token, cache.take(server1).get());
+    assertFalse(cache.take(server1).isPresent());
+  }
+
+  @Test
+  public void perServer() {
+    final TokenCache cache = new TokenCache();
+    cache.put(server1, token);
+
+    assertFalse(cache.take(server2).isPresent());
+  }
+
+  @Test
+  public void evictLeastRecentlyUsed() {
+    final TokenCache cache = new TokenCache(2);
+    cache.put(server1, token);
+    cache.put(server2, token);
+    cache.put(server3, token);
+
+    assertEquals(2, cache.size());
+    assertFalse(cache.take(server1).isPresent());
+    assertTrue(cache.take(server2).isPresent());
+    assertTrue(cache.take(server3).isPresent());
+  }
+}
@@ -0,0 +1,68 @@
+package com.protocol7.quincy.connection;
+
+import static java.util.Optional.of;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.protocol7.quincy.TestUtil;
+import com.protocol7.quincy.connection.NettyPacketSenderTest.FailingHandler;
+import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.Payload;
+import com.protocol7.quincy.protocol.frames.PingFrame;
+import com.protocol7.quincy.protocol.packets.ShortPacket;
+import com.protocol7.quincy.tls.aead.AEAD;
+import com.protocol7.quincy.tls.aead.TestAEAD;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.Future;
+import java.io.IOException;
+import org.junit.Test;
+
+public class GsoPacketSenderTest {
+
+  private final AEAD aead = TestAEAD.create();
+
+  @Test
+  public void completeOnceBatchWritten() {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    final GsoPacketSender sender = new GsoPacketSender(channel, TestUtil.getTestAddress());
+
+    final Future<Void> future = sender.send(packet(1), aead);
+    assertFalse(future.isDone());
+
+    channel.runPendingTasks();
+
+    assertTrue(future.isSuccess());
+    final DatagramPacket datagram = channel.readOutbound();
+    assertNotNull(datagram);
+    datagram.release();
+  }
+
+  @Test
+  public void failBatchedWrites() {
+    final IOException failure = new IOException("Socket buffer full");
+    final EmbeddedChannel channel = new EmbeddedChannel(new FailingHandler(failure));
+    final GsoPacketSender sender = new GsoPacketSender(channel, TestUtil.getTestAddress());
+
+    final Future<Void> future1 = sender.send(packet(1), aead);
+    final Future<Void> future2 = sender.send(packet(2), aead);
+    channel.runPendingTasks();
+
+    assertSame(failure, future1.cause());
+    assertSame(failure, future2.cause());
+    try {
+      channel.checkException();
+      fail();
+    } catch (final Exception e) {
+      assertSame(failure, e);
+    }
+  }
+
+  private ShortPacket packet(final long packetNumber) {
+    return new ShortPacket(
+        false, of(ConnectionId.random()), packetNumber, new Payload(PingFrame.INSTANCE));
+  }
+}
@@ -0,0 +1,85 @@
+package com.protocol7.quincy.connection;
+
+import static java.util.Optional.of;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.protocol7.quincy.TestUtil;
+import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.PacketNumber;
+import com.protocol7.quincy.protocol.Payload;
+import com.protocol7.quincy.protocol.frames.PingFrame;
+import com.protocol7.quincy.protocol.packets.ShortPacket;
+import com.protocol7.quincy.tls.aead.AEAD;
+import com.protocol7.quincy.tls.aead.TestAEAD;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import java.io.IOException;
+import org.junit.Test;
+
+public class NettyPacketSenderTest {
+
+  private final AEAD aead = TestAEAD.create();
+  private final ShortPacket packet =
+      new ShortPacket(
+          false, of(ConnectionId.random()), PacketNumber.MIN, new Payload(PingFrame.INSTANCE));
+
+  @Test
+  public void batchedWrite() {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    final NettyPacketSender sender = new NettyPacketSender(channel, TestUtil.getTestAddress());
+
+    final Future<Void> future = sender.send(packet, aead);
+    assertFalse(future.isDone());
+
+    // flushed once the batch is done
+    channel.runPendingTasks();
+
+    assertTrue(future.isSuccess());
+    final DatagramPacket datagram = channel.readOutbound();
+    assertNotNull(datagram);
+    datagram.release();
+  }
+
+  @Test
+  public void batchedWriteFailure() {
+    final IOException failure = new IOException("Unresolved address");
+    final EmbeddedChannel channel = new EmbeddedChannel(new FailingHandler(failure));
+    final NettyPacketSender sender = new NettyPacketSender(channel, TestUtil.getTestAddress());
+
+    final Future<Void> future = sender.send(packet, aead);
+    channel.runPendingTasks();
+
+    assertSame(failure, future.cause());
+    // also fired to the pipeline
+    try {
+      channel.checkException();
+      fail();
+    } catch (final Exception e) {
+      assertSame(failure, e);
+    }
+  }
+
+  static class FailingHandler extends ChannelOutboundHandlerAdapter {
+    private final Exception failure;
+
+    FailingHandler(final Exception failure) {
+      this.failure = failure;
+    }
+
+    @Override
+    public void write(
+        final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
+      ReferenceCountUtil.release(msg);
+      promise.setFailure(failure);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.protocol7.quincy.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.Test;
+
+public class SegmentBufferTest {
+
+  private final SegmentBuffer buffer = new SegmentBuffer(UnpooledByteBufAllocator.DEFAULT);
+
+  @Test
+  public void equalSizedSegments() {
+    assertTrue(buffer.isEmpty());
+
+    assertTrue(buffer.add(packet(100, 1)));
+    assertTrue(buffer.add(packet(100, 2)));
+    assertTrue(buffer.add(packet(100, 3)));
+
+    assertFalse(buffer.isEmpty());
+    assertEquals(100, buffer.getSegmentSize());
+    assertEquals(3, buffer.getSegments());
+
+    final ByteBuf bb = buffer.drain();
+    assertEquals(300, bb.readableBytes());
+    assertEquals(1, bb.getByte(0));
+    assertEquals(2, bb.getByte(100));
+    assertEquals(3, bb.getByte(200));
+
+    assertTrue(buffer.isEmpty());
+    assertEquals(0, buffer.getSegments());
+  }
+
+  @Test
+  public void shorterSegmentEndsBuffer() {
+    assertTrue(buffer.add(packet(100, 1)));
+    assertTrue(buffer.add(packet(50, 2)));
+
+    final ByteBuf rejected = packet(50, 3);
+    assertFalse(buffer.add(rejected));
+    assertEquals(50, rejected.readableBytes());
+
+    assertEquals(150, buffer.drain().readableBytes());
+    assertTrue(buffer.add(rejected));
+  }
+
+  @Test
+  public void longerSegmentRejected() {
+    assertTrue(buffer.add(packet(100, 1)));
+    assertFalse(buffer.add(packet(101, 2)));
+    assertEquals(1, buffer.getSegments());
+  }
+
+  @Test
+  public void maxSegments() {
+    for (int i = 0; i < SegmentBuffer.MAX_SEGMENTS; i++) {
+      assertTrue(buffer.add(packet(10, i)));
+    }
+    assertFalse(buffer.add(packet(10, 0)));
+  }
+
+  @Test
+  public void maxSize() {
+    final int size = 1400;
+    final int fits = SegmentBuffer.MAX_SIZE / size;
+    for (int i = 0; i < fits; i++) {
+      assertTrue(buffer.add(packet(size, i)));
+    }
+    assertFalse(buffer.add(packet(size, 0)));
+    assertEquals(fits * size, buffer.drain().readableBytes());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void emptyPacket() {
+    buffer.add(Unpooled.EMPTY_BUFFER);
+  }
+
+  private ByteBuf packet(final int length, final int marker) {
+    final ByteBuf bb = Unpooled.buffer(length);
+    bb.writeByte(marker);
+    bb.writeZero(length - 1);
+    return bb;
+  }
+}
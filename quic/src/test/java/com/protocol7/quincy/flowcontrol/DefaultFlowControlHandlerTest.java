@@ -1,14 +1,19 @@
 package com.protocol7.quincy.flowcontrol;
 
 import static java.util.Optional.of;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
+import com.protocol7.quincy.FrameDispatcher;
 import com.protocol7.quincy.PipelineContext;
 import com.protocol7.quincy.protocol.ConnectionId;
 import com.protocol7.quincy.protocol.PacketNumber;
@@ -20,12 +25,13 @@ import com.protocol7.quincy.protocol.frames.FrameType;
 import com.protocol7.quincy.protocol.frames.MaxDataFrame;
 import com.protocol7.quincy.protocol.frames.MaxStreamDataFrame;
 import com.protocol7.quincy.protocol.frames.MaxStreamsFrame;
+import com.protocol7.quincy.protocol.frames.ResetStreamFrame;
 import com.protocol7.quincy.protocol.frames.StreamDataBlockedFrame;
 import com.protocol7.quincy.protocol.frames.StreamFrame;
 import com.protocol7.quincy.protocol.frames.StreamsBlockedFrame;
 import com.protocol7.quincy.protocol.packets.FullPacket;
-import com.protocol7.quincy.protocol.packets.Packet;
 import com.protocol7.quincy.protocol.packets.ShortPacket;
+import java.util.List;
 import org.junit.Test;
 
 public class DefaultFlowControlHandlerTest {
@@ -53,6 +59,18 @@ public class DefaultFlowControlHandlerTest {
     verify(ctx).send(new StreamDataBlockedFrame(sid, 10));
   }
 
+  @Test
+  public void sendCredit() {
+    assertEquals(10, handler.sendCredit(sid, 0, ctx));
+    verifyZeroInteractions(ctx);
+
+    assertTrue(handler.tryConsume(sid, 10, ctx));
+
+    // out of credit, peer is informed
+    assertEquals(0, handler.sendCredit(sid, 10, ctx));
+    verify(ctx).send(new StreamDataBlockedFrame(sid, 10));
+  }
+
   @Test
   public void tryConsumeRefillStreamData() {
     assertTrue(handler.tryConsume(sid, 10, ctx));
@@ -63,9 +81,8 @@ public class DefaultFlowControlHandlerTest {
     verify(ctx).send(new StreamDataBlockedFrame(sid, 10));
 
     // increase stream tokens
-    Packet packet = p(new MaxStreamDataFrame(sid, 12));
-    handler.onReceivePacket(packet, ctx);
-    verify(ctx).next(packet);
+    FullPacket packet = p(new MaxStreamDataFrame(sid, 12));
+    receive(handler, packet);
 
     // we can now consumer stream tokens
     assertTrue(handler.tryConsume(sid, 12, ctx));
@@ -81,8 +98,7 @@ public class DefaultFlowControlHandlerTest {
 
     // reset data blocked frames
     packet = p(new MaxStreamDataFrame(sid, 13));
-    handler.onReceivePacket(packet, ctx);
-    verify(ctx).next(packet);
+    receive(handler, packet);
 
     // we must now get a new data blocked frame
     assertFalse(handler.tryConsume(sid, 14, ctx));
@@ -108,9 +124,8 @@ public class DefaultFlowControlHandlerTest {
     verifyZeroInteractions(ctx);
 
     // increase number of uni streams
-    Packet packet = p(new MaxStreamsFrame(3, false));
-    handler.onReceivePacket(packet, ctx);
-    verify(ctx).next(packet);
+    FullPacket packet = p(new MaxStreamsFrame(3, false));
+    receive(handler, packet);
 
     // we can now create more streams
     assertTrue(handler.tryConsume(uniSid3, 2, ctx));
@@ -137,9 +152,8 @@ public class DefaultFlowControlHandlerTest {
     assertFalse(handler.tryConsume(sid2, 6, ctx));
     verify(ctx).send(new DataBlockedFrame(15));
 
-    Packet packet = p(new MaxDataFrame(16));
-    handler.onReceivePacket(packet, ctx);
-    verify(ctx).next(packet);
+    FullPacket packet = p(new MaxDataFrame(16));
+    receive(handler, packet);
 
     assertTrue(handler.tryConsume(sid2, 6, ctx));
     verifyZeroInteractions(ctx);
@@ -153,8 +167,7 @@ public class DefaultFlowControlHandlerTest {
 
     // reset data blocked frames
     packet = p(new MaxDataFrame(17));
-    handler.onReceivePacket(packet, ctx);
-    verify(ctx).next(packet);
+    receive(handler, packet);
 
     // we must now get a new data blocked frame
     assertFalse(handler.tryConsume(sid2, 8, ctx));
@@ -163,68 +176,147 @@ public class DefaultFlowControlHandlerTest {
 
   @Test
   public void streamFrames() {
-    Packet packet = p(new StreamFrame(sid, 0, false, new byte[3]));
-    handler.onReceivePacket(packet, ctx);
-    verify(ctx).next(packet);
+    FullPacket packet = p(new StreamFrame(sid, 0, false, new byte[3]));
+    receive(handler, packet);
 
-    // going over 50% of the max stream offset, send a new max stream offset
+    // credit is not issued on receiving, only as data is consumed
     packet = p(new StreamFrame(sid, 3, false, new byte[3]));
-    handler.onReceivePacket(packet, ctx);
-    verify(ctx).send(new MaxStreamDataFrame(sid, 20));
-    verify(ctx).next(packet);
+    receive(handler, packet);
+    verify(ctx, never()).send(any(Frame[].class));
+
+    // a quarter of the stream window consumed, send a new max stream offset
+    handler.onConsumed(sid, 3, ctx);
+    verify(ctx).send(new MaxStreamDataFrame(sid, 13));
 
-    // going over 50% of the max connection offset, send a new max connection offset
-    packet = p(new StreamFrame(sid, 6, false, new byte[3]));
-    handler.onReceivePacket(packet, ctx);
-    verify(ctx).send(new MaxDataFrame(30));
-    verify(ctx).next(packet);
+    // a quarter of the connection window consumed, send a new max connection offset
+    handler.onConsumed(sid, 3, ctx);
+    verify(ctx).send(new MaxStreamDataFrame(sid, 16), new MaxDataFrame(21));
 
     // user more than flow control allow, must close connection
-    packet = p(new StreamFrame(sid, 10, false, new byte[11]));
-    handler.onReceivePacket(packet, ctx);
+    packet = p(new StreamFrame(sid, 6, false, new byte[11]));
+    receive(handler, packet);
     verify(ctx)
         .closeConnection(eq(TransportError.FLOW_CONTROL_ERROR), eq(FrameType.STREAM), anyString());
-    verify(ctx).next(packet);
+  }
+
+  @Test
+  public void noStreamCreditAfterFinish() {
+    receive(handler, p(new StreamFrame(sid, 0, true, new byte[6])));
+
+    handler.onConsumed(sid, 6, ctx);
+
+    // only connection credit
+    verify(ctx).send(new MaxDataFrame(21));
+  }
+
+  @Test
+  public void resetStreamConsumesConnection() {
+    receive(handler, p(new StreamFrame(sid, 0, false, new byte[3])));
+
+    // data up to the final size is discarded
+    receive(handler, p(new ResetStreamFrame(sid, 123, 8)));
+    verify(ctx).send(new MaxDataFrame(23));
+  }
+
+  @Test
+  public void streamsBlockedSentOnce() {
+    assertTrue(handler.tryConsume(uniSid1, 1, ctx));
+    assertTrue(handler.tryConsume(uniSid2, 1, ctx));
+
+    assertEquals(0, handler.sendCredit(uniSid3, 0, ctx));
+    assertEquals(0, handler.sendCredit(uniSid3, 0, ctx));
+    verify(ctx).send(new StreamsBlockedFrame(2, false));
+  }
+
+  @Test
+  public void emptyFrameOpensStream() {
+    assertTrue(handler.tryConsume(uniSid1, 0, ctx));
+    assertTrue(handler.tryConsume(uniSid2, 0, ctx));
+
+    assertFalse(handler.tryConsume(uniSid3, 0, ctx));
+    verify(ctx).send(new StreamsBlockedFrame(2, false));
   }
 
   @Test
   public void maxStreamsFrames() {
     // first uni stream
-    Packet packet = p(new StreamFrame(uniSid1, 0, false, new byte[1]));
-    handler.onReceivePacket(packet, ctx);
-    verify(ctx).next(packet);
+    FullPacket packet = p(new StreamFrame(uniSid1, 0, false, new byte[1]));
+    receive(handler, packet);
 
-    // second uni stream with fin bit set. should send MAX_STREAMS frame
+    // finished, but stream limit credit is only released once the stream is reclaimed
     packet = p(new StreamFrame(uniSid1, 0, true, new byte[1]));
-    handler.onReceivePacket(packet, ctx);
+    receive(handler, packet);
+    verify(ctx, never()).send(any(Frame[].class));
+
+    handler.onStreamClosed(uniSid1, ctx);
     verify(ctx).send(new MaxStreamsFrame(3, false));
-    verify(ctx).next(packet);
 
     // first bidi stream
     packet = p(new StreamFrame(bidiSid1, 0, false, new byte[1]));
-    handler.onReceivePacket(packet, ctx);
-    verify(ctx).next(packet);
+    receive(handler, packet);
 
-    // second bidi stream with fin bit set. should send MAX_STREAMS frame
+    // second bidi stream with fin bit set
     packet = p(new StreamFrame(bidiSid2, 0, true, new byte[1]));
-    handler.onReceivePacket(packet, ctx);
+    receive(handler, packet);
+
+    handler.onStreamClosed(bidiSid2, ctx);
     verify(ctx).send(new MaxStreamsFrame(3, true));
-    verify(ctx).next(packet);
 
     // open more streams
     packet = p(new StreamFrame(bidiSid3, 0, false, new byte[1]));
-    handler.onReceivePacket(packet, ctx);
-    verify(ctx).next(packet);
+    receive(handler, packet);
 
     // not more than this. close connection
     packet = p(new StreamFrame(bidiSid4, 0, false, new byte[1]));
-    handler.onReceivePacket(packet, ctx);
+    receive(handler, packet);
     verify(ctx)
         .closeConnection(eq(TransportError.STREAM_LIMIT_ERROR), eq(FrameType.STREAM), anyString());
-    verify(ctx).next(packet);
+  }
+
+  @Test
+  public void maxStreamsBatched() {
+    final DefaultFlowControlHandler handler = new DefaultFlowControlHandler(100, 10, 8, 8);
+
+    for (long i = 0; i < 3; i++) {
+      final long sid = 3 + 4 * i;
+      receive(handler, p(new StreamFrame(sid, 0, true, new byte[1])));
+      handler.onStreamClosed(sid, ctx);
+    }
+    // below a quarter of the stream limit
+    verify(ctx, never()).send(any(Frame[].class));
+
+    receive(handler, p(new StreamFrame(15, 0, true, new byte[1])));
+    handler.onStreamClosed(15, ctx);
+    verify(ctx).send(new MaxStreamsFrame(12, false));
+  }
+
+  @Test
+  public void maxStreamsOnStreamsBlocked() {
+    final DefaultFlowControlHandler handler = new DefaultFlowControlHandler(100, 10, 8, 8);
+
+    receive(handler, p(new StreamFrame(3, 0, true, new byte[1])));
+    handler.onStreamClosed(3, ctx);
+    verify(ctx, never()).send(any(Frame[].class));
+
+    // the peer is blocked, released credit is sent right away
+    receive(handler, p(new StreamsBlockedFrame(8, false)));
+    verify(ctx).send(new MaxStreamsFrame(9, false));
+  }
+
+  @Test
+  public void noMaxStreamsForUnopenedStream() {
+    // locally opened stream the peer never sent on
+    handler.onStreamClosed(uniSid1, ctx);
+    verifyZeroInteractions(ctx);
   }
 
   private FullPacket p(final Frame frame) {
     return new ShortPacket(false, of(ConnectionId.random()), PacketNumber.MIN, new Payload(frame));
   }
+
+  private void receive(final FlowControlHandler handler, final FullPacket packet) {
+    new FrameDispatcher(List.of(handler)).dispatch(packet, ctx);
+    // the dispatcher checks the connection state before each frame
+    verify(ctx, atLeastOnce()).getState();
+  }
 }
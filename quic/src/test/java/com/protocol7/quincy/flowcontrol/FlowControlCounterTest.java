@@ -41,6 +41,20 @@ public class FlowControlCounterTest {
     assertConsume(fcm.tryConsume(sid, 11), true, 11, maxConn, 11, 20);
   }
 
+  @Test
+  public void credit() {
+    assertEquals(maxStream, fcm.credit(sid));
+
+    fcm.tryConsume(sid, 7);
+    assertEquals(3, fcm.credit(sid));
+    // limited by the connection
+    assertEquals(8, fcm.credit(sid2));
+
+    // limited by the number of streams
+    fcm.tryConsume(bidiSid1, 1);
+    assertEquals(0, fcm.credit(bidiSid2));
+  }
+
   @Test
   public void tryConsumeOutOfOrder() {
     assertConsume(fcm.tryConsume(sid, 8), true, 8, maxConn, 8, maxStream);
@@ -70,6 +84,42 @@ public class FlowControlCounterTest {
     fcm.tryConsume(sid, 6);
   }
 
+  @Test
+  public void closeStream() {
+    assertConsume(fcm.tryConsume(sid, 5), true, 5, maxConn, 5, maxStream);
+    assertTrue(fcm.closeStream(sid));
+    assertFalse(fcm.closeStream(sid));
+    assertFalse(fcm.isOpen(sid));
+    assertTrue(fcm.wasOpened(sid));
+    assertFalse(fcm.wasOpened(sid2));
+
+    // late retransmit, consumes nothing but keeps the bytes consumed by the closed stream
+    assertConsume(fcm.tryConsume(sid, 5), true, 5, maxConn, 0, maxStream);
+    assertConsume(fcm.tryConsume(sid2, 1), true, 6, maxConn, 1, maxStream);
+
+    // not reopened
+    fcm.setStreamMaxBytes(sid, 20);
+    assertFalse(fcm.closeStream(sid));
+  }
+
+  @Test
+  public void manyStreams() {
+    final int streams = 10_000;
+    final FlowControlCounter counter =
+        new FlowControlCounter(Long.MAX_VALUE / 2, 1000, streams, streams);
+
+    // each consume is constant time, this used to sum over all streams
+    long sid = 0;
+    for (int i = 0; i < streams; i++) {
+      assertTrue(counter.tryConsume(sid, 100).isSuccess());
+      assertTrue(counter.tryConsume(sid, 200).isSuccess());
+      sid += 4;
+    }
+
+    assertConsume(
+        counter.tryConsume(0, 300), true, streams * 200L + 100, Long.MAX_VALUE / 2, 300, 1000);
+  }
+
   @Test
   public void tryConsumeTooSmallConnectionSet() {
     assertConsume(fcm.tryConsume(sid, 8), true, 8, maxConn, 8, maxStream);
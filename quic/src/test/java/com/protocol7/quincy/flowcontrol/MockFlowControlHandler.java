@@ -1,14 +1,31 @@
 package com.protocol7.quincy.flowcontrol;
 
+import com.protocol7.quincy.FrameSender;
 import com.protocol7.quincy.PipelineContext;
+import com.protocol7.quincy.protocol.frames.FrameType;
 import com.protocol7.quincy.protocol.packets.Packet;
+import java.util.Set;
 
 public class MockFlowControlHandler implements FlowControlHandler {
   @Override
-  public void onReceivePacket(final Packet packet, final PipelineContext ctx) {
-    ctx.next(packet);
+  public Set<FrameType> getFrameTypes() {
+    return Set.of();
   }
 
+  @Override
+  public long sendCredit(final long streamId, final long offset, final FrameSender sender) {
+    return Long.MAX_VALUE;
+  }
+
+  @Override
+  public void onConsumed(final long streamId, final long bytes, final FrameSender sender) {}
+
+  @Override
+  public void onStreamClosed(final long streamId, final FrameSender sender) {}
+
+  @Override
+  public void release() {}
+
   @Override
   public void beforeSendPacket(final Packet packet, final PipelineContext ctx) {
     ctx.next(packet);
@@ -0,0 +1,115 @@
+package com.protocol7.quincy.flowcontrol;
+
+import static org.junit.Assert.assertEquals;
+
+import com.protocol7.quincy.memory.MemoryBudget;
+import com.protocol7.quincy.memory.MemoryBudget.Subsystem;
+import com.protocol7.quincy.reliability.RttEstimator;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ReceiveWindowTest {
+
+  private final RttEstimator rttEstimator = new RttEstimator();
+  private long now = 0;
+  private final ReceiveWindow window = new ReceiveWindow(100, 150, rttEstimator, () -> now);
+
+  @Test
+  public void updateOnConsumption() {
+    assertEquals(-1, window.onConsumed(24));
+    assertEquals(100, window.getMaxOffset());
+
+    // a quarter of the window consumed
+    assertEquals(125, window.onConsumed(1));
+    assertEquals(125, window.getMaxOffset());
+    assertEquals(25, window.getConsumed());
+  }
+
+  @Test
+  public void noAutoTuneWithoutRtt() {
+    assertEquals(160, window.onConsumed(60));
+    assertEquals(100, window.getSize());
+  }
+
+  @Test
+  public void autoTuneFastConsumer() {
+    rttEstimator.onSample(TimeUnit.MILLISECONDS.toNanos(10), 0);
+
+    now = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // doubled, up to the max size
+    assertEquals(210, window.onConsumed(60));
+    assertEquals(150, window.getSize());
+  }
+
+  @Test
+  public void autoTuneSlowConsumer() {
+    rttEstimator.onSample(TimeUnit.MILLISECONDS.toNanos(10), 0);
+
+    now = TimeUnit.SECONDS.toNanos(1);
+
+    assertEquals(160, window.onConsumed(60));
+    assertEquals(100, window.getSize());
+  }
+
+  @Test
+  public void autoTuneTooLittleConsumed() {
+    rttEstimator.onSample(TimeUnit.MILLISECONDS.toNanos(10), 0);
+
+    now = TimeUnit.MILLISECONDS.toNanos(1);
+
+    assertEquals(130, window.onConsumed(30));
+    assertEquals(100, window.getSize());
+  }
+
+  @Test
+  public void shrinkUnderPressure() {
+    final MemoryBudget budget = new MemoryBudget(100_000);
+    final ReceiveWindow window =
+        new ReceiveWindow(40_000, 100_000, rttEstimator, () -> now, budget);
+    budget.allocate(Subsystem.PendingWrites, 50_000);
+
+    // halved, the already advertised credit is sufficient
+    assertEquals(-1, window.onConsumed(10_000));
+    assertEquals(20_000, window.getSize());
+    assertEquals(20_000, budget.getReserved(Subsystem.ReceiveBuffers));
+  }
+
+  @Test
+  public void growWithinBudget() {
+    final MemoryBudget budget = new MemoryBudget(150);
+    final ReceiveWindow window = new ReceiveWindow(100, 400, rttEstimator, () -> now, budget);
+    rttEstimator.onSample(TimeUnit.MILLISECONDS.toNanos(10), 0);
+
+    now = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // doubling would exceed the budget
+    assertEquals(160, window.onConsumed(60));
+    assertEquals(100, window.getSize());
+  }
+
+  @Test
+  public void release() {
+    final MemoryBudget budget = new MemoryBudget(1000);
+    final ReceiveWindow window = new ReceiveWindow(100, 400, rttEstimator, () -> now, budget);
+    assertEquals(100, budget.getReserved(Subsystem.ReceiveBuffers));
+
+    window.release();
+    window.release();
+    assertEquals(0, budget.getReserved(Subsystem.ReceiveBuffers));
+  }
+
+  @Test
+  public void ensureSize() {
+    window.ensureSize(120);
+    assertEquals(120, window.getSize());
+
+    // smaller sizes are ignored
+    window.ensureSize(110);
+    assertEquals(120, window.getSize());
+
+    // never beyond the max size
+    window.ensureSize(1000);
+    assertEquals(150, window.getSize());
+  }
+}
@@ -0,0 +1,75 @@
+package com.protocol7.quincy.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.protocol7.quincy.memory.MemoryBudget.Subsystem;
+import org.junit.Test;
+
+public class MemoryBudgetTest {
+
+  private final MemoryBudget budget = new MemoryBudget(100);
+
+  @Test
+  public void reserve() {
+    assertTrue(budget.tryReserve(Subsystem.ReceiveBuffers, 60));
+    assertFalse(budget.tryReserve(Subsystem.ReceiveBuffers, 41));
+    assertTrue(budget.tryReserve(Subsystem.ReceiveBuffers, 40));
+    assertEquals(100, budget.getReserved(Subsystem.ReceiveBuffers));
+
+    budget.unreserve(Subsystem.ReceiveBuffers, 30);
+    assertEquals(70, budget.getReserved(Subsystem.ReceiveBuffers));
+  }
+
+  @Test
+  public void reserveBeyondLimit() {
+    budget.reserve(Subsystem.ReceiveBuffers, 150);
+
+    assertEquals(150, budget.getCommitted());
+    assertFalse(budget.tryReserve(Subsystem.ReceiveBuffers, 1));
+  }
+
+  @Test
+  public void usedWithinReservation() {
+    budget.reserve(Subsystem.ReceiveBuffers, 50);
+    budget.allocate(Subsystem.ReceiveBuffers, 30);
+
+    // used bytes within the reservation are not committed twice
+    assertEquals(50, budget.getCommitted());
+    assertEquals(30, budget.getUsed(Subsystem.ReceiveBuffers));
+
+    budget.allocate(Subsystem.ReceiveBuffers, 30);
+    assertEquals(60, budget.getCommitted());
+
+    budget.free(Subsystem.ReceiveBuffers, 60);
+    assertEquals(0, budget.getUsed(Subsystem.ReceiveBuffers));
+  }
+
+  @Test
+  public void usedAcrossSubsystems() {
+    budget.allocate(Subsystem.RetransmitBuffers, 30);
+    budget.allocate(Subsystem.PendingWrites, 20);
+
+    assertEquals(50, budget.getCommitted());
+    assertFalse(budget.tryReserve(Subsystem.ReceiveBuffers, 51));
+  }
+
+  @Test
+  public void pressure() {
+    budget.allocate(Subsystem.PendingWrites, 75);
+    assertFalse(budget.isUnderPressure());
+
+    budget.allocate(Subsystem.PendingWrites, 1);
+    assertTrue(budget.isUnderPressure());
+  }
+
+  @Test
+  public void unlimited() {
+    final MemoryBudget unlimited = MemoryBudget.unlimited();
+    unlimited.allocate(Subsystem.PendingWrites, Integer.MAX_VALUE);
+
+    assertTrue(unlimited.tryReserve(Subsystem.ReceiveBuffers, Integer.MAX_VALUE));
+    assertFalse(unlimited.isUnderPressure());
+  }
+}
@@ -0,0 +1,189 @@
+package com.protocol7.quincy.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.protocol7.quincy.streams.Stream;
+import com.protocol7.quincy.streams.StreamType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.ChannelInputShutdownEvent;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class QuicMultiplexCodecTest {
+
+  @Mock Stream stream;
+
+  private final EmbeddedChannel parent = new EmbeddedChannel();
+  private final RecordingHandler handler = new RecordingHandler();
+  private final QuicMultiplexCodec codec = new QuicMultiplexCodec(parent, handler);
+
+  @Before
+  public void setUp() {
+    when(stream.getStreamType()).thenReturn(StreamType.Bidirectional);
+  }
+
+  @Test
+  public void readInboundStream() {
+    final ByteBuf data = Unpooled.copiedBuffer("hello".getBytes());
+    codec.onData(stream, data, false);
+
+    assertEquals(1, codec.size());
+    assertTrue(handler.channel instanceof QuicStreamChannel);
+    assertSame(stream, ((QuicStreamChannel) handler.channel).stream());
+    assertEquals(List.of(data), handler.reads);
+    // read by the pipeline, credit is returned
+    verify(stream).consumed(5);
+  }
+
+  @Test
+  public void creditOnRead() {
+    handler.autoRead = false;
+
+    codec.onData(stream, Unpooled.copiedBuffer("hello".getBytes()), false);
+    assertTrue(handler.reads.isEmpty());
+    verify(stream, never()).consumed(5);
+
+    handler.channel.read();
+    assertEquals(1, handler.reads.size());
+    verify(stream).consumed(5);
+  }
+
+  @Test
+  public void inputShutdown() {
+    codec.onData(stream, Unpooled.EMPTY_BUFFER, true);
+
+    assertEquals(List.of(ChannelInputShutdownEvent.INSTANCE), handler.events);
+    // still open for writing
+    assertTrue(handler.channel.isOpen());
+  }
+
+  @Test
+  public void closeAfterReadingReceiveOnlyStream() {
+    when(stream.getStreamType()).thenReturn(StreamType.Receiving);
+
+    codec.onData(stream, Unpooled.copiedBuffer("hello".getBytes()), true);
+
+    assertFalse(handler.channel.isOpen());
+    assertEquals(0, codec.size());
+  }
+
+  @Test
+  public void write() {
+    when(stream.write(any(ByteBuf.class), anyBoolean()))
+        .thenReturn(ImmediateEventExecutor.INSTANCE.newSucceededFuture(null));
+    final Channel channel =
+        codec.newStreamChannel(stream, new ChannelInboundHandlerAdapter()).channel();
+
+    final ByteBuf data = Unpooled.copiedBuffer("hello".getBytes());
+    assertTrue(channel.writeAndFlush(data).isSuccess());
+    verify(stream).write(data, false);
+
+    // finishes the stream
+    channel.close();
+    verify(stream).write(Unpooled.EMPTY_BUFFER, true);
+  }
+
+  @Test
+  public void closeDiscardsUnread() {
+    handler.autoRead = false;
+    codec.onData(stream, Unpooled.copiedBuffer("hello".getBytes()), false);
+
+    handler.channel.close();
+    verify(stream).consumed(5);
+
+    // kept until the stream is finished, late data does not open a new channel
+    assertEquals(1, codec.size());
+    codec.onData(stream, Unpooled.copiedBuffer("world".getBytes()), true);
+    assertTrue(handler.reads.isEmpty());
+    assertEquals(0, codec.size());
+  }
+
+  @Test
+  public void writability() {
+    when(stream.isWritable()).thenReturn(true);
+    codec.onData(stream, Unpooled.EMPTY_BUFFER, false);
+
+    codec.onWritabilityChanged(stream, false);
+    assertFalse(handler.channel.isWritable());
+    assertEquals(List.of(false), handler.writability);
+  }
+
+  @Test
+  public void reset() {
+    handler.autoRead = false;
+    final ByteBuf data = Unpooled.copiedBuffer("hello".getBytes());
+    codec.onData(stream, data, false);
+
+    codec.onReset(stream, 123);
+    assertFalse(handler.channel.isOpen());
+    assertEquals(0, codec.size());
+    // discarded without returning credit, already accounted for by the reset
+    assertEquals(0, data.refCnt());
+    verify(stream, never()).consumed(anyLong());
+  }
+
+  @Test
+  public void closeWithParent() {
+    codec.onData(stream, Unpooled.EMPTY_BUFFER, false);
+
+    parent.close();
+    assertFalse(handler.channel.isOpen());
+    verify(stream).write(eq(Unpooled.EMPTY_BUFFER), eq(true));
+  }
+
+  private static class RecordingHandler extends ChannelInboundHandlerAdapter {
+    private final List<Object> reads = new ArrayList<>();
+    private final List<Object> events = new ArrayList<>();
+    private final List<Boolean> writability = new ArrayList<>();
+    private boolean autoRead = true;
+    private Channel channel;
+
+    @Override
+    public boolean isSharable() {
+      return true;
+    }
+
+    @Override
+    public void handlerAdded(final ChannelHandlerContext ctx) {
+      channel = ctx.channel();
+      channel.config().setAutoRead(autoRead);
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+      reads.add(msg);
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) {
+      events.add(evt);
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext ctx) {
+      writability.add(ctx.channel().isWritable());
+    }
+  }
+}
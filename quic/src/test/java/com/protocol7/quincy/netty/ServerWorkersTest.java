@@ -0,0 +1,65 @@
+package com.protocol7.quincy.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.protocol7.quincy.protocol.ConnectionId;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ServerWorkersTest {
+
+  @Mock private QuicServerHandler handler1;
+  @Mock private QuicServerHandler handler2;
+
+  private final ServerWorkers workers = new ServerWorkers(4);
+
+  @Test
+  public void register() {
+    assertEquals(0, workers.register(handler1));
+    assertEquals(1, workers.register(handler2));
+
+    assertSame(handler1, workers.get(0));
+    assertSame(handler2, workers.get(1));
+    assertNull(workers.get(2));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void registerTooMany() {
+    final ServerWorkers workers = new ServerWorkers(1);
+    workers.register(handler1);
+    workers.register(handler2);
+  }
+
+  @Test
+  public void owner() {
+    for (int worker = 0; worker < workers.size(); worker++) {
+      final ConnectionId connId = workers.newConnectionId(worker);
+
+      assertEquals(ConnectionId.LENGTH, connId.getLength());
+      assertEquals(worker, workers.owner(connId));
+    }
+  }
+
+  @Test
+  public void ownerOfClientChosenConnectionId() {
+    final byte[] id = new byte[ConnectionId.LENGTH];
+    id[0] = (byte) 0xFF;
+
+    assertEquals(255 % 4, workers.owner(new ConnectionId(id)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidWorker() {
+    workers.newConnectionId(4);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tooManyWorkers() {
+    new ServerWorkers(257);
+  }
+}
@@ -24,6 +24,17 @@ public class StreamFrameTest {
     assertEquals(frame, parsed);
   }
 
+  @Test
+  public void parseSlicesData() {
+    final ByteBuf bb = Unpooled.copiedBuffer(Hex.dehex("10c67daf169411a94e48656c6c6f"));
+
+    final StreamFrame frame = StreamFrame.parse(bb);
+
+    // shares the memory of the parsed buffer rather than copying it
+    assertSame(bb, frame.content().unwrap());
+    assertEquals(DATA.length, frame.getLength());
+  }
+
   @Test
   public void parse() {
     final ByteBuf bb = Unpooled.copiedBuffer(Hex.dehex("10c67daf169411a94e48656c6c6f"));
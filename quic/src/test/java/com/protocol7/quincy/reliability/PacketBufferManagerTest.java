@@ -7,8 +7,10 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
+import com.protocol7.quincy.FrameDispatcher;
 import com.protocol7.quincy.FrameSender;
 import com.protocol7.quincy.PipelineContext;
+import com.protocol7.quincy.memory.MemoryBudget;
 import com.protocol7.quincy.protocol.Payload;
 import com.protocol7.quincy.protocol.Version;
 import com.protocol7.quincy.protocol.frames.AckBlock;
@@ -16,6 +18,7 @@ import com.protocol7.quincy.protocol.frames.AckFrame;
 import com.protocol7.quincy.protocol.frames.Frame;
 import com.protocol7.quincy.protocol.frames.PaddingFrame;
 import com.protocol7.quincy.protocol.frames.PingFrame;
+import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.protocol.packets.HandshakePacket;
 import com.protocol7.quincy.protocol.packets.InitialPacket;
 import com.protocol7.quincy.protocol.packets.Packet;
@@ -24,6 +27,8 @@ import com.protocol7.quincy.utils.Ticker;
 import io.netty.util.Timeout;
 import io.netty.util.Timer;
 import io.netty.util.TimerTask;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import org.junit.Before;
@@ -43,6 +48,7 @@ public class PacketBufferManagerTest {
   @Mock private Ticker ticker;
   @Mock private Timeout timeout;
 
+  private final RttEstimator rttEstimator = new RttEstimator();
   private PacketBufferManager buffer;
   private TimerTask resendTask;
 
@@ -59,7 +65,15 @@ public class PacketBufferManagerTest {
 
     when(timeout.timer()).thenReturn(timer);
 
-    buffer = new PacketBufferManager(ackDelay, frameSender, timer, ticker);
+    buffer =
+        new PacketBufferManager(
+            ackDelay,
+            frameSender,
+            timer,
+            ticker,
+            ImmediateEventExecutor.INSTANCE,
+            rttEstimator,
+            MemoryBudget.unlimited());
 
     resendTask = taskCaptor.getValue();
   }
@@ -68,7 +82,7 @@ public class PacketBufferManagerTest {
   public void dontAckOnlyAcks() {
     final Packet ackPacket = packet(1, new AckFrame(123, new AckBlock(7, 8)));
 
-    buffer.onReceivePacket(ackPacket, ctx);
+    receive(ackPacket);
 
     // should not send an ack
     verify(ctx, never()).send(any(Frame.class));
@@ -76,7 +90,7 @@ public class PacketBufferManagerTest {
 
     final Packet pingPacket = packet(2, PingFrame.INSTANCE);
 
-    buffer.onReceivePacket(pingPacket, ctx);
+    receive(pingPacket);
 
     final AckFrame actual = (AckFrame) verifySent();
 
@@ -87,13 +101,43 @@ public class PacketBufferManagerTest {
   public void ackOnPing() {
     final Packet pingPacket = packet(2, PingFrame.INSTANCE);
 
-    buffer.onReceivePacket(pingPacket, ctx);
+    receive(pingPacket);
 
     final AckFrame actual = (AckFrame) verifySent();
     assertEquals(67, actual.getAckDelay());
     assertEquals(new AckBlock(2, 2), actual.getBlocks().get(0));
   }
 
+  @Test
+  public void ackOnceForBatch() {
+    buffer.beginBatch();
+
+    receive(packet(2, PingFrame.INSTANCE));
+    receive(packet(3, PingFrame.INSTANCE));
+
+    verify(ctx, never()).send(any(Frame.class));
+
+    buffer.endBatch(frameSender);
+
+    final ArgumentCaptor<Frame> captor = ArgumentCaptor.forClass(Frame.class);
+    verify(frameSender).send(captor.capture());
+    assertEquals(new AckBlock(2, 3), ((AckFrame) captor.getValue()).getBlocks().get(0));
+  }
+
+  @Test
+  public void batchAcksPiggybacked() {
+    buffer.beginBatch();
+
+    receive(packet(2, PingFrame.INSTANCE));
+
+    // acks added to an outgoing packet before the batch ends
+    buffer.beforeSendPacket(packet(5, PingFrame.INSTANCE), ctx);
+
+    buffer.endBatch(frameSender);
+
+    verify(frameSender, never()).send(any(Frame.class));
+  }
+
   @Test
   public void ackInitial() {
     buffer.beforeSendPacket(ip(2, new PaddingFrame(1)), ctx);
@@ -102,7 +146,7 @@ public class PacketBufferManagerTest {
     assertTrue(buffer.getHandshakeBuffer().isEmpty());
     assertFalse(buffer.getInitialBuffer().isEmpty());
 
-    buffer.onReceivePacket(ip(3, new AckFrame(123, new AckBlock(2, 2))), ctx);
+    receive(ip(3, new AckFrame(123, new AckBlock(2, 2))));
 
     assertTrue(buffer.getInitialBuffer().isEmpty());
   }
@@ -112,7 +156,7 @@ public class PacketBufferManagerTest {
     buffer.beforeSendPacket(ip(2, new PaddingFrame(1)), ctx);
 
     // handshake packet implicitly acks any initial packets
-    buffer.onReceivePacket(hp(3, new PaddingFrame(1)), ctx);
+    receive(hp(3, new PaddingFrame(1)));
 
     assertTrue(buffer.getInitialBuffer().isEmpty());
   }
@@ -121,7 +165,7 @@ public class PacketBufferManagerTest {
   public void ackInitialWithInvalidPacketType() {
     buffer.beforeSendPacket(ip(2, new PaddingFrame(1)), ctx);
 
-    buffer.onReceivePacket(packet(3, new AckFrame(123, new AckBlock(2, 2))), ctx);
+    receive(packet(3, new AckFrame(123, new AckBlock(2, 2))));
 
     // must not be acked
     assertFalse(buffer.getInitialBuffer().isEmpty());
@@ -135,7 +179,7 @@ public class PacketBufferManagerTest {
     assertFalse(buffer.getHandshakeBuffer().isEmpty());
     assertTrue(buffer.getInitialBuffer().isEmpty());
 
-    buffer.onReceivePacket(hp(3, new AckFrame(123, new AckBlock(2, 2))), ctx);
+    receive(hp(3, new AckFrame(123, new AckBlock(2, 2))));
 
     assertTrue(buffer.getHandshakeBuffer().isEmpty());
   }
@@ -144,7 +188,7 @@ public class PacketBufferManagerTest {
   public void ackHandshakeWithShort() {
     buffer.beforeSendPacket(hp(2, new PaddingFrame(1)), ctx);
 
-    buffer.onReceivePacket(packet(3, PingFrame.INSTANCE), ctx);
+    receive(packet(3, PingFrame.INSTANCE));
 
     assertTrue(buffer.getHandshakeBuffer().isEmpty());
   }
@@ -153,7 +197,7 @@ public class PacketBufferManagerTest {
   public void ackHandshakeWithInvalidPacketType() {
     buffer.beforeSendPacket(hp(2, new PaddingFrame(1)), ctx);
 
-    buffer.onReceivePacket(ip(3, new AckFrame(123, new AckBlock(2, 2))), ctx);
+    receive(ip(3, new AckFrame(123, new AckBlock(2, 2))));
 
     // must not be acked
     assertFalse(buffer.getHandshakeBuffer().isEmpty());
@@ -167,7 +211,7 @@ public class PacketBufferManagerTest {
     assertTrue(buffer.getHandshakeBuffer().isEmpty());
     assertTrue(buffer.getInitialBuffer().isEmpty());
 
-    buffer.onReceivePacket(packet(3, new AckFrame(123, new AckBlock(2, 2))), ctx);
+    receive(packet(3, new AckFrame(123, new AckBlock(2, 2))));
 
     assertTrue(buffer.getBuffer().isEmpty());
   }
@@ -176,12 +220,28 @@ public class PacketBufferManagerTest {
   public void ackPacketWithInvalidPacketType() {
     buffer.beforeSendPacket(packet(2, PingFrame.INSTANCE), ctx);
 
-    buffer.onReceivePacket(hp(3, new AckFrame(123, new AckBlock(2, 2))), ctx);
+    receive(hp(3, new AckFrame(123, new AckBlock(2, 2))));
 
     // must not be acked
     assertFalse(buffer.getBuffer().isEmpty());
   }
 
+  @Test
+  public void sampleRtt() {
+    buffer.beforeSendPacket(packet(2, PingFrame.INSTANCE), ctx);
+
+    when(ticker.nanoTime()).thenReturn(2000_0000_0000L + 50_000_000L);
+    receive(packet(3, new AckFrame(123, new AckBlock(2, 2))));
+
+    assertTrue(rttEstimator.hasSample());
+    assertEquals(50_000_000L, rttEstimator.getSmoothedRtt());
+
+    // already acked, no new sample
+    receive(packet(4, new AckFrame(123, new AckBlock(2, 2))));
+
+    assertEquals(25_000_000L, rttEstimator.getRttVar());
+  }
+
   @Test
   public void send() {
     final Packet pingPacket = packet(2, PingFrame.INSTANCE);
@@ -244,4 +304,9 @@ public class PacketBufferManagerTest {
   private void assertBufferEmpty() {
     assertTrue(buffer.getBuffer().isEmpty());
   }
+
+  private void receive(final Packet packet) {
+    buffer.onReceivePacket(packet, ctx);
+    new FrameDispatcher(List.of(buffer)).dispatch((FullPacket) packet, ctx);
+  }
 }
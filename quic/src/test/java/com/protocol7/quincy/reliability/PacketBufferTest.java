@@ -5,11 +5,16 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
+import com.protocol7.quincy.memory.MemoryBudget;
+import com.protocol7.quincy.memory.MemoryBudget.Subsystem;
 import com.protocol7.quincy.protocol.frames.Frame;
 import com.protocol7.quincy.protocol.frames.MaxDataFrame;
+import com.protocol7.quincy.protocol.frames.StreamFrame;
 import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.protocol.packets.ShortPacket;
 import com.protocol7.quincy.utils.Ticker;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
@@ -78,6 +83,52 @@ public class PacketBufferTest {
     assertTrue(buffer.drainSince(10, TimeUnit.NANOSECONDS).isEmpty());
   }
 
+  @Test
+  public void removeReleasesStreamData() {
+    final ByteBuf data = Unpooled.wrappedBuffer(new byte[] {1, 2, 3});
+    buffer.put(
+        ShortPacket.create(false, Optional.empty(), pn1, new StreamFrame(0, 0, false, data)));
+
+    buffer.remove(pn1);
+
+    assertEquals(0, data.refCnt());
+  }
+
+  @Test
+  public void drainDoesNotReleaseStreamData() {
+    final ByteBuf data = Unpooled.wrappedBuffer(new byte[] {1, 2, 3});
+    buffer.put(
+        ShortPacket.create(false, Optional.empty(), pn1, new StreamFrame(0, 0, false, data)));
+
+    when(ticker.nanoTime()).thenReturn(100L);
+    buffer.drainSince(10, TimeUnit.NANOSECONDS);
+
+    // owned by the resent frame
+    assertEquals(1, data.refCnt());
+  }
+
+  @Test
+  public void accountStreamData() {
+    final MemoryBudget budget = new MemoryBudget(1000);
+    final PacketBuffer buffer = new PacketBuffer(ticker, budget);
+
+    buffer.put(sp(pn1, 3));
+    buffer.put(sp(pn2, 5));
+    assertEquals(8, budget.getUsed(Subsystem.RetransmitBuffers));
+
+    buffer.remove(pn1);
+    assertEquals(5, budget.getUsed(Subsystem.RetransmitBuffers));
+
+    when(ticker.nanoTime()).thenReturn(100L);
+    buffer.drainSince(10, TimeUnit.NANOSECONDS);
+    assertEquals(0, budget.getUsed(Subsystem.RetransmitBuffers));
+  }
+
+  private FullPacket sp(final long pn, final int length) {
+    return ShortPacket.create(
+        false, Optional.empty(), pn, new StreamFrame(0, 0, false, new byte[length]));
+  }
+
   private FullPacket p(final long pn) {
     return ShortPacket.create(false, Optional.empty(), pn, f(pn));
   }
@@ -0,0 +1,53 @@
+package com.protocol7.quincy.reliability;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RttEstimatorTest {
+
+  private final RttEstimator estimator = new RttEstimator();
+
+  @Test
+  public void firstSample() {
+    assertFalse(estimator.hasSample());
+    assertEquals(0, estimator.getSmoothedRtt());
+
+    estimator.onSample(100, 10);
+
+    assertTrue(estimator.hasSample());
+    assertEquals(100, estimator.getSmoothedRtt());
+    assertEquals(100, estimator.getMinRtt());
+    assertEquals(50, estimator.getRttVar());
+  }
+
+  @Test
+  public void smooth() {
+    estimator.onSample(100, 0);
+    estimator.onSample(180, 0);
+
+    assertEquals(110, estimator.getSmoothedRtt());
+    assertEquals(57, estimator.getRttVar());
+    assertEquals(100, estimator.getMinRtt());
+    assertEquals(180, estimator.getLatestRtt());
+  }
+
+  @Test
+  public void subtractAckDelay() {
+    estimator.onSample(100, 0);
+    estimator.onSample(180, 80);
+
+    assertEquals(100, estimator.getSmoothedRtt());
+  }
+
+  @Test
+  public void ignoreImplausibleAckDelay() {
+    estimator.onSample(100, 0);
+    estimator.onSample(180, 100);
+
+    // subtracting the delay would go below the min RTT
+    assertEquals(110, estimator.getSmoothedRtt());
+  }
+}
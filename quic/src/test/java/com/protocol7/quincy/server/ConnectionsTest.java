@@ -0,0 +1,169 @@
+package com.protocol7.quincy.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.protocol7.quincy.Configuration;
+import com.protocol7.quincy.TestUtil;
+import com.protocol7.quincy.connection.PacketSender;
+import com.protocol7.quincy.connection.State;
+import com.protocol7.quincy.netty.QuicBuilder;
+import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.frames.PaddingFrame;
+import com.protocol7.quincy.streams.StreamListener;
+import com.protocol7.quincy.tls.KeyUtil;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.net.InetSocketAddress;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConnectionsTest {
+
+  private final InetSocketAddress peerAddress = TestUtil.getTestAddress();
+
+  @Mock private PacketSender packetSender;
+  @Mock private StreamListener listener;
+  @Mock private Timer timer;
+
+  private final Configuration configuration =
+      new QuicBuilder().withMaxConnections(2).configuration();
+  private Connections connections;
+
+  @Before
+  public void setUp() {
+    connections =
+        new Connections(
+            configuration,
+            KeyUtil.getCertsFromCrt("src/test/resources/server.crt"),
+            KeyUtil.getPrivateKey("src/test/resources/server.der"),
+            ConnectionId::random,
+            timer,
+            ImmediateEventExecutor.INSTANCE);
+  }
+
+  @Test
+  public void createAndGet() {
+    final ConnectionId connId = ConnectionId.random();
+
+    assertFalse(connections.get(connId).isPresent());
+
+    final ServerConnection conn = create(connId).get();
+
+    // found by the connection ID issued for it, and by the one chosen by the client
+    final ConnectionId localConnId = conn.getLocalConnectionId().get();
+    assertNotEquals(connId, localConnId);
+    assertSame(conn, connections.get(localConnId).get());
+    assertSame(conn, connections.get(connId).get());
+    assertEquals(1, connections.getLive());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void createExisting() {
+    final ConnectionId connId = ConnectionId.random();
+
+    create(connId);
+    create(connId);
+  }
+
+  @Test
+  public void rejectBeyondMaxConnections() {
+    final ConnectionId connId1 = ConnectionId.random();
+    final ConnectionId connId2 = ConnectionId.random();
+
+    assertTrue(create(connId1).isPresent());
+    assertTrue(create(connId2).isPresent());
+    assertFalse(create(ConnectionId.random()).isPresent());
+
+    // existing connections are still served
+    assertTrue(connections.get(connId1).isPresent());
+    assertEquals(2, connections.getLive());
+  }
+
+  @Test
+  public void removeOnClose() {
+    final ConnectionId connId = ConnectionId.random();
+
+    final ServerConnection conn = create(connId).get();
+    conn.close();
+
+    assertFalse(connections.get(connId).isPresent());
+    assertFalse(connections.get(conn.getLocalConnectionId().get()).isPresent());
+    assertEquals(0, connections.getLive());
+  }
+
+  @Test
+  public void removeOnCloseByPeer() {
+    final ConnectionId connId = ConnectionId.random();
+
+    create(connId).get().closeByPeer();
+
+    assertFalse(connections.get(connId).isPresent());
+
+    // room for a new connection
+    assertTrue(create(ConnectionId.random()).isPresent());
+    assertTrue(create(ConnectionId.random()).isPresent());
+  }
+
+  @Test
+  public void idleTimeoutLeavesOtherConnectionsServed() throws Exception {
+    final ConnectionId idleConnId = ConnectionId.random();
+    final ConnectionId activeConnId = ConnectionId.random();
+    final ServerConnection idle = create(idleConnId).get();
+    final ServerConnection active = create(activeConnId).get();
+
+    final ArgumentCaptor<TimerTask> idleTasks = ArgumentCaptor.forClass(TimerTask.class);
+    final long idleTimeoutMs = TimeUnit.SECONDS.toMillis(configuration.getIdleTimeout());
+    verify(timer, times(2))
+        .newTimeout(idleTasks.capture(), eq(idleTimeoutMs), eq(TimeUnit.MILLISECONDS));
+
+    idleTasks.getAllValues().get(0).run(mock(Timeout.class));
+
+    assertEquals(State.Closed, idle.getState());
+    assertTrue(idle.closeFuture().isSuccess());
+    assertFalse(connections.get(idleConnId).isPresent());
+
+    // the channel shared by all connections is left open
+    verify(packetSender, never()).destroy();
+
+    clearInvocations(packetSender);
+    active.validateAddress();
+    active.send(new PaddingFrame(1));
+
+    verify(packetSender).send(any(), any());
+    assertSame(active, connections.get(activeConnId).get());
+  }
+
+  @Test
+  public void gauges() {
+    create(ConnectionId.random());
+    create(ConnectionId.random());
+
+    assertEquals(2, connections.getLive());
+    assertEquals(2, connections.getHandshaking());
+    assertEquals(0, connections.getDraining());
+  }
+
+  private Optional<ServerConnection> create(final ConnectionId connId) {
+    return connections.create(connId, listener, packetSender, peerAddress);
+  }
+}
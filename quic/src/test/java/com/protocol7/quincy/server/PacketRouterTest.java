@@ -4,27 +4,44 @@ import static java.util.Optional.empty;
 import static java.util.Optional.of;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.protocol7.quincy.TestUtil;
+import com.protocol7.quincy.addressvalidation.AddressValidator;
+import com.protocol7.quincy.addressvalidation.AdmissionPolicy;
+import com.protocol7.quincy.addressvalidation.RetryToken;
 import com.protocol7.quincy.connection.PacketSender;
 import com.protocol7.quincy.protocol.ConnectionId;
+import com.protocol7.quincy.protocol.Payload;
+import com.protocol7.quincy.protocol.TransportError;
 import com.protocol7.quincy.protocol.Version;
+import com.protocol7.quincy.protocol.frames.ConnectionCloseFrame;
+import com.protocol7.quincy.protocol.frames.NewToken;
 import com.protocol7.quincy.protocol.frames.PaddingFrame;
 import com.protocol7.quincy.protocol.packets.InitialPacket;
+import com.protocol7.quincy.protocol.packets.RetryPacket;
+import com.protocol7.quincy.protocol.packets.ShortPacket;
 import com.protocol7.quincy.protocol.packets.VersionNegotiationPacket;
 import com.protocol7.quincy.streams.StreamListener;
+import com.protocol7.quincy.tls.KeyUtil;
 import com.protocol7.quincy.tls.aead.AEAD;
 import com.protocol7.quincy.tls.aead.TestAEAD;
+import com.protocol7.quincy.utils.Ticker;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
 import java.net.InetSocketAddress;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
@@ -42,15 +59,18 @@ public class PacketRouterTest {
   @Mock private StreamListener listener;
   @Mock private PacketSender sender;
   private InetSocketAddress peerAddress = TestUtil.getTestAddress();
+  private final RetryToken retryToken =
+      new RetryToken(KeyUtil.getPrivateKey("src/test/resources/server.der"));
+
+  private final AdmissionPolicy underPressure = new AdmissionPolicy(0, 0, 0, Ticker.systemTicker());
 
   @Before
   public void setUp() {
-    router = new PacketRouter(Version.DRAFT_18, connections, listener);
+    router = router(underPressure);
 
-    when(connections.get(any(), any(), any(), any())).thenReturn(connection);
+    when(connections.get(destConnId)).thenReturn(of(connection));
 
     when(connection.getAEAD(any())).thenReturn(aead);
-    when(connection.getLocalConnectionId()).thenReturn(of(srcConnId));
   }
 
   @Test
@@ -67,11 +87,191 @@ public class PacketRouterTest {
     verify(connection).onPacket(packet);
   }
 
-  @Test(expected = RuntimeException.class)
+  @Test
+  public void routeBatch() {
+    final InitialPacket packet1 =
+        InitialPacket.create(
+            of(destConnId), empty(), 2, Version.DRAFT_18, empty(), new PaddingFrame(1));
+    final InitialPacket packet2 =
+        InitialPacket.create(
+            of(destConnId), empty(), 3, Version.DRAFT_18, empty(), new PaddingFrame(1));
+
+    router.beginBatch();
+    for (final InitialPacket packet : List.of(packet1, packet2)) {
+      final ByteBuf bb = Unpooled.buffer();
+      packet.write(bb, aead);
+      router.route(bb, sender, peerAddress);
+    }
+    router.endBatch();
+
+    final InOrder inOrder = inOrder(connection);
+    inOrder.verify(connection).beginBatch();
+    inOrder.verify(connection).onPacket(packet1);
+    inOrder.verify(connection).onPacket(packet2);
+    inOrder.verify(connection).endBatch();
+  }
+
+  @Test
+  public void retryUnknownConnection() {
+    final ConnectionId newConnId = ConnectionId.random();
+    final InitialPacket packet =
+        InitialPacket.create(
+            of(newConnId), of(destConnId), 2, Version.DRAFT_18, empty(), new PaddingFrame(1));
+
+    final ByteBuf bb = Unpooled.buffer();
+    packet.write(bb, aead);
+
+    router.route(bb, sender, peerAddress);
+
+    final ArgumentCaptor<RetryPacket> captor = ArgumentCaptor.forClass(RetryPacket.class);
+    verify(sender).send(captor.capture(), any());
+
+    final RetryPacket retry = captor.getValue();
+    assertEquals(of(destConnId), retry.getDestinationConnectionId());
+    assertEquals(of(srcConnId), retry.getSourceConnectionId());
+    assertEquals(newConnId, retry.getOriginalConnectionId());
+
+    // no connection state allocated
+    verify(connections, never()).create(any(), any(), any(), any());
+  }
+
+  @Test
+  public void createWithoutRetry() {
+    final AdmissionPolicy policy = new AdmissionPolicy(10, 1000, 10000, Ticker.systemTicker());
+    router = router(policy);
+
+    final ConnectionId newConnId = ConnectionId.random();
+    when(connections.create(newConnId, listener, sender, peerAddress)).thenReturn(of(connection));
+    when(connection.handshakeFuture()).thenReturn(ImmediateEventExecutor.INSTANCE.newPromise());
+
+    final InitialPacket packet =
+        InitialPacket.create(
+            of(newConnId), of(destConnId), 2, Version.DRAFT_18, empty(), new PaddingFrame(1));
+
+    final ByteBuf bb = Unpooled.buffer();
+    packet.write(bb, aead);
+
+    router.route(bb, sender, peerAddress);
+
+    verify(connection).onPacket(any(InitialPacket.class));
+    verify(connection, never()).validateAddress();
+    verify(connection).onReceived(bb.writerIndex());
+    verify(sender, never()).send(any(), any());
+    assertEquals(1, policy.getHandshakes());
+  }
+
+  @Test
+  public void createValidatedConnection() {
+    final ConnectionId newConnId = ConnectionId.random();
+    when(connections.create(newConnId, listener, sender, peerAddress)).thenReturn(of(connection));
+    when(connection.handshakeFuture()).thenReturn(ImmediateEventExecutor.INSTANCE.newPromise());
+
+    final InitialPacket packet =
+        InitialPacket.create(
+            of(newConnId),
+            of(destConnId),
+            2,
+            Version.DRAFT_18,
+            of(retryToken.create(peerAddress.getAddress())),
+            new PaddingFrame(1));
+
+    final ByteBuf bb = Unpooled.buffer();
+    packet.write(bb, aead);
+
+    router.route(bb, sender, peerAddress);
+
+    final ArgumentCaptor<InitialPacket> captor = ArgumentCaptor.forClass(InitialPacket.class);
+    verify(connection).onPacket(captor.capture());
+    assertEquals(packet.getPacketNumber(), captor.getValue().getPacketNumber());
+    verify(connection).validateAddress();
+    verify(connection).onReceived(bb.writerIndex());
+    verify(sender, never()).send(any(), any());
+  }
+
+  @Test
+  public void newTokenAfterHandshake() {
+    final ConnectionId newConnId = ConnectionId.random();
+    final Promise<Void> handshake = ImmediateEventExecutor.INSTANCE.newPromise();
+    when(connections.create(newConnId, listener, sender, peerAddress)).thenReturn(of(connection));
+    when(connection.handshakeFuture()).thenReturn(handshake);
+
+    final InitialPacket packet =
+        InitialPacket.create(
+            of(newConnId),
+            of(destConnId),
+            2,
+            Version.DRAFT_18,
+            of(retryToken.create(peerAddress.getAddress())),
+            new PaddingFrame(1));
+
+    final ByteBuf bb = Unpooled.buffer();
+    packet.write(bb, aead);
+
+    router.route(bb, sender, peerAddress);
+
+    verify(connection, never()).send(any(NewToken.class));
+
+    handshake.setSuccess(null);
+
+    verify(connection).send(any(NewToken.class));
+  }
+
+  @Test
+  public void dropUnknownShortPacket() {
+    final ShortPacket packet =
+        new ShortPacket(false, of(ConnectionId.random()), 2, new Payload(new PaddingFrame(1)));
+
+    final ByteBuf bb = Unpooled.buffer();
+    packet.write(bb, aead);
+
+    router.route(bb, sender, peerAddress);
+
+    verify(sender, never()).send(any(), any());
+    verify(connections, never()).create(any(), any(), any(), any());
+  }
+
+  @Test
+  public void connectionLimitReached() {
+    final ConnectionId newConnId = ConnectionId.random();
+    when(connections.create(any(), any(), any(), any())).thenReturn(empty());
+
+    final InitialPacket packet =
+        InitialPacket.create(
+            of(newConnId),
+            of(destConnId),
+            2,
+            Version.DRAFT_18,
+            of(retryToken.create(peerAddress.getAddress())),
+            new PaddingFrame(1));
+
+    final ByteBuf bb = Unpooled.buffer();
+    packet.write(bb, aead);
+
+    router.route(bb, sender, peerAddress);
+
+    verify(connection, never()).onPacket(any());
+
+    final ArgumentCaptor<InitialPacket> captor = ArgumentCaptor.forClass(InitialPacket.class);
+    verify(sender).send(captor.capture(), any());
+
+    final InitialPacket refused = captor.getValue();
+    assertEquals(destConnId, refused.getDestinationConnectionId().get());
+    assertEquals(newConnId, refused.getSourceConnectionId().get());
+
+    final ConnectionCloseFrame close =
+        (ConnectionCloseFrame) refused.getPayload().getFrames().get(0);
+    assertEquals(TransportError.SERVER_BUSY.getValue(), close.getErrorCode());
+  }
+
+  @Test
   public void invalidPacket() {
     final ByteBuf bb = Unpooled.wrappedBuffer("this is not a packet".getBytes());
 
     router.route(bb, sender, peerAddress);
+
+    // dropped without allocating any connection state
+    verify(sender, never()).send(any(), any());
+    verify(connections, never()).create(any(), any(), any(), any());
   }
 
   @Test
@@ -92,7 +292,16 @@ public class PacketRouterTest {
     final VersionNegotiationPacket verNeg = captor.getValue();
 
     assertEquals(destConnId, verNeg.getDestinationConnectionId().get());
-    assertEquals(srcConnId, verNeg.getSourceConnectionId().get());
+    assertEquals(destConnId, verNeg.getSourceConnectionId().get());
     assertEquals(List.of(Version.DRAFT_18), verNeg.getSupportedVersions());
   }
+
+  private PacketRouter router(final AdmissionPolicy admissionPolicy) {
+    return new PacketRouter(
+        Version.DRAFT_18,
+        connections,
+        new AddressValidator(retryToken, 10, retryToken, 10, TimeUnit.SECONDS, () -> srcConnId),
+        admissionPolicy,
+        listener);
+  }
 }
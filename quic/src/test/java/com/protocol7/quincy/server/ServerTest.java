@@ -15,6 +15,7 @@ import com.protocol7.quincy.netty.QuicBuilder;
 import com.protocol7.quincy.protocol.*;
 import com.protocol7.quincy.protocol.frames.*;
 import com.protocol7.quincy.protocol.packets.*;
+import com.protocol7.quincy.reliability.RttEstimator;
 import com.protocol7.quincy.streams.StreamListener;
 import com.protocol7.quincy.tls.ClientTlsSession;
 import com.protocol7.quincy.tls.ClientTlsSession.CertificateInvalidException;
@@ -22,8 +23,10 @@ import com.protocol7.quincy.tls.ClientTlsSession.HandshakeResult;
 import com.protocol7.quincy.tls.KeyUtil;
 import com.protocol7.quincy.tls.NoopCertificateValidator;
 import com.protocol7.quincy.tls.aead.InitialAEAD;
+import io.netty.buffer.Unpooled;
 import io.netty.util.Timer;
 import io.netty.util.concurrent.DefaultEventExecutor;
+import io.netty.util.concurrent.ImmediateEventExecutor;
 import io.netty.util.concurrent.SucceededFuture;
 import java.security.PrivateKey;
 import java.util.List;
@@ -70,13 +73,16 @@ public class ServerTest {
         new ServerConnection(
             new QuicBuilder().configuration(),
             srcConnectionId,
+            destConnectionId,
             streamListener,
             packetSender,
             certificates,
             privateKey,
             flowControlHandler,
+            new RttEstimator(),
             TestUtil.getTestAddress(),
-            scheduler);
+            scheduler,
+            ImmediateEventExecutor.INSTANCE);
   }
 
   @Test
@@ -84,18 +90,12 @@ public class ServerTest {
     assertEquals(State.Started, connection.getState());
     final byte[] ch = clientTlsSession.startHandshake();
 
-    connection.onPacket(initialPacket(destConnectionId, empty(), new CryptoFrame(0, ch)));
+    // address validation is done before the connection is created, the router credits the padded
+    // datagram towards the amplification limit
+    connection.onReceived(1200);
+    connection.onPacket(initialPacket(destConnectionId2, empty(), new CryptoFrame(0, ch)));
 
-    final RetryPacket retry = (RetryPacket) captureSentPacket(1);
-    assertTrue(retry.getDestinationConnectionId().isPresent());
-    assertEquals(srcConnectionId, retry.getDestinationConnectionId().get());
-    assertEquals(destConnectionId, retry.getOriginalConnectionId());
-    assertTrue(retry.getRetryToken().length > 0);
-    final byte[] token = retry.getRetryToken();
-
-    connection.onPacket(initialPacket(destConnectionId2, of(token), new CryptoFrame(0, ch)));
-
-    final InitialPacket serverHello = (InitialPacket) captureSentPacket(2);
+    final InitialPacket serverHello = (InitialPacket) captureSentPacket(1);
     assertEquals(srcConnectionId, serverHello.getDestinationConnectionId().get());
 
     assertTrue(serverHello.getSourceConnectionId().isPresent());
@@ -109,7 +109,7 @@ public class ServerTest {
 
     clientTlsSession.handleServerHello(cf.getCryptoData());
 
-    final HandshakePacket handshake = (HandshakePacket) captureSentPacket(3);
+    final HandshakePacket handshake = (HandshakePacket) captureSentPacket(2);
     assertEquals(srcConnectionId, handshake.getDestinationConnectionId().get());
     assertEquals(newSourceConnectionId, handshake.getSourceConnectionId().get());
     assertEquals(2, handshake.getPacketNumber());
@@ -123,13 +123,37 @@ public class ServerTest {
     assertEquals(State.Ready, connection.getState());
   }
 
+  @Test
+  public void amplificationLimit() {
+    final byte[] ch = clientTlsSession.startHandshake();
+
+    connection.onReceived(100);
+    connection.onPacket(initialPacket(destConnectionId2, empty(), new CryptoFrame(0, ch)));
+
+    // the handshake packet, carrying the certificate, exceeds three times the bytes received
+    assertTrue(captureSentPacket(1) instanceof InitialPacket);
+    verify(packetSender, times(1)).send(any(), any());
+    assertFalse(connection.isAddressValidated());
+
+    connection.onReceived(1200);
+
+    assertTrue(captureSentPacket(2) instanceof HandshakePacket);
+  }
+
+  @Test
+  public void addressValidatedByHandshakePacket() throws CertificateInvalidException {
+    handshake();
+
+    assertTrue(connection.isAddressValidated());
+  }
+
   @Test
   public void streamFrame() throws CertificateInvalidException {
     handshake();
 
     connection.onPacket(packet(destConnectionId2, new StreamFrame(streamId, 0, false, DATA)));
 
-    verify(streamListener).onData(any(), eq(DATA), eq(false));
+    verify(streamListener).onData(any(), eq(Unpooled.wrappedBuffer(DATA)), eq(false));
   }
 
   @Test
@@ -145,7 +169,7 @@ public class ServerTest {
 
     connection.onPacket(packet(destConnectionId2, PingFrame.INSTANCE));
 
-    assertAck(4, 3, 4, 4);
+    assertAck(3, 3, 3, 3);
   }
 
   private void assertAck(
@@ -0,0 +1,115 @@
+package com.protocol7.quincy.streams;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BlockingStreamListenerTest {
+
+  @Mock Stream stream;
+
+  private final List<Runnable> tasks = new ArrayList<>();
+  private final List<InputStream> inputs = new ArrayList<>();
+  private final BlockingStreamListener listener =
+      new BlockingStreamListener(tasks::add, (s, in, out) -> inputs.add(in));
+
+  @Test
+  public void dispatchStreamOpenedByPeer() throws Exception {
+    listener.onData(stream, Unpooled.copiedBuffer("hello".getBytes()), false);
+    listener.onData(stream, Unpooled.copiedBuffer("world".getBytes()), false);
+
+    // dispatched once to the executor
+    assertEquals(1, tasks.size());
+    assertEquals(1, listener.size());
+    assertTrue(listener.defersConsumption());
+
+    final StreamInputStream in = listener.inputStream(stream);
+    final byte[] b = new byte[10];
+    assertEquals(5, in.read(b, 0, 10));
+    assertEquals(5, in.read(b, 5, 5));
+    assertArrayEquals("helloworld".getBytes(), b);
+  }
+
+  @Test
+  public void locallyOpenedStream() {
+    final StreamInputStream in = listener.inputStream(stream);
+
+    listener.onData(stream, Unpooled.EMPTY_BUFFER, true);
+    assertTrue(tasks.isEmpty());
+    assertEquals(0, listener.size());
+    assertSame(stream, in.stream());
+  }
+
+  @Test
+  public void handlerRunOnExecutor() {
+    when(stream.getStreamType()).thenReturn(StreamType.Receiving);
+    listener.onData(stream, Unpooled.EMPTY_BUFFER, false);
+
+    tasks.get(0).run();
+    assertEquals(1, inputs.size());
+    assertNotNull(inputs.get(0));
+  }
+
+  @Test
+  public void closeLocallyOpenedStream() {
+    final StreamInputStream in = listener.inputStream(stream);
+
+    in.close();
+    assertEquals(0, listener.size());
+
+    // late data is discarded, not handed to the handler
+    final ByteBuf data = Unpooled.copiedBuffer("hello".getBytes());
+    listener.onData(stream, data, false);
+    assertTrue(tasks.isEmpty());
+    assertEquals(0, listener.size());
+    assertEquals(0, data.refCnt());
+    verify(stream).consumed(5);
+  }
+
+  @Test
+  public void handlerReturnsBeforeFinish() {
+    when(stream.getStreamType()).thenReturn(StreamType.Receiving);
+    listener.onData(stream, Unpooled.EMPTY_BUFFER, false);
+    assertEquals(1, listener.size());
+
+    // the input stream is closed as the handler returns
+    tasks.get(0).run();
+    assertEquals(0, listener.size());
+
+    listener.onData(stream, Unpooled.copiedBuffer("hello".getBytes()), false);
+    assertEquals(1, tasks.size());
+    assertEquals(0, listener.size());
+  }
+
+  @Test
+  public void connectionClosed() {
+    final StreamInputStream in = listener.inputStream(stream);
+
+    listener.onConnectionClosed(stream);
+    assertEquals(0, listener.size());
+
+    try {
+      in.read();
+      fail();
+    } catch (final IOException expected) {
+      assertEquals("Connection closed", expected.getMessage());
+    }
+  }
+}
@@ -1,26 +1,42 @@
 package com.protocol7.quincy.streams;
 
 import static java.util.Optional.of;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import com.protocol7.quincy.FrameDispatcher;
 import com.protocol7.quincy.PipelineContext;
 import com.protocol7.quincy.connection.State;
+import com.protocol7.quincy.flowcontrol.FlowControlHandler;
+import com.protocol7.quincy.flowcontrol.MockFlowControlHandler;
+import com.protocol7.quincy.memory.MemoryBudget;
 import com.protocol7.quincy.protocol.ConnectionId;
 import com.protocol7.quincy.protocol.PacketNumber;
 import com.protocol7.quincy.protocol.Payload;
+import com.protocol7.quincy.protocol.TransportError;
 import com.protocol7.quincy.protocol.frames.Frame;
+import com.protocol7.quincy.protocol.frames.FrameType;
+import com.protocol7.quincy.protocol.frames.MaxStreamDataFrame;
 import com.protocol7.quincy.protocol.frames.ResetStreamFrame;
 import com.protocol7.quincy.protocol.frames.StreamFrame;
 import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.protocol.packets.ShortPacket;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
@@ -42,12 +58,21 @@ public class DefaultStreamManagerTest {
     when(ctx.getState()).thenReturn(State.Ready);
     when(packet.getPacketNumber()).thenReturn(456L);
 
-    manager = new DefaultStreamManager(ctx, listener);
+    manager =
+        new DefaultStreamManager(
+            ctx,
+            new MockFlowControlHandler(),
+            listener,
+            1000,
+            ImmediateEventExecutor.INSTANCE,
+            new RoundRobinStreamScheduler(),
+            MemoryBudget.unlimited(),
+            true);
   }
 
   @Test
   public void streamSingleWrite() {
-    final Stream stream = manager.openStream(true, true);
+    final Stream stream = manager.openStream(true);
 
     stream.write(DATA1, true);
     verify(ctx).send(new StreamFrame(stream.getId(), 0, true, DATA1));
@@ -57,7 +82,7 @@ public class DefaultStreamManagerTest {
 
   @Test
   public void streamMultiWrite() {
-    final Stream stream = manager.openStream(true, true);
+    final Stream stream = manager.openStream(true);
 
     stream.write(DATA1, false);
     verify(ctx).send(new StreamFrame(stream.getId(), 0, false, DATA1));
@@ -72,7 +97,7 @@ public class DefaultStreamManagerTest {
 
   @Test
   public void streamReset() {
-    final Stream stream = manager.openStream(true, true);
+    final Stream stream = manager.openStream(true);
 
     stream.write(DATA1, false);
     verify(ctx).send(new StreamFrame(stream.getId(), 0, false, DATA1));
@@ -86,63 +111,166 @@ public class DefaultStreamManagerTest {
 
   @Test
   public void receiveSingle() {
-    final Stream stream = manager.openStream(true, true);
+    final Stream stream = manager.openStream(true);
 
-    manager.onReceivePacket(p(new StreamFrame(stream.getId(), 0, true, DATA1)), ctx);
-    verify(listener).onData(stream, DATA1, true);
+    receive(p(new StreamFrame(stream.getId(), 0, true, DATA1)));
+    verify(listener).onData(stream, Unpooled.wrappedBuffer(DATA1), true);
 
     assertTrue(stream.isFinished());
   }
 
   @Test
   public void receiveMulti() {
-    final Stream stream = manager.openStream(true, true);
+    final Stream stream = manager.openStream(true);
 
-    manager.onReceivePacket(p(new StreamFrame(stream.getId(), 0, false, DATA1)), ctx);
-    verify(listener).onData(stream, DATA1, false);
+    receive(p(new StreamFrame(stream.getId(), 0, false, DATA1)));
+    verify(listener).onData(stream, Unpooled.wrappedBuffer(DATA1), false);
+    verify(listener).defersConsumption();
     verifyNoMoreInteractions(listener);
 
-    manager.onReceivePacket(p(new StreamFrame(stream.getId(), DATA1.length, true, DATA2)), ctx);
-    verify(listener).onData(stream, DATA2, true);
+    receive(p(new StreamFrame(stream.getId(), DATA1.length, true, DATA2)));
+    verify(listener).onData(stream, Unpooled.wrappedBuffer(DATA2), true);
 
     assertTrue(stream.isFinished());
   }
 
   @Test
   public void receiveMultiOutOfOrder() {
-    final Stream stream = manager.openStream(true, true);
+    final Stream stream = manager.openStream(true);
 
-    manager.onReceivePacket(p(new StreamFrame(stream.getId(), DATA1.length, true, DATA2)), ctx);
+    receive(p(new StreamFrame(stream.getId(), DATA1.length, true, DATA2)));
     verifyNoMoreInteractions(listener);
 
-    manager.onReceivePacket(p(new StreamFrame(stream.getId(), 0, false, DATA1)), ctx);
-    verify(listener).onData(stream, DATA1, false);
-    verify(listener).onData(stream, DATA2, true);
+    receive(p(new StreamFrame(stream.getId(), 0, false, DATA1)));
+    // contiguous data is delivered at once
+    verify(listener).onData(stream, Unpooled.wrappedBuffer(DATA1, DATA2), true);
 
     assertTrue(stream.isFinished());
   }
 
+  @Test
+  public void receiveBeyondWindow() {
+    final Stream stream = manager.openStream(true);
+
+    receive(p(new StreamFrame(stream.getId(), 1000, false, DATA1)));
+
+    verify(ctx)
+        .closeConnection(TransportError.FLOW_CONTROL_ERROR, FrameType.STREAM, "Flow control error");
+    verifyNoMoreInteractions(listener);
+  }
+
+  @Test
+  public void receiveBeyondFinalSize() {
+    final Stream stream = manager.openStream(true);
+    // the stream is left open by the gap before the final data
+    receive(p(new StreamFrame(stream.getId(), DATA1.length, true, DATA2)));
+
+    final StreamFrame frame =
+        new StreamFrame(stream.getId(), DATA1.length + DATA2.length, false, DATA1);
+    receive(p(frame));
+
+    verify(ctx)
+        .closeConnection(TransportError.FINAL_OFFSET_ERROR, FrameType.STREAM, "Final size error");
+    assertEquals(1, frame.content().refCnt());
+  }
+
+  @Test
+  public void receiveChangedFinalSize() {
+    final Stream stream = manager.openStream(true);
+    receive(p(new StreamFrame(stream.getId(), DATA1.length, true, DATA2)));
+
+    final StreamFrame frame = new StreamFrame(stream.getId(), 0, true, DATA1);
+    receive(p(frame));
+
+    verify(ctx)
+        .closeConnection(TransportError.FINAL_OFFSET_ERROR, FrameType.STREAM, "Final size error");
+    assertEquals(1, frame.content().refCnt());
+  }
+
+  @Test
+  public void resumeWritesOnCredit() {
+    final FlowControlHandler flowControlHandler = mock(FlowControlHandler.class);
+    manager =
+        new DefaultStreamManager(
+            ctx,
+            flowControlHandler,
+            listener,
+            1000,
+            ImmediateEventExecutor.INSTANCE,
+            new RoundRobinStreamScheduler(),
+            MemoryBudget.unlimited(),
+            true);
+    final Stream stream = manager.openStream(true);
+
+    // blocked
+    final Future<Void> future = stream.write(DATA1, true);
+    assertFalse(future.isDone());
+
+    when(flowControlHandler.sendCredit(eq(stream.getId()), anyLong(), any())).thenReturn(100L);
+    receive(p(new MaxStreamDataFrame(stream.getId(), 2000)));
+
+    assertTrue(future.isSuccess());
+  }
+
   @Test
   public void receiveReset() {
-    final Stream stream = manager.openStream(true, true);
+    final Stream stream = manager.openStream(true);
 
-    manager.onReceivePacket(p(new StreamFrame(stream.getId(), 0, false, DATA1)), ctx);
-    verify(listener).onData(stream, DATA1, false);
+    receive(p(new StreamFrame(stream.getId(), 0, false, DATA1)));
+    verify(listener).onData(stream, Unpooled.wrappedBuffer(DATA1), false);
+    verify(listener).defersConsumption();
     verifyNoMoreInteractions(listener);
 
-    manager.onReceivePacket(p(new ResetStreamFrame(stream.getId(), 123, DATA1.length)), ctx);
+    receive(p(new ResetStreamFrame(stream.getId(), 123, DATA1.length)));
+    verify(listener).onReset(stream, 123);
     verifyNoMoreInteractions(listener);
 
     assertTrue(stream.isFinished());
   }
 
+  @Test
+  public void receiveOnSendOnlyStream() {
+    final Stream stream = manager.openStream(false);
+    assertEquals(StreamType.Sending, stream.getStreamType());
+
+    receive(p(new StreamFrame(stream.getId(), 0, false, DATA1)));
+
+    verify(ctx)
+        .closeConnection(
+            TransportError.STREAM_STATE_ERROR, FrameType.STREAM, "Stream not receivable");
+    verifyNoMoreInteractions(listener);
+  }
+
+  @Test
+  public void receiveOnUnopenedLocalStream() {
+    receive(p(new ResetStreamFrame(4, 123, 0)));
+
+    verify(ctx)
+        .closeConnection(
+            TransportError.STREAM_STATE_ERROR, FrameType.RESET_STREAM, "Stream not receivable");
+  }
+
+  @Test
+  public void receiveUnidirectionalFromPeer() {
+    // server initiated, unidirectional
+    receive(p(new StreamFrame(3, 0, true, DATA1)));
+
+    final ArgumentCaptor<Stream> captor = ArgumentCaptor.forClass(Stream.class);
+    verify(listener).onData(captor.capture(), eq(Unpooled.wrappedBuffer(DATA1)), eq(true));
+    assertEquals(StreamType.Receiving, captor.getValue().getStreamType());
+  }
+
   @Test(expected = IllegalStateException.class)
   public void receiveInInvalidState() {
     when(ctx.getState()).thenReturn(State.BeforeReady);
-    manager.onReceivePacket(p(new StreamFrame(0, 0, false, DATA1)), ctx);
+    receive(p(new StreamFrame(0, 0, false, DATA1)));
   }
 
   private FullPacket p(final Frame... frames) {
     return new ShortPacket(false, of(ConnectionId.random()), PacketNumber.MIN, new Payload(frames));
   }
+
+  private void receive(final FullPacket packet) {
+    new FrameDispatcher(List.of(manager)).dispatch(packet, ctx);
+  }
 }
@@ -0,0 +1,48 @@
+package com.protocol7.quincy.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FlowStreamListenerTest {
+
+  @Mock Stream stream;
+
+  private final List<Flow.Publisher<ByteBuf>> published = new ArrayList<>();
+  private final FlowStreamListener listener =
+      new FlowStreamListener((s, publisher) -> published.add(publisher));
+
+  @Test
+  public void publishStreamOpenedByPeer() {
+    listener.onData(stream, Unpooled.copiedBuffer("hello".getBytes()), false);
+    listener.onData(stream, Unpooled.copiedBuffer("world".getBytes()), false);
+
+    assertEquals(1, published.size());
+    assertSame(listener.publisher(stream), published.get(0));
+    assertTrue(listener.defersConsumption());
+
+    listener.onReset(stream, 123);
+    assertEquals(0, listener.size());
+  }
+
+  @Test
+  public void locallyOpenedStream() {
+    final StreamPublisher publisher = listener.publisher(stream);
+
+    listener.onData(stream, Unpooled.EMPTY_BUFFER, true);
+    assertTrue(published.isEmpty());
+    assertEquals(0, listener.size());
+    assertSame(stream, publisher.stream());
+  }
+}
@@ -0,0 +1,56 @@
+package com.protocol7.quincy.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class OpenedStreamIdsTest {
+
+  private final OpenedStreamIds opened = new OpenedStreamIds();
+
+  @Test
+  public void open() {
+    assertFalse(opened.isOpened(0));
+    assertTrue(opened.open(0));
+    assertTrue(opened.isOpened(0));
+    assertFalse(opened.open(0));
+  }
+
+  @Test
+  public void skippedIds() {
+    assertTrue(opened.open(12));
+
+    // skipped by the peer, still to be opened
+    assertFalse(opened.isOpened(4));
+    assertTrue(opened.open(4));
+    assertTrue(opened.isOpened(4));
+    assertFalse(opened.open(4));
+
+    assertTrue(opened.open(0));
+    assertTrue(opened.open(8));
+    assertFalse(opened.open(8));
+  }
+
+  @Test
+  public void typesAreSeparate() {
+    assertTrue(opened.open(4));
+
+    assertFalse(opened.isOpened(1));
+    assertFalse(opened.isOpened(2));
+    assertTrue(opened.open(2));
+    assertFalse(opened.isOpened(6));
+  }
+
+  @Test
+  public void next() {
+    final OpenedStreamIds ids = new OpenedStreamIds();
+    assertEquals(0, ids.next(true, true));
+    assertEquals(3, ids.next(false, false));
+
+    ids.open(0);
+    assertEquals(4, ids.next(true, true));
+    assertEquals(2, ids.next(true, false));
+  }
+}
@@ -2,6 +2,12 @@ package com.protocol7.quincy.streams;
 
 import static org.junit.Assert.*;
 
+import com.protocol7.quincy.memory.MemoryBudget;
+import com.protocol7.quincy.memory.MemoryBudget.Subsystem;
+import com.protocol7.quincy.streams.ReceivedDataBuffer.Result;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import org.junit.Test;
 
 public class ReceivedDataBufferTest {
@@ -9,31 +15,199 @@ public class ReceivedDataBufferTest {
   public static final byte[] DATA1 = "hello".getBytes();
   public static final byte[] DATA2 = "world".getBytes();
 
-  private final ReceivedDataBuffer buffer = new ReceivedDataBuffer();
+  private final ReceivedDataBuffer buffer = new ReceivedDataBuffer(100);
 
   @Test
   public void inOrder() {
-    buffer.onData(DATA1, 0, false);
+    buffer.onData(bb(DATA1), 0, false);
     assertFalse(buffer.isDone());
-    assertArrayEquals(DATA1, buffer.read().get());
+    assertArrayEquals(DATA1, read());
 
-    buffer.onData(DATA2, DATA1.length, true);
+    buffer.onData(bb(DATA2), DATA1.length, true);
 
-    assertArrayEquals(DATA2, buffer.read().get());
+    assertArrayEquals(DATA2, read());
     assertTrue(buffer.isDone());
   }
 
   @Test
   public void outOfOrder() {
-    buffer.onData(DATA2, DATA1.length, true);
+    buffer.onData(bb(DATA2), DATA1.length, true);
 
     assertFalse(buffer.isDone());
     assertFalse(buffer.read().isPresent());
 
-    buffer.onData(DATA1, 0, false);
+    buffer.onData(bb(DATA1), 0, false);
 
-    assertArrayEquals(DATA1, buffer.read().get());
-    assertArrayEquals(DATA2, buffer.read().get());
+    // contiguous segments are read at once
+    assertArrayEquals("helloworld".getBytes(), read());
     assertTrue(buffer.isDone());
+    assertEquals(0, buffer.getBufferedBytes());
+  }
+
+  @Test
+  public void accountBufferedBytes() {
+    final MemoryBudget budget = new MemoryBudget(1000);
+    final ReceivedDataBuffer buffer = new ReceivedDataBuffer(100, budget);
+
+    buffer.onData(bb(DATA2), DATA1.length, false);
+    assertEquals(DATA2.length, budget.getUsed(Subsystem.ReceiveBuffers));
+
+    buffer.onData(bb(DATA1), 0, false);
+    buffer.read().get().release();
+    assertEquals(0, budget.getUsed(Subsystem.ReceiveBuffers));
+
+    buffer.onData(bb(DATA2), 20, false);
+    buffer.release();
+    assertEquals(0, budget.getUsed(Subsystem.ReceiveBuffers));
+  }
+
+  @Test
+  public void duplicate() {
+    buffer.onData(bb(DATA2), DATA1.length, false);
+    buffer.onData(bb(DATA2), DATA1.length, false);
+
+    assertEquals(DATA2.length, buffer.getBufferedBytes());
+
+    buffer.onData(bb(DATA1), 0, false);
+    assertArrayEquals("helloworld".getBytes(), read());
+
+    // already read
+    buffer.onData(bb(DATA1), 0, false);
+    assertFalse(buffer.hasMore());
+    assertEquals(0, buffer.getBufferedBytes());
+  }
+
+  @Test
+  public void overlapping() {
+    buffer.onData(bb("llo".getBytes()), 2, false);
+    buffer.onData(bb("o wor".getBytes()), 4, false);
+
+    assertEquals(7, buffer.getBufferedBytes());
+
+    // overlaps both the read offset and the buffered data
+    buffer.onData(bb("hello world".getBytes()), 0, true);
+
+    assertArrayEquals("hello world".getBytes(), read());
+    assertTrue(buffer.isDone());
+  }
+
+  @Test
+  public void overlappingRead() {
+    buffer.onData(bb(DATA1), 0, false);
+    assertArrayEquals(DATA1, read());
+
+    buffer.onData(bb("loworld".getBytes()), 3, false);
+
+    assertArrayEquals(DATA2, read());
+  }
+
+  @Test
+  public void beyondWindow() {
+    final ByteBuf data = bb(DATA1);
+
+    assertEquals(Result.ExceedsWindow, buffer.onData(data, 96, false));
+    assertEquals(0, data.refCnt());
+    assertEquals(0, buffer.getBufferedBytes());
+
+    assertEquals(Result.Accepted, buffer.onData(bb(DATA1), 95, false));
+  }
+
+  @Test
+  public void windowMovesWithRead() {
+    buffer.onData(bb(new byte[100]), 0, false);
+    assertEquals(Result.ExceedsWindow, buffer.onData(bb(DATA1), 100, false));
+
+    read();
+
+    assertEquals(Result.Accepted, buffer.onData(bb(DATA1), 100, false));
+  }
+
+  @Test
+  public void emptyFinish() {
+    buffer.onData(bb(DATA1), 0, false);
+    read();
+
+    buffer.onData(bb(new byte[0]), DATA1.length, true);
+
+    assertFalse(buffer.hasMore());
+    assertTrue(buffer.isDone());
+  }
+
+  @Test
+  public void beyondFinalOffset() {
+    buffer.onData(bb(DATA1), 0, true);
+
+    final ByteBuf data = bb(DATA2);
+    assertEquals(Result.InvalidFinalSize, buffer.onData(data, DATA1.length, false));
+    assertEquals(0, data.refCnt());
+    assertEquals(DATA1.length, buffer.getBufferedBytes());
+  }
+
+  @Test
+  public void finalOffsetChanged() {
+    buffer.onData(bb(DATA1), 0, true);
+
+    final ByteBuf data = bb(DATA1);
+    assertEquals(Result.InvalidFinalSize, buffer.onData(data, 1, true));
+    assertEquals(0, data.refCnt());
+    assertEquals(DATA1.length, buffer.getBufferedBytes());
+  }
+
+  @Test
+  public void finalOffsetBelowReceived() {
+    buffer.onData(bb(DATA1), 0, false);
+    buffer.onData(bb(DATA2), DATA1.length, false);
+
+    final ByteBuf data = bb(new byte[1]);
+    assertEquals(Result.InvalidFinalSize, buffer.onData(data, DATA1.length, true));
+    assertEquals(0, data.refCnt());
+    assertFalse(buffer.isDone());
+  }
+
+  @Test
+  public void finalOffsetBelowRead() {
+    buffer.onData(bb(DATA1), 0, false);
+    read();
+
+    final ByteBuf data = bb(new byte[1]);
+    assertEquals(Result.InvalidFinalSize, buffer.onData(data, 1, true));
+    assertEquals(0, data.refCnt());
+  }
+
+  @Test
+  public void releaseConsumed() {
+    final ByteBuf data1 = bb(DATA1);
+    final ByteBuf data2 = bb(DATA2);
+    buffer.onData(data2, DATA1.length, false);
+    buffer.onData(data1, 0, false);
+
+    buffer.read().get().release();
+
+    assertEquals(0, data1.refCnt());
+    assertEquals(0, data2.refCnt());
+  }
+
+  @Test
+  public void release() {
+    final ByteBuf data = bb(DATA2);
+    buffer.onData(data, DATA1.length, false);
+
+    buffer.release();
+
+    assertEquals(0, data.refCnt());
+    assertEquals(0, buffer.getBufferedBytes());
+  }
+
+  private ByteBuf bb(final byte[] data) {
+    return Unpooled.copiedBuffer(data);
+  }
+
+  private byte[] read() {
+    final ByteBuf bb = buffer.read().get();
+    try {
+      return ByteBufUtil.getBytes(bb);
+    } finally {
+      bb.release();
+    }
   }
 }
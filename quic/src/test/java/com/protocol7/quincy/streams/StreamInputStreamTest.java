@@ -0,0 +1,117 @@
+package com.protocol7.quincy.streams;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StreamInputStreamTest {
+
+  @Mock Stream stream;
+
+  private StreamInputStream in() {
+    return new StreamInputStream(stream);
+  }
+
+  @Test
+  public void readConsumesOnceBufferIsRead() throws IOException {
+    final StreamInputStream in = in();
+    final ByteBuf data = Unpooled.copiedBuffer("hello".getBytes());
+    in.onData(data, false);
+
+    assertEquals(5, in.available());
+    final byte[] b = new byte[3];
+    assertEquals(3, in.read(b));
+    assertArrayEquals("hel".getBytes(), b);
+    verify(stream, never()).consumed(anyLong());
+
+    assertEquals(2, in.read(b));
+    verify(stream).consumed(5);
+    assertEquals(0, data.refCnt());
+  }
+
+  @Test
+  public void readUntilFinished() throws IOException {
+    final StreamInputStream in = in();
+    in.onData(Unpooled.copiedBuffer("a".getBytes()), false);
+    in.onData(Unpooled.EMPTY_BUFFER, true);
+
+    assertEquals('a', in.read());
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void readParksUntilData() throws Exception {
+    final StreamInputStream in = in();
+    final CompletableFuture<Integer> read = new CompletableFuture<>();
+    final Thread reader =
+        new Thread(
+            () -> {
+              try {
+                read.complete(in.read());
+              } catch (final IOException e) {
+                read.completeExceptionally(e);
+              }
+            });
+    reader.start();
+
+    in.onData(Unpooled.copiedBuffer("a".getBytes()), false);
+    assertEquals('a', (int) read.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void reset() throws IOException {
+    final StreamInputStream in = in();
+    final ByteBuf data = Unpooled.copiedBuffer("hello".getBytes());
+    in.onData(data, false);
+
+    in.onReset(123);
+    assertEquals(0, data.refCnt());
+    try {
+      in.read();
+      fail();
+    } catch (final IOException e) {
+      assertEquals("Stream reset by peer, error code 123", e.getMessage());
+    }
+
+    // credit already accounted for by the reset
+    in.close();
+    verify(stream, never()).consumed(anyLong());
+  }
+
+  @Test
+  public void closeDiscardsUnread() throws IOException {
+    final StreamInputStream in = in();
+    in.onData(Unpooled.copiedBuffer("hello".getBytes()), false);
+    in.read();
+
+    in.close();
+    verify(stream).consumed(5);
+
+    // late data is discarded, returning its credit
+    final ByteBuf late = Unpooled.copiedBuffer("late".getBytes());
+    in.onData(late, true);
+    assertEquals(0, late.refCnt());
+    verify(stream).consumed(4);
+  }
+
+  @Test(expected = IOException.class)
+  public void readAfterClose() throws IOException {
+    final StreamInputStream in = in();
+    in.close();
+    in.read();
+  }
+}
@@ -0,0 +1,130 @@
+package com.protocol7.quincy.streams;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StreamOutputStreamTest {
+
+  @Mock Stream stream;
+
+  private final List<Promise<Void>> writes = new CopyOnWriteArrayList<>();
+
+  private void mockWrites() {
+    when(stream.write(any(ByteBuf.class), anyBoolean()))
+        .thenAnswer(
+            invocation -> {
+              final Promise<Void> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+              writes.add(promise);
+              return promise;
+            });
+  }
+
+  @Test
+  public void write() throws IOException {
+    mockWrites();
+    final StreamOutputStream out = new StreamOutputStream(stream);
+
+    out.write("hello".getBytes());
+    verify(stream).write(Unpooled.copiedBuffer("hello".getBytes()), false);
+  }
+
+  @Test
+  public void writeParksWhileUnsent() throws Exception {
+    mockWrites();
+    final StreamOutputStream out = new StreamOutputStream(stream, 5);
+    out.write("hello".getBytes());
+
+    final CompletableFuture<Void> written = runAsync(() -> out.write("world".getBytes()));
+    assertBlocked(written);
+
+    writes.get(0).setSuccess(null);
+    written.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void closeFinishesAndParksUntilSent() throws Exception {
+    mockWrites();
+    final StreamOutputStream out = new StreamOutputStream(stream);
+    when(stream.getStreamType()).thenReturn(StreamType.Bidirectional);
+    out.write("hello".getBytes());
+
+    final CompletableFuture<Void> closed = runAsync(out::close);
+    assertBlocked(closed);
+
+    writes.get(0).setSuccess(null);
+    closed.get(5, TimeUnit.SECONDS);
+    verify(stream).write(Unpooled.EMPTY_BUFFER, true);
+  }
+
+  @Test
+  public void failedWrite() throws IOException {
+    mockWrites();
+    final StreamOutputStream out = new StreamOutputStream(stream);
+    out.write("hello".getBytes());
+
+    writes.get(0).setFailure(new IllegalStateException("Stream reset"));
+    try {
+      out.flush();
+      fail();
+    } catch (final IOException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void writeAfterClose() throws IOException {
+    when(stream.getStreamType()).thenReturn(StreamType.Receiving);
+    final StreamOutputStream out = new StreamOutputStream(stream);
+    out.close();
+
+    out.write(1);
+  }
+
+  private interface IORunnable {
+    void run() throws IOException;
+  }
+
+  private static CompletableFuture<Void> runAsync(final IORunnable runnable) {
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    new Thread(
+            () -> {
+              try {
+                runnable.run();
+                future.complete(null);
+              } catch (final IOException e) {
+                future.completeExceptionally(e);
+              }
+            })
+        .start();
+    return future;
+  }
+
+  private static void assertBlocked(final CompletableFuture<Void> future) throws Exception {
+    try {
+      future.get(100, TimeUnit.MILLISECONDS);
+      fail("Expected to be parked");
+    } catch (final TimeoutException expected) {
+      // parked
+    }
+  }
+}
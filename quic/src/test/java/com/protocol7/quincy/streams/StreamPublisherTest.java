@@ -0,0 +1,150 @@
+package com.protocol7.quincy.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StreamPublisherTest {
+
+  @Mock Stream stream;
+
+  private final RecordingSubscriber subscriber = new RecordingSubscriber();
+
+  private StreamPublisher publisher() {
+    final StreamPublisher publisher = new StreamPublisher(stream);
+    publisher.subscribe(subscriber);
+    return publisher;
+  }
+
+  private static ByteBuf data(final String s) {
+    return Unpooled.copiedBuffer(s.getBytes());
+  }
+
+  @Test
+  public void creditOnDemand() {
+    final StreamPublisher publisher = publisher();
+    publisher.onData(data("hello"), false);
+    publisher.onData(data("world!"), false);
+
+    // nothing delivered or credited without demand
+    assertTrue(subscriber.received.isEmpty());
+    verify(stream, never()).consumed(anyLong());
+
+    subscriber.subscription.request(1);
+    assertEquals(1, subscriber.received.size());
+    verify(stream).consumed(5);
+
+    subscriber.subscription.request(5);
+    assertEquals(2, subscriber.received.size());
+    verify(stream).consumed(6);
+  }
+
+  @Test
+  public void complete() {
+    final StreamPublisher publisher = publisher();
+    publisher.onData(data("hello"), true);
+    assertEquals(0, subscriber.completed);
+
+    subscriber.subscription.request(Long.MAX_VALUE);
+    assertEquals(1, subscriber.received.size());
+    assertEquals(1, subscriber.completed);
+  }
+
+  @Test
+  public void subscribeAfterData() {
+    final StreamPublisher publisher = new StreamPublisher(stream);
+    publisher.onData(data("hello"), true);
+
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(1);
+    assertEquals(1, subscriber.received.size());
+    assertEquals(1, subscriber.completed);
+  }
+
+  @Test
+  public void reset() {
+    final StreamPublisher publisher = publisher();
+    final ByteBuf data = data("hello");
+    publisher.onData(data, false);
+
+    publisher.onReset(123);
+    assertTrue(subscriber.error instanceof IOException);
+    assertEquals(0, data.refCnt());
+    // credit already accounted for by the reset
+    verify(stream, never()).consumed(anyLong());
+  }
+
+  @Test
+  public void cancelDiscardsUndelivered() {
+    final StreamPublisher publisher = publisher();
+    publisher.onData(data("hello"), false);
+
+    subscriber.subscription.cancel();
+    verify(stream).consumed(5);
+
+    final ByteBuf late = data("late");
+    publisher.onData(late, true);
+    assertEquals(0, late.refCnt());
+    verify(stream).consumed(4);
+    assertEquals(0, subscriber.completed);
+  }
+
+  @Test
+  public void nonPositiveDemand() {
+    publisher();
+    subscriber.subscription.request(0);
+    assertTrue(subscriber.error instanceof IllegalArgumentException);
+  }
+
+  @Test
+  public void singleSubscriber() {
+    final StreamPublisher publisher = publisher();
+    final RecordingSubscriber other = new RecordingSubscriber();
+
+    publisher.subscribe(other);
+    assertTrue(other.error instanceof IllegalStateException);
+    assertNull(subscriber.error);
+  }
+
+  private static class RecordingSubscriber implements Flow.Subscriber<ByteBuf> {
+    private final List<ByteBuf> received = new ArrayList<>();
+    private Flow.Subscription subscription;
+    private Throwable error;
+    private int completed;
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(final ByteBuf item) {
+      received.add(item);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      completed++;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.protocol7.quincy.streams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StreamSubscriberTest {
+
+  @Mock Stream stream;
+  @Mock Flow.Subscription subscription;
+
+  private final List<Promise<Void>> writes = new ArrayList<>();
+  private StreamSubscriber subscriber;
+
+  @Before
+  public void setUp() {
+    subscriber = new StreamSubscriber(stream, 2, 123);
+    subscriber.onSubscribe(subscription);
+    verify(subscription).request(2);
+  }
+
+  private void mockWrites() {
+    when(stream.write(any(ByteBuf.class), anyBoolean()))
+        .thenAnswer(
+            invocation -> {
+              final Promise<Void> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+              writes.add(promise);
+              return promise;
+            });
+  }
+
+  @Test
+  public void requestOnceSent() {
+    mockWrites();
+    final ByteBuf data = Unpooled.copiedBuffer("hello".getBytes());
+    subscriber.onNext(data);
+    verify(stream).write(data, false);
+
+    writes.get(0).setSuccess(null);
+    verify(subscription).request(1);
+  }
+
+  @Test
+  public void completeFinishesStream() {
+    mockWrites();
+    subscriber.onComplete();
+    verify(stream).write(Unpooled.EMPTY_BUFFER, true);
+    assertFalse(subscriber.completion().isDone());
+
+    writes.get(0).setSuccess(null);
+    assertTrue(subscriber.completion().isDone());
+  }
+
+  @Test
+  public void errorResetsStream() {
+    subscriber.onError(new RuntimeException());
+    verify(stream).reset(123);
+    assertTrue(subscriber.completion().isCompletedExceptionally());
+  }
+
+  @Test
+  public void failedWriteCancels() {
+    mockWrites();
+    subscriber.onNext(Unpooled.copiedBuffer("hello".getBytes()));
+
+    writes.get(0).setFailure(new IllegalStateException("Stream reset"));
+    verify(subscription).cancel();
+    assertTrue(subscriber.completion().isCompletedExceptionally());
+  }
+
+  @Test
+  public void rejectedWriteCancels() {
+    // like DefaultStream, release the data and fail the write
+    when(stream.write(any(ByteBuf.class), anyBoolean()))
+        .thenAnswer(
+            invocation -> {
+              invocation.<ByteBuf>getArgument(0).release();
+              return ImmediateEventExecutor.INSTANCE.newFailedFuture(
+                  new IllegalStateException("Stream finished"));
+            });
+
+    final ByteBuf data = Unpooled.copiedBuffer("hello".getBytes());
+    subscriber.onNext(data);
+
+    assertEquals(0, data.refCnt());
+    verify(subscription).cancel();
+    assertTrue(subscriber.completion().isCompletedExceptionally());
+  }
+}
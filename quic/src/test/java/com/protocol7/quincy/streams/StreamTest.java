@@ -6,11 +6,23 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 import com.protocol7.quincy.PipelineContext;
+import com.protocol7.quincy.flowcontrol.FlowControlHandler;
+import com.protocol7.quincy.flowcontrol.MockFlowControlHandler;
+import com.protocol7.quincy.memory.MemoryBudget;
+import com.protocol7.quincy.memory.MemoryBudget.Subsystem;
 import com.protocol7.quincy.protocol.StreamId;
 import com.protocol7.quincy.protocol.frames.Frame;
 import com.protocol7.quincy.protocol.frames.ResetStreamFrame;
 import com.protocol7.quincy.protocol.frames.StreamFrame;
 import com.protocol7.quincy.protocol.packets.FullPacket;
+import com.protocol7.quincy.utils.Bytes;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.DefaultEventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -23,6 +35,7 @@ public class StreamTest {
   @Mock private PipelineContext ctx;
   @Mock private StreamListener listener;
   @Mock private FullPacket packet;
+  private final FlowControlHandler flowControlHandler = new MockFlowControlHandler();
   private final long streamId = StreamId.random(true, true);
 
   @Before
@@ -35,21 +48,47 @@ public class StreamTest {
 
   @Test
   public void write() {
-    final DefaultStream stream = new DefaultStream(streamId, ctx, listener, Bidirectional);
+    final DefaultStream stream = stream(flowControlHandler);
 
     stream.write(DATA, false);
 
     final StreamFrame frame = (StreamFrame) captureFrame();
 
-    assertEquals(DATA, frame.getData());
+    assertArrayEquals(DATA, frame.getData());
     assertEquals(0, frame.getOffset());
     assertEquals(streamId, frame.getStreamId());
     assertFalse(frame.isFin());
   }
 
+  @Test
+  public void accountPendingWrites() {
+    final MemoryBudget budget = new MemoryBudget(1000);
+    final DefaultStream stream =
+        new DefaultStream(
+            streamId,
+            ctx,
+            flowControlHandler,
+            listener,
+            Bidirectional,
+            1000,
+            ImmediateEventExecutor.INSTANCE,
+            s -> {},
+            budget);
+
+    stream.write(DATA, false);
+    stream.write(DATA, false);
+    assertEquals(2 * DATA.length, budget.getUsed(Subsystem.PendingWrites));
+
+    stream.sendFrame();
+    assertEquals(DATA.length, budget.getUsed(Subsystem.PendingWrites));
+
+    stream.release();
+    assertEquals(0, budget.getUsed(Subsystem.PendingWrites));
+  }
+
   @Test
   public void writeWithOffset() {
-    final DefaultStream stream = new DefaultStream(streamId, ctx, listener, Bidirectional);
+    final DefaultStream stream = stream(flowControlHandler);
 
     stream.write(DATA, false);
     final StreamFrame frame1 = (StreamFrame) captureFrame();
@@ -62,7 +101,7 @@ public class StreamTest {
 
   @Test
   public void reset() {
-    final DefaultStream stream = new DefaultStream(streamId, ctx, listener, Bidirectional);
+    final DefaultStream stream = stream(flowControlHandler);
 
     stream.write(DATA, false);
     captureFrame();
@@ -76,20 +115,238 @@ public class StreamTest {
     assertEquals(DATA.length, frame2.getOffset());
   }
 
-  @Test(expected = IllegalStateException.class)
+  @Test
   public void resetOnClosed() {
-    final DefaultStream stream = new DefaultStream(streamId, ctx, listener, Bidirectional);
+    final DefaultStream stream = stream(flowControlHandler);
 
     stream.reset(123);
-    stream.reset(123);
+    assertTrue(stream.reset(123).cause() instanceof IllegalStateException);
   }
 
-  @Test(expected = IllegalStateException.class)
+  @Test
+  public void resetOffEventLoop() {
+    final DefaultEventExecutor executor = new DefaultEventExecutor();
+    try {
+      final DefaultStream stream =
+          new DefaultStream(
+              streamId,
+              ctx,
+              flowControlHandler,
+              listener,
+              Bidirectional,
+              1000,
+              executor,
+              DefaultStream::flush,
+              MemoryBudget.unlimited());
+
+      // queued to the event loop, without blocking the caller
+      assertTrue(stream.reset(123).awaitUninterruptibly().isSuccess());
+      assertTrue(stream.isFinished());
+      assertTrue(captureFrame() instanceof ResetStreamFrame);
+
+      final Future<Void> resetAgain = stream.reset(123).awaitUninterruptibly();
+      assertTrue(resetAgain.cause() instanceof IllegalStateException);
+    } finally {
+      executor.shutdownGracefully();
+    }
+  }
+
+  @Test
+  public void setPriorityOffEventLoop() throws Exception {
+    final DefaultEventExecutor executor = new DefaultEventExecutor();
+    try {
+      final DefaultStream stream =
+          new DefaultStream(
+              streamId,
+              ctx,
+              flowControlHandler,
+              listener,
+              Bidirectional,
+              1000,
+              executor,
+              DefaultStream::flush,
+              MemoryBudget.unlimited());
+
+      stream.setPriority(StreamPriority.weighted(42));
+
+      // applied on the event loop
+      assertEquals(StreamPriority.weighted(42), executor.submit(stream::getPriority).get());
+    } finally {
+      executor.shutdownGracefully();
+    }
+  }
+
+  @Test
   public void writeOnClosed() {
-    final DefaultStream stream = new DefaultStream(streamId, ctx, listener, Bidirectional);
+    final DefaultStream stream = stream(flowControlHandler);
     stream.write(DATA, true);
     assertTrue(stream.isFinished());
+
+    assertTrue(stream.write(DATA, true).cause() instanceof IllegalStateException);
+  }
+
+  @Test
+  public void writeChunked() {
+    final DefaultStream stream = stream(flowControlHandler);
+
+    final Future<Void> future = stream.write(new byte[2500], true);
+
+    final List<StreamFrame> frames = captureFrames(3);
+    assertEquals(0, frames.get(0).getOffset());
+    assertEquals(DefaultStream.MAX_FRAME_DATA, frames.get(0).getData().length);
+    assertFalse(frames.get(0).isFin());
+    assertEquals(DefaultStream.MAX_FRAME_DATA, frames.get(1).getOffset());
+    assertFalse(frames.get(1).isFin());
+    assertEquals(2 * DefaultStream.MAX_FRAME_DATA, frames.get(2).getOffset());
+    assertEquals(2500 - 2 * DefaultStream.MAX_FRAME_DATA, frames.get(2).getData().length);
+    assertTrue(frames.get(2).isFin());
+
+    assertTrue(future.isSuccess());
+  }
+
+  @Test
+  public void writeBlocked() {
+    final FlowControlHandler blocking = mock(FlowControlHandler.class);
+    when(blocking.sendCredit(eq(streamId), anyLong(), eq(ctx))).thenReturn(3L, 0L);
+    final DefaultStream stream = stream(blocking);
+
+    final Future<Void> future = stream.write(DATA, true);
+
+    final StreamFrame frame1 = (StreamFrame) captureFrame();
+    assertEquals(3, frame1.getData().length);
+    assertFalse(frame1.isFin());
+    assertFalse(future.isDone());
+    assertTrue(stream.hasPendingWrites());
+
+    when(blocking.sendCredit(eq(streamId), anyLong(), eq(ctx))).thenReturn(10L);
+    stream.flush();
+
+    final StreamFrame frame2 = (StreamFrame) captureFrame();
+    assertEquals(3, frame2.getOffset());
+    assertEquals(2, frame2.getData().length);
+    assertTrue(frame2.isFin());
+    assertTrue(future.isSuccess());
+  }
+
+  @Test
+  public void writability() {
+    final FlowControlHandler blocking = mock(FlowControlHandler.class);
+    when(blocking.sendCredit(eq(streamId), anyLong(), eq(ctx))).thenReturn(3L, 0L);
+    final DefaultStream stream = stream(blocking);
+
+    stream.write(DATA, false);
+    assertFalse(stream.isWritable());
+    verify(listener).onWritabilityChanged(stream, false);
+
+    when(blocking.sendCredit(eq(streamId), anyLong(), eq(ctx))).thenReturn(10L);
+    stream.flush();
+    assertTrue(stream.isWritable());
+    verify(listener).onWritabilityChanged(stream, true);
+  }
+
+  @Test
+  public void deferredConsumption() {
+    final FlowControlHandler flowControlHandler = mock(FlowControlHandler.class);
+    when(listener.defersConsumption()).thenReturn(true);
+    final DefaultStream stream = stream(flowControlHandler);
+
+    stream.onData(0, false, DATA);
+    verify(flowControlHandler, never()).onConsumed(anyLong(), anyLong(), any());
+
+    stream.consumed(DATA.length);
+    verify(flowControlHandler).onConsumed(streamId, DATA.length, ctx);
+  }
+
+  @Test
+  public void resetFailsPendingWrites() {
+    final FlowControlHandler blocking = mock(FlowControlHandler.class);
+    final DefaultStream stream = stream(blocking);
+
+    final Future<Void> future = stream.write(DATA, false);
+    assertFalse(future.isDone());
+
+    stream.reset(123);
+
+    assertTrue(future.cause() instanceof IllegalStateException);
+  }
+
+  @Test
+  public void writeAfterQueuedFinish() {
+    final DefaultStream stream = stream(mock(FlowControlHandler.class));
+
+    stream.write(DATA, true);
+    assertTrue(stream.write(DATA, false).cause() instanceof IllegalStateException);
+  }
+
+  @Test
+  public void writeByteBuf() {
+    final DefaultStream stream = stream(flowControlHandler);
+    final ByteBuf data = Unpooled.wrappedBuffer(new byte[2500]);
+
+    stream.write(data, true);
+
+    // each frame holds a slice of the written buffer until acknowledged
+    final List<StreamFrame> frames = captureFrames(3);
+    assertEquals(3, data.refCnt());
+    for (final StreamFrame frame : frames) {
+      assertSame(data, frame.content().unwrap());
+      frame.release();
+    }
+    assertEquals(0, data.refCnt());
+  }
+
+  @Test
+  public void writeComposite() {
+    final DefaultStream stream = stream(flowControlHandler);
+    final CompositeByteBuf data = Unpooled.compositeBuffer();
+    data.addComponents(true, Unpooled.wrappedBuffer(DATA), Unpooled.wrappedBuffer(DATA));
+
+    stream.write(data, false);
+
+    final StreamFrame frame = (StreamFrame) captureFrame();
+    assertSame(data, frame.content().unwrap());
+    assertArrayEquals(Bytes.concat(DATA, DATA), frame.getData());
+  }
+
+  @Test
+  public void writeAfterFinishReleases() {
+    final DefaultStream stream = stream(flowControlHandler);
     stream.write(DATA, true);
+
+    final ByteBuf data = Unpooled.wrappedBuffer(DATA);
+    assertTrue(stream.write(data, false).cause() instanceof IllegalStateException);
+    assertEquals(0, data.refCnt());
+  }
+
+  @Test
+  public void listenerCopiesByteBuf() {
+    final byte[][] received = new byte[1][];
+    final StreamListener byteListener = (stream, data, finished) -> received[0] = data;
+    final ByteBuf data = Unpooled.wrappedBuffer(DATA);
+
+    byteListener.onData(stream(flowControlHandler), data, true);
+
+    assertArrayEquals(DATA, received[0]);
+    assertEquals(0, data.refCnt());
+  }
+
+  private DefaultStream stream(final FlowControlHandler flowControlHandler) {
+    return new DefaultStream(
+        streamId,
+        ctx,
+        flowControlHandler,
+        listener,
+        Bidirectional,
+        1000,
+        ImmediateEventExecutor.INSTANCE,
+        DefaultStream::flush,
+        MemoryBudget.unlimited());
+  }
+
+  private List<StreamFrame> captureFrames(final int count) {
+    final ArgumentCaptor<StreamFrame> captor = ArgumentCaptor.forClass(StreamFrame.class);
+    verify(ctx, times(count)).send(captor.capture());
+    return captor.getAllValues();
   }
 
   private Frame captureFrame() {
@@ -100,17 +357,18 @@ public class StreamTest {
 
   @Test
   public void onData() {
-    final DefaultStream stream = new DefaultStream(streamId, ctx, listener, Bidirectional);
+    final DefaultStream stream = stream(flowControlHandler);
     stream.onData(0, true, DATA);
 
-    verify(listener).onData(stream, DATA, true);
+    verify(listener).onData(stream, Unpooled.wrappedBuffer(DATA), true);
   }
 
   @Test
   public void onReset() {
-    final DefaultStream stream = new DefaultStream(streamId, ctx, listener, Bidirectional);
+    final DefaultStream stream = stream(flowControlHandler);
     stream.onReset(123, 456);
 
     assertTrue(stream.isFinished());
+    verify(listener).onReset(stream, 123);
   }
 }
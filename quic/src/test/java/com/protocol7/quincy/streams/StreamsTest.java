@@ -1,12 +1,26 @@
 package com.protocol7.quincy.streams;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
 
 import com.protocol7.quincy.PipelineContext;
+import com.protocol7.quincy.flowcontrol.FlowControlHandler;
+import com.protocol7.quincy.flowcontrol.MockFlowControlHandler;
+import com.protocol7.quincy.memory.MemoryBudget;
 import com.protocol7.quincy.protocol.StreamId;
+import com.protocol7.quincy.protocol.frames.Frame;
+import com.protocol7.quincy.protocol.frames.StreamFrame;
+import com.protocol7.quincy.protocol.packets.FullPacket;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
@@ -15,20 +29,59 @@ public class StreamsTest {
 
   @Mock PipelineContext ctx;
   @Mock StreamListener listener;
+  @Mock FullPacket packet;
 
   private Streams streams;
 
   @Before
   public void setUp() {
-    this.streams = new Streams(ctx);
+    this.streams =
+        new Streams(
+            ctx,
+            new MockFlowControlHandler(),
+            1000,
+            ImmediateEventExecutor.INSTANCE,
+            new RoundRobinStreamScheduler(),
+            MemoryBudget.unlimited(),
+            false);
   }
 
   @Test
   public void openStream() {
-    final Stream stream = streams.openStream(false, false, listener);
+    final Stream stream = streams.openStream(false, listener);
     assertEquals(3, stream.getId());
   }
 
+  @Test
+  public void separateIdSpaces() {
+    assertEquals(1, streams.openStream(true, listener).getId());
+    assertEquals(5, streams.openStream(true, listener).getId());
+
+    final Stream uni = streams.openStream(false, listener);
+    assertEquals(3, uni.getId());
+    assertEquals(StreamType.Sending, uni.getStreamType());
+  }
+
+  @Test
+  public void canReceive() {
+    // initiated by the peer
+    assertTrue(streams.canReceive(0));
+    assertTrue(streams.canReceive(2));
+
+    // initiated locally, only once opened and bidirectional
+    assertFalse(streams.canReceive(1));
+    streams.openStream(true, listener);
+    assertTrue(streams.canReceive(1));
+    streams.openStream(false, listener);
+    assertFalse(streams.canReceive(3));
+  }
+
+  @Test
+  public void receiveOnlyFromPeer() {
+    assertEquals(StreamType.Receiving, streams.getOrCreate(2, listener).getStreamType());
+    assertEquals(StreamType.Bidirectional, streams.getOrCreate(0, listener).getStreamType());
+  }
+
   @Test
   public void createAndThenGet() {
     final long streamId = StreamId.random(true, true);
@@ -40,4 +93,82 @@ public class StreamsTest {
     final DefaultStream stream3 = streams.getOrCreate(StreamId.random(true, true), listener);
     assertNotSame(stream1, stream3);
   }
+
+  @Test
+  public void interleaveWrites() {
+    final FlowControlHandler flowControlHandler = mock(FlowControlHandler.class);
+    streams =
+        new Streams(
+            ctx,
+            flowControlHandler,
+            1000,
+            ImmediateEventExecutor.INSTANCE,
+            new RoundRobinStreamScheduler(),
+            MemoryBudget.unlimited(),
+            true);
+    when(ctx.send(any(Frame.class))).thenReturn(packet);
+
+    // queued while blocked by flow control
+    final Stream stream1 = streams.openStream(true, listener);
+    stream1.write(new byte[2 * DefaultStream.MAX_FRAME_DATA], true);
+    final Stream stream2 = streams.openStream(true, listener);
+    stream2.write(new byte[2 * DefaultStream.MAX_FRAME_DATA], true);
+
+    when(flowControlHandler.sendCredit(anyLong(), anyLong(), any())).thenReturn(Long.MAX_VALUE);
+    streams.flush();
+
+    final ArgumentCaptor<StreamFrame> captor = ArgumentCaptor.forClass(StreamFrame.class);
+    verify(ctx, times(4)).send(captor.capture());
+    final List<Long> ids =
+        captor.getAllValues().stream().map(StreamFrame::getStreamId).collect(Collectors.toList());
+    // the streams take turns
+    assertEquals(Set.of(stream1.getId(), stream2.getId()), Set.of(ids.get(0), ids.get(1)));
+    assertEquals(ids.subList(0, 2), ids.subList(2, 4));
+  }
+
+  @Test
+  public void closeFinishedStream() {
+    // unidirectional, from the peer
+    final long streamId = 2;
+    final DefaultStream stream = streams.getOrCreate(streamId, listener);
+    assertEquals(1, streams.size());
+
+    stream.onData(0, true, "hello".getBytes());
+    streams.closeIfDone(stream);
+
+    assertEquals(0, streams.size());
+    // late retransmit, not reopening the stream
+    assertNull(streams.getOrCreate(streamId, listener));
+  }
+
+  @Test
+  public void releaseStreamCredit() {
+    final FlowControlHandler flowControlHandler = mock(FlowControlHandler.class);
+    streams =
+        new Streams(
+            ctx,
+            flowControlHandler,
+            1000,
+            ImmediateEventExecutor.INSTANCE,
+            new RoundRobinStreamScheduler(),
+            MemoryBudget.unlimited(),
+            false);
+    final DefaultStream stream = streams.getOrCreate(2, listener);
+
+    stream.onData(0, true, "hello".getBytes());
+    streams.closeIfDone(stream);
+
+    verify(flowControlHandler).onStreamClosed(2, ctx);
+  }
+
+  @Test
+  public void keepOpenStream() {
+    final DefaultStream stream = streams.getOrCreate(0, listener);
+
+    // only the receiving direction is done
+    stream.onData(0, true, "hello".getBytes());
+    streams.closeIfDone(stream);
+
+    assertEquals(1, streams.size());
+  }
 }
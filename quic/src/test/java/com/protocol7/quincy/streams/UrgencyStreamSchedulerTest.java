@@ -0,0 +1,83 @@
+package com.protocol7.quincy.streams;
+
+import static com.protocol7.quincy.streams.StreamType.Bidirectional;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import com.protocol7.quincy.FrameSender;
+import com.protocol7.quincy.flowcontrol.MockFlowControlHandler;
+import com.protocol7.quincy.memory.MemoryBudget;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.Test;
+
+public class UrgencyStreamSchedulerTest {
+
+  private final UrgencyStreamScheduler scheduler = new UrgencyStreamScheduler();
+
+  @Test
+  public void mostUrgentFirst() {
+    final DefaultStream background = stream(0, StreamPriority.of(7, false));
+    final DefaultStream urgent = stream(4, StreamPriority.of(0, false));
+    scheduler.schedule(background);
+    scheduler.schedule(urgent);
+
+    assertSame(urgent, scheduler.poll());
+    assertSame(background, scheduler.poll());
+    assertNull(scheduler.poll());
+  }
+
+  @Test
+  public void sequentialInStreamIdOrder() {
+    final DefaultStream stream1 = stream(4, StreamPriority.DEFAULT);
+    final DefaultStream stream2 = stream(8, StreamPriority.DEFAULT);
+    scheduler.schedule(stream2);
+    scheduler.schedule(stream1);
+
+    // the first stream keeps sending until done
+    assertSame(stream1, scheduler.poll());
+    scheduler.schedule(stream1);
+    assertSame(stream1, scheduler.poll());
+    assertSame(stream2, scheduler.poll());
+  }
+
+  @Test
+  public void incrementalTakeTurns() {
+    final DefaultStream stream1 = stream(4, StreamPriority.of(3, true));
+    final DefaultStream stream2 = stream(8, StreamPriority.of(3, true));
+    scheduler.schedule(stream1);
+    scheduler.schedule(stream2);
+
+    assertSame(stream1, scheduler.poll());
+    scheduler.schedule(stream1);
+    assertSame(stream2, scheduler.poll());
+    assertSame(stream1, scheduler.poll());
+  }
+
+  @Test
+  public void sequentialBeforeIncremental() {
+    final DefaultStream incremental = stream(4, StreamPriority.of(3, true));
+    final DefaultStream sequential = stream(8, StreamPriority.of(3, false));
+    scheduler.schedule(incremental);
+    scheduler.schedule(sequential);
+
+    assertSame(sequential, scheduler.poll());
+    assertSame(incremental, scheduler.poll());
+  }
+
+  private DefaultStream stream(final long id, final StreamPriority priority) {
+    final DefaultStream stream =
+        new DefaultStream(
+            id,
+            mock(FrameSender.class),
+            new MockFlowControlHandler(),
+            mock(StreamListener.class),
+            Bidirectional,
+            1000,
+            ImmediateEventExecutor.INSTANCE,
+            s -> {},
+            MemoryBudget.unlimited());
+    stream.setPriority(priority);
+    return stream;
+  }
+}
@@ -0,0 +1,75 @@
+package com.protocol7.quincy.streams;
+
+import static com.protocol7.quincy.streams.StreamType.Bidirectional;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import com.protocol7.quincy.FrameSender;
+import com.protocol7.quincy.flowcontrol.MockFlowControlHandler;
+import com.protocol7.quincy.memory.MemoryBudget;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.Test;
+
+public class WeightedFairStreamSchedulerTest {
+
+  private final WeightedFairStreamScheduler scheduler = new WeightedFairStreamScheduler();
+
+  @Test
+  public void shareByWeight() {
+    final DefaultStream heavy = stream(0, 32);
+    final DefaultStream light = stream(4, 16);
+    scheduler.schedule(heavy);
+    scheduler.schedule(light);
+
+    int heavyCount = 0;
+    for (int i = 0; i < 30; i++) {
+      final DefaultStream stream = scheduler.poll();
+      if (stream == heavy) {
+        heavyCount++;
+      }
+      scheduler.onSent(stream, 1000);
+      scheduler.schedule(stream);
+    }
+
+    assertEquals(20, heavyCount);
+  }
+
+  @Test
+  public void newStreamDoesNotWait() {
+    final DefaultStream busy = stream(0, 16);
+    scheduler.schedule(busy);
+    for (int i = 0; i < 10; i++) {
+      scheduler.poll();
+      scheduler.onSent(busy, 1000);
+      scheduler.schedule(busy);
+    }
+
+    final DefaultStream idle = stream(4, 16);
+    scheduler.schedule(idle);
+
+    assertSame(idle, scheduler.poll());
+  }
+
+  @Test
+  public void pollEmpty() {
+    assertNull(scheduler.poll());
+  }
+
+  private DefaultStream stream(final long id, final int weight) {
+    final DefaultStream stream =
+        new DefaultStream(
+            id,
+            mock(FrameSender.class),
+            new MockFlowControlHandler(),
+            mock(StreamListener.class),
+            Bidirectional,
+            1000,
+            ImmediateEventExecutor.INSTANCE,
+            s -> {},
+            MemoryBudget.unlimited());
+    stream.setPriority(StreamPriority.weighted(weight));
+    return stream;
+  }
+}
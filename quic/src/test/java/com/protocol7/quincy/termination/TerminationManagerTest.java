@@ -8,6 +8,7 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 
+import com.protocol7.quincy.FrameDispatcher;
 import com.protocol7.quincy.MockTimer;
 import com.protocol7.quincy.PipelineContext;
 import com.protocol7.quincy.connection.InternalConnection;
@@ -19,8 +20,10 @@ import com.protocol7.quincy.protocol.frames.ConnectionCloseFrame;
 import com.protocol7.quincy.protocol.frames.Frame;
 import com.protocol7.quincy.protocol.frames.FrameType;
 import com.protocol7.quincy.protocol.frames.PingFrame;
+import com.protocol7.quincy.protocol.packets.FullPacket;
 import com.protocol7.quincy.protocol.packets.Packet;
 import com.protocol7.quincy.protocol.packets.ShortPacket;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Test;
@@ -46,12 +49,11 @@ public class TerminationManagerTest {
   public void testConnectionCloseFrame() {
     final Packet packet = packet(new ConnectionCloseFrame(456, FrameType.PADDING, "Test"));
 
-    manager.onReceivePacket(packet, ctx);
+    new FrameDispatcher(List.of(manager)).dispatch((FullPacket) packet, ctx);
 
     verify(connection).closeByPeer();
     verify(ctx).setState(State.Closing);
     verify(ctx).setState(State.Closed);
-    verify(ctx).next(packet);
   }
 
   @Test